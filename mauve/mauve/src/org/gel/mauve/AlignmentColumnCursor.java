@@ -0,0 +1,258 @@
+package org.gel.mauve;
+
+import java.util.Arrays;
+
+/**
+ * Walks the columns of one LCB from left to right. Rows are read a block of
+ * columns at a time into reused buffers with newlines already removed, so
+ * memory use is fixed by the block size rather than the LCB length. The
+ * number of residues each row has before the current column is kept as the
+ * cursor moves, which gives sequence coordinates for every column without
+ * querying the column indexes again.
+ * <p>
+ * A cursor starts before the first column; call next() to move onto it.
+ * Analyses that work on whole runs of columns can instead use the current
+ * block through getBlock(), getBlockStart() and getBlockLength().
+ */
+public class AlignmentColumnCursor {
+	/** default number of columns read from each row at a time */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+	XMFAAlignment xmfa;
+
+	int ivI;
+
+	Match iv;
+
+	long lcb_length;
+
+	/** the rows being read, by source index, false for rows that are skipped */
+	boolean [] rows;
+
+	/** newline free characters of the current block, null for skipped rows */
+	byte [][] block;
+
+	/** LCB column of the first column in the block */
+	long block_start;
+
+	/** number of columns in the block */
+	int block_length;
+
+	/** index of the current column within the block */
+	int col = -1;
+
+	/** residues in each row before the current column */
+	long [] seq_offsets;
+
+	/**
+	 * Creates a cursor over every row of an LCB
+	 *
+	 * @param xmfa
+	 *            the alignment
+	 * @param ivI
+	 *            the LCB to walk
+	 */
+	public AlignmentColumnCursor (XMFAAlignment xmfa, int ivI) {
+		this (xmfa, ivI, null, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a cursor over some of the rows of an LCB
+	 *
+	 * @param xmfa
+	 *            the alignment
+	 * @param ivI
+	 *            the LCB to walk
+	 * @param seqs
+	 *            source indexes of the rows to read, or null for all rows.
+	 *            Other rows must not be queried.
+	 * @param block_size
+	 *            the number of columns to read from each row at a time
+	 */
+	public AlignmentColumnCursor (XMFAAlignment xmfa, int ivI, int [] seqs,
+			int block_size) {
+		this.xmfa = xmfa;
+		this.ivI = ivI;
+		iv = xmfa.intervals[ivI];
+		lcb_length = xmfa.getLcbLength (ivI);
+		int seq_count = xmfa.seq_count;
+		rows = new boolean [seq_count];
+		block = new byte [seq_count][];
+		seq_offsets = new long [seq_count];
+		int size = (int) Math.max (1, Math.min (block_size, lcb_length));
+		for (int seqI = 0; seqI < seq_count; seqI++)
+			rows[seqI] = seqs == null;
+		for (int sI = 0; seqs != null && sI < seqs.length; sI++)
+			rows[seqs[sI]] = true;
+		for (int seqI = 0; seqI < seq_count; seqI++)
+			if (rows[seqI])
+				block[seqI] = new byte [size];
+		block_start = 0;
+		block_length = 0;
+	}
+
+	/**
+	 * Moves to the next column
+	 *
+	 * @return false once the cursor has moved past the last column
+	 */
+	public boolean next () {
+		if (col >= 0 && col < block_length) {
+			// count the residues of the column being left
+			for (int seqI = 0; seqI < rows.length; seqI++)
+				if (rows[seqI] && block[seqI][col] != '-')
+					seq_offsets[seqI]++;
+		}
+		col++;
+		if (col < block_length)
+			return true;
+		if (block_start + block_length >= lcb_length) {
+			col = block_length;
+			return false;
+		}
+		readBlock (block_start + block_length);
+		col = 0;
+		return true;
+	}
+
+	/**
+	 * Moves the cursor to just before a column, so that the next call to
+	 * next() moves onto it. The residue counts of each row are looked up in
+	 * the column indexes.
+	 */
+	public void seek (long column) {
+		for (int seqI = 0; seqI < rows.length; seqI++)
+			if (rows[seqI])
+				seq_offsets[seqI] = xmfa.getColumnIndex (ivI, seqI)
+						.columnToSeqPos (column);
+		block_start = column;
+		block_length = 0;
+		col = -1;
+	}
+
+	/** fills the block buffers with the columns starting at left_col */
+	void readBlock (long left_col) {
+		int length = (int) Math.min (block[firstRow ()].length, lcb_length
+				- left_col);
+		int [] seqs = new int [rows.length];
+		int read_count = 0;
+		for (int seqI = 0; seqI < rows.length; seqI++) {
+			if (!rows[seqI])
+				continue;
+			if (xmfa.getColumnIndex (ivI, seqI).sequenceLength () == 0) {
+				// the genome isn't part of this LCB, no need to read
+				Arrays.fill (block[seqI], 0, length, (byte) '-');
+				continue;
+			}
+			seqs[read_count++] = seqI;
+		}
+		// read every row of the block together
+		int [] read_seqs = new int [read_count];
+		System.arraycopy (seqs, 0, read_seqs, 0, read_count);
+		byte [][] raw = xmfa.readRawSequences (ivI, read_seqs, left_col, length);
+		for (int sI = 0; sI < read_count; sI++) {
+			byte [] row = block[read_seqs[sI]];
+			int byte_off = 0;
+			for (int byteI = 0; byteI < raw[sI].length && byte_off < length; byteI++) {
+				if (raw[sI][byteI] == '\r' || raw[sI][byteI] == '\n')
+					continue;
+				row[byte_off++] = raw[sI][byteI];
+			}
+		}
+		block_start = left_col;
+		block_length = length;
+	}
+
+	private int firstRow () {
+		for (int seqI = 0; seqI < rows.length; seqI++)
+			if (rows[seqI])
+				return seqI;
+		throw new IllegalStateException ("The cursor reads no rows");
+	}
+
+	/** returns the LCB column the cursor is on */
+	public long getColumn () {
+		return block_start + col;
+	}
+
+	/** returns the character row seqI has in the current column */
+	public byte getChar (int seqI) {
+		return block[seqI][col];
+	}
+
+	/** returns true if row seqI has a gap in the current column */
+	public boolean isGap (int seqI) {
+		return block[seqI][col] == '-';
+	}
+
+	/**
+	 * returns the number of residues row seqI has before the current column,
+	 * which is the LCB local offset of its residue in this column unless the
+	 * column is a gap
+	 */
+	public long getSeqOffset (int seqI) {
+		return seq_offsets[seqI];
+	}
+
+	/**
+	 * returns the genome coordinate row seqI has in the current column, or 0
+	 * if the row has a gap there
+	 */
+	public long getPosition (int seqI) {
+		if (isGap (seqI))
+			return 0;
+		return toGlobal (seqI, seq_offsets[seqI]);
+	}
+
+	/**
+	 * converts an LCB local sequence offset of a row into a genome coordinate,
+	 * the same way XMFAAlignment.LCBToGlobal does
+	 */
+	public long toGlobal (int seqI, long seq_offset) {
+		long start = iv.getStart (seqI);
+		if (start == 0)
+			return 0;
+		if (iv.getReverse (seqI))
+			return iv.getLength (seqI) - seq_offset;
+		return start + seq_offset;
+	}
+
+	/**
+	 * Fills in the coordinates of the current column for every row read, as
+	 * XMFAAlignment.getColumnCoordinates does. A row with a gap gets the
+	 * coordinate its next residue would have in the LCB's orientation. Unlike
+	 * getColumnCoordinates a row is reported as a gap exactly when it has a
+	 * gap character in the column.
+	 */
+	public void getColumnCoordinates (long [] seq_offsets, boolean [] gap) {
+		for (int seqI = 0; seqI < rows.length; seqI++) {
+			if (!rows[seqI])
+				continue;
+			gap[seqI] = isGap (seqI);
+			seq_offsets[seqI] = toGlobal (seqI, this.seq_offsets[seqI]);
+		}
+	}
+
+	/**
+	 * returns the newline free characters of row seqI in the current block.
+	 * The buffer is reused when the next block is read.
+	 */
+	public byte [] getBlock (int seqI) {
+		return block[seqI];
+	}
+
+	/** returns the LCB column of the first column in the current block */
+	public long getBlockStart () {
+		return block_start;
+	}
+
+	/** returns the number of columns in the current block */
+	public int getBlockLength () {
+		return block_length;
+	}
+
+	/** returns the index of the current column within the current block */
+	public int getBlockColumn () {
+		return col;
+	}
+}
@@ -0,0 +1,433 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A size bounded directory of data derived from alignments, such as
+ * similarity indexes and alignment indexes. Each entry is a subdirectory
+ * named by a content hash of the inputs its data was computed from, so an
+ * entry can never be stale: changed inputs hash to a different entry, and any
+ * number of processes opening the same inputs find the same entry.
+ * <p>
+ * The cache holds at most a byte budget. Whenever data is written the least
+ * recently used entries are deleted until the cache fits. An entry's
+ * directory time stamp records when it was last opened.
+ * <p>
+ * Several processes may share a cache directory. Files are written under a
+ * temporary name and renamed into place, so readers never see a partial
+ * file; as entries are content addressed, racing writers write the same
+ * data. An open entry holds a shared lock on its lock file, and eviction
+ * only deletes entries it can lock exclusively, so no process loses an entry
+ * it is reading. Eviction itself runs under an exclusive lock on the cache.
+ */
+public class AnalysisCache {
+	/** The default budget, used unless mauve.cache.mb is set */
+	public static final long DEFAULT_BUDGET = 2048L * 1024 * 1024;
+
+	/** the lock file within each entry */
+	static final String ENTRY_LOCK = ".lock";
+
+	/** the lock file held while evicting */
+	static final String CACHE_LOCK = "cache.lock";
+
+	/** the most times an entry evicted while being opened is recreated */
+	static final int OPEN_ATTEMPTS = 8;
+
+	private static AnalysisCache default_cache;
+
+	protected File root;
+
+	protected long budget;
+
+	/** entries opened by this JVM and not yet closed, by key */
+	private final HashMap open = new HashMap ();
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	private long evicted_bytes = 0;
+
+	/** serializes trims within this JVM, which may hold the cache lock once */
+	private final Object trim_lock = new Object ();
+
+	/**
+	 * @param root
+	 *            the cache directory, created if needed
+	 * @param budget
+	 *            the most bytes the cache may hold
+	 */
+	public AnalysisCache (File root, long budget) {
+		this.root = root;
+		this.budget = budget;
+		root.mkdirs ();
+	}
+
+	/**
+	 * Returns the cache in the directory named by the mauve.cache.dir system
+	 * property, by default .mauve/cache in the user's home directory, with a
+	 * budget of mauve.cache.mb megabytes
+	 */
+	public static synchronized AnalysisCache getDefault () {
+		if (default_cache == null) {
+			String dir = System.getProperty ("mauve.cache.dir");
+			File root = dir != null ? new File (dir) : new File (System
+					.getProperty ("user.home"), ".mauve" + File.separator
+					+ "cache");
+			Long mb = Long.getLong ("mauve.cache.mb");
+			long budget = mb != null ? mb.longValue () * 1024 * 1024
+					: DEFAULT_BUDGET;
+			default_cache = new AnalysisCache (root, budget);
+		}
+		return default_cache;
+	}
+
+	public static synchronized void setDefault (AnalysisCache cache) {
+		default_cache = cache;
+	}
+
+	/**
+	 * Returns the key of the data computed from some inputs
+	 *
+	 * @param fingerprints
+	 *            a content fingerprint of each input, in a fixed order, null
+	 *            for an absent input
+	 */
+	public static String key (byte [][] fingerprints) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance ("MD5");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new RuntimeException (nsae);
+		}
+		for (int i = 0; i < fingerprints.length; i++) {
+			// the length keeps absent and empty inputs apart
+			int len = fingerprints[i] == null ? -1 : fingerprints[i].length;
+			for (int shift = 24; shift >= 0; shift -= 8)
+				md.update ((byte) (len >>> shift));
+			if (fingerprints[i] != null)
+				md.update (fingerprints[i]);
+		}
+		return ContentFingerprint.toHex (md.digest ());
+	}
+
+	/**
+	 * Opens the entry for a key, creating it if needed. The entry is kept
+	 * from eviction until it is closed.
+	 */
+	public synchronized Entry open (String key) throws IOException {
+		Entry entry = (Entry) open.get (key);
+		if (entry == null) {
+			entry = new Entry (key);
+			open.put (key, entry);
+		}
+		entry.refs++;
+		entry.dir.setLastModified (System.currentTimeMillis ());
+		return entry;
+	}
+
+	/**
+	 * Deletes least recently used entries until the cache fits its budget.
+	 * Entries in use by this or another process are skipped.
+	 */
+	public void trim () throws IOException {
+		trim (budget);
+	}
+
+	/** deletes every entry not in use */
+	public void clear () throws IOException {
+		trim (0);
+	}
+
+	/** evicts entries until the cache holds at most limit bytes */
+	private void trim (long limit) throws IOException {
+		synchronized (trim_lock) {
+			trimLocked (limit);
+		}
+	}
+
+	private void trimLocked (long limit) throws IOException {
+		RandomAccessFile lock_file = new RandomAccessFile (new File (root,
+				CACHE_LOCK), "rw");
+		FileLock cache_lock = lock_file.getChannel ().lock ();
+		try {
+			File [] dirs = entryDirs ();
+			final long [] stamps = new long [dirs.length];
+			long [] sizes = new long [dirs.length];
+			long total = 0;
+			ArrayList order = new ArrayList ();
+			for (int dirI = 0; dirI < dirs.length; dirI++) {
+				stamps[dirI] = dirs[dirI].lastModified ();
+				sizes[dirI] = sizeOf (dirs[dirI]);
+				total += sizes[dirI];
+				order.add (new Integer (dirI));
+			}
+			Collections.sort (order, new Comparator () {
+				public int compare (Object a, Object b) {
+					long sa = stamps[((Integer) a).intValue ()];
+					long sb = stamps[((Integer) b).intValue ()];
+					return sa < sb ? -1 : (sa == sb ? 0 : 1);
+				}
+			});
+			for (int i = 0; i < order.size (); i++) {
+				int dirI = ((Integer) order.get (i)).intValue ();
+				// entries left empty are removed whatever the budget
+				if (total <= limit && sizes[dirI] > 0)
+					continue;
+				if (evict (dirs[dirI])) {
+					total -= sizes[dirI];
+					if (sizes[dirI] > 0) {
+						synchronized (this) {
+							evictions++;
+							evicted_bytes += sizes[dirI];
+						}
+					}
+				}
+			}
+		} finally {
+			cache_lock.release ();
+			lock_file.close ();
+		}
+	}
+
+	/**
+	 * deletes an entry unless it is open, returns true if it was deleted.
+	 * Holds this cache's monitor throughout, so entries are neither opened
+	 * nor closed by this JVM while their lock is tried.
+	 */
+	private synchronized boolean evict (File dir) throws IOException {
+		if (open.containsKey (dir.getName ()))
+			return false;
+		File lock = new File (dir, ENTRY_LOCK);
+		RandomAccessFile raf = new RandomAccessFile (lock, "rw");
+		try {
+			FileLock entry_lock;
+			try {
+				entry_lock = raf.getChannel ().tryLock ();
+			} catch (OverlappingFileLockException ofle) {
+				return false; // open through another cache in this JVM
+			}
+			if (entry_lock == null)
+				return false; // open in another process
+			try {
+				File [] files = dir.listFiles ();
+				for (int fileI = 0; files != null && fileI < files.length; fileI++)
+					if (!files[fileI].getName ().equals (ENTRY_LOCK))
+						files[fileI].delete ();
+				// an opener waiting on the lock sees it gone and starts over
+				lock.delete ();
+			} finally {
+				entry_lock.release ();
+			}
+		} finally {
+			raf.close ();
+		}
+		return dir.delete ();
+	}
+
+	private File [] entryDirs () {
+		File [] dirs = root.listFiles (new java.io.FileFilter () {
+			public boolean accept (File f) {
+				return f.isDirectory ();
+			}
+		});
+		return dirs == null ? new File [0] : dirs;
+	}
+
+	private static long sizeOf (File dir) {
+		long size = 0;
+		File [] files = dir.listFiles ();
+		for (int fileI = 0; files != null && fileI < files.length; fileI++)
+			size += files[fileI].length ();
+		return size;
+	}
+
+	public File getRoot () {
+		return root;
+	}
+
+	public long getBudget () {
+		return budget;
+	}
+
+	/** returns the number of bytes held by every entry */
+	public long getSize () {
+		File [] dirs = entryDirs ();
+		long size = 0;
+		for (int dirI = 0; dirI < dirs.length; dirI++)
+			size += sizeOf (dirs[dirI]);
+		return size;
+	}
+
+	/** returns the number of entries */
+	public int getEntryCount () {
+		return entryDirs ().length;
+	}
+
+	/** returns the number of files looked up and found */
+	public synchronized long getHits () {
+		return hits;
+	}
+
+	/** returns the number of files looked up and not found */
+	public synchronized long getMisses () {
+		return misses;
+	}
+
+	/** returns the number of entries evicted by this process */
+	public synchronized long getEvictions () {
+		return evictions;
+	}
+
+	/** returns the bytes freed by evictions in this process */
+	public synchronized long getEvictedBytes () {
+		return evicted_bytes;
+	}
+
+	/** summarizes the cache and this process's use of it */
+	public String getStatistics () {
+		return "analysis cache " + root + ": " + getEntryCount ()
+				+ " entries, " + getSize () / 1024 + " of " + budget / 1024
+				+ " KB, " + getHits () + " hits, " + getMisses ()
+				+ " misses, " + getEvictions () + " evictions ("
+				+ getEvictedBytes () / 1024 + " KB)";
+	}
+
+	/**
+	 * The directory of one key. Files are looked up with contains(), which
+	 * counts hits and misses, and written through a temporary file given to
+	 * commit().
+	 */
+	public class Entry {
+		protected String key;
+
+		protected File dir;
+
+		private RandomAccessFile lock_file;
+
+		private FileLock lock;
+
+		private int refs = 0;
+
+		/**
+		 * creates the entry's directory and takes a shared lock on it,
+		 * starting over a few times if another process evicts it meanwhile
+		 *
+		 * @throws IOException
+		 *             if the directory can't be created or locked
+		 */
+		Entry (String key) throws IOException {
+			this.key = key;
+			dir = new File (root, key);
+			for (int attempt = 1;; attempt++) {
+				dir.mkdirs ();
+				if (!dir.isDirectory ())
+					throw new IOException ("Unable to create cache entry " + dir);
+				File f = new File (dir, ENTRY_LOCK);
+				try {
+					lock_file = new RandomAccessFile (f, "rw");
+				} catch (IOException ioe) {
+					// evicted between mkdirs and opening the lock
+					if (dir.isDirectory () || attempt == OPEN_ATTEMPTS)
+						throw ioe;
+					continue;
+				}
+				FileChannel channel = lock_file.getChannel ();
+				try {
+					lock = channel.lock (0, Long.MAX_VALUE, true);
+				} catch (OverlappingFileLockException ofle) {
+					lock_file.close ();
+					throw new IOException ("Cache entry " + dir
+							+ " is locked by another cache in this process");
+				} catch (IOException ioe) {
+					lock_file.close ();
+					throw ioe;
+				}
+				if (f.exists ())
+					break;
+				// evicted while we waited for the lock
+				lock.release ();
+				lock_file.close ();
+				if (attempt == OPEN_ATTEMPTS)
+					throw new IOException ("Cache entry " + dir
+							+ " was evicted while being opened");
+			}
+		}
+
+		public String getKey () {
+			return key;
+		}
+
+		public File getDir () {
+			return dir;
+		}
+
+		/** returns the file of the given name, whether or not it exists */
+		public File getFile (String name) {
+			return new File (dir, name);
+		}
+
+		/** returns true if the entry holds a readable file of the given name */
+		public boolean contains (String name) {
+			File f = getFile (name);
+			boolean found = f.isFile () && f.canRead ();
+			synchronized (AnalysisCache.this) {
+				if (found)
+					hits++;
+				else
+					misses++;
+			}
+			return found;
+		}
+
+		/** returns a new temporary file to be given to commit() */
+		public File createTempFile (String name) throws IOException {
+			return File.createTempFile (name, ".tmp", dir);
+		}
+
+		/**
+		 * Renames a finished temporary file into place and trims the cache to
+		 * its budget
+		 */
+		public void commit (File tmp, String name) throws IOException {
+			File f = getFile (name);
+			// some platforms won't rename over an existing file
+			if (!tmp.renameTo (f) && !(f.delete () && tmp.renameTo (f))) {
+				tmp.delete ();
+				throw new IOException ("Unable to write " + f);
+			}
+			written ();
+		}
+
+		/** records that a file has been written into the entry by other means */
+		public void written () throws IOException {
+			dir.setLastModified (System.currentTimeMillis ());
+			trim ();
+		}
+
+		/** releases the entry, which may then be evicted */
+		public void close () throws IOException {
+			synchronized (AnalysisCache.this) {
+				if (--refs > 0)
+					return;
+				open.remove (key);
+				// released under the monitor, so evict() can't overlap it
+				lock.release ();
+				lock_file.close ();
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package org.gel.mauve;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * An XmfaSource that reads a BGZF compressed XMFA file, as written by bgzip.
+ * BGZF is a series of gzip members, each holding at most 64KB of data and
+ * recording its own compressed size, so the block holding any uncompressed
+ * offset can be found without decompressing anything before it. Offsets
+ * given to read() and recorded in the alignment index are uncompressed
+ * offsets; they are translated to BGZF virtual offsets (compressed block
+ * offset in the high 48 bits, offset within the decompressed block in the low
+ * 16) and the block is inflated. A few recently inflated blocks are kept so
+ * that reads of neighbouring columns don't inflate the same block again.
+ * <p>
+ * The block boundaries are found when the source is opened by reading the
+ * header and trailer of each block. Reads may come from any number of
+ * threads.
+ */
+public class BgzfXmfaSource implements XmfaSource {
+	/** The number of inflated blocks kept in memory */
+	static final int CACHED_BLOCKS = 64;
+
+	/** bytes in a BGZF block header before the compressed data */
+	static final int HEADER_SIZE = 18;
+
+	/** bytes in a gzip member trailer, the CRC32 and uncompressed size */
+	static final int TRAILER_SIZE = 8;
+
+	/** the compressed file */
+	protected MappedXmfaSource compressed;
+
+	/** compressed offset of each non-empty block */
+	protected long [] block_coffset;
+
+	/** uncompressed offset of the first byte of each non-empty block */
+	protected long [] block_uoffset;
+
+	/** uncompressed length of each non-empty block */
+	protected int [] block_usize;
+
+	protected long length;
+
+	/** inflated blocks by block index, least recently used first */
+	private final LinkedHashMap inflated = new LinkedHashMap (CACHED_BLOCKS,
+			0.75f, true) {
+		protected boolean removeEldestEntry (Map.Entry eldest) {
+			return size () > CACHED_BLOCKS;
+		}
+	};
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	public BgzfXmfaSource (RandomAccessFile raf) throws IOException {
+		compressed = new MappedXmfaSource (raf);
+		scanBlocks ();
+	}
+
+	/**
+	 * Returns true if a file starts with a BGZF block header, i.e. a gzip
+	 * member carrying the BC extra subfield
+	 */
+	public static boolean isBgzf (RandomAccessFile raf) throws IOException {
+		byte [] header = new byte [HEADER_SIZE];
+		raf.seek (0);
+		int count = raf.read (header);
+		raf.seek (0);
+		return count == HEADER_SIZE && isBlockHeader (header);
+	}
+
+	/** returns true if a file starts with the gzip magic number */
+	public static boolean isGzip (RandomAccessFile raf) throws IOException {
+		raf.seek (0);
+		int id1 = raf.read ();
+		int id2 = raf.read ();
+		raf.seek (0);
+		return id1 == 0x1f && id2 == 0x8b;
+	}
+
+	private static boolean isBlockHeader (byte [] h) {
+		// gzip magic, deflate, FEXTRA set, and a single 6 byte BC subfield
+		return (h[0] & 0xff) == 0x1f && (h[1] & 0xff) == 0x8b && h[2] == 8
+				&& (h[3] & 4) != 0 && readShort (h, 10) == 6 && h[12] == 'B'
+				&& h[13] == 'C' && readShort (h, 14) == 2;
+	}
+
+	private static int readShort (byte [] buf, int off) {
+		return (buf[off] & 0xff) | ((buf[off + 1] & 0xff) << 8);
+	}
+
+	private static int readInt (byte [] buf, int off) {
+		return readShort (buf, off) | (readShort (buf, off + 2) << 16);
+	}
+
+	/** records the compressed and uncompressed offset of every block */
+	private void scanBlocks () throws IOException {
+		long file_length = compressed.length ();
+		int capacity = (int) Math.max (16, file_length / 20000);
+		long [] coffs = new long [capacity];
+		long [] uoffs = new long [capacity];
+		int [] usizes = new int [capacity];
+		int count = 0;
+		byte [] header = new byte [HEADER_SIZE];
+		byte [] trailer = new byte [TRAILER_SIZE];
+		long coff = 0;
+		long uoff = 0;
+		while (coff < file_length) {
+			if (compressed.read (coff, header, 0, HEADER_SIZE) != HEADER_SIZE
+					|| !isBlockHeader (header))
+				throw new IOException ("Corrupt BGZF block at offset " + coff);
+			int block_size = readShort (header, 16) + 1;
+			if (compressed.read (coff + block_size - TRAILER_SIZE, trailer, 0,
+					TRAILER_SIZE) != TRAILER_SIZE)
+				throw new IOException ("Truncated BGZF block at offset " + coff);
+			int usize = readInt (trailer, 4);
+			if (usize > 0) {
+				if (count == coffs.length) {
+					coffs = grow (coffs);
+					uoffs = grow (uoffs);
+					int [] tmp = new int [usizes.length * 2];
+					System.arraycopy (usizes, 0, tmp, 0, count);
+					usizes = tmp;
+				}
+				coffs[count] = coff;
+				uoffs[count] = uoff;
+				usizes[count] = usize;
+				count++;
+			}
+			coff += block_size;
+			uoff += usize;
+		}
+		block_coffset = new long [count];
+		block_uoffset = new long [count];
+		block_usize = new int [count];
+		System.arraycopy (coffs, 0, block_coffset, 0, count);
+		System.arraycopy (uoffs, 0, block_uoffset, 0, count);
+		System.arraycopy (usizes, 0, block_usize, 0, count);
+		length = uoff;
+	}
+
+	private static long [] grow (long [] a) {
+		long [] tmp = new long [a.length * 2];
+		System.arraycopy (a, 0, tmp, 0, a.length);
+		return tmp;
+	}
+
+	/** returns the index of the block holding an uncompressed offset */
+	int findBlock (long offset) {
+		int lo = 0;
+		int hi = block_uoffset.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (block_uoffset[mid] <= offset)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+
+	/**
+	 * Translates an uncompressed offset into a BGZF virtual offset
+	 *
+	 * @return the compressed offset of the block holding offset shifted left
+	 *         by 16 bits, plus the offset within the inflated block
+	 */
+	public long getVirtualOffset (long offset) {
+		int blockI = findBlock (offset);
+		return (block_coffset[blockI] << 16)
+				| (offset - block_uoffset[blockI]);
+	}
+
+	/** returns an inflated block, from the cache if possible */
+	byte [] getBlock (int blockI) throws IOException {
+		Integer key = new Integer (blockI);
+		synchronized (inflated) {
+			byte [] data = (byte []) inflated.get (key);
+			if (data != null) {
+				hits++;
+				return data;
+			}
+			misses++;
+		}
+		// inflate outside the lock, a racing inflate of the same block is
+		// harmless
+		byte [] data = inflate (blockI);
+		synchronized (inflated) {
+			inflated.put (key, data);
+		}
+		return data;
+	}
+
+	private byte [] inflate (int blockI) throws IOException {
+		long coff = block_coffset[blockI];
+		byte [] header = new byte [HEADER_SIZE];
+		compressed.read (coff, header, 0, HEADER_SIZE);
+		int block_size = readShort (header, 16) + 1;
+		byte [] cdata = new byte [block_size - HEADER_SIZE - TRAILER_SIZE];
+		compressed.read (coff + HEADER_SIZE, cdata, 0, cdata.length);
+		byte [] data = new byte [block_usize[blockI]];
+		Inflater inflater = new Inflater (true);
+		try {
+			inflater.setInput (cdata);
+			int done = 0;
+			while (done < data.length && !inflater.finished ()) {
+				int count = inflater.inflate (data, done, data.length - done);
+				if (count == 0 && inflater.needsInput ())
+					break;
+				done += count;
+			}
+			if (done != data.length)
+				throw new IOException ("Corrupt BGZF block at offset " + coff);
+		} catch (DataFormatException dfe) {
+			throw new IOException ("Corrupt BGZF block at offset " + coff
+					+ ": " + dfe.getMessage ());
+		} finally {
+			inflater.end ();
+		}
+		return data;
+	}
+
+	public int read (long offset, byte [] buf, int buf_off, int len)
+			throws IOException {
+		if (offset >= length)
+			return -1;
+		if (offset + len > length)
+			len = (int) (length - offset);
+		int done = 0;
+		int blockI = findBlock (offset);
+		while (done < len) {
+			byte [] data = getBlock (blockI);
+			int block_off = (int) (offset + done - block_uoffset[blockI]);
+			int count = Math.min (len - done, data.length - block_off);
+			System.arraycopy (data, block_off, buf, buf_off + done, count);
+			done += count;
+			blockI++;
+		}
+		return done;
+	}
+
+	/** returns the uncompressed length of the file */
+	public long length () {
+		return length;
+	}
+
+	/** returns the number of reads served from already inflated blocks */
+	public long getHits () {
+		synchronized (inflated) {
+			return hits;
+		}
+	}
+
+	/** returns the number of blocks inflated */
+	public long getMisses () {
+		synchronized (inflated) {
+			return misses;
+		}
+	}
+
+	public void close () throws IOException {
+		synchronized (inflated) {
+			inflated.clear ();
+		}
+		compressed.close ();
+	}
+}
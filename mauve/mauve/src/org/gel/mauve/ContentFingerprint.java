@@ -0,0 +1,119 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes a fingerprint of a file's content, used to decide whether data
+ * derived from the file can still be trusted. Hashing a multi-gigabyte
+ * alignment in full would cost as much as parsing it, so the fingerprint
+ * covers the file length, the first and last blocks of the file and a fixed
+ * number of blocks spread evenly through it. Files smaller than the sampled
+ * total are hashed completely. An edit between sampled blocks would go
+ * unnoticed, so the fingerprint of a file also covers its length on disk
+ * and modification time; touching a file unchanged only costs rebuilding
+ * what was derived from it.
+ * <p>
+ * Files are read with positional reads rather than mapped, since a mapped
+ * file stays locked on Windows until the mapping is garbage collected, which
+ * would keep inputs from being replaced while Mauve runs.
+ */
+public class ContentFingerprint {
+	/** The number of bytes in each sampled block */
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	/** The number of blocks sampled between the first and the last */
+	static final int SAMPLE_COUNT = 64;
+
+	private ContentFingerprint () {
+		// Don't allow an object to be created.
+	}
+
+	/** returns the 16 byte fingerprint of a file */
+	public static byte [] compute (File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile (f, "r");
+		try {
+			if (BgzfXmfaSource.isBgzf (raf))
+				return compute (XMFAAlignment.openSource (raf), f);
+			return compute (new MappedXmfaSource (raf.getChannel (), false), f);
+		} finally {
+			raf.close ();
+		}
+	}
+
+	/**
+	 * returns the 16 byte fingerprint of a file's bytes as stored, for inputs
+	 * other than alignments, which may be compressed in any format
+	 */
+	public static byte [] computeRaw (File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile (f, "r");
+		try {
+			return compute (new MappedXmfaSource (raf.getChannel (), false), f);
+		} finally {
+			raf.close ();
+		}
+	}
+
+	/**
+	 * returns the 16 byte fingerprint of a file read through a source, which
+	 * covers the file's length and modification time as well as the sampled
+	 * data
+	 */
+	public static byte [] compute (XmfaSource src, File f) throws IOException {
+		MessageDigest md = digest (src);
+		long len = f.length ();
+		long modified = f.lastModified ();
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			md.update ((byte) (len >>> shift));
+			md.update ((byte) (modified >>> shift));
+		}
+		return md.digest ();
+	}
+
+	/** returns a digest updated with the length and sampled data of a source */
+	private static MessageDigest digest (XmfaSource src) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance ("MD5");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new RuntimeException (nsae);
+		}
+		long len = src.length ();
+		for (int shift = 56; shift >= 0; shift -= 8)
+			md.update ((byte) (len >>> shift));
+
+		byte [] block = new byte [BLOCK_SIZE];
+		long total = (long) BLOCK_SIZE * (SAMPLE_COUNT + 2);
+		if (len <= total) {
+			for (long off = 0; off < len; off += BLOCK_SIZE)
+				digestBlock (src, md, block, off);
+		} else {
+			digestBlock (src, md, block, 0);
+			long stride = (len - BLOCK_SIZE) / (SAMPLE_COUNT + 1);
+			for (int sampleI = 1; sampleI <= SAMPLE_COUNT; sampleI++)
+				digestBlock (src, md, block, sampleI * stride);
+			digestBlock (src, md, block, len - BLOCK_SIZE);
+		}
+		return md;
+	}
+
+	private static void digestBlock (XmfaSource src, MessageDigest md,
+			byte [] block, long offset) throws IOException {
+		int count = src.read (offset, block, 0, block.length);
+		if (count > 0)
+			md.update (block, 0, count);
+	}
+
+	/** returns the fingerprint as a string of hexadecimal digits */
+	public static String toHex (byte [] fingerprint) {
+		StringBuffer sb = new StringBuffer ();
+		for (int i = 0; i < fingerprint.length; i++) {
+			sb.append (Character.forDigit ((fingerprint[i] >> 4) & 0xf, 16));
+			sb.append (Character.forDigit (fingerprint[i] & 0xf, 16));
+		}
+		return sb.toString ();
+	}
+}
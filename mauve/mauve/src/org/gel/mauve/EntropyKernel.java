@@ -0,0 +1,118 @@
+package org.gel.mauve;
+
+import java.util.Arrays;
+
+/**
+ * Computes alignment column entropies from packed character counts. A
+ * column's counts of a, c, g, t and gap characters are kept in one long, 12
+ * bits per class, and are summed with a single table lookup per character:
+ * INCREMENT maps each alignment byte straight to the packed count it adds,
+ * so characters are never decoded through SimilarityIndex.char_map one at a
+ * time. The packed counts are the column's signature, and entropies are
+ * looked up by signature in a table filled as signatures are first seen.
+ * Alignments repeat a small number of signatures, such as every genome
+ * sharing one base, so nearly every column is a lookup.
+ * <p>
+ * Entropies are computed with SimilarityIndex.columnEntropy, so they are
+ * exactly those of the per-genome implementation. A kernel is not safe for
+ * use by several threads; each walk over the alignment uses its own.
+ */
+public class EntropyKernel {
+	/** bits of the packed counts given to each character class */
+	public static final int COUNT_BITS = 12;
+
+	/** the most rows a column may have */
+	public static final int MAX_ROWS = (1 << COUNT_BITS) - 1;
+
+	/** packed count added by each alignment byte */
+	public static final long [] INCREMENT = initIncrements ();
+
+	/** entries in the signature table, a power of two */
+	static final int TABLE_SIZE = 1 << 12;
+
+	static long [] initIncrements () {
+		long [] inc = new long [256];
+		for (int b = 0; b < 256; b++)
+			inc[b] = 1L << (COUNT_BITS * SimilarityIndex.char_map[b & 0x7f]);
+		return inc;
+	}
+
+	/** owns the fraction and log tables */
+	SimilarityIndex tables;
+
+	/** signature held by each table entry, -1 if empty */
+	long [] signatures = new long [TABLE_SIZE];
+
+	double [] entropies = new double [TABLE_SIZE];
+
+	int [] counts = new int [5];
+
+	long hits = 0;
+
+	long misses = 0;
+
+	/**
+	 * @param tables
+	 *            a SimilarityIndex whose log and fraction tables have been
+	 *            calculated
+	 */
+	public EntropyKernel (SimilarityIndex tables) {
+		this.tables = tables;
+		Arrays.fill (signatures, -1);
+	}
+
+	/** returns the entropy of a column with the given packed counts */
+	public double entropy (long signature) {
+		long h = signature * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h >>> 52) & (TABLE_SIZE - 1);
+		if (signatures[slot] == signature) {
+			hits++;
+			return entropies[slot];
+		}
+		misses++;
+		long mask = (1L << COUNT_BITS) - 1;
+		for (int i = 0; i < 5; i++)
+			counts[i] = (int) ((signature >>> (COUNT_BITS * i)) & mask);
+		double entropy = tables.columnEntropy (counts);
+		signatures[slot] = signature;
+		entropies[slot] = entropy;
+		return entropy;
+	}
+
+	/**
+	 * returns the entropy of one column of a block of rows
+	 *
+	 * @param rows
+	 *            newline free rows of the block
+	 * @param col
+	 *            the column within the block
+	 * @param seqs
+	 *            the rows to count, or null for every row
+	 */
+	public double entropy (byte [][] rows, int col, boolean [] seqs) {
+		if (rows.length > MAX_ROWS) {
+			// too many rows to pack, count them one class at a time
+			Arrays.fill (counts, 0);
+			for (int seqI = 0; seqI < rows.length; seqI++)
+				if (seqs == null || seqs[seqI])
+					counts[SimilarityIndex.char_map[rows[seqI][col] & 0x7f]]++;
+			misses++;
+			return tables.columnEntropy (counts);
+		}
+		long signature = 0;
+		for (int seqI = 0; seqI < rows.length; seqI++)
+			if (seqs == null || seqs[seqI])
+				signature += INCREMENT[rows[seqI][col] & 0xff];
+		return entropy (signature);
+	}
+
+	/** returns the number of entropies found in the signature table */
+	public long getHits () {
+		return hits;
+	}
+
+	/** returns the number of entropies that had to be computed */
+	public long getMisses () {
+		return misses;
+	}
+}
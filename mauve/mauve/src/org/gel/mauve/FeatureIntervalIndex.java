@@ -0,0 +1,263 @@
+package org.gel.mauve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.biojava.bio.seq.ComponentFeature;
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.symbol.Location;
+import org.biojava.bio.symbol.RangeLocation;
+
+/**
+ * An immutable index of the annotated features of a genome by location,
+ * answering overlap, containment and nearest feature queries in O(log n + k)
+ * time rather than by filtering every feature. Features are sorted by left
+ * end and laid out as an implicit interval tree, each node of which holds
+ * the greatest right end beneath it, as in Heng Li's cgranges.
+ * <p>
+ * Features are indexed by the bounds of their locations; queries check the
+ * locations of split features themselves, so results match those of
+ * biojava's location filters. The MauveAggregation features that assemble
+ * a genome from its contigs are not indexed, only the features beneath them.
+ */
+public class FeatureIntervalIndex {
+	/** subtrees at or below this level are scanned rather than descended */
+	private static final int SCAN_LEVEL = 3;
+
+	/** the features, sorted by left end */
+	private final Feature [] features;
+
+	/** left end of each feature's location */
+	private final int [] starts;
+
+	/** right end of each feature's location */
+	private final int [] ends;
+
+	/** the greatest right end in the subtree below each node */
+	private final int [] max_ends;
+
+	/** the index of the greatest right end among features 0 through i */
+	private final int [] prefix_max;
+
+	/** the level of the root node */
+	private final int max_level;
+
+	/**
+	 * indexes the features of a holder and everything beneath them,
+	 * typically a genome's annotation sequence
+	 */
+	public FeatureIntervalIndex (FeatureHolder fh) {
+		ArrayList list = new ArrayList ();
+		collect (fh, list);
+		features = (Feature []) list.toArray (new Feature [list.size ()]);
+		Arrays.sort (features, new Comparator () {
+			public int compare (Object o1, Object o2) {
+				Location l1 = ((Feature) o1).getLocation ();
+				Location l2 = ((Feature) o2).getLocation ();
+				if (l1.getMin () != l2.getMin ())
+					return l1.getMin () < l2.getMin () ? -1 : 1;
+				return l1.getMax () < l2.getMax () ? -1
+						: (l1.getMax () == l2.getMax () ? 0 : 1);
+			}
+		});
+		int n = features.length;
+		starts = new int [n];
+		ends = new int [n];
+		prefix_max = new int [n];
+		for (int i = 0; i < n; i++) {
+			starts[i] = features[i].getLocation ().getMin ();
+			ends[i] = features[i].getLocation ().getMax ();
+			prefix_max[i] = i > 0 && ends[prefix_max[i - 1]] >= ends[i] ? prefix_max[i - 1]
+					: i;
+		}
+		max_ends = new int [n];
+		max_level = buildTree ();
+	}
+
+	/**
+	 * adds the features of a holder and their sub features to a list,
+	 * looking through MauveAggregation features to the contigs' features
+	 */
+	private static void collect (FeatureHolder fh, List list) {
+		for (Iterator fI = fh.features (); fI.hasNext ();) {
+			Feature f = (Feature) fI.next ();
+			if (f instanceof ComponentFeature
+					&& GenomeBuilder.MAUVE_AGGREGATE.equals (f.getType ())) {
+				// a contig without features needn't be read to find so
+				if (((ComponentFeature) f).getComponentSequence ()
+						.countFeatures () == 0)
+					continue;
+			} else
+				list.add (f);
+			collect (f, list);
+		}
+	}
+
+	/**
+	 * fills in max_ends, the nodes of each level k being those whose index
+	 * ends in a 0 followed by k 1s
+	 *
+	 * @return the level of the root
+	 */
+	private int buildTree () {
+		int n = features.length;
+		if (n == 0)
+			return -1;
+		int last_i = 0;
+		int last = 0;
+		for (int i = 0; i < n; i += 2) {
+			last_i = i;
+			max_ends[i] = last = ends[i];
+		}
+		int k = 1;
+		for (; 1 << k <= n; k++) {
+			int x = 1 << (k - 1);
+			for (int i = (x << 1) - 1; i < n; i += x << 2) {
+				int left = max_ends[i - x];
+				// a missing right child stands for the last subtree
+				int right = i + x < n ? max_ends[i + x] : last;
+				max_ends[i] = Math.max (ends[i], Math.max (left, right));
+			}
+			last_i = ((last_i >> k) & 1) != 0 ? last_i - x : last_i + x;
+			if (last_i < n && max_ends[last_i] > last)
+				last = max_ends[last_i];
+		}
+		return k - 1;
+	}
+
+	/** returns the number of features in the index */
+	public int size () {
+		return features.length;
+	}
+
+	/** returns every feature, in order of left end */
+	public Iterator features () {
+		return Collections.unmodifiableList (Arrays.asList (features))
+				.iterator ();
+	}
+
+	/**
+	 * returns the features whose locations overlap positions min through max,
+	 * in order of left end
+	 */
+	public List<Feature> overlapping (int min, int max) {
+		ArrayList<Feature> found = new ArrayList<Feature> ();
+		if (min > max || features.length == 0)
+			return found;
+		int [] hits = new int [16];
+		int hit_count = 0;
+		// each entry is a node, its level and whether its left subtree is done
+		int [] stack = new int [3 * 64];
+		int top = 0;
+		stack[top++] = (1 << max_level) - 1;
+		stack[top++] = max_level;
+		stack[top++] = 0;
+		int n = features.length;
+		while (top > 0) {
+			int done = stack[--top];
+			int k = stack[--top];
+			int x = stack[--top];
+			if (k <= SCAN_LEVEL) {
+				int i0 = x >> k << k;
+				int i1 = Math.min (n, i0 + (1 << (k + 1)) - 1);
+				for (int i = i0; i < i1 && starts[i] <= max; i++) {
+					if (min <= ends[i]) {
+						if (hit_count == hits.length)
+							hits = grow (hits);
+						hits[hit_count++] = i;
+					}
+				}
+			} else if (done == 0) {
+				int y = x - (1 << (k - 1));
+				stack[top++] = x;
+				stack[top++] = k;
+				stack[top++] = 1;
+				if (y >= n || max_ends[y] >= min) {
+					stack[top++] = y;
+					stack[top++] = k - 1;
+					stack[top++] = 0;
+				}
+			} else if (x < n && starts[x] <= max) {
+				if (min <= ends[x]) {
+					if (hit_count == hits.length)
+						hits = grow (hits);
+					hits[hit_count++] = x;
+				}
+				stack[top++] = x + (1 << (k - 1));
+				stack[top++] = k - 1;
+				stack[top++] = 0;
+			}
+		}
+		Arrays.sort (hits, 0, hit_count);
+		Location query = null;
+		for (int hitI = 0; hitI < hit_count; hitI++) {
+			Feature f = features[hits[hitI]];
+			if (!f.getLocation ().isContiguous ()) {
+				if (query == null)
+					query = new RangeLocation (min, max);
+				if (!f.getLocation ().overlaps (query))
+					continue;
+			}
+			found.add (f);
+		}
+		return found;
+	}
+
+	/**
+	 * returns the features whose locations lie within positions min through
+	 * max, in order of left end
+	 */
+	public List<Feature> containedBy (int min, int max) {
+		ArrayList<Feature> found = new ArrayList<Feature> ();
+		for (int i = firstStartingAt (min); i < features.length
+				&& starts[i] <= max; i++)
+			if (ends[i] <= max)
+				found.add (features[i]);
+		return found;
+	}
+
+	/**
+	 * returns the feature nearest a position: the one overlapping it with the
+	 * greatest right end if any does, otherwise the one separated from it by
+	 * the fewest positions, preferring the one to the left on a tie
+	 *
+	 * @return the nearest feature, or null if there are none
+	 */
+	public Feature nearest (int position) {
+		int right = firstStartingAt (position + 1);
+		int left = right > 0 ? prefix_max[right - 1] : -1;
+		if (left >= 0 && ends[left] >= position)
+			return features[left];
+		if (left < 0)
+			return right < features.length ? features[right] : null;
+		if (right < features.length
+				&& starts[right] - position < position - ends[left])
+			return features[right];
+		return features[left];
+	}
+
+	/** returns the first feature with a left end of at least position */
+	private int firstStartingAt (int position) {
+		int lo = 0;
+		int hi = features.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] < position)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private static int [] grow (int [] a) {
+		int [] b = new int [a.length * 2];
+		System.arraycopy (a, 0, b, 0, a.length);
+		return b;
+	}
+}
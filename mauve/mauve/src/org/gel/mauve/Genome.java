@@ -7,15 +7,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 
-import org.biojava.bio.seq.FeatureFilter;
+import org.biojava.bio.seq.Feature;
 import org.biojava.bio.seq.FeatureHolder;
 import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.SimpleFeatureHolder;
 import org.biojava.bio.seq.StrandedFeature;
 import org.biojava.bio.symbol.LocationTools;
-import org.biojavax.bio.seq.Position;
-import org.biojavax.bio.seq.RichLocation;
-import org.biojavax.bio.seq.SimplePosition;
-import org.biojavax.bio.seq.SimpleRichLocation;
+import org.biojava.utils.ChangeVetoException;
 
 public class Genome {
 	private long length;
@@ -24,6 +22,10 @@ public class Genome {
 
 	private Sequence annotationSequence;
 
+	private FeatureIntervalIndex featureIndex;
+
+	private QualifierIndex qualifierIndex;
+
 	private List<Chromosome> chromosomes = new ArrayList<Chromosome> ();
 
 	private String displayName;
@@ -60,6 +62,8 @@ public class Genome {
 			SupportedFormat format) {
 		this.format = format;
 		this.annotationSequence = annotationSequence;
+		featureIndex = null;
+		qualifierIndex = null;
 	}
 
 	public BaseViewerModel getModel () {
@@ -90,12 +94,40 @@ public class Genome {
 	 * @return a FeatureHolder containing the features in this genome that overlap the given position.
 	 */
 	public FeatureHolder getAnnotationsAt(long left, long right, boolean rev){
-		Position min = new SimplePosition((int) left);
-		Position max = new SimplePosition((int) right);
-		RichLocation loc = new SimpleRichLocation (min,max,0,rev?
-								RichLocation.Strand.NEGATIVE_STRAND : 
-								RichLocation.Strand.POSITIVE_STRAND);
-		return annotationSequence.filter(new FeatureFilter.OverlapsLocation(loc));
+		SimpleFeatureHolder fh = new SimpleFeatureHolder ();
+		Iterator i = getFeatureIndex ().overlapping ((int) left, (int) right)
+				.iterator ();
+		try {
+			while (i.hasNext ())
+				fh.addFeature ((Feature) i.next ());
+		} catch (ChangeVetoException e) {
+			// We don't expect an exception here.
+			throw new RuntimeException (e);
+		}
+		return fh;
+	}
+
+	/**
+	 * Returns an index of the features of the annotation sequence by
+	 * location. It is built the first time it is asked for, since that
+	 * reads every feature of the annotation files.
+	 */
+	public synchronized FeatureIntervalIndex getFeatureIndex () {
+		if (featureIndex == null)
+			featureIndex = new FeatureIntervalIndex (
+					annotationSequence != null ? annotationSequence
+							: FeatureHolder.EMPTY_FEATURE_HOLDER);
+		return featureIndex;
+	}
+
+	/**
+	 * Returns an index of the features of the annotation sequence by
+	 * qualifier, built the first time it is asked for.
+	 */
+	public synchronized QualifierIndex getQualifierIndex () {
+		if (qualifierIndex == null)
+			qualifierIndex = new QualifierIndex (getFeatureIndex ());
+		return qualifierIndex;
 	}
 
 	public String getDisplayName () {
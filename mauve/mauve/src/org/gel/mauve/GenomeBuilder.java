@@ -16,6 +16,7 @@ import org.biojava.bio.symbol.RangeLocation;
 import org.biojava.utils.ChangeVetoException;
 import org.biojavax.bio.seq.RichSequence;
 import org.biojavax.bio.seq.RichSequenceIterator;
+import org.gel.mauve.format.AnnotationCache;
 import org.gel.mauve.format.FastaFormat;
 import org.gel.mauve.format.FileFinder;
 import org.gel.mauve.format.SupportedFormatFactory;
@@ -62,6 +63,22 @@ public class GenomeBuilder
         return buildGenome(length, annotationFilename, annotationFormat, model, restrictedIndex, sequenceIndex);
     }
 
+    /**
+     * Returns the file buildGenome(int, XmfaViewerModel) reads a genome's
+     * sequence and annotation from
+     */
+    public static File getAnnotationFile(int sequenceIndex, XmfaViewerModel model)
+    {
+        int adjustedIndex = sequenceIndex + 1;
+        String annotationFilename = model.getXmfa().getName(sequenceIndex);
+        Properties meta = model.getXmfa().metadata;
+        if (meta.containsKey("Annotation" + adjustedIndex + "File"))
+            annotationFilename = meta.getProperty("Annotation" + adjustedIndex + "File");
+        else if (meta.containsKey("Sequence" + adjustedIndex + "File"))
+            annotationFilename = meta.getProperty("Sequence" + adjustedIndex + "File");
+        return new File(FileFinder.findFile(model, annotationFilename));
+    }
+
     public static Genome buildGenome(long length, String annotationFilename, BaseViewerModel model, int sequenceIndex)
     {
         return buildGenome(length, annotationFilename, SupportedFormatFactory.guessFormatFromFilename(annotationFilename), model, -1, sequenceIndex);
@@ -104,8 +121,13 @@ public class GenomeBuilder
         }
 
         // Use the format to read the file; this most likely will create
-        // an iterator of delegating sequences.
-        SequenceIterator seqi = annotationFormat.makeIterator(annotationFile);
+        // an iterator of delegating sequences.  Those of an unchanged file
+        // are restored from the annotation cache rather than parsed.
+        SequenceIterator seqi;
+        if (ModelBuilder.getUseDiskCache())
+            seqi = AnnotationCache.makeIterator(annotationFormat, annotationFile);
+        else
+            seqi = annotationFormat.makeIterator(annotationFile);
 
         if (!seqi.hasNext())
         {
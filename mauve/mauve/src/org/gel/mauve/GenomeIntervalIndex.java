@@ -0,0 +1,141 @@
+package org.gel.mauve;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the alignment interval containing a position of one genome by binary
+ * search. The intervals a genome takes part in are sorted by left end once,
+ * after which a position resolves in O(log n) time and a sorted array of
+ * positions resolves in a single merge pass.
+ * <p>
+ * Lookups return the first interval in file order containing the position,
+ * as the linear scan they replace did. Intervals of one genome normally don't
+ * overlap, and then at most one contains any position. Positions below 1,
+ * which match every interval the genome is missing from, and genomes whose
+ * intervals do overlap are answered by scanning.
+ */
+class GenomeIntervalIndex {
+	/** the intervals of the alignment, in file order */
+	private final Match [] intervals;
+
+	/** the genome's source index */
+	private final int seqI;
+
+	/** left end of each interval containing the genome, sorted */
+	private final long [] lend;
+
+	/** right end of each interval, in the order of lend */
+	private final long [] rend;
+
+	/** the interval number of each entry */
+	private final int [] ivs;
+
+	/** false if two of the genome's intervals overlap */
+	private final boolean disjoint;
+
+	GenomeIntervalIndex (Match [] intervals, final int seqI) {
+		this.intervals = intervals;
+		this.seqI = seqI;
+		int count = 0;
+		boolean overlap = false;
+		for (int ivI = 0; ivI < intervals.length; ivI++) {
+			if (intervals[ivI].getStart (seqI) > 0)
+				count++;
+			else if (intervals[ivI].getLength (seqI) > 0)
+				overlap = true; // a row without a left end, leave it to scan
+		}
+		Integer [] order = new Integer [count];
+		count = 0;
+		for (int ivI = 0; ivI < intervals.length; ivI++)
+			if (intervals[ivI].getStart (seqI) > 0)
+				order[count++] = new Integer (ivI);
+		final Match [] ivs_copy = intervals;
+		// stable, so equal left ends stay in file order
+		Arrays.sort (order, new Comparator () {
+			public int compare (Object o1, Object o2) {
+				long s1 = ivs_copy[((Integer) o1).intValue ()].getStart (seqI);
+				long s2 = ivs_copy[((Integer) o2).intValue ()].getStart (seqI);
+				return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+			}
+		});
+		lend = new long [count];
+		rend = new long [count];
+		ivs = new int [count];
+		for (int entryI = 0; entryI < count; entryI++) {
+			ivs[entryI] = order[entryI].intValue ();
+			lend[entryI] = intervals[ivs[entryI]].getStart (seqI);
+			rend[entryI] = intervals[ivs[entryI]].getLength (seqI);
+			if (entryI > 0 && lend[entryI] <= rend[entryI - 1])
+				overlap = true;
+		}
+		disjoint = !overlap;
+	}
+
+	/**
+	 * returns the first interval in file order containing a position, or -1
+	 * if there is none
+	 */
+	int find (long position) {
+		if (!disjoint || position < 1)
+			return scan (position);
+		int entryI = lastStartingAtOrBefore (position);
+		if (entryI >= 0 && position <= rend[entryI])
+			return ivs[entryI];
+		return -1;
+	}
+
+	/**
+	 * Finds the intervals containing each of a set of positions
+	 *
+	 * @param positions
+	 *            Positions sorted in increasing order
+	 * @return The interval containing each position, or -1 where there is
+	 *         none
+	 */
+	int [] find (long [] positions) {
+		int [] found = new int [positions.length];
+		if (!disjoint) {
+			for (int posI = 0; posI < positions.length; posI++)
+				found[posI] = scan (positions[posI]);
+			return found;
+		}
+		int entryI = 0;
+		for (int posI = 0; posI < positions.length; posI++) {
+			long position = positions[posI];
+			if (position < 1) {
+				found[posI] = scan (position);
+				continue;
+			}
+			while (entryI < lend.length && rend[entryI] < position)
+				entryI++;
+			found[posI] = entryI < lend.length && lend[entryI] <= position ? ivs[entryI]
+					: -1;
+		}
+		return found;
+	}
+
+	/** binary search for the last entry with a left end at or before position */
+	private int lastStartingAtOrBefore (long position) {
+		int low = 0;
+		int high = lend.length - 1;
+		int best = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (lend[mid] <= position) {
+				best = mid;
+				low = mid + 1;
+			} else
+				high = mid - 1;
+		}
+		return best;
+	}
+
+	private int scan (long position) {
+		for (int ivI = 0; ivI < intervals.length; ivI++)
+			if (intervals[ivI].getStart (seqI) <= position
+					&& position <= intervals[ivI].getLength (seqI))
+				return ivI;
+		return -1;
+	}
+}
@@ -0,0 +1,109 @@
+package org.gel.mauve;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An XmfaSource that memory maps the XMFA file. A single MappedByteBuffer is
+ * limited to 2GB so the file is mapped as a series of fixed size chunks. Each
+ * read works on a duplicate of the chunk buffer, so no file pointer is shared
+ * and reads from many threads can proceed without locking. If the file can
+ * not be mapped (e.g. address space is exhausted on a 32-bit JVM) positional
+ * FileChannel reads are used instead, which are also safe for concurrent use.
+ */
+public class MappedXmfaSource implements XmfaSource {
+	/** The number of bytes covered by each mapped chunk */
+	static final int CHUNK_SIZE = 1 << 30;
+
+	protected FileChannel channel;
+
+	protected long file_length;
+
+	/** the mapped chunks, or null when using positional reads */
+	protected MappedByteBuffer [] chunks;
+
+	public MappedXmfaSource (RandomAccessFile raf) throws IOException {
+		this (raf.getChannel ());
+	}
+
+	public MappedXmfaSource (FileChannel channel) throws IOException {
+		this (channel, true);
+	}
+
+	/**
+	 * @param map
+	 *            false to use positional reads only. A mapped file stays
+	 *            locked on Windows until the mapping is garbage collected, so
+	 *            short lived readers of files that may later be replaced
+	 *            should not map them.
+	 */
+	public MappedXmfaSource (FileChannel channel, boolean map)
+			throws IOException {
+		this.channel = channel;
+		file_length = channel.size ();
+		if (!map)
+			return;
+		int chunk_count = (int) ((file_length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		chunks = new MappedByteBuffer [chunk_count];
+		try {
+			for (int chunkI = 0; chunkI < chunk_count; chunkI++) {
+				long chunk_start = (long) chunkI * CHUNK_SIZE;
+				long chunk_len = Math.min (CHUNK_SIZE, file_length - chunk_start);
+				chunks[chunkI] = channel.map (FileChannel.MapMode.READ_ONLY,
+						chunk_start, chunk_len);
+			}
+		} catch (IOException ioe) {
+			// mapping failed, most likely for lack of address space
+			chunks = null;
+		}
+	}
+
+	public int read (long offset, byte [] buf, int buf_off, int len)
+			throws IOException {
+		if (offset >= file_length)
+			return -1;
+		if (offset + len > file_length)
+			len = (int) (file_length - offset);
+		if (chunks == null)
+			return channelRead (offset, buf, buf_off, len);
+
+		int done = 0;
+		while (done < len) {
+			long pos = offset + done;
+			int chunkI = (int) (pos / CHUNK_SIZE);
+			int chunk_off = (int) (pos - (long) chunkI * CHUNK_SIZE);
+			// duplicate() gives this thread its own position and limit
+			ByteBuffer bb = chunks[chunkI].duplicate ();
+			bb.position (chunk_off);
+			int count = Math.min (len - done, bb.remaining ());
+			bb.get (buf, buf_off + done, count);
+			done += count;
+		}
+		return done;
+	}
+
+	protected int channelRead (long offset, byte [] buf, int buf_off, int len)
+			throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap (buf, buf_off, len);
+		int done = 0;
+		while (bb.hasRemaining ()) {
+			int count = channel.read (bb, offset + done);
+			if (count < 0)
+				break;
+			done += count;
+		}
+		return done;
+	}
+
+	public long length () {
+		return file_length;
+	}
+
+	public void close () throws IOException {
+		chunks = null;
+		channel.close ();
+	}
+}
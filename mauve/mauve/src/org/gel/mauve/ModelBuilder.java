@@ -197,6 +197,14 @@ public class ModelBuilder
     
     public static void clearDataCache() throws BackingStoreException
     {
+        try
+        {
+            AnalysisCache.getDefault().clear();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Couldn't clear the analysis cache: " + e.getMessage());
+        }
         Preferences prefs = Preferences.userNodeForPackage(ModelBuilder.class);
         String[] children = prefs.childrenNames();
         
@@ -260,7 +268,17 @@ public class ModelBuilder
         }
         
         RandomAccessFile inputFile = new RandomAccessFile(src, "r");
-        String inputLine = inputFile.readLine();
+        // compressed files are read through their XmfaSource, which gives
+        // the first line of the uncompressed data
+        XmfaSource source = null;
+        String inputLine;
+        if (BgzfXmfaSource.isBgzf(inputFile))
+        {
+            source = XMFAAlignment.openSource(inputFile);
+            inputLine = readFirstLine(source);
+        }
+        else
+            inputLine = inputFile.readLine();
         if(inputLine == null)
         	throw new IOException("Empty alignment file.  If the alignment file was generated by Mauve then the genomes may be unrelated.");
         String[] params = inputLine.split(DELIMS);
@@ -279,6 +297,14 @@ public class ModelBuilder
             inputFile.seek(0);
         }
 
+        if (source != null)
+        {
+            source.close();
+            // only XMFA is read in compressed form
+            if (versionNumber != -1)
+                throw new MauveFormatException("Only XMFA alignments can be read from compressed files.");
+        }
+
         if (versionNumber == -1) // XMFA file
         {
             XmfaViewerModel model = new XmfaViewerModel(src, listener);
@@ -331,6 +357,21 @@ public class ModelBuilder
         }
     }
 
+    /**
+     * Returns the first line of an XMFA source, or null if it is empty
+     */
+    private static String readFirstLine(XmfaSource source) throws IOException
+    {
+        byte[] buf = new byte[(int) Math.min(source.length(), 4096)];
+        int len = source.read(0, buf, 0, buf.length);
+        if (len <= 0)
+            return null;
+        int end = 0;
+        while (end < len && buf[end] != '\n' && buf[end] != '\r')
+            end++;
+        return new String(buf, 0, end, "ISO-8859-1");
+    }
+
     /**
      * @param inputFile
      * @param model
@@ -9,7 +9,17 @@ public interface ModelProgressListener {
 
 	void alignmentEnd (int sequenceCount);
 
+	/**
+	 * Called as each genome starts being built, possibly from a worker thread
+	 * and in any order. Calls are never concurrent.
+	 */
 	void featureStart (int sequenceIndex);
 
+	/**
+	 * Called as each LCB is added to the similarity indexes, possibly from a
+	 * worker thread. Calls are never concurrent.
+	 */
+	void similarityProgress (int completed, int lcbCount);
+
 	void done ();
 }
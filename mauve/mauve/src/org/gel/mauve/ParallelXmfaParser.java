@@ -0,0 +1,490 @@
+package org.gel.mauve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gel.mauve.tree.ColumnIndex;
+
+/**
+ * Parses an XMFA file on several threads. The file is first scanned for the =
+ * lines that terminate each alignment entry. Batches of entries are then
+ * parsed concurrently, each worker building the file offsets and column
+ * indexes of its rows, and the results are merged in source order. The merge
+ * replays the bookkeeping of the sequential parser in XMFAAlignment so the
+ * resulting intervals, LCBs and column indexes are identical.
+ * <p>
+ * In lazy mode the workers only count the columns of each row, and the column
+ * index of a row is built by scanRow when the row is first used.
+ */
+class ParallelXmfaParser {
+	/** entries are handed to workers in batches of roughly this many bytes */
+	static final long BATCH_BYTES = 4 * 1024 * 1024;
+
+	/** size of the read buffer used by the scanner and each worker */
+	static final int READ_SIZE = 1 << 20;
+
+	XMFAAlignment xmfa;
+
+	XmfaSource src;
+
+	int threads;
+
+	/** true to record row extents only, leaving column indexes unbuilt */
+	boolean lazy;
+
+	ParallelXmfaParser (XMFAAlignment xmfa, int threads, boolean lazy) {
+		this.xmfa = xmfa;
+		this.src = xmfa.xmfa_file;
+		this.threads = threads;
+		this.lazy = lazy;
+	}
+
+	/** One row of an alignment entry as found by a worker */
+	static class ParsedRow {
+		XmfaDefline defline;
+
+		long f_offset = -1;
+
+		long f_end_offset;
+
+		/** the number of alignment columns in the row */
+		long columns;
+
+		/** the row's column index, null in lazy mode */
+		ColumnIndex index;
+	}
+
+	/** An alignment entry, along with any metadata lines that preceded it */
+	static class ParsedEntry {
+		List metadata = new ArrayList ();
+
+		List rows = new ArrayList ();
+
+		String comment;
+	}
+
+	/**
+	 * Accumulates the gap and sequence runs of a row into a ColumnIndex
+	 */
+	static class RowBuilder {
+		long [] col_start = new long [16];
+
+		long [] seq_start = new long [16];
+
+		long [] file_offset = new long [16];
+
+		int runs = 0;
+
+		/** length of the run currently being extended, 0 if none */
+		long cur_len = 0;
+
+		boolean cur_gap;
+
+		void add (boolean gap, long offset) {
+			if (cur_len > 0 && cur_gap != gap)
+				closeRun ();
+			if (cur_len == 0) {
+				if (runs + 1 >= col_start.length)
+					grow ();
+				cur_gap = gap;
+				file_offset[runs] = gap ? ColumnIndex.GAP : offset;
+			}
+			cur_len++;
+		}
+
+		void closeRun () {
+			col_start[runs + 1] = col_start[runs] + cur_len;
+			seq_start[runs + 1] = seq_start[runs] + (cur_gap ? 0 : cur_len);
+			runs++;
+			cur_len = 0;
+		}
+
+		void grow () {
+			int size = col_start.length * 2;
+			long [] tmp = new long [size];
+			System.arraycopy (col_start, 0, tmp, 0, col_start.length);
+			col_start = tmp;
+			tmp = new long [size];
+			System.arraycopy (seq_start, 0, tmp, 0, seq_start.length);
+			seq_start = tmp;
+			tmp = new long [size];
+			System.arraycopy (file_offset, 0, tmp, 0, file_offset.length);
+			file_offset = tmp;
+		}
+
+		/** adds the gap and sequence characters of a buffer, skipping newlines */
+		void addBytes (byte [] buf, int start, int end, long base) {
+			for (int bufI = start; bufI < end; bufI++)
+				if (buf[bufI] != '\r' && buf[bufI] != '\n')
+					add (buf[bufI] == '-', base + bufI);
+		}
+
+		ColumnIndex build () {
+			if (cur_len > 0)
+				closeRun ();
+			long [] cs = new long [runs + 1];
+			long [] ss = new long [runs + 1];
+			long [] fo = new long [runs];
+			System.arraycopy (col_start, 0, cs, 0, runs + 1);
+			System.arraycopy (seq_start, 0, ss, 0, runs + 1);
+			System.arraycopy (file_offset, 0, fo, 0, runs);
+			return new ColumnIndex (cs, ss, fo);
+		}
+	}
+
+	/**
+	 * Parses the file and fills in the alignment's intervals, LCBs, column
+	 * indexes, names, comments and metadata.
+	 */
+	void parse () throws IOException {
+		long [] cuts = findEntryBoundaries ();
+
+		// group entries into batches
+		List batches = new ArrayList ();
+		long batch_start = 0;
+		for (int cutI = 0; cutI < cuts.length; cutI++) {
+			if (cuts[cutI] - batch_start >= BATCH_BYTES) {
+				batches.add (new long [] {batch_start, cuts[cutI]});
+				batch_start = cuts[cutI];
+			}
+		}
+		if (batch_start < src.length ())
+			batches.add (new long [] {batch_start, src.length ()});
+
+		ExecutorService pool = Executors.newFixedThreadPool (threads);
+		List futures = new ArrayList ();
+		try {
+			for (int batchI = 0; batchI < batches.size (); batchI++) {
+				final long [] range = (long []) batches.get (batchI);
+				futures.add (pool.submit (new Callable () {
+					public Object call () throws IOException {
+						return parseRange (range[0], range[1]);
+					}
+				}));
+			}
+			List entries = new ArrayList ();
+			for (int futureI = 0; futureI < futures.size (); futureI++)
+				entries.addAll ((List) ((Future) futures.get (futureI)).get ());
+			merge (entries);
+		} catch (InterruptedException ie) {
+			throw new IOException ("Interrupted while parsing alignment");
+		} catch (ExecutionException ee) {
+			if (ee.getCause () instanceof IOException)
+				throw (IOException) ee.getCause ();
+			if (ee.getCause () instanceof RuntimeException)
+				throw (RuntimeException) ee.getCause ();
+			throw new RuntimeException (ee.getCause ());
+		} finally {
+			pool.shutdownNow ();
+		}
+	}
+
+	/**
+	 * Scans the file for lines that begin with = and returns the offsets just
+	 * past the end of each such line, in file order. Each thread scans an
+	 * equal share of the file.
+	 */
+	long [] findEntryBoundaries () throws IOException {
+		final long file_len = src.length ();
+		int pieces = (int) Math.max (1, Math.min (threads * 4, file_len
+				/ READ_SIZE));
+		final long piece_len = (file_len + pieces - 1) / pieces;
+		ExecutorService pool = Executors.newFixedThreadPool (threads);
+		List futures = new ArrayList ();
+		try {
+			for (int pieceI = 0; pieceI < pieces; pieceI++) {
+				final long start = pieceI * piece_len;
+				final long end = Math.min (file_len, start + piece_len);
+				futures.add (pool.submit (new Callable () {
+					public Object call () throws IOException {
+						return scanPiece (start, end);
+					}
+				}));
+			}
+			List cuts = new ArrayList ();
+			for (int futureI = 0; futureI < futures.size (); futureI++)
+				cuts.addAll ((List) ((Future) futures.get (futureI)).get ());
+			Collections.sort (cuts);
+			long [] cut_array = new long [cuts.size ()];
+			for (int cutI = 0; cutI < cut_array.length; cutI++)
+				cut_array[cutI] = ((Long) cuts.get (cutI)).longValue ();
+			return cut_array;
+		} catch (InterruptedException ie) {
+			throw new IOException ("Interrupted while parsing alignment");
+		} catch (ExecutionException ee) {
+			if (ee.getCause () instanceof IOException)
+				throw (IOException) ee.getCause ();
+			throw new RuntimeException (ee.getCause ());
+		} finally {
+			pool.shutdownNow ();
+		}
+	}
+
+	/**
+	 * Finds entry terminator lines that start within [start, end). The end of
+	 * a terminator line may lie beyond the end of the piece.
+	 */
+	List scanPiece (long start, long end) throws IOException {
+		List cuts = new ArrayList ();
+		byte [] buf = new byte [READ_SIZE];
+		byte prev = '\n';
+		if (start > 0) {
+			byte [] one = new byte [1];
+			src.read (start - 1, one, 0, 1);
+			prev = one[0];
+		}
+		boolean in_terminator = false;
+		long pos = start;
+		while (true) {
+			int count = src.read (pos, buf, 0, buf.length);
+			if (count <= 0) {
+				// a terminator on the last line of the file ends at EOF
+				if (in_terminator)
+					cuts.add (new Long (pos));
+				break;
+			}
+			for (int bufI = 0; bufI < count; bufI++) {
+				byte b = buf[bufI];
+				if (in_terminator) {
+					if (b == '\n') {
+						cuts.add (new Long (pos + bufI + 1));
+						in_terminator = false;
+						if (pos + bufI + 1 >= end)
+							return cuts;
+					}
+				} else if (pos + bufI >= end) {
+					return cuts;
+				} else if (b == '=' && (prev == '\n' || prev == '\r')) {
+					in_terminator = true;
+				}
+				prev = b;
+			}
+			pos += count;
+		}
+		return cuts;
+	}
+
+	/**
+	 * Parses the alignment entries in a byte range of the file. This follows
+	 * the same rules as the sequential parser in XMFAAlignment.
+	 */
+	List parseRange (long start, long end) throws IOException {
+		final int wait_defline = 0;
+		final int read_defline = 1;
+		final int read_comment = 2;
+		final int read_sequence = 3;
+		final int read_metadata = 4;
+
+		List entries = new ArrayList ();
+		ParsedEntry entry = new ParsedEntry ();
+		ParsedRow row = null;
+		RowBuilder rb = null;
+		ByteArrayOutputStream line = new ByteArrayOutputStream ();
+		boolean comment_done = false;
+		int state = wait_defline;
+
+		byte [] buf = new byte [READ_SIZE];
+		long pos = start;
+		while (pos < end) {
+			int count = src.read (pos, buf, 0, (int) Math.min (buf.length, end
+					- pos));
+			if (count <= 0)
+				break;
+			for (int bufI = 0; bufI < count; bufI++) {
+				byte b = buf[bufI];
+				switch (state) {
+					case wait_defline:
+						if (b == '#') {
+							line.reset ();
+							state = read_metadata;
+						} else if (b == '>') {
+							line.reset ();
+							line.write (b);
+							state = read_defline;
+						}
+						break;
+					case read_metadata:
+						if (b == '\r' || b == '\n') {
+							entry.metadata.add (line.toString ());
+							state = wait_defline;
+						} else
+							line.write (b);
+						break;
+					case read_defline:
+						if (b == '\r' || b == '\n') {
+							row = new ParsedRow ();
+							row.defline = XmfaDefline.parse (line.toString ());
+							if (!lazy)
+								rb = new RowBuilder ();
+							state = read_sequence;
+						} else
+							line.write (b);
+						break;
+					case read_sequence:
+						if (b == '>' || b == '=') {
+							// sequence ends here
+							row.f_end_offset = pos + bufI;
+							if (!lazy)
+								row.index = rb.build ();
+							entry.rows.add (row);
+							line.reset ();
+							line.write (b);
+							if (b == '>') {
+								state = read_defline;
+							} else {
+								comment_done = false;
+								state = read_comment;
+							}
+							break;
+						}
+						// do nothing on newlines
+						if (b == '\r' || b == '\n')
+							break;
+						if (row.f_offset < 0)
+							row.f_offset = pos + bufI;
+						row.columns++;
+						if (!lazy)
+							rb.add (b == '-', pos + bufI);
+						break;
+					case read_comment:
+						if (b == '\r' || b == '\n') {
+							if (!comment_done) {
+								entry.comment = line.toString ();
+								comment_done = true;
+							}
+							if (b == '\n') {
+								entries.add (entry);
+								entry = new ParsedEntry ();
+								state = wait_defline;
+							}
+						} else if (!comment_done)
+							line.write (b);
+						break;
+				}
+			}
+			pos += count;
+		}
+		// keep trailing metadata, if any
+		if (entry.metadata.size () > 0 || entry.rows.size () > 0)
+			entries.add (entry);
+		return entries;
+	}
+
+	/** returns the column index of a row that is gap for its full length */
+	static ColumnIndex gapRow (long length) {
+		return new ColumnIndex (new long [] {0, length}, new long [] {0, 0},
+				new long [] {ColumnIndex.GAP});
+	}
+
+	/**
+	 * Builds the column index of a row from its sequence data
+	 * 
+	 * @param start
+	 *            The file offset of the row's first gap or sequence character
+	 * @param end
+	 *            The file offset at which the row's data ends
+	 */
+	static ColumnIndex scanRow (XmfaSource src, long start, long end)
+			throws IOException {
+		RowBuilder rb = new RowBuilder ();
+		byte [] buf = new byte [(int) Math.min (READ_SIZE, Math.max (0, end
+				- start))];
+		long pos = start;
+		while (pos < end) {
+			int count = src.read (pos, buf, 0, (int) Math.min (buf.length, end
+					- pos));
+			if (count <= 0)
+				break;
+			rb.addBytes (buf, 0, count, pos);
+			pos += count;
+		}
+		return rb.build ();
+	}
+
+	/**
+	 * Assembles the per-entry results into the alignment, in source order
+	 */
+	void merge (List entries) {
+		Vector tmp_ivs = new Vector ();
+		Vector tmp_offs = new Vector ();
+		Vector tmp_rows = new Vector ();
+		Vector tmp_comments = new Vector ();
+		Vector tmp_names = new Vector ();
+		List tmp_lengths = new ArrayList ();
+
+		for (int entryI = 0; entryI < entries.size (); entryI++) {
+			ParsedEntry entry = (ParsedEntry) entries.get (entryI);
+			for (int metaI = 0; metaI < entry.metadata.size (); metaI++)
+				xmfa.readMetadataLine ((String) entry.metadata.get (metaI));
+			if (entry.comment == null)
+				continue; // trailing data without a terminator
+
+			if (tmp_comments.size () == 0) {
+				for (int rowI = 0; rowI < entry.rows.size (); rowI++)
+					tmp_names.add (((ParsedRow) entry.rows.get (rowI)).defline.name);
+			}
+			tmp_comments.add (entry.comment);
+
+			if (xmfa.seq_count == 0)
+				xmfa.seq_count = entry.rows.size ();
+			// create a new Match element
+			Match m = new Match (xmfa.seq_count);
+			// copy file offsets
+			Match f_off_m = new Match (xmfa.seq_count);
+			ColumnIndex [] iv_rows = new ColumnIndex [xmfa.seq_count];
+			long iv_length = 0;
+			for (int rowI = 0; rowI < entry.rows.size (); rowI++) {
+				ParsedRow row = (ParsedRow) entry.rows.get (rowI);
+				int seqI = row.defline.seq_num;
+				m.setStart (seqI, row.defline.left);
+				m.setLength (seqI, row.defline.right);
+				m.setReverse (seqI, row.defline.reverse);
+				f_off_m.setStart (seqI, row.f_offset);
+				f_off_m.setLength (seqI, row.f_end_offset);
+				iv_rows[seqI] = row.index;
+				if (iv_length < row.columns)
+					iv_length = row.columns;
+			}
+			tmp_ivs.addElement (m);
+			tmp_offs.addElement (f_off_m);
+			tmp_rows.addElement (iv_rows);
+			tmp_lengths.add (new Long (iv_length));
+		}
+
+		xmfa.intervals = new Match [tmp_ivs.size ()];
+		xmfa.intervals = (Match []) tmp_ivs.toArray (xmfa.intervals);
+		xmfa.file_pos = new Match [tmp_offs.size ()];
+		xmfa.file_pos = (Match []) tmp_offs.toArray (xmfa.file_pos);
+		xmfa.buildLcbList ();
+
+		xmfa.iv_length = new long [tmp_lengths.size ()];
+		for (int ivI = 0; ivI < xmfa.iv_length.length; ivI++)
+			xmfa.iv_length[ivI] = ((Long) tmp_lengths.get (ivI)).longValue ();
+
+		if (!lazy) {
+			xmfa.col_index = new ColumnIndex [tmp_rows.size ()] [];
+			for (int ivI = 0; ivI < xmfa.col_index.length; ivI++) {
+				ColumnIndex [] iv_rows = (ColumnIndex []) tmp_rows.elementAt (ivI);
+				// rows missing from an interval are entirely gap
+				for (int seqI = 0; seqI < iv_rows.length; seqI++)
+					if (iv_rows[seqI] == null)
+						iv_rows[seqI] = gapRow (xmfa.iv_length[ivI]);
+				xmfa.col_index[ivI] = iv_rows;
+			}
+		}
+
+		xmfa.names = new String [tmp_names.size ()];
+		xmfa.names = (String []) tmp_names.toArray (xmfa.names);
+		xmfa.comments = new String [tmp_comments.size ()];
+		xmfa.comments = (String []) tmp_comments.toArray (xmfa.comments);
+	}
+}
@@ -0,0 +1,271 @@
+package org.gel.mauve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.biojava.bio.Annotation;
+import org.biojava.bio.seq.Feature;
+
+/**
+ * An inverted index of the qualifiers of a genome's features, through which
+ * the sequence navigator finds features by annotation without visiting each
+ * one. For each qualifier key, the distinct values are kept in lower case
+ * and sorted, each with the features holding it, so exact and prefix
+ * searches are binary searches. Substring searches go through a table of
+ * the trigrams of each value, built for a key the first time it is searched
+ * since it is several times the size of the values.
+ * <p>
+ * Matches are those of AnnotationContainsFilter: case insensitive, and a
+ * feature whose qualifier holds a list of values matches only if exactly one
+ * of them does.
+ */
+public class QualifierIndex {
+	/** values must equal the query */
+	public static final int EXACT = 0;
+
+	/** values must start with the query */
+	public static final int PREFIX = 1;
+
+	/** values must contain the query */
+	public static final int SUBSTRING = 2;
+
+	/** the length of the substrings indexed for substring searches */
+	static final int GRAM = 3;
+
+	/** the features, numbered in the order of the interval index */
+	private final Feature [] features;
+
+	/** maps each qualifier key to its KeyIndex */
+	private final Map keys = new HashMap ();
+
+	/** the values of one qualifier key and the features holding them */
+	static class KeyIndex {
+		/** the distinct values, in lower case and sorted */
+		String [] values;
+
+		/**
+		 * the features holding each value, ascending, listed once for each
+		 * time the value occurs in the feature's qualifier
+		 */
+		int [][] postings;
+
+		/** maps each trigram to the values containing it, null until used */
+		Map grams;
+
+		/** builds the trigram table, returning it */
+		synchronized Map getGrams () {
+			if (grams == null) {
+				HashMap lists = new HashMap ();
+				for (int valI = 0; valI < values.length; valI++) {
+					String value = values[valI];
+					for (int i = 0; i + GRAM <= value.length (); i++) {
+						Long gram = new Long (gram (value, i));
+						IntList list = (IntList) lists.get (gram);
+						if (list == null) {
+							list = new IntList ();
+							lists.put (gram, list);
+						}
+						if (list.size == 0 || list.ints[list.size - 1] != valI)
+							list.add (valI);
+					}
+				}
+				grams = new HashMap (lists.size () * 4 / 3 + 1);
+				for (Iterator eI = lists.entrySet ().iterator (); eI.hasNext ();) {
+					Map.Entry e = (Map.Entry) eI.next ();
+					grams.put (e.getKey (), ((IntList) e.getValue ()).toArray ());
+				}
+			}
+			return grams;
+		}
+	}
+
+	/** a growable list of ints */
+	static class IntList {
+		int [] ints = new int [4];
+
+		int size = 0;
+
+		void add (int i) {
+			if (size == ints.length) {
+				int [] bigger = new int [size * 2];
+				System.arraycopy (ints, 0, bigger, 0, size);
+				ints = bigger;
+			}
+			ints[size++] = i;
+		}
+
+		int [] toArray () {
+			int [] a = new int [size];
+			System.arraycopy (ints, 0, a, 0, size);
+			return a;
+		}
+	}
+
+	/** packs the trigram of a string starting at i into a long */
+	static long gram (String s, int i) {
+		return ((long) s.charAt (i) << 32) | ((long) s.charAt (i + 1) << 16)
+				| s.charAt (i + 2);
+	}
+
+	/** indexes the qualifiers of the features of an interval index */
+	public QualifierIndex (FeatureIntervalIndex index) {
+		ArrayList list = new ArrayList ();
+		for (Iterator fI = index.features (); fI.hasNext ();)
+			list.add (fI.next ());
+		features = (Feature []) list.toArray (new Feature [list.size ()]);
+		// key -> lower case value -> IntList of features
+		HashMap building = new HashMap ();
+		for (int featI = 0; featI < features.length; featI++) {
+			Annotation note = features[featI].getAnnotation ();
+			if (note == null)
+				continue;
+			for (Iterator kI = note.keys ().iterator (); kI.hasNext ();) {
+				Object key = kI.next ();
+				if (!(key instanceof String))
+					continue;
+				HashMap values = (HashMap) building.get (key);
+				if (values == null) {
+					values = new HashMap ();
+					building.put (key, values);
+				}
+				Object value = note.getProperty (key);
+				if (value instanceof Collection) {
+					for (Iterator vI = ((Collection) value).iterator (); vI
+							.hasNext ();)
+						post (values, vI.next (), featI);
+				} else
+					post (values, value, featI);
+			}
+		}
+		for (Iterator eI = building.entrySet ().iterator (); eI.hasNext ();) {
+			Map.Entry e = (Map.Entry) eI.next ();
+			HashMap values = (HashMap) e.getValue ();
+			KeyIndex ki = new KeyIndex ();
+			ki.values = (String []) values.keySet ().toArray (
+					new String [values.size ()]);
+			Arrays.sort (ki.values);
+			ki.postings = new int [ki.values.length] [];
+			for (int valI = 0; valI < ki.values.length; valI++)
+				ki.postings[valI] = ((IntList) values.get (ki.values[valI]))
+						.toArray ();
+			keys.put (e.getKey (), ki);
+		}
+	}
+
+	private static void post (HashMap values, Object value, int featI) {
+		if (value == null)
+			return;
+		String lower = value.toString ().toLowerCase ();
+		IntList list = (IntList) values.get (lower);
+		if (list == null) {
+			list = new IntList ();
+			values.put (lower, list);
+		}
+		list.add (featI);
+	}
+
+	/** returns the number of features indexed */
+	public int size () {
+		return features.length;
+	}
+
+	/** returns a feature by its number */
+	public Feature getFeature (int featI) {
+		return features[featI];
+	}
+
+	/**
+	 * finds the features with a qualifier whose value matches a query, case
+	 * insensitively
+	 *
+	 * @param key
+	 *            the qualifier key, as it appears in the annotation
+	 * @param query
+	 *            the value searched for
+	 * @param mode
+	 *            EXACT, PREFIX or SUBSTRING
+	 * @return the numbers of the matching features
+	 */
+	public BitSet find (String key, String query, int mode) {
+		BitSet found = new BitSet (features.length);
+		KeyIndex ki = (KeyIndex) keys.get (key);
+		if (ki == null)
+			return found;
+		query = query.toLowerCase ();
+		IntList hits = new IntList ();
+		if (mode == EXACT) {
+			int valI = Arrays.binarySearch (ki.values, query);
+			if (valI >= 0)
+				addAll (hits, ki.postings[valI]);
+		} else if (mode == PREFIX) {
+			int valI = Arrays.binarySearch (ki.values, query);
+			if (valI < 0)
+				valI = -valI - 1;
+			for (; valI < ki.values.length
+					&& ki.values[valI].startsWith (query); valI++)
+				addAll (hits, ki.postings[valI]);
+		} else if (query.length () < GRAM) {
+			for (int valI = 0; valI < ki.values.length; valI++)
+				if (ki.values[valI].indexOf (query) >= 0)
+					addAll (hits, ki.postings[valI]);
+		} else {
+			int [] candidates = candidates (ki, query);
+			for (int i = 0; i < candidates.length; i++)
+				if (ki.values[candidates[i]].indexOf (query) >= 0)
+					addAll (hits, ki.postings[candidates[i]]);
+		}
+		// a feature holding several matching values isn't a match
+		int [] sorted = hits.toArray ();
+		Arrays.sort (sorted);
+		for (int i = 0; i < sorted.length; i++) {
+			if ((i == 0 || sorted[i - 1] != sorted[i])
+					&& (i + 1 == sorted.length || sorted[i + 1] != sorted[i]))
+				found.set (sorted[i]);
+		}
+		return found;
+	}
+
+	/**
+	 * returns the values holding every trigram of a query, ascending, a
+	 * superset of those containing it
+	 */
+	private static int [] candidates (KeyIndex ki, String query) {
+		Map grams = ki.getGrams ();
+		int [] result = null;
+		for (int i = 0; i + GRAM <= query.length (); i++) {
+			int [] list = (int []) grams.get (new Long (gram (query, i)));
+			if (list == null)
+				return new int [0];
+			result = result == null ? list : intersect (result, list);
+			if (result.length == 0)
+				break;
+		}
+		return result;
+	}
+
+	private static int [] intersect (int [] a, int [] b) {
+		IntList both = new IntList ();
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else {
+				both.add (a[i]);
+				i++;
+				j++;
+			}
+		}
+		return both.toArray ();
+	}
+
+	private static void addAll (IntList list, int [] ints) {
+		for (int i = 0; i < ints.length; i++)
+			list.add (ints[i]);
+	}
+}
@@ -0,0 +1,65 @@
+package org.gel.mauve;
+
+import org.gel.mauve.tree.LruCache;
+
+/**
+ * Holds recently read blocks of alignment rows with the newlines removed,
+ * keyed by interval, sequence and block number. The cache is bounded by the
+ * approximate heap size of the blocks it holds; once the bound is passed the
+ * least recently used blocks are dropped, and are read again by the owner if
+ * they are needed. The most recently added block is always kept. All methods
+ * may be called from any thread.
+ */
+public class SegmentCache extends LruCache {
+	/** heap bytes charged for each block beyond its characters */
+	static final int BLOCK_OVERHEAD = 96;
+
+	/** identifies one block of one alignment row */
+	private static final class BlockKey {
+		final int ivI;
+
+		final int seqI;
+
+		final long block;
+
+		BlockKey (int ivI, int seqI, long block) {
+			this.ivI = ivI;
+			this.seqI = seqI;
+			this.block = block;
+		}
+
+		public boolean equals (Object o) {
+			if (!(o instanceof BlockKey))
+				return false;
+			BlockKey k = (BlockKey) o;
+			return ivI == k.ivI && seqI == k.seqI && block == k.block;
+		}
+
+		public int hashCode () {
+			long h = block * 31 + seqI;
+			h = h * 1000003 + ivI;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	public SegmentCache (long max_bytes) {
+		super (max_bytes, 256);
+	}
+
+	protected long sizeOf (Object value) {
+		return ((byte []) value).length + BLOCK_OVERHEAD;
+	}
+
+	/** returns a cached block of a row, or null if it is not cached */
+	public byte [] get (int ivI, int seqI, long block) {
+		return (byte []) getEntry (new BlockKey (ivI, seqI, block));
+	}
+
+	/**
+	 * adds a block of a row, evicting older blocks if the cache is full. The
+	 * array must not be modified afterwards.
+	 */
+	public void put (int ivI, int seqI, long block, byte [] data) {
+		putEntry (new BlockKey (ivI, seqI, block), data);
+	}
+}
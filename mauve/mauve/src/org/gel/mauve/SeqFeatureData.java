@@ -1,10 +1,13 @@
 package org.gel.mauve;
 
 import java.awt.Component;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -12,9 +15,9 @@ import javax.swing.JOptionPane;
 
 import org.biojava.bio.seq.Feature;
 import org.biojava.bio.seq.FeatureFilter;
-import org.biojava.bio.seq.FeatureHolder;
 import org.biojava.bio.symbol.Location;
 import org.gel.mauve.gui.navigation.AnnotationContainsFilter;
+import org.gel.mauve.gui.navigation.FeatureSearch;
 import org.gel.mauve.gui.navigation.NavigationPanel;
 
 /**
@@ -88,20 +91,113 @@ public class SeqFeatureData implements MauveConstants {
 	 */
 	public static LinkedList [] findFeatures (Genome [] nomes, String [][] data) {
 		LinkedList [] nome_data = new LinkedList [nomes.length];
-		FeatureFilter filter = getFilter (data);
 		for (int i = 0; i < nomes.length; i++) {
-			FeatureHolder hold = nomes[i].getAnnotationSequence ();
-			hold = hold.filter (filter, true);
-			LinkedList list = new LinkedList ();
-			list.add (nomes[i]);
-			Iterator itty = hold.features ();
-			while (itty.hasNext ())
-				list.add (itty.next ());
+			LinkedList list = new LinkedList (findFeatures (nomes[i], data));
+			list.addFirst (nomes[i]);
 			nome_data[i] = list;
 		}
 		return nome_data;
 	}
 
+	/**
+	 * Finds the features of one genome matching the specified key value
+	 * pairs.
+	 * 
+	 * @param nome
+	 *            The genome whose features should be searched
+	 * @param data
+	 *            An array of arrays containing desired key-value pairs, indeces
+	 *            specified in MauveConstants
+	 * @return The matching features, in order of location
+	 */
+	public static List findFeatures (Genome nome, String [][] data) {
+		return findFeatures (nome, data, null);
+	}
+
+	/**
+	 * Finds the features of one genome matching the specified key value
+	 * pairs for a background search, giving up between qualifier keys once
+	 * the search is cancelled. Building the genome's qualifier index, on its
+	 * first search, is not interrupted.
+	 * 
+	 * @param search
+	 *            The search being run, or null if it can't be cancelled
+	 * @return The matching features, in order of location, or null if the
+	 *         search was cancelled
+	 */
+	public static List findFeatures (Genome nome, String [][] data,
+			FeatureSearch search) {
+		QualifierIndex index = nome.getQualifierIndex ();
+		BitSet found = findFeatures (index, data, search);
+		if (found == null)
+			return null;
+		ArrayList list = new ArrayList (found.cardinality ());
+		for (int j = found.nextSetBit (0); j >= 0; j = found.nextSetBit (j + 1))
+			list.add (index.getFeature (j));
+		return list;
+	}
+
+	/**
+	 * Finds the features of a qualifier index matching the specified key
+	 * value pairs, as the filter from getFilter() would
+	 * 
+	 * @return The numbers of the matching features in the index
+	 */
+	static BitSet findFeatures (QualifierIndex index, String [][] data) {
+		return findFeatures (index, data, null);
+	}
+
+	/**
+	 * Finds the features of a qualifier index matching the specified key
+	 * value pairs, returning null once search is cancelled
+	 */
+	static BitSet findFeatures (QualifierIndex index, String [][] data,
+			FeatureSearch search) {
+		BitSet and = null;
+		for (int i = 0; i < data.length; i++) {
+			StringTokenizer toke = SeqFeatureData
+					.separateFields (SeqFeatureData
+							.readToActual (data[i][NavigationPanel.FIELD]));
+			int mode = Boolean.valueOf (data[i][NavigationPanel.EXACT])
+					.booleanValue () ? QualifierIndex.EXACT
+					: QualifierIndex.SUBSTRING;
+			BitSet or = new BitSet ();
+			while (toke.hasMoreTokens ()) {
+				if (search != null && search.isCancelled ())
+					return null;
+				or.or (index.find (toke.nextToken (),
+						data[i][NavigationPanel.VALUE], mode));
+			}
+			if (and != null)
+				and.and (or);
+			else
+				and = or;
+		}
+		return and != null ? and : new BitSet ();
+	}
+
+	/**
+	 * Builds the qualifier indexes of the annotated genomes of a model on a
+	 * background thread, so the first search needn't wait for them
+	 * 
+	 * @param model
+	 *            The model whose genomes should be indexed
+	 */
+	public static void indexInBackground (final BaseViewerModel model) {
+		Thread t = new Thread ("QualifierIndexer") {
+			public void run () {
+				for (int i = 0; i < model.getSequenceCount (); i++) {
+					Genome genome = model.getGenomeBySourceIndex (i);
+					if (genome != null && genome.getAnnotationSequence () != null)
+						genome.getQualifierIndex ();
+				}
+			}
+		};
+		t.setDaemon (true);
+		t.setPriority (Thread.MIN_PRIORITY);
+		t.start ();
+	}
+
 	/**
 	 * Removes multiple features with the same location, so only one is
 	 * displayed in the tree
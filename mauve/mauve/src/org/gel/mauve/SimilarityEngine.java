@@ -0,0 +1,466 @@
+package org.gel.mauve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.gel.mauve.backbone.Backbone;
+import org.gel.mauve.backbone.BackboneList;
+
+/**
+ * Computes the similarity indexes of several genomes in a single pass over
+ * the alignment. Each LCB is read once and the entropy of each of its columns
+ * is computed once; the value is then added to the base level window of every
+ * genome that has a residue in the column. The higher levels of each index
+ * are filled in by finish() once every LCB has been added.
+ * <p>
+ * Window sums are kept in fixed point so that they don't depend on the order
+ * columns are visited in. A window whose residues all lie in one LCB is set
+ * as soon as that LCB has been walked; windows that span LCBs are summed in a
+ * table until their last residue arrives. Different LCBs may be added from
+ * different threads at the same time.
+ */
+public class SimilarityEngine {
+	/** fixed point scale of the summed entropies */
+	static final double SCALE = (double) (1L << 40);
+
+	XMFAAlignment xmfa;
+
+	BackboneList bb_list;
+
+	/** the genomes whose indexes are built */
+	Genome [] genomes;
+
+	SimilarityIndex [] indexes;
+
+	/** the number of base level windows of each index */
+	long [] windows;
+
+	/**
+	 * the number of windows at the left of each index that cover the
+	 * positions window * max_resolution + 1 through (window + 1) *
+	 * max_resolution
+	 */
+	long [] regular_windows;
+
+	/**
+	 * the first position of the last window of each index, which is pulled
+	 * left to end before the sequence end if it would run past it
+	 */
+	long [] last_left;
+
+	/** partial sums of windows that span LCBs, window to {sum, count} */
+	Map [] pending;
+
+	/** owns the tables used to compute column entropies */
+	SimilarityIndex kernel;
+
+	/** entropy of a column outside backbone, where only one genome counts */
+	double outside_entropy;
+
+	/** the number of columns read at each place an LCB is sampled */
+	static final int SAMPLE_COLUMNS = 256;
+
+	/** the number of runs of SAMPLE_COLUMNS columns per sampled run */
+	static final int SAMPLE_STRIDE = 16;
+
+	/** summed scaled entropies of the sampled columns, by window group */
+	long [][] sample_sum;
+
+	/** the number of sampled residues, by window group */
+	int [][] sample_count;
+
+	/**
+	 * @param xmfa
+	 *            the alignment
+	 * @param bb_list
+	 *            the backbone, or null to compute entropy over every row
+	 * @param genomes
+	 *            the genomes to build indexes for
+	 */
+	public SimilarityEngine (XMFAAlignment xmfa, BackboneList bb_list,
+			Genome [] genomes) {
+		this.xmfa = xmfa;
+		this.bb_list = bb_list;
+		this.genomes = genomes;
+		indexes = new SimilarityIndex [genomes.length];
+		windows = new long [genomes.length];
+		regular_windows = new long [genomes.length];
+		last_left = new long [genomes.length];
+		pending = new Map [genomes.length];
+		for (int tI = 0; tI < genomes.length; tI++) {
+			SimilarityIndex sim = new SimilarityIndex (genomes[tI]);
+			indexes[tI] = sim;
+			pending[tI] = new HashMap ();
+			if (sim.getLevels () == 0)
+				continue;
+			long len = genomes[tI].getLength ();
+			int res = sim.getMaxResolution ();
+			windows[tI] = sim.getLevelSize (0);
+			regular_windows[tI] = windows[tI];
+			last_left[tI] = (windows[tI] - 1) * res + 1;
+			if (last_left[tI] + res > len) {
+				regular_windows[tI]--;
+				last_left[tI] = Math.max (1, len - res);
+			}
+			// windows without aligned residues get the value of no entropy
+			for (long wI = 0; wI < windows[tI]; wI++)
+				sim.setWindowEntropy (wI, 0);
+		}
+		kernel = new SimilarityIndex (0, 0, 5, new long [0], new long [0],
+				new byte [0]);
+		kernel.calculateLog2Table ();
+		kernel.calculateFracTable ();
+		int [] chars = new int [5];
+		chars[0] = 1;
+		chars[4] = xmfa.seq_count - 1;
+		outside_entropy = kernel.columnEntropy (chars);
+	}
+
+	/** returns the indexes, in the order of the genomes they were built for */
+	public SimilarityIndex [] getIndexes () {
+		return indexes;
+	}
+
+	/** returns the number of LCBs to add */
+	public int getIntervalCount () {
+		return xmfa.intervals.length;
+	}
+
+	/**
+	 * Walks an LCB and adds the entropy of its columns to the windows of each
+	 * genome. Each LCB must be added once.
+	 */
+	public void addInterval (int ivI) {
+		int count = genomes.length;
+		long [] cur_window = new long [count];
+		long [] cur_sum = new long [count];
+		int [] cur_count = new int [count];
+		Arrays.fill (cur_window, -1);
+		LcbWalk walk = new LcbWalk (ivI, AlignmentColumnCursor.DEFAULT_BLOCK_SIZE);
+		AlignmentColumnCursor cursor = walk.cursor;
+		while (cursor.next ()) {
+			for (int tI = 0; tI < count; tI++) {
+				int seqI = genomes[tI].getSourceIndex ();
+				if (cursor.isGap (seqI))
+					continue;
+				add (tI, cursor.getPosition (seqI), walk.value (tI),
+						cur_window, cur_sum, cur_count);
+			}
+		}
+		for (int tI = 0; tI < count; tI++)
+			flush (tI, cur_window[tI], cur_sum[tI], cur_count[tI]);
+	}
+
+	/**
+	 * Adds a coarse approximation of an LCB's entropy to the indexes. Only
+	 * runs of SAMPLE_COLUMNS columns spaced SAMPLE_STRIDE runs apart are
+	 * read, and each window is given the mean of the sampled columns near
+	 * it once finishSamples() is called. LCBs added this way can be added
+	 * again with addInterval() to set their windows exactly.
+	 */
+	public void sampleInterval (int ivI) {
+		synchronized (this) {
+			if (sample_sum == null) {
+				sample_sum = new long [genomes.length] [];
+				sample_count = new int [genomes.length] [];
+				for (int tI = 0; tI < genomes.length; tI++) {
+					int buckets = (int) (windows[tI] / sampleWindows (tI)) + 1;
+					sample_sum[tI] = new long [buckets];
+					sample_count[tI] = new int [buckets];
+				}
+			}
+		}
+		LcbWalk walk = new LcbWalk (ivI, SAMPLE_COLUMNS);
+		AlignmentColumnCursor cursor = walk.cursor;
+		long lcb_length = xmfa.getLcbLength (ivI);
+		for (long left = 0; left < lcb_length; left += SAMPLE_COLUMNS
+				* SAMPLE_STRIDE) {
+			cursor.seek (left);
+			for (int colI = 0; colI < SAMPLE_COLUMNS && cursor.next (); colI++) {
+				for (int tI = 0; tI < genomes.length; tI++) {
+					int seqI = genomes[tI].getSourceIndex ();
+					if (cursor.isGap (seqI))
+						continue;
+					long window = (cursor.getPosition (seqI) - 1)
+							/ indexes[tI].getMaxResolution ();
+					int bucket = (int) (window / sampleWindows (tI));
+					long value = walk.value (tI);
+					synchronized (sample_sum[tI]) {
+						sample_sum[tI][bucket] += value;
+						sample_count[tI][bucket]++;
+					}
+				}
+			}
+		}
+	}
+
+	/** returns the number of windows given the same sampled value */
+	long sampleWindows (int tI) {
+		return Math.max (1, SAMPLE_COLUMNS * SAMPLE_STRIDE
+				/ indexes[tI].getMaxResolution ());
+	}
+
+	/**
+	 * Sets every window holding a residue of some LCB from the columns
+	 * sampled near it and fills in the higher levels. Windows with no sampled
+	 * residue nearby, such as those in long gaps of the sampled columns, take
+	 * the value of the closest sampled group to their left, or else to their
+	 * right. Windows no LCB covers keep the value of no entropy, as
+	 * addInterval() never sets them. Call after every LCB has been sampled.
+	 */
+	public void finishSamples () {
+		for (int tI = 0; tI < genomes.length && sample_sum != null; tI++) {
+			long [] sums = sample_sum[tI];
+			int [] counts = sample_count[tI];
+			int sampled = -1;
+			for (int bI = 0; bI < counts.length && sampled < 0; bI++)
+				if (counts[bI] > 0)
+					sampled = bI;
+			BitSet aligned = alignedWindows (tI);
+			for (long wI = 0; sampled >= 0 && wI < windows[tI]; wI++) {
+				int bucket = (int) (wI / sampleWindows (tI));
+				if (counts[bucket] > 0)
+					sampled = bucket;
+				if (aligned.get ((int) wI))
+					indexes[tI].setWindowEntropy (wI, sums[sampled] / SCALE
+							/ counts[sampled]);
+			}
+			indexes[tI].finishLevels ();
+		}
+		sample_sum = null;
+		sample_count = null;
+	}
+
+	/**
+	 * returns the base level windows of an index that hold a residue of some
+	 * LCB, which are those addInterval() sets
+	 */
+	BitSet alignedWindows (int tI) {
+		BitSet aligned = new BitSet ();
+		if (windows[tI] == 0)
+			return aligned;
+		int seqI = genomes[tI].getSourceIndex ();
+		int res = indexes[tI].getMaxResolution ();
+		for (int ivI = 0; ivI < xmfa.intervals.length; ivI++) {
+			Match iv = xmfa.intervals[ivI];
+			long left = iv.getStart (seqI);
+			long right = iv.getLength (seqI);
+			if (left == 0)
+				continue;
+			long first = (left - 1) / res;
+			long last = Math.min (regular_windows[tI] - 1, (right - 1) / res);
+			if (first <= last)
+				aligned.set ((int) first, (int) last + 1);
+			// the last window may be pulled left over regular ones
+			if (regular_windows[tI] < windows[tI] && right >= last_left[tI])
+				aligned.set ((int) windows[tI] - 1);
+		}
+		return aligned;
+	}
+
+	/**
+	 * Recomputes the higher levels of each index over the windows an LCB
+	 * covers, so that a partly built index can be displayed
+	 */
+	public void refreshLevels (int ivI) {
+		Match iv = xmfa.intervals[ivI];
+		for (int tI = 0; tI < genomes.length; tI++) {
+			int seqI = genomes[tI].getSourceIndex ();
+			if (iv.getStart (seqI) == 0 || windows[tI] == 0)
+				continue;
+			int res = indexes[tI].getMaxResolution ();
+			long first = Math.max (0, (iv.getStart (seqI) - 1) / res - 1);
+			long last = Math.min (windows[tI] - 1, (iv.getLength (seqI) - 1)
+					/ res + 1);
+			if (first <= last)
+				indexes[tI].finishLevels (first, last);
+		}
+	}
+
+	/**
+	 * The state of a walk over the columns of one LCB, which gives the
+	 * fixed point entropy each genome sees in the current column
+	 */
+	class LcbWalk {
+		AlignmentColumnCursor cursor;
+
+		/** backbone segments of the LCB sorted by left column */
+		Backbone [] segs = new Backbone [0];
+
+		/** for each genome, the segments that include it */
+		int [][] genome_segs;
+
+		/** for each genome, the first of its segments not left behind */
+		int [] segI;
+
+		double [] seg_entropy;
+
+		/** the column each segment's entropy was computed for */
+		long [] seg_column;
+
+		/** the column column_value was computed for */
+		long column = -1;
+
+		long column_value;
+
+		/** computes the entropies of this walk's columns */
+		EntropyKernel entropies = new EntropyKernel (kernel);
+
+		LcbWalk (int ivI, int block_size) {
+			int count = genomes.length;
+			cursor = new AlignmentColumnCursor (xmfa, ivI, null, block_size);
+			genome_segs = new int [count] [];
+			segI = new int [count];
+			if (bb_list != null) {
+				segs = getSegments (ivI);
+				for (int tI = 0; tI < count; tI++) {
+					int seqI = genomes[tI].getSourceIndex ();
+					int [] tmp = new int [segs.length];
+					int seg_count = 0;
+					for (int bbI = 0; bbI < segs.length; bbI++)
+						if (segs[bbI].getSeqs ()[seqI])
+							tmp[seg_count++] = bbI;
+					genome_segs[tI] = new int [seg_count];
+					System.arraycopy (tmp, 0, genome_segs[tI], 0, seg_count);
+				}
+			}
+			seg_entropy = new double [segs.length];
+			seg_column = new long [segs.length];
+			Arrays.fill (seg_column, -1);
+		}
+
+		/**
+		 * returns the scaled entropy of the current column as seen by a
+		 * genome with a residue in it. Columns must be visited left to
+		 * right.
+		 */
+		long value (int tI) {
+			long col = cursor.getColumn ();
+			if (bb_list == null) {
+				if (column != col) {
+					column_value = Math.round (entropies.entropy (cursor.block,
+							cursor.getBlockColumn (), null)
+							* SCALE);
+					column = col;
+				}
+				return column_value;
+			}
+			// find the first backbone segment of this genome that
+			// covers the column
+			int [] gsegs = genome_segs[tI];
+			while (segI[tI] < gsegs.length
+					&& segs[gsegs[segI[tI]]].getLeftColumn ()
+							+ segs[gsegs[segI[tI]]].getLength () <= col)
+				segI[tI]++;
+			if (segI[tI] < gsegs.length
+					&& segs[gsegs[segI[tI]]].getLeftColumn () <= col) {
+				int bbI = gsegs[segI[tI]];
+				if (seg_column[bbI] != col) {
+					seg_entropy[bbI] = entropies.entropy (cursor.block, cursor
+							.getBlockColumn (), segs[bbI].getSeqs ());
+					seg_column[bbI] = col;
+				}
+				return Math.round (seg_entropy[bbI] * SCALE);
+			}
+			return Math.round (outside_entropy * SCALE);
+		}
+	}
+
+	/** returns the backbone segments of an LCB sorted by left column */
+	Backbone [] getSegments (int ivI) {
+		Backbone [] all = bb_list.getBackboneArray ();
+		List segs = new ArrayList ();
+		for (int bbI = 0; bbI < all.length; bbI++)
+			if (all[bbI].getLcbIndex () == ivI)
+				segs.add (all[bbI]);
+		Backbone [] sorted = (Backbone []) segs.toArray (new Backbone [segs
+				.size ()]);
+		Arrays.sort (sorted, new Comparator () {
+			public int compare (Object o_a, Object o_b) {
+				long a = ((Backbone) o_a).getLeftColumn ();
+				long b = ((Backbone) o_b).getLeftColumn ();
+				return a < b ? -1 : (a == b ? 0 : 1);
+			}
+		});
+		return sorted;
+	}
+
+	/** adds the entropy of the residue at a position to its windows */
+	void add (int tI, long position, long value, long [] cur_window,
+			long [] cur_sum, int [] cur_count) {
+		long window = (position - 1) / indexes[tI].getMaxResolution ();
+		if (window < regular_windows[tI]) {
+			if (window != cur_window[tI]) {
+				flush (tI, cur_window[tI], cur_sum[tI], cur_count[tI]);
+				cur_window[tI] = window;
+				cur_sum[tI] = 0;
+				cur_count[tI] = 0;
+			}
+			cur_sum[tI] += value;
+			cur_count[tI]++;
+		}
+		if (regular_windows[tI] < windows[tI] && position >= last_left[tI]
+				&& position < last_left[tI] + indexes[tI].getMaxResolution ())
+			addPending (tI, windows[tI] - 1, value, 1);
+	}
+
+	/**
+	 * sets a window summed while walking an LCB, or keeps the sum until the
+	 * rest of the window is added
+	 */
+	void flush (int tI, long window, long sum, int count) {
+		if (count == 0)
+			return;
+		if (count == indexes[tI].getMaxResolution ())
+			setWindow (tI, window, sum);
+		else
+			addPending (tI, window, sum, count);
+	}
+
+	void addPending (int tI, long window, long sum, int count) {
+		synchronized (pending[tI]) {
+			Long key = new Long (window);
+			long [] partial = (long []) pending[tI].get (key);
+			if (partial == null) {
+				partial = new long [2];
+				pending[tI].put (key, partial);
+			}
+			partial[0] += sum;
+			partial[1] += count;
+			if (partial[1] == indexes[tI].getMaxResolution ()) {
+				setWindow (tI, window, partial[0]);
+				pending[tI].remove (key);
+			}
+		}
+	}
+
+	void setWindow (int tI, long window, long sum) {
+		indexes[tI].setWindowEntropy (window, sum / SCALE
+				/ indexes[tI].getMaxResolution ());
+	}
+
+	/**
+	 * Sets the windows that are still missing residues, which happens only
+	 * when some positions aren't aligned, and fills in the higher levels of
+	 * every index. Call once after every LCB has been added.
+	 */
+	public void finish () {
+		for (int tI = 0; tI < genomes.length; tI++) {
+			Iterator iter = pending[tI].entrySet ().iterator ();
+			while (iter.hasNext ()) {
+				Map.Entry entry = (Map.Entry) iter.next ();
+				long [] partial = (long []) entry.getValue ();
+				setWindow (tI, ((Long) entry.getKey ()).longValue (),
+						partial[0]);
+			}
+			pending[tI].clear ();
+			indexes[tI].finishLevels ();
+		}
+	}
+}
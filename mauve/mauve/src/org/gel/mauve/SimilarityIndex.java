@@ -3,10 +3,10 @@ package org.gel.mauve;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.Arrays;
 
 import org.gel.mauve.backbone.Backbone;
 import org.gel.mauve.backbone.BackboneList;
+import org.gel.mauve.histogram.ArrayHistogramStore;
 import org.gel.mauve.histogram.ZoomHistogram;
 
 /**
@@ -32,10 +32,18 @@ public class SimilarityIndex extends ZoomHistogram implements Serializable {
 		calculateIndex (g, xmfa, bb_list);
 	}
 	
+	/**
+	 * Allocates an index for g whose values are filled in by a
+	 * SimilarityEngine
+	 */
+	SimilarityIndex (Genome g) {
+		super(g);
+	}
+
 	public SimilarityIndex(long seq_length, int level, int max_res, long[] sizes, long[] res,
 			byte [] sims) {
 		init (seq_length, level, max_res, sizes, res);
-		sim_index = sims;
+		sim_index = new ArrayHistogramStore (sims);
 	}
 
 	/** Change the sequence indexed to seqI */
@@ -95,7 +103,7 @@ public class SimilarityIndex extends ZoomHistogram implements Serializable {
 		long buffer_right = -1;
 		long buffer_size = 100000;
 		byte[][] cols = null;
-		double [] chars = new double [5];
+		int [] chars = new int [5];
 		double [] entropies = null;
 
 		calculateLog2Table ();
@@ -193,24 +201,7 @@ public class SimilarityIndex extends ZoomHistogram implements Serializable {
 						}
 					}
 
-					entropies[entI] = 0;
-					// count number of different characters in this column
-					// each gap counts as a different type
-					int char_types = 0;
-					for (i = 0; i < 5; i++)
-						char_types += chars[i];
-
-					// calculate entropy
-					for (i = 0; i < 4; i++) {
-						if (chars[i] == 0)
-							continue;
-						entropies[entI] -= frac ((int) chars[i], char_types)
-								* log_2 ((int) chars[i], char_types);
-					}
-					for (i = 0; i < chars[4]; i++) {
-						entropies[entI] -= frac (1, char_types)
-								* log_2 (1, char_types);
-					}
+					entropies[entI] = columnEntropy (chars);
 					skipGapColumns (g, cols, col_index);
 				}
 
@@ -223,17 +214,70 @@ public class SimilarityIndex extends ZoomHistogram implements Serializable {
 			for (int colI = col_left; colI < col_right; colI++) {
 				entropy_sum += entropies[colI];
 			}
-			double tmp = (entropy_sum / (double) (col_right - col_left));
-			tmp = 1 - tmp; // make lower entropy values higher
-			tmp -= .5; // convert to a value between -128 and 127
-			tmp *= 255;
-			sim_index[indexI] = (byte) tmp;
-			if (tmp < -127)
-				sim_index[indexI] = -128;
+			sim_index.set (indexI, toSimilarity (entropy_sum
+					/ (double) (col_right - col_left)));
 			cur_offset += max_resolution;
 		}
 		calculateHigherLevels();
 	}
+
+	/**
+	 * Calculates the entropy of an alignment column from its character
+	 * counts
+	 * 
+	 * @param chars
+	 *            the number of a, c, g, t and gap characters in the column,
+	 *            indexed through char_map
+	 */
+	double columnEntropy (int [] chars) {
+		double entropy = 0;
+		// count number of different characters in this column
+		// each gap counts as a different type
+		int char_types = 0;
+		for (int i = 0; i < 5; i++)
+			char_types += chars[i];
+
+		// calculate entropy
+		for (int i = 0; i < 4; i++) {
+			if (chars[i] == 0)
+				continue;
+			entropy -= frac (chars[i], char_types)
+					* log_2 (chars[i], char_types);
+		}
+		for (int i = 0; i < chars[4]; i++) {
+			entropy -= frac (1, char_types) * log_2 (1, char_types);
+		}
+		return entropy;
+	}
+
+	/** Converts the mean column entropy of a window into an index value */
+	static byte toSimilarity (double entropy) {
+		double tmp = entropy;
+		tmp = 1 - tmp; // make lower entropy values higher
+		tmp -= .5; // convert to a value between -128 and 127
+		tmp *= 255;
+		if (tmp < -127)
+			return -128;
+		return (byte) tmp;
+	}
+
+	/** Sets a value of the base level from the mean entropy of its window */
+	void setWindowEntropy (long windowI, double entropy) {
+		sim_index.set (windowI, toSimilarity (entropy));
+	}
+
+	/** Fills in the levels above the base level once it is complete */
+	void finishLevels () {
+		calculateHigherLevels ();
+	}
+
+	/**
+	 * Recomputes the levels above the base level over the base level values
+	 * first through last
+	 */
+	void finishLevels (long first, long last) {
+		calculateHigherLevels (first, last);
+	}
 	
 
 
@@ -351,9 +395,14 @@ public class SimilarityIndex extends ZoomHistogram implements Serializable {
 	 * @param end_ind
 	 * @return
 	 */
-	public boolean writeVals (OutputStream out, int start_ind, int end_ind) {
+	public boolean writeVals (OutputStream out, long start_ind, long end_ind) {
 		try {
-			out.write(sim_index, start_ind, end_ind - start_ind + 1);
+			byte [] buf = new byte [65536];
+			for (long indexI = start_ind; indexI <= end_ind; indexI += buf.length) {
+				int len = (int) Math.min (buf.length, end_ind - indexI + 1);
+				sim_index.read (indexI, buf, 0, len);
+				out.write (buf, 0, len);
+			}
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -368,12 +417,12 @@ public class SimilarityIndex extends ZoomHistogram implements Serializable {
 	 * @return
 	 */
 	public boolean writeAllVals (OutputStream out) {
-		return writeVals (out, 0, sim_index.length - 1);
+		return writeVals (out, 0, sim_index.size () - 1);
 	}
 	
 	
 	public boolean equals (Object compare) {
-		return Arrays.equals(sim_index, ((SimilarityIndex) compare).sim_index);
+		return sameValues ((SimilarityIndex) compare);
 	}
 
 
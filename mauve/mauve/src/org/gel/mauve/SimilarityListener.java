@@ -0,0 +1,11 @@
+package org.gel.mauve;
+
+import java.util.EventListener;
+
+/**
+ * Notified as the similarity indexes of an XmfaViewerModel are refined in the
+ * background. Calls come on the event dispatch thread.
+ */
+public interface SimilarityListener extends EventListener {
+	public void similarityChanged (ModelEvent evt);
+}
@@ -0,0 +1,171 @@
+package org.gel.mauve;
+
+import java.io.IOException;
+
+/**
+ * Refines coarse similarity indexes to full resolution on background
+ * threads. The indexes start out as the sampled approximation built by a
+ * SimilarityEngine, and each LCB is then added exactly, directly into the
+ * indexes being displayed. LCBs within the view of any genome are refined
+ * first, so whatever the user is looking at sharpens soonest; the choice is
+ * made again each time a thread takes an LCB, so scrolling redirects the work.
+ * Listeners of the model are told on the event dispatch thread as parts
+ * finish, at most every EVENT_INTERVAL milliseconds, and once more when every
+ * LCB is done. Refining stops, and nothing more is written, once the model is
+ * closed or reloaded.
+ */
+class SimilarityRefiner {
+	/** the fewest milliseconds between similarity events */
+	static final long EVENT_INTERVAL = 250;
+
+	XmfaViewerModel model;
+
+	SimilarityEngine engine;
+
+	/** true to write the finished indexes to the analysis cache */
+	boolean write_cache;
+
+	/** LCBs that have been taken by a thread */
+	boolean [] taken;
+
+	/** LCBs not yet finished */
+	int remaining;
+
+	long last_event = 0;
+
+	volatile boolean cancelled = false;
+
+	/**
+	 * @param model
+	 *            the model whose indexes are refined
+	 * @param engine
+	 *            the engine that sampled the indexes
+	 * @param write_cache
+	 *            true to write the indexes to the analysis cache once they
+	 *            are finished
+	 */
+	SimilarityRefiner (XmfaViewerModel model, SimilarityEngine engine,
+			boolean write_cache) {
+		this.model = model;
+		this.engine = engine;
+		this.write_cache = write_cache;
+		taken = new boolean [engine.getIntervalCount ()];
+		remaining = taken.length;
+	}
+
+	/** starts refining on up to threads daemon threads */
+	void start (int threads) {
+		threads = Math.max (1, Math.min (threads, taken.length));
+		for (int tI = 0; tI < threads; tI++) {
+			Thread worker = new Thread (new Runnable () {
+				public void run () {
+					refine ();
+				}
+			}, "similarity refinement " + tI);
+			worker.setDaemon (true);
+			worker.setPriority (Thread.MIN_PRIORITY);
+			worker.start ();
+		}
+	}
+
+	/** stops refining after the LCBs currently being added */
+	void cancel () {
+		cancelled = true;
+	}
+
+	/** returns true once every LCB has been refined */
+	synchronized boolean isFinished () {
+		return remaining == 0;
+	}
+
+	void refine () {
+		while (!cancelled) {
+			int ivI = next ();
+			if (ivI < 0)
+				return;
+			try {
+				engine.addInterval (ivI);
+				engine.refreshLevels (ivI);
+			} catch (RuntimeException re) {
+				// leave the sampled values for this LCB
+				re.printStackTrace ();
+			}
+			if (finished (ivI))
+				finish ();
+			else
+				fireIfDue ();
+		}
+	}
+
+	/**
+	 * takes the LCB to refine next, preferring those in view
+	 *
+	 * @return the LCB, or -1 if every LCB has been taken
+	 */
+	synchronized int next () {
+		int first = -1;
+		for (int ivI = 0; ivI < taken.length; ivI++) {
+			if (taken[ivI])
+				continue;
+			if (first < 0)
+				first = ivI;
+			if (inView (ivI)) {
+				first = ivI;
+				break;
+			}
+		}
+		if (first >= 0)
+			taken[first] = true;
+		return first;
+	}
+
+	/** returns true if an LCB overlaps the view of any genome */
+	boolean inView (int ivI) {
+		Match iv = model.getXmfa ().intervals[ivI];
+		for (int seqI = 0; seqI < model.getSequenceCount (); seqI++) {
+			Genome g = model.getGenomeBySourceIndex (seqI);
+			if (g == null || iv.getStart (seqI) == 0)
+				continue;
+			long view_left = g.getViewStart ();
+			long view_right = view_left + g.getViewLength ();
+			if (iv.getStart (seqI) <= view_right
+					&& iv.getLength (seqI) >= view_left)
+				return true;
+		}
+		return false;
+	}
+
+	/** records that an LCB is done, returns true if it was the last */
+	synchronized boolean finished (int ivI) {
+		remaining--;
+		return remaining == 0;
+	}
+
+	void fireIfDue () {
+		long now = System.currentTimeMillis ();
+		if (cancelled)
+			return;
+		synchronized (this) {
+			if (now - last_event < EVENT_INTERVAL)
+				return;
+			last_event = now;
+		}
+		model.fireSimilarityEvent ();
+	}
+
+	/** sets the windows that span LCBs and writes the finished indexes */
+	void finish () {
+		if (cancelled)
+			return;
+		engine.finish ();
+		model.fireSimilarityEvent ();
+		if (!write_cache)
+			return;
+		try {
+			model.writeSimilarityCache ();
+		} catch (IOException ioe) {
+			System.err.println ("Unable to write similarity cache: "
+					+ ioe.getMessage ());
+		}
+	}
+}
@@ -3,13 +3,15 @@ package org.gel.mauve;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Properties;
 import java.util.Vector;
 
 import org.gel.mauve.analysis.SnpExporter;
-import org.gel.mauve.tree.FileKey;
+import org.gel.mauve.tree.ColumnIndex;
+import org.gel.mauve.tree.ColumnIndexCache;
 import org.gel.mauve.tree.GISTree;
-import org.gel.mauve.tree.GapKey;
 import org.gel.mauve.tree.TreeStore;
 
 /**
@@ -17,10 +19,10 @@ import org.gel.mauve.tree.TreeStore;
  */
 public class XMFAAlignment implements Serializable {
 	/** Versioning for serializations of this object */
-	static final long serialVersionUID = 5;
+	static final long serialVersionUID = 6;
 
 	// The file containing alignment data (transient, can't be serialized)
-	protected transient RandomAccessFile xmfa_file;
+	protected transient XmfaSource xmfa_file;
 
 	// The match class instances store the boundaries of each aligned segment
 	protected Match [] intervals;
@@ -53,16 +55,104 @@ public class XMFAAlignment implements Serializable {
 	protected String [] names;
 
 	// A set of gist's that map sequence index and column index to file
-	// offset. indexed by [interval][sequence]
-	GISTree [][] gis_tree;
+	// offset. indexed by [interval][sequence]. Only used while parsing.
+	transient GISTree [][] gis_tree;
 
-	protected TreeStore ts = new TreeStore ();
+	protected transient TreeStore ts = new TreeStore ();
+
+	// Read-only column indexes frozen from gis_tree once parsing completes.
+	// indexed by [interval][sequence]
+	ColumnIndex [][] col_index;
+
+	// When loaded from a binary index, column indexes are decoded from it on
+	// first use
+	transient XmfaIndexFile index_file;
+
+	// The number of columns in each interval, when known without a column
+	// index
+	long [] iv_length;
+
+	// In lazy mode, column indexes are built on first use and kept here
+	// instead of in col_index
+	transient ColumnIndexCache index_cache;
+
+	// Per genome indexes from sequence position to interval, and the
+	// intervals array they were built from
+	private transient GenomeIntervalIndex [] interval_index;
+
+	private transient Match [] interval_index_ivs;
+
+	// Recently read blocks of rows with newlines removed, created on first
+	// use
+	private transient SegmentCache segment_cache;
 
 	// The size of data chunks to read from disk
 	protected int buffer_size = 500000;
 
 	public Properties metadata = new Properties ();
 
+	/** The number of threads used to parse an XMFA file */
+	static protected int parse_threads = Runtime.getRuntime ()
+			.availableProcessors ();
+
+	/**
+	 * Sets the number of threads used to parse XMFA files. A value of 1 selects
+	 * the sequential parser.
+	 */
+	public static void setParseThreads (int threads) {
+		parse_threads = threads < 1 ? 1 : threads;
+	}
+
+	/** returns the number of threads used to parse XMFA files */
+	public static int getParseThreads () {
+		return parse_threads;
+	}
+
+	/**
+	 * The most bytes of column index kept in memory in lazy mode, or 0 to
+	 * build every column index while parsing
+	 */
+	static protected long lazy_index_bytes = 0;
+
+	/**
+	 * Selects lazy column index construction. In lazy mode the parser records
+	 * only the file extent of each row, and a row's column index is built the
+	 * first time the row is read or its coordinates are translated. At most
+	 * max_bytes of column indexes are kept; the least recently used are
+	 * dropped and rebuilt on demand. A value of 0 builds every column index
+	 * while parsing.
+	 */
+	public static void setLazyIndexBytes (long max_bytes) {
+		lazy_index_bytes = max_bytes < 0 ? 0 : max_bytes;
+	}
+
+	/** returns the column index memory bound of lazy mode, 0 if not lazy */
+	public static long getLazyIndexBytes () {
+		return lazy_index_bytes;
+	}
+
+	/** The number of columns in each cached block of a row */
+	public static final int SEGMENT_COLUMNS = 16384;
+
+	/**
+	 * The most bytes of row data each alignment keeps in its segment cache, or
+	 * 0 to read every request from the file
+	 */
+	static protected long segment_cache_bytes = 32 * 1024 * 1024;
+
+	/**
+	 * Sets the memory bound of the segment cache used by readSequence and
+	 * getRange. Alignments that have already created their cache keep it.
+	 */
+	public static void setSegmentCacheBytes (long max_bytes) {
+		segment_cache_bytes = max_bytes < 0 ? 0 : max_bytes;
+	}
+
+	/** returns the memory bound of the segment cache, 0 if disabled */
+	public static long getSegmentCacheBytes () {
+		return segment_cache_bytes;
+	}
+
 	/**
 	 * Sets the file used as backing store for this alignment Call this method
 	 * to set the file after reading a serialized XMFAAlignment
@@ -70,17 +160,68 @@ public class XMFAAlignment implements Serializable {
 	 * @param f
 	 *            The xmfa file corresponding to this alignment
 	 */
-	public void setFile (RandomAccessFile f) {
-		xmfa_file = f;
+	public void setFile (RandomAccessFile f) throws IOException {
+		setFile (openSource (f));
+	}
+
+	/**
+	 * Returns a byte source for an XMFA file, decompressing it if the file is
+	 * BGZF compressed
+	 */
+	public static XmfaSource openSource (RandomAccessFile f) throws IOException {
+		if (BgzfXmfaSource.isBgzf (f))
+			return new BgzfXmfaSource (f);
+		if (BgzfXmfaSource.isGzip (f))
+			throw new IOException (
+					"Compressed alignments must be in BGZF format, please recompress the file with bgzip.");
+		return new MappedXmfaSource (f);
+	}
+
+	/**
+	 * Sets the byte source used as backing store for this alignment
+	 * 
+	 * @param src
+	 *            The xmfa data corresponding to this alignment
+	 */
+	public void setFile (XmfaSource src) {
+		xmfa_file = src;
+		if (segment_cache != null)
+			segment_cache.clear ();
+	}
+
+	/**
+	 * Creates an empty alignment, to be filled in from a binary index
+	 */
+	XMFAAlignment () {
 	}
 
 	/**
 	 * Constructor reads an XMFA alignment from an input file and indexes the
 	 * location of alignment bounds
 	 */
-	@SuppressWarnings(/*"deprecation"*/ "unchecked")
 	public XMFAAlignment (RandomAccessFile ir) throws java.io.IOException {
-		xmfa_file = ir;
+		this (openSource (ir));
+	}
+
+	/**
+	 * Constructor reads an XMFA alignment from a byte source and indexes the
+	 * location of alignment bounds
+	 */
+	@SuppressWarnings(/*"deprecation"*/ "unchecked")
+	public XMFAAlignment (XmfaSource src) throws java.io.IOException {
+		xmfa_file = src;
+		if (parse_threads > 1 || lazy_index_bytes > 0) {
+			// split the file on entry boundaries and parse the entries
+			// concurrently
+			newline_size = detectNewlineSize ();
+			boolean lazy = lazy_index_bytes > 0;
+			new ParallelXmfaParser (this, parse_threads, lazy).parse ();
+			if (lazy)
+				index_cache = new ColumnIndexCache (lazy_index_bytes);
+			ts = null;
+			return;
+		}
+
 		// simple parse of the input
 		Vector seq_nums = new Vector ();
 		Vector lend = new Vector ();
@@ -98,12 +239,12 @@ public class XMFAAlignment implements Serializable {
 		Vector tmp_names = new Vector ();
 		String cur_comment = null;
 
-		/** < true when in the midst of reading gaps */
-		long seq_offset = 0;
 		GISTree gist = null;
 
-		FileKey fk = null;
-		GapKey gk = null;
+		// the sequence or gap run being read, written to the tree when it ends
+		long fk_offset = 0;
+		long fk_length = 0;
+		long gk_length = 0;
 
 		// XMFA file parse states
 		final int wait_defline = 0;
@@ -121,11 +262,7 @@ public class XMFAAlignment implements Serializable {
 		int section_start = buffer_size;
 
 		// detect the number of bytes in a newline
-		xmfa_file.seek (0);
-		String first_line = xmfa_file.readLine ();
-		newline_size = (int) (xmfa_file.getFilePointer () - first_line
-				.length ());
-		xmfa_file.seek (0);
+		newline_size = detectNewlineSize ();
 
 		// begin parse loop
 		while (true) {
@@ -143,9 +280,8 @@ public class XMFAAlignment implements Serializable {
 
 				// read more data into the buffer
 				cur_base += bufI;
-				xmfa_file.seek (cur_base);
-				remaining_bytes = xmfa_file.read (buf, copy_len, buf.length
-						- copy_len);
+				remaining_bytes = xmfa_file.read (cur_base, buf, copy_len,
+						buf.length - copy_len);
 				cur_base -= copy_len;
 				if (remaining_bytes <= 0)
 					break;
@@ -171,25 +307,7 @@ public class XMFAAlignment implements Serializable {
 						String cur_line = new String (buf, section_start, bufI
 								- section_start);
 
-						// is this a sequence count specifier?
-						int sc_index = cur_line.indexOf ("SequenceCount");
-						if (sc_index >= 0) {
-							seq_count = Integer.parseInt (cur_line.substring (
-									sc_index + 13).trim ());
-						} else
-						// Otherwise, add it to the properties collection.
-						{
-							String [] parts = cur_line.split ("\\s", 2);
-
-							if (parts.length == 0) {
-								// Do nothing
-							} else if (parts.length == 1) {
-								metadata.setProperty (parts[0].trim (), "");
-							} else {
-								metadata.setProperty (parts[0].trim (),
-										parts[1].trim ());
-							}
-						}
+						readMetadataLine (cur_line);
 						// go back to waiting for a defline
 						state = wait_defline;
 					}
@@ -204,56 +322,20 @@ public class XMFAAlignment implements Serializable {
 						// parse a sequence left-end, right-end, and strand
 						// combination
 						// > number:start-end strand(+/-)
-						int colon_pos = cur_line.indexOf (':');
-						int seq_num = -1;
-						java.util.StringTokenizer seq_num_strtok = new java.util.StringTokenizer (
-								cur_line.substring (1, colon_pos));
-						if (seq_num_strtok.hasMoreTokens ()) {
-							seq_num = Integer.parseInt (seq_num_strtok
-									.nextToken ()) - 1;
+						XmfaDefline defline = XmfaDefline.parse (cur_line);
+						int seq_num = defline.seq_num;
+						if (defline.numbered)
 							seq_nums.addElement (new Integer (seq_num));
-						}
-						String tmp_str = cur_line.substring (colon_pos + 1);
-						int dash_pos = tmp_str.indexOf ('-');
-						int space_pos = tmp_str.indexOf (' ');
-						long first = Long.parseLong (tmp_str.substring (0,
-								dash_pos));
-						long second = Long.parseLong (tmp_str.substring (
-								dash_pos + 1, space_pos));
-						long left = first < second ? first : second;
-						long right = first < second ? second : first;
-						boolean cur_reverse = true;
-						// parse strand -- if + isn't found then assume - strand
-						if (tmp_str.indexOf ('+', space_pos + 1) < 0)
-							reverse.addElement (new Boolean (true));
-						else {
-							reverse.addElement (new Boolean (false));
-							cur_reverse = false;
-						}
-						lend.addElement (new Long (left));
-						rend.addElement (new Long (right));
+						reverse.addElement (new Boolean (defline.reverse));
+						lend.addElement (new Long (defline.left));
+						rend.addElement (new Long (defline.right));
 
 						// if we haven't yet completed the first alignment entry
 						// try to parse the sequence name
-						if (tmp_comments.size () == 0) {
-							int strand_pos = 0;
-							if (!cur_reverse)
-								strand_pos = tmp_str.indexOf ('+',
-										space_pos + 1);
-							else
-								strand_pos = tmp_str.indexOf ('-',
-										space_pos + 1);
-
-							if (tmp_str.length () > strand_pos + 2)
-								// there's a name to parse
-								tmp_names.add (tmp_str
-										.substring (strand_pos + 2));
-							else
-								tmp_names.add (new String (""));
-						}
+						if (tmp_comments.size () == 0)
+							tmp_names.add (defline.name);
 
 						// prepare for seq parsing
-						seq_offset = 0;
 						state = read_sequence;
 
 						gist = new GISTree (ts);
@@ -296,36 +378,33 @@ public class XMFAAlignment implements Serializable {
 					// set the sequence data file offset if this is the
 					// beginning of
 					// the entry
-					if (fk == null && gk == null) {
+					if (fk_length == 0 && gk_length == 0) {
 						f_offset.addElement (new Long (cur_base + bufI));
 					}
 
 					// it's all sequence data
 					long cur_len = gist.length ();
 					if (buf[bufI] == '-') {
-						if (fk != null) {
-							gist.insert (fk, GISTree.end);
-							if (cur_len + fk.getLength () != gist.length ()) {
+						if (fk_length != 0) {
+							gist.insertSequence (fk_offset, fk_length, GISTree.end);
+							if (cur_len + fk_length != gist.length ()) {
 								throw new RuntimeException ("Corrupt GisTree.");
 							}
-							fk = null;
+							fk_length = 0;
 						}
-						if (gk == null)
-							gk = new GapKey (0);
-						gk.length++;
+						gk_length++;
 					} else {
-						if (gk != null) {
-							gist.insert (gk, GISTree.end);
-							if (cur_len + gk.getLength () != gist.length ()) {
+						if (gk_length != 0) {
+							gist.insertGap (gk_length, GISTree.end);
+							if (cur_len + gk_length != gist.length ()) {
 								throw new RuntimeException ("Corrupt GisTree");
 							}
-							gk = null;
+							gk_length = 0;
 						}
-						if (fk == null) {
-							fk = new FileKey (seq_offset, cur_base + bufI);
+						if (fk_length == 0) {
+							fk_offset = cur_base + bufI;
 						}
-						fk.incrementLength ();
-						fk.setFLength (cur_base + bufI - fk.getOffset () + 1);
+						fk_length++;
 					}
 
 					break;
@@ -335,20 +414,20 @@ public class XMFAAlignment implements Serializable {
 
 					// do final processing from a previously parsed sequence
 					long curry_len = gist.length ();
-					if (fk != null) {
-						gist.insert (fk, GISTree.end);
-						if (curry_len + fk.getLength () != gist.length ()) {
+					if (fk_length != 0) {
+						gist.insertSequence (fk_offset, fk_length, GISTree.end);
+						if (curry_len + fk_length != gist.length ()) {
 							throw new RuntimeException ("Corrupt GisTree");
 						}
 					}
-					if (gk != null) {
-						gist.insert (gk, GISTree.end);
-						if (curry_len + gk.getLength () != gist.length ()) {
+					if (gk_length != 0) {
+						gist.insertGap (gk_length, GISTree.end);
+						if (curry_len + gk_length != gist.length ()) {
 							throw new RuntimeException ("Corrupt GisTree");
 						}
 					}
-					fk = null;
-					gk = null;
+					fk_length = 0;
+					gk_length = 0;
 
 					// sequence ends here
 					f_end_offset.addElement (new Long (cur_base + bufI));
@@ -454,7 +533,7 @@ public class XMFAAlignment implements Serializable {
 				}
 				if (gis_tree[ivI][seqI] == null) {
 					gis_tree[ivI][seqI] = new GISTree (ts);
-					// insert a GapKey of the full length of this interval
+					// insert a gap key of the full length of this interval
 					long iv_length = 0;
 					for (int seqJ = 0; seqJ < seq_count; seqJ++) {
 						if (gis_tree[ivI][seqJ] != null
@@ -462,7 +541,7 @@ public class XMFAAlignment implements Serializable {
 							iv_length = gis_tree[ivI][seqJ].length ();
 						}
 					}
-					gis_tree[ivI][seqI].insert (new GapKey (iv_length), 0);
+					gis_tree[ivI][seqI].insertGap (iv_length, 0);
 				}
 				treeI++;
 			}
@@ -477,6 +556,159 @@ public class XMFAAlignment implements Serializable {
 
 		// Prune the arrays.
 		ts.pruneArrays ();
+
+		freezeColumnIndexes ();
+	}
+
+	/**
+	 * Replaces the splay trees built during parsing with read-only column
+	 * indexes. Splay tree queries rearrange the tree, so they can't be shared
+	 * between threads; the frozen indexes can.
+	 */
+	protected void freezeColumnIndexes () {
+		col_index = new ColumnIndex [gis_tree.length] [];
+		for (int ivI = 0; ivI < gis_tree.length; ivI++) {
+			col_index[ivI] = new ColumnIndex [gis_tree[ivI].length];
+			for (int seqI = 0; seqI < gis_tree[ivI].length; seqI++)
+				col_index[ivI][seqI] = ColumnIndex.freeze (gis_tree[ivI][seqI]);
+		}
+		gis_tree = null;
+		ts = null;
+	}
+
+	/**
+	 * Returns the column index for one row of an interval
+	 * 
+	 * @param ivI
+	 *            The interval
+	 * @param seqI
+	 *            The sequence, by source index
+	 */
+	public ColumnIndex getColumnIndex (int ivI, int seqI) {
+		if (index_cache != null) {
+			ColumnIndex ci = index_cache.get (ivI, seqI);
+			if (ci == null) {
+				// indexes are immutable, so a racing build is harmless
+				ci = index_file != null ? index_file.readColumnIndex (ivI, seqI)
+						: scanColumnIndex (ivI, seqI);
+				index_cache.put (ivI, seqI, ci);
+			}
+			return ci;
+		}
+		ColumnIndex ci = col_index[ivI][seqI];
+		if (ci == null && index_file != null) {
+			// indexes are immutable, so a racing decode is harmless
+			ci = index_file.readColumnIndex (ivI, seqI);
+			col_index[ivI][seqI] = ci;
+		}
+		return ci;
+	}
+
+	/**
+	 * Builds the column index of a row from the XMFA data recorded for it in
+	 * file_pos
+	 */
+	private ColumnIndex scanColumnIndex (int ivI, int seqI) {
+		long f_start = file_pos[ivI].getStart (seqI);
+		// a row missing from the interval is entirely gap, and a row
+		// present without any data is empty
+		if (f_start == 0)
+			return ParallelXmfaParser.gapRow (iv_length[ivI]);
+		try {
+			if (f_start < 0)
+				return ParallelXmfaParser.scanRow (xmfa_file, 0, 0);
+			return ParallelXmfaParser.scanRow (xmfa_file, f_start, file_pos[ivI]
+					.getLength (seqI));
+		} catch (IOException ioe) {
+			throw new RuntimeException ("Unable to read alignment row.", ioe);
+		}
+	}
+
+	/** returns the lazy mode column index cache, or null if not lazy */
+	public ColumnIndexCache getColumnIndexCache () {
+		return index_cache;
+	}
+
+	/**
+	 * Builds the LCB lists and sequence lengths from the interval table. An
+	 * interval that contains alignment of more than one sequence is an LCB.
+	 */
+	void buildLcbList () {
+		Vector tmp_lcbs = new Vector ();
+		for (int ivI = 0; ivI < intervals.length; ivI++) {
+			int aligned_count = 0;
+			for (int seqI = 0; seqI < seq_count; seqI++)
+				if (intervals[ivI].getStart (seqI) != 0)
+					aligned_count++;
+			if (aligned_count > 1)
+				tmp_lcbs.addElement (new LCB (intervals[ivI], tmp_lcbs.size (),
+						seq_count));
+		}
+		lcb_list = new LCB [tmp_lcbs.size ()];
+		lcb_list = (LCB []) tmp_lcbs.toArray (lcb_list);
+		setSourceLcbList (new LCB [lcb_list.length]);
+		for (int ll = 0; ll < lcb_list.length; ll++)
+			getSourceLcbList ()[ll] = new LCB (lcb_list[ll]);
+
+		seq_length = new long [seq_count];
+		for (int seqI = 0; seqI < seq_count; seqI++) {
+			for (int ivI = 0; ivI < intervals.length; ivI++)
+				if (intervals[ivI].getLength (seqI) > seq_length[seqI])
+					seq_length[seqI] = intervals[ivI].getLength (seqI);
+		}
+	}
+
+	/**
+	 * Records one line of # metadata, either the sequence count or a property
+	 * 
+	 * @param cur_line
+	 *            the line content following the # character
+	 */
+	void readMetadataLine (String cur_line) {
+		// is this a sequence count specifier?
+		int sc_index = cur_line.indexOf ("SequenceCount");
+		if (sc_index >= 0) {
+			seq_count = Integer.parseInt (cur_line.substring (sc_index + 13)
+					.trim ());
+		} else
+		// Otherwise, add it to the properties collection.
+		{
+			String [] parts = cur_line.split ("\\s", 2);
+
+			if (parts.length == 0) {
+				// Do nothing
+			} else if (parts.length == 1) {
+				metadata.setProperty (parts[0].trim (), "");
+			} else {
+				metadata.setProperty (parts[0].trim (), parts[1].trim ());
+			}
+		}
+	}
+
+	/**
+	 * Determines how many bytes make up a newline by examining the end of the
+	 * first line in the file, the same way RandomAccessFile.readLine() would
+	 */
+	private int detectNewlineSize () throws IOException {
+		byte [] head = new byte [4096];
+		long off = 0;
+		while (true) {
+			int count = xmfa_file.read (off, head, 0, head.length);
+			if (count <= 0)
+				return 0;
+			for (int i = 0; i < count; i++) {
+				if (head[i] == '\n')
+					return 1;
+				if (head[i] == '\r') {
+					byte [] next = new byte [1];
+					if (xmfa_file.read (off + i + 1, next, 0, 1) == 1
+							&& next[0] == '\n')
+						return 2;
+					return 1;
+				}
+			}
+			off += count;
+		}
 	}
 
 	/**
@@ -505,7 +737,7 @@ public class XMFAAlignment implements Serializable {
 	/**
 	 * Extracts columns from the sequence alignment containing the specified
 	 * range of the specified sequence. The returned alignment columns will
-	 * contain gaps and any whitespace in the XMFA source (e.g. newlines)
+	 * contain gaps, but not the newlines of the XMFA source
 	 * 
 	 * 
 	 * @param g
@@ -520,10 +752,10 @@ public class XMFAAlignment implements Serializable {
 	 */
 	public byte[][] getRange (Genome g, long lend, long rend) {
 		long cur_offset = lend;
-		byte[][] cols = new byte [seq_count][];
 		int seqJ = 0;
-		for (seqJ = 0; seqJ < seq_count; seqJ++)
-			cols[seqJ] = new byte [0];
+		// the columns read from each interval, joined once at the end
+		Vector pieces = new Vector ();
+		long total_cols = 0;
 
 		while (cur_offset <= rend) {
 			// determine which LCB we start in
@@ -548,16 +780,13 @@ public class XMFAAlignment implements Serializable {
 				lcb_offset = intervals[ivI].getReverse (g) ? lcb_right_offset
 						- read_size : lcb_offset;
 
-				long fk_left_col = gis_tree[ivI][g.getSourceIndex ()]
-						.seqPosToColumn (lcb_offset);
-				long fk_right_col = gis_tree[ivI][g.getSourceIndex ()]
-						.seqPosToColumn (lcb_right_offset);
+				ColumnIndex ci = getColumnIndex (ivI, g.getSourceIndex ());
+				long fk_left_col = ci.seqPosToColumn (lcb_offset);
+				long fk_right_col = ci.seqPosToColumn (lcb_right_offset);
 
-				byte[][] byte_bufs = new byte [seq_count][];
-				for (seqJ = 0; seqJ < seq_count; seqJ++) {
-					byte_bufs[seqJ] = readRawSequence (ivI, seqJ, fk_left_col,
-							fk_right_col - fk_left_col);
-				}
+				// every row's columns come from one planned set of reads
+				byte[][] byte_bufs = readSequences (ivI, null, fk_left_col,
+						fk_right_col - fk_left_col);
 
 				// just assume that the correct number of columns was read
 				cur_offset += read_size;
@@ -569,15 +798,21 @@ public class XMFAAlignment implements Serializable {
 						reverse (byte_bufs[seqJ]);
 					}
 				}
-				// append the columns to cols
-				for (seqJ = 0; seqJ < seq_count; seqJ++) {
-					byte [] tmp_buf = new byte [cols[seqJ].length + byte_bufs[seqJ].length];
-					System.arraycopy (cols[seqJ], 0, tmp_buf, 0, cols[seqJ].length);
-					System.arraycopy (byte_bufs[seqJ], 0, tmp_buf, cols[seqJ].length, byte_bufs[seqJ].length);
-					cols[seqJ] = tmp_buf;
-				}
+				pieces.add (byte_bufs);
+				total_cols += byte_bufs[g.getSourceIndex ()].length;
 			}
 		}
+
+		// append the columns of each interval to cols
+		byte[][] cols = new byte [seq_count][(int) total_cols];
+		int col_off = 0;
+		for (int pieceI = 0; pieceI < pieces.size (); pieceI++) {
+			byte[][] byte_bufs = (byte[][]) pieces.get (pieceI);
+			for (seqJ = 0; seqJ < seq_count; seqJ++)
+				System.arraycopy (byte_bufs[seqJ], 0, cols[seqJ], col_off,
+						byte_bufs[seqJ].length);
+			col_off += byte_bufs[g.getSourceIndex ()].length;
+		}
 		return cols;
 	}
 
@@ -616,6 +851,169 @@ public class XMFAAlignment implements Serializable {
 		return col_offset;
 	}
 
+	/**
+	 * Reads columns of one row with the newlines removed. Rows are read from
+	 * the file in blocks of SEGMENT_COLUMNS columns, which are kept in the
+	 * segment cache so that nearby and repeated requests don't go back to
+	 * the file.
+	 * 
+	 * @param ivI
+	 *            The interval to read
+	 * @param seqI
+	 *            The sequence to read
+	 * @param left_col
+	 *            Left column index (interval local coordinates)
+	 * @param length
+	 *            Length to read in columns (includes gaps)
+	 * @return a new array of length columns
+	 */
+	public byte [] readSequence (int ivI, int seqI, long left_col, long length) {
+		return readSequences (ivI, new int [] { seqI }, left_col, length)[0];
+	}
+
+	/**
+	 * Reads the same columns of several rows with the newlines removed, as
+	 * readSequence does for one. The blocks missing from the segment cache
+	 * are read from the file together, so rows that lie near each other in
+	 * the file are read with one sequential read.
+	 * 
+	 * @param ivI
+	 *            The interval to read
+	 * @param seqs
+	 *            The sequences to read, or null for every sequence
+	 * @param left_col
+	 *            Left column index (interval local coordinates)
+	 * @param length
+	 *            Length to read in columns (includes gaps)
+	 * @return a new array of length columns for each sequence, in the order of
+	 *         seqs
+	 */
+	public byte [][] readSequences (int ivI, int [] seqs, long left_col,
+			long length) {
+		if (seqs == null) {
+			seqs = new int [seq_count];
+			for (int seqI = 0; seqI < seq_count; seqI++)
+				seqs[seqI] = seqI;
+		}
+		byte [][] result = new byte [seqs.length][];
+		SegmentCache cache = getSegmentCache ();
+		if (cache == null) {
+			result = readRawSequences (ivI, seqs, left_col, length);
+			for (int sI = 0; sI < seqs.length; sI++)
+				result[sI] = filterNewlines (result[sI]);
+			return result;
+		}
+		if (length == 0) {
+			for (int sI = 0; sI < seqs.length; sI++)
+				result[sI] = new byte [0];
+			return result;
+		}
+
+		// look up every block, noting the runs of missing blocks in each row
+		long first_block = left_col / SEGMENT_COLUMNS;
+		int block_count = (int) ((left_col + length - 1) / SEGMENT_COLUMNS
+				- first_block + 1);
+		byte [][][] blocks = new byte [seqs.length][block_count][];
+		long [] row_length = new long [seqs.length];
+		Vector misses = new Vector ();
+		for (int sI = 0; sI < seqs.length; sI++) {
+			row_length[sI] = getColumnIndex (ivI, seqs[sI]).length ();
+			if (left_col < 0 || length < 0
+					|| left_col + length > row_length[sI])
+				throw new ArrayIndexOutOfBoundsException ();
+			int run_start = -1;
+			for (int blockI = 0; blockI <= block_count; blockI++) {
+				if (blockI < block_count)
+					blocks[sI][blockI] = cache.get (ivI, seqs[sI], first_block
+							+ blockI);
+				boolean missing = blockI < block_count
+						&& blocks[sI][blockI] == null;
+				if (missing && run_start < 0)
+					run_start = blockI;
+				if (!missing && run_start >= 0) {
+					misses.add (new int [] { sI, run_start, blockI });
+					run_start = -1;
+				}
+			}
+		}
+
+		// read the missing runs of every row at once and cache their blocks.
+		// blocks never change, so a racing read is harmless
+		if (misses.size () > 0) {
+			RawSpan [] spans = new RawSpan [misses.size ()];
+			for (int missI = 0; missI < spans.length; missI++) {
+				int [] miss = (int []) misses.get (missI);
+				long col = (first_block + miss[1]) * SEGMENT_COLUMNS;
+				long end = Math.min ((first_block + miss[2]) * SEGMENT_COLUMNS,
+						row_length[miss[0]]);
+				spans[missI] = planRawRead (ivI, seqs[miss[0]], col, end - col);
+			}
+			byte [][] raw = readRawSpans (spans);
+			for (int missI = 0; missI < spans.length; missI++) {
+				int [] miss = (int []) misses.get (missI);
+				byte [] run = filterNewlines (raw[missI]);
+				for (int blockI = miss[1]; blockI < miss[2]; blockI++) {
+					int off = (blockI - miss[1]) * SEGMENT_COLUMNS;
+					byte [] data = new byte [Math.min (SEGMENT_COLUMNS,
+							run.length - off)];
+					System.arraycopy (run, off, data, 0, data.length);
+					blocks[miss[0]][blockI] = data;
+					cache.put (ivI, seqs[miss[0]], first_block + blockI, data);
+				}
+			}
+		}
+
+		// copy the requested columns out of the blocks
+		for (int sI = 0; sI < seqs.length; sI++) {
+			byte [] seq = new byte [(int) length];
+			long col = left_col;
+			while (col < left_col + length) {
+				int blockI = (int) (col / SEGMENT_COLUMNS - first_block);
+				long block_start = (first_block + blockI) * SEGMENT_COLUMNS;
+				byte [] data = blocks[sI][blockI];
+				int copy = (int) Math.min (block_start + data.length - col,
+						left_col + length - col);
+				System.arraycopy (data, (int) (col - block_start), seq,
+						(int) (col - left_col), copy);
+				col += copy;
+			}
+			result[sI] = seq;
+		}
+		return result;
+	}
+
+	/** returns the segment cache, or null if it has been disabled */
+	public synchronized SegmentCache getSegmentCache () {
+		if (segment_cache == null && segment_cache_bytes > 0)
+			segment_cache = new SegmentCache (segment_cache_bytes);
+		return segment_cache;
+	}
+
+	/**
+	 * The file extent of a range of columns of one row. The columns are
+	 * lead_gaps gap characters followed by length bytes of the file, which
+	 * may include newlines.
+	 */
+	static class RawSpan {
+		/** file offset of the first byte to read */
+		long offset;
+
+		/** the number of bytes to read from the file */
+		int length;
+
+		/** gap characters that precede the bytes read from the file */
+		int lead_gaps;
+	}
+
+	/**
+	 * Rows of an interval whose spans are separated by at most this many bytes
+	 * are read with a single read
+	 */
+	static final int COALESCE_GAP = 64 * 1024;
+
+	/** The longest single read made when merging the spans of several rows */
+	static final int MAX_COALESCED_READ = 16 * 1024 * 1024;
+
 	/**
 	 * Read sequence data (and any gap characters) from a file, filtering
 	 * newlines column index starts at 0!!
@@ -630,70 +1028,81 @@ public class XMFAAlignment implements Serializable {
 	 *            Length to read in columns (includes gaps)
 	 */
 	public byte [] readRawSequence (int ivI, int seqI, long left_col, long length) {
+		return readRawSpans (new RawSpan [] { planRawRead (ivI, seqI, left_col,
+				length) })[0];
+	}
+
+	/**
+	 * Reads the same columns of several rows as readRawSequence does for one,
+	 * merging reads of rows that lie near each other in the file
+	 * 
+	 * @param seqs
+	 *            The sequences to read
+	 * @return the raw bytes of each sequence, in the order of seqs
+	 */
+	public byte [][] readRawSequences (int ivI, int [] seqs, long left_col,
+			long length) {
+		RawSpan [] spans = new RawSpan [seqs.length];
+		for (int sI = 0; sI < seqs.length; sI++)
+			spans[sI] = planRawRead (ivI, seqs[sI], left_col, length);
+		return readRawSpans (spans);
+	}
+
+	/**
+	 * Finds the file extent of a range of columns of one row
+	 */
+	RawSpan planRawRead (int ivI, int seqI, long left_col, long length) {
+		ColumnIndex ci = getColumnIndex (ivI, seqI);
+		RawSpan span = new RawSpan ();
 		// check boundary condition
-		if (gis_tree[ivI][seqI].length () == 0) {
+		if (ci.length () == 0) {
 			if (length == 0)
-				return new byte [0];
+				return span;
 			else
 				throw new ArrayIndexOutOfBoundsException ();
 		}
 
-		int l_iter = gis_tree[ivI][seqI].find (left_col);
-		int r_iter = gis_tree[ivI][seqI].find (left_col + length - 1);
-		FileKey l_fk, r_fk;
+		int l_iter = ci.find (left_col);
+		int r_iter = ci.find (left_col + length - 1);
 		long l_gaps = 0;
 
 		// if the requested region contains nothing but gap then just return a
 		// buffer of gaps
-		long seq_off = gis_tree[ivI][seqI].getSequenceStart (l_iter);
-		if (gis_tree[ivI][seqI].sequenceLength () <= left_col
-				&& gis_tree[ivI][seqI].getSeqLength (l_iter) == 0
+		long seq_off = ci.getSequenceStart (l_iter);
+		if (ci.sequenceLength () <= left_col && ci.sequenceLength () == 0
 				&& seq_off <= left_col) {
-			if (left_col + length - 1 > gis_tree[ivI][seqI].length ())
+			if (left_col + length - 1 > ci.length ())
 				throw new ArrayIndexOutOfBoundsException ();
-			byte [] bb = new byte [(int) length];
-			for (int bbI = 0; bbI < bb.length; bbI++)
-				bb[bbI] = (byte) '-';
-			return bb;
+			span.lead_gaps = (int) length;
+			return span;
 		}
 
 		// check for the case where the requested region lies within
 		// the same gap in the middle of the sequence
-		if (gis_tree[ivI][seqI].getKey (l_iter) instanceof GapKey
-				&& gis_tree[ivI][seqI].getKey (r_iter) instanceof GapKey
-				&& gis_tree[ivI][seqI].getKey (l_iter) == gis_tree[ivI][seqI]
-						.getKey (r_iter)) {
-			byte [] bb = new byte [(int) length];
-			for (int bbI = 0; bbI < bb.length; bbI++)
-				bb[bbI] = (byte) '-';
-			return bb;
-		}
-
-		if (gis_tree[ivI][seqI].getKey (l_iter) instanceof FileKey) {
-			l_fk = (FileKey) gis_tree[ivI][seqI].getKey (l_iter);
-		} else {
-			// if we started in a gap the next one should be a FileKey
-			seq_off = gis_tree[ivI][seqI].getSequenceStart (l_iter);
-			l_iter = gis_tree[ivI][seqI].find_seqindex (seq_off);
-			l_fk = (FileKey) gis_tree[ivI][seqI].getKey (l_iter);
-		}
-
-		if (gis_tree[ivI][seqI].getKey (r_iter) instanceof FileKey) {
-			r_fk = (FileKey) gis_tree[ivI][seqI].getKey (r_iter);
-		} else {
-			// if we started in a gap the next one should be a FileKey
-			seq_off = gis_tree[ivI][seqI].getSequenceStart (r_iter) - 1;
-			r_iter = gis_tree[ivI][seqI].find_seqindex (seq_off);
-			r_fk = (FileKey) gis_tree[ivI][seqI].getKey (r_iter);
-		}
-
-		// should have l_fk and r_fk now.
+		if (ci.isGap (l_iter) && l_iter == r_iter) {
+			span.lead_gaps = (int) length;
+			return span;
+		}
+
+		if (ci.isGap (l_iter)) {
+			// if we started in a gap the next one should be a sequence run
+			seq_off = ci.getSequenceStart (l_iter);
+			l_iter = ci.findSeqIndex (seq_off);
+		}
+
+		if (ci.isGap (r_iter)) {
+			// if we ended in a gap the previous one should be a sequence run
+			seq_off = ci.getSequenceStart (r_iter) - 1;
+			r_iter = ci.findSeqIndex (seq_off);
+		}
+
+		// should have sequence runs at l_iter and r_iter now.
 		// get the file offsets to read from these
-		long l_off = left_col - gis_tree[ivI][seqI].getStart (l_iter);
+		long l_off = left_col - ci.getStart (l_iter);
 		// calculate the number of newlines in the space between the first
 		// desired
 		// column and the first character in this key...
-		long key_col_pos = gis_tree[ivI][seqI].getStart (l_iter) % line_width;
+		long key_col_pos = ci.getStart (l_iter) % line_width;
 		long l_newlines = ((key_col_pos + l_off) / 80) * newline_size;
 		if (l_off < 0) {
 			// this happens when the desired column is a gap. just skip ahead
@@ -701,32 +1110,83 @@ public class XMFAAlignment implements Serializable {
 			l_newlines = 0;
 			l_off = 0;
 		}
-		l_off += l_fk.getOffset () + l_newlines;
+		l_off += ci.getOffset (l_iter) + l_newlines;
 
-		long r_off = left_col + length - 1
-				- gis_tree[ivI][seqI].getStart (r_iter);
-		long r_key_col = gis_tree[ivI][seqI].getStart (r_iter) % line_width;
+		long r_off = left_col + length - 1 - ci.getStart (r_iter);
+		long r_key_col = ci.getStart (r_iter) % line_width;
 		long r_newlines = ((r_key_col + r_off) / line_width) * newline_size;
-		r_off += r_fk.getOffset () + r_newlines;
+		r_off += ci.getOffset (r_iter) + r_newlines;
 
 		// now that the exact file offsets of the desired sequence have been
 		// calculated, read it from the XMFA.
 		if (r_off - l_off + 1 + l_gaps < 0) {
 			throw new RuntimeException ("Unexpected Error.");
 		}
-		byte [] byte_buf = new byte [(int) (r_off - l_off + 1 + l_gaps)];
-		for (int l_gapI = 0; l_gapI < l_gaps; l_gapI++) {
-			byte_buf[l_gapI] = (byte) '-';
-		}
+		span.offset = l_off;
+		span.length = (int) (r_off - l_off + 1);
+		span.lead_gaps = (int) l_gaps;
+		return span;
+	}
 
+	/**
+	 * Reads the bytes of several spans. Spans are read in file order, and
+	 * spans separated by no more than COALESCE_GAP bytes are merged into a
+	 * single read which is split up afterwards.
+	 */
+	byte [][] readRawSpans (RawSpan [] spans) {
+		byte [][] bufs = new byte [spans.length][];
+		Vector order = new Vector ();
+		for (int spanI = 0; spanI < spans.length; spanI++) {
+			bufs[spanI] = new byte [spans[spanI].lead_gaps + spans[spanI].length];
+			for (int l_gapI = 0; l_gapI < spans[spanI].lead_gaps; l_gapI++)
+				bufs[spanI][l_gapI] = (byte) '-';
+			if (spans[spanI].length > 0)
+				order.add (new Integer (spanI));
+		}
+		final RawSpan [] sorted = spans;
+		Collections.sort (order, new Comparator () {
+			public int compare (Object a, Object b) {
+				long oa = sorted[((Integer) a).intValue ()].offset;
+				long ob = sorted[((Integer) b).intValue ()].offset;
+				return oa < ob ? -1 : (oa > ob ? 1 : 0);
+			}
+		});
 		try {
-			xmfa_file.seek (l_off);
-			xmfa_file.read (byte_buf, (int) l_gaps, byte_buf.length
-					- (int) l_gaps);
+			int orderI = 0;
+			while (orderI < order.size ()) {
+				// extend the read while the next span starts close enough
+				int first = orderI;
+				long start = spans[((Integer) order.get (orderI)).intValue ()].offset;
+				long end = start;
+				while (orderI < order.size ()) {
+					RawSpan span = spans[((Integer) order.get (orderI)).intValue ()];
+					long span_end = span.offset + span.length;
+					if (orderI > first
+							&& (span.offset - end > COALESCE_GAP || Math.max (
+									end, span_end)
+									- start > MAX_COALESCED_READ))
+						break;
+					end = Math.max (end, span_end);
+					orderI++;
+				}
+				if (orderI - first == 1) {
+					int spanI = ((Integer) order.get (first)).intValue ();
+					xmfa_file.read (start, bufs[spanI], spans[spanI].lead_gaps,
+							spans[spanI].length);
+					continue;
+				}
+				byte [] buf = new byte [(int) (end - start)];
+				xmfa_file.read (start, buf, 0, buf.length);
+				for (int spanI = first; spanI < orderI; spanI++) {
+					int sI = ((Integer) order.get (spanI)).intValue ();
+					System.arraycopy (buf, (int) (spans[sI].offset - start),
+							bufs[sI], spans[sI].lead_gaps, spans[sI].length);
+				}
+			}
 		} catch (IOException e) {
 			throw new RuntimeException ("Unexpected file reading error.", e);
 		}
-		return byte_buf;
+		return bufs;
 	}
 
 	static public byte [] filterNewlines (byte [] byte_buf) {
@@ -748,20 +1208,41 @@ public class XMFAAlignment implements Serializable {
 	 * sequence
 	 */
 	int getLCB (Genome g, long position) {
-		int ivI = 0;
-		for (; ivI < intervals.length; ivI++) {
-			if (intervals[ivI].getStart (g) <= position
-					&& position <= intervals[ivI].getLength (g))
-				break; // found the starting interval -- remember lengths array
-			// contains r_end
-		}
+		int ivI = getIntervalIndex (g).find (position);
 		// throw an exception if the requested range couldn't be found
-		if (ivI == intervals.length)
+		if (ivI < 0)
 			throw new ArrayIndexOutOfBoundsException ("genome " + g
 					+ " position " + position);
 		return ivI;
 	}
 
+	/**
+	 * Finds the LCBs containing each of a set of positions in one pass
+	 * 
+	 * @param positions
+	 *            Positions in g, sorted in increasing order
+	 * @return the LCB index containing each position, or -1 for positions that
+	 *         no LCB contains
+	 */
+	public int [] getLCBs (Genome g, long [] positions) {
+		return getIntervalIndex (g).find (positions);
+	}
+
+	/**
+	 * returns the position to interval index of a genome, building the
+	 * indexes of all genomes on first use
+	 */
+	private synchronized GenomeIntervalIndex getIntervalIndex (Genome g) {
+		if (interval_index == null || interval_index_ivs != intervals) {
+			GenomeIntervalIndex [] index = new GenomeIntervalIndex [seq_count];
+			for (int seqI = 0; seqI < seq_count; seqI++)
+				index[seqI] = new GenomeIntervalIndex (intervals, seqI);
+			interval_index = index;
+			interval_index_ivs = intervals;
+		}
+		return interval_index[g.getSourceIndex ()];
+	}
+
 	// FIXME: get rev. comp right in these two functions!
 	long revCompify (long position, Genome g, int ivI) {
 		try {
@@ -808,7 +1289,7 @@ public class XMFAAlignment implements Serializable {
 		int ivI = getLCB (g, position);
 
 		long lcb_offset = globalToLCB (position, g, ivI);
-		long fk_left_col = gis_tree[ivI][g.getSourceIndex ()]
+		long fk_left_col = getColumnIndex (ivI, g.getSourceIndex ())
 				.seqPosToColumn (lcb_offset);
 
 		long [] lcb_and_col = new long [2];
@@ -831,10 +1312,9 @@ public class XMFAAlignment implements Serializable {
 		for (int seqI = 0; seqI < seq_count; seqI++) {
 			Genome g = model.getGenomeBySourceIndex (seqI);
 
-			seq_offsets[seqI] = gis_tree[lcb][g.getSourceIndex ()]
-					.columnToSeqPos (column);
-			gap[seqI] = column != gis_tree[lcb][g.getSourceIndex ()]
-					.seqPosToColumn (seq_offsets[seqI]);
+			ColumnIndex ci = getColumnIndex (lcb, g.getSourceIndex ());
+			seq_offsets[seqI] = ci.columnToSeqPos (column);
+			gap[seqI] = column != ci.seqPosToColumn (seq_offsets[seqI]);
 			seq_offsets[seqI] = LCBToGlobal (seq_offsets[seqI], g, lcb);
 			if(seq_offsets[seqI]>g.getLength())
 				gap[seqI]=true;
@@ -848,14 +1328,73 @@ public class XMFAAlignment implements Serializable {
 	public long getCoordinate (XmfaViewerModel model, Genome g, int lcb,
 			long column, Boolean gap) {
 
-		long seq_offset = gis_tree[lcb][g.getSourceIndex ()]
-				.columnToSeqPos (column);
-		gap = column != gis_tree[lcb][g.getSourceIndex ()]
-				.seqPosToColumn (seq_offset);
+		ColumnIndex ci = getColumnIndex (lcb, g.getSourceIndex ());
+		long seq_offset = ci.columnToSeqPos (column);
+		gap = column != ci.seqPosToColumn (seq_offset);
 		seq_offset = LCBToGlobal (seq_offset, g, lcb);
 		return seq_offset;
 	}
 	
+	/**
+	 * Translates a sorted array of positions in one genome to the aligned
+	 * positions in another. Each position gives the same result as a single
+	 * call to getColumnCoordinates for it, but only the two genomes' rows are
+	 * consulted. Positions are resolved to LCBs in one merge pass, and the
+	 * positions falling in an LCB are translated by walking its rows once.
+	 * 
+	 * @param gx
+	 *            The genome of the positions
+	 * @param positions
+	 *            Positions in gx, sorted in increasing order
+	 * @param gy
+	 *            The genome to translate the positions to
+	 * @return The position in gy aligned to each position, or 0 where gy has a
+	 *         gap or the position is outside every LCB
+	 */
+	public long [] getHomologousCoordinates (Genome gx, long [] positions,
+			Genome gy) {
+		long [] coords = new long [positions.length];
+		int [] ivs = getLCBs (gx, positions);
+		int cur_iv = -1;
+		ColumnIndex x_ci = null;
+		ColumnIndex y_ci = null;
+		int x_run = 0;
+		int y_run = 0;
+		int y_seq_run = 0;
+		for (int posI = 0; posI < positions.length; posI++) {
+			int ivI = ivs[posI];
+			if (ivI < 0)
+				continue;
+			if (ivI != cur_iv) {
+				cur_iv = ivI;
+				x_ci = getColumnIndex (ivI, gx.getSourceIndex ());
+				y_ci = getColumnIndex (ivI, gy.getSourceIndex ());
+				x_run = 0;
+				y_run = 0;
+				y_seq_run = 0;
+			}
+			// the column of the position in gx, as seqPosToColumn
+			long lcb_offset = globalToLCB (positions[posI], gx, ivI);
+			x_run = x_ci.findSeqIndex (lcb_offset, x_run);
+			long column = x_ci.getStart (x_run) + lcb_offset
+					- x_ci.getSequenceStart (x_run);
+
+			// the position of gy in that column, as columnToSeqPos
+			y_run = y_ci.find (column, y_run);
+			long seq_off = y_ci.getSequenceStart (y_run);
+			if (column != y_ci.getStart (y_run) && !y_ci.isGap (y_run))
+				seq_off += column - y_ci.getStart (y_run);
+			y_seq_run = y_ci.findSeqIndex (seq_off, y_seq_run);
+			boolean gap = column != y_ci.getStart (y_seq_run) + seq_off
+					- y_ci.getSequenceStart (y_seq_run);
+
+			long coord = LCBToGlobal (seq_off, gy, ivI);
+			if (!gap && coord <= gy.getLength ())
+				coords[posI] = coord;
+		}
+		return coords;
+	}
+
 	/**
 	 * Returns the length in alignment columns of a particular LCB
 	 * @param lcbId	The index of the LCB in question
@@ -863,7 +1402,9 @@ public class XMFAAlignment implements Serializable {
 	 */
 	public long getLcbLength(int lcbId)
 	{
-		return gis_tree[lcbId][0].length();
+		if (iv_length != null)
+			return iv_length[lcbId];
+		return getColumnIndex (lcbId, 0).length ();
 	}
 
 	/**
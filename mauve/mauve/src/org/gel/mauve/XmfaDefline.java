@@ -0,0 +1,68 @@
+package org.gel.mauve;
+
+import java.util.StringTokenizer;
+
+/**
+ * The fields of an XMFA sequence defline, which has the form
+ * <code>&gt; number:start-end strand(+/-) [name]</code>
+ */
+class XmfaDefline {
+	/** true if a sequence number was found before the colon */
+	boolean numbered = false;
+
+	/** the sequence number, starting at 0 */
+	int seq_num = -1;
+
+	/** left end coordinate */
+	long left;
+
+	/** right end coordinate */
+	long right;
+
+	/** true unless the defline gives a + strand */
+	boolean reverse = true;
+
+	/** the sequence name, or an empty string when none is given */
+	String name;
+
+	/**
+	 * Parses a sequence left-end, right-end, and strand combination
+	 *
+	 * @param cur_line
+	 *            the defline, starting with the &gt; character
+	 */
+	static XmfaDefline parse (String cur_line) {
+		XmfaDefline d = new XmfaDefline ();
+		int colon_pos = cur_line.indexOf (':');
+		StringTokenizer seq_num_strtok = new StringTokenizer (cur_line
+				.substring (1, colon_pos));
+		if (seq_num_strtok.hasMoreTokens ()) {
+			d.seq_num = Integer.parseInt (seq_num_strtok.nextToken ()) - 1;
+			d.numbered = true;
+		}
+		String tmp_str = cur_line.substring (colon_pos + 1);
+		int dash_pos = tmp_str.indexOf ('-');
+		int space_pos = tmp_str.indexOf (' ');
+		long first = Long.parseLong (tmp_str.substring (0, dash_pos));
+		long second = Long.parseLong (tmp_str.substring (dash_pos + 1,
+				space_pos));
+		d.left = first < second ? first : second;
+		d.right = first < second ? second : first;
+		// parse strand -- if + isn't found then assume - strand
+		if (tmp_str.indexOf ('+', space_pos + 1) >= 0)
+			d.reverse = false;
+
+		int strand_pos = 0;
+		if (!d.reverse)
+			strand_pos = tmp_str.indexOf ('+', space_pos + 1);
+		else
+			strand_pos = tmp_str.indexOf ('-', space_pos + 1);
+
+		if (tmp_str.length () > strand_pos + 2)
+			// there's a name to parse
+			d.name = tmp_str.substring (strand_pos + 2);
+		else
+			d.name = "";
+		return d;
+	}
+}
@@ -0,0 +1,342 @@
+package org.gel.mauve;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+import org.gel.mauve.tree.ColumnIndex;
+import org.gel.mauve.tree.ColumnIndexCache;
+
+/**
+ * A flat binary index of a parsed XMFA file, stored next to the alignment as
+ * <code>name.xmfa.idx</code>. The index holds the interval table, the file
+ * offsets of each row and the gap/sequence runs of each row. It is memory
+ * mapped when opened: only the interval table is read up front, and the runs
+ * of a row are decoded into a ColumnIndex the first time the row is used.
+ * <p>
+ * The index is tied to the XMFA by a ContentFingerprint, which samples its
+ * content and covers its length and modification time, and carries its own
+ * format version.
+ * <p>
+ * Layout, all values big-endian:
+ *
+ * <pre>
+ * header     magic, version, fingerprint, xmfa length, sequence count,
+ *            interval count, newline size, line width, section offsets
+ * strings    names, comments and metadata properties, each string an int
+ *            byte length followed by its UTF-8 bytes
+ * table      one ROW_RECORD_SIZE record per [interval][sequence]:
+ *            left, right, file start, file end, runs offset, run count, flags
+ * runs       per row, RUN_RECORD_SIZE bytes per run: the run length in
+ *            columns (negated for gap runs) and its file offset
+ * </pre>
+ */
+public class XmfaIndexFile {
+	static final byte [] MAGIC = {'M', 'A', 'U', 'V', 'E', 'I', 'D', 'X'};
+
+	/** Incremented whenever the layout changes */
+	static final int VERSION = 2;
+
+	static final int HEADER_SIZE = 80;
+
+	static final int ROW_RECORD_SIZE = 48;
+
+	static final int RUN_RECORD_SIZE = 16;
+
+	static final int FLAG_REVERSE = 1;
+
+	/** The mapped index data */
+	protected XmfaSource idx;
+
+	protected int seq_count;
+
+	protected long table_offset;
+
+	protected XmfaIndexFile (XmfaSource idx) {
+		this.idx = idx;
+	}
+
+	/**
+	 * Returns the index file that belongs next to an XMFA file
+	 */
+	public static File getIndexFile (File xmfa) {
+		return new File (xmfa.getPath () + ".idx");
+	}
+
+	/**
+	 * Opens an index and builds the alignment it describes.
+	 *
+	 * @param idx_file
+	 *            The index file
+	 * @param src
+	 *            The XMFA data the index was built from
+	 * @param fingerprint
+	 *            The content fingerprint of src
+	 * @return The alignment, or null if the index is missing, of an unknown
+	 *         version, or was built from different XMFA content
+	 */
+	public static XMFAAlignment open (File idx_file, XmfaSource src,
+			byte [] fingerprint) throws IOException {
+		if (!idx_file.exists () || !idx_file.canRead ())
+			return null;
+		RandomAccessFile raf = new RandomAccessFile (idx_file, "r");
+		XmfaSource idx = new MappedXmfaSource (raf);
+		if (idx.length () < HEADER_SIZE) {
+			idx.close ();
+			return null;
+		}
+		ByteBuffer header = read (idx, 0, HEADER_SIZE);
+		byte [] magic = new byte [MAGIC.length];
+		header.get (magic);
+		byte [] idx_print = new byte [16];
+		int version = header.getInt ();
+		header.get (idx_print);
+		long xmfa_length = header.getLong ();
+		if (!Arrays.equals (magic, MAGIC) || version != VERSION
+				|| !Arrays.equals (idx_print, fingerprint)
+				|| xmfa_length != src.length ()) {
+			idx.close ();
+			return null;
+		}
+
+		// a corrupt or truncated index must not leave the mapping open
+		try {
+			return open (idx, header, src);
+		} catch (IOException ioe) {
+			idx.close ();
+			throw ioe;
+		} catch (RuntimeException re) {
+			idx.close ();
+			throw re;
+		}
+	}
+
+	/**
+	 * Builds the alignment from an index whose header has been checked
+	 */
+	private static XMFAAlignment open (XmfaSource idx, ByteBuffer header,
+			XmfaSource src) throws IOException {
+		XmfaIndexFile xif = new XmfaIndexFile (idx);
+		XMFAAlignment xmfa = new XMFAAlignment ();
+		xmfa.setFile (src);
+		xif.seq_count = header.getInt ();
+		xmfa.seq_count = xif.seq_count;
+		int iv_count = header.getInt ();
+		xmfa.newline_size = header.getInt ();
+		xmfa.line_width = header.getInt ();
+		long strings_offset = header.getLong ();
+		xif.table_offset = header.getLong ();
+		if (strings_offset < HEADER_SIZE || xif.table_offset < strings_offset
+				|| xif.table_offset - strings_offset > Integer.MAX_VALUE
+				|| xif.seq_count < 0 || iv_count < 0
+				|| xif.rowOffset (iv_count, 0) > idx.length ())
+			throw new IOException ("Corrupt alignment index.");
+
+		DataInputStream strings = new DataInputStream (new ByteArrayInputStream (
+				read (idx, strings_offset, (int) (xif.table_offset - strings_offset))
+						.array ()));
+		xmfa.names = new String [strings.readInt ()];
+		for (int nameI = 0; nameI < xmfa.names.length; nameI++)
+			xmfa.names[nameI] = readString (strings);
+		xmfa.comments = new String [strings.readInt ()];
+		for (int commentI = 0; commentI < xmfa.comments.length; commentI++)
+			xmfa.comments[commentI] = readString (strings);
+		int prop_count = strings.readInt ();
+		for (int propI = 0; propI < prop_count; propI++)
+			xmfa.metadata.setProperty (readString (strings), readString (strings));
+
+		// read the interval table one interval at a time
+		xmfa.intervals = new Match [iv_count];
+		xmfa.file_pos = new Match [iv_count];
+		for (int ivI = 0; ivI < iv_count; ivI++) {
+			ByteBuffer rows = read (idx, xif.rowOffset (ivI, 0), xif.seq_count
+					* ROW_RECORD_SIZE);
+			Match m = new Match (xif.seq_count);
+			Match f_off_m = new Match (xif.seq_count);
+			for (int seqI = 0; seqI < xif.seq_count; seqI++) {
+				m.setStart (seqI, rows.getLong ());
+				m.setLength (seqI, rows.getLong ());
+				f_off_m.setStart (seqI, rows.getLong ());
+				f_off_m.setLength (seqI, rows.getLong ());
+				rows.getLong (); // runs offset
+				rows.getInt (); // run count
+				m.setReverse (seqI, (rows.getInt () & FLAG_REVERSE) != 0);
+			}
+			xmfa.intervals[ivI] = m;
+			xmfa.file_pos[ivI] = f_off_m;
+		}
+		xmfa.buildLcbList ();
+
+		// column indexes are decoded on demand, and in lazy mode are not all
+		// kept
+		if (XMFAAlignment.getLazyIndexBytes () > 0)
+			xmfa.index_cache = new ColumnIndexCache (XMFAAlignment
+					.getLazyIndexBytes ());
+		else
+			xmfa.col_index = new ColumnIndex [iv_count] [xif.seq_count];
+		xmfa.index_file = xif;
+		return xmfa;
+	}
+
+	long rowOffset (int ivI, int seqI) {
+		return table_offset + ((long) ivI * seq_count + seqI) * ROW_RECORD_SIZE;
+	}
+
+	/**
+	 * Decodes the gap and sequence runs of one row
+	 */
+	public ColumnIndex readColumnIndex (int ivI, int seqI) {
+		try {
+			ByteBuffer rec = read (idx, rowOffset (ivI, seqI) + 32, 12);
+			long runs_offset = rec.getLong ();
+			int run_count = rec.getInt ();
+			ByteBuffer runs = read (idx, runs_offset, run_count
+					* RUN_RECORD_SIZE);
+			long [] col_start = new long [run_count + 1];
+			long [] seq_start = new long [run_count + 1];
+			long [] file_offset = new long [run_count];
+			for (int runI = 0; runI < run_count; runI++) {
+				long len = runs.getLong ();
+				file_offset[runI] = runs.getLong ();
+				boolean gap = len < 0 || file_offset[runI] == ColumnIndex.GAP;
+				len = Math.abs (len);
+				col_start[runI + 1] = col_start[runI] + len;
+				seq_start[runI + 1] = seq_start[runI] + (gap ? 0 : len);
+			}
+			return new ColumnIndex (col_start, seq_start, file_offset);
+		} catch (IOException ioe) {
+			throw new RuntimeException ("Unable to read alignment index.", ioe);
+		}
+	}
+
+	/**
+	 * Reads a string written by writeString
+	 */
+	private static String readString (DataInputStream in) throws IOException {
+		int len = in.readInt ();
+		if (len < 0 || len > in.available ())
+			throw new IOException ("Corrupt alignment index.");
+		byte [] bytes = new byte [len];
+		in.readFully (bytes);
+		return new String (bytes, "UTF-8");
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 encoding.
+	 * Unlike writeUTF this has no 64K limit, which long comments or metadata
+	 * values can exceed.
+	 */
+	private static void writeString (DataOutputStream out, String s)
+			throws IOException {
+		byte [] bytes = s.getBytes ("UTF-8");
+		out.writeInt (bytes.length);
+		out.write (bytes);
+	}
+
+	private static ByteBuffer read (XmfaSource src, long offset, int len)
+			throws IOException {
+		byte [] buf = new byte [len];
+		if (src.read (offset, buf, 0, len) != len && len > 0)
+			throw new IOException ("Truncated alignment index.");
+		return ByteBuffer.wrap (buf);
+	}
+
+	public void close () throws IOException {
+		idx.close ();
+	}
+
+	/**
+	 * Writes an index for a parsed alignment. The index is written to a
+	 * temporary file first and renamed into place, so a concurrent reader
+	 * never sees a partial index.
+	 */
+	public static void write (XMFAAlignment xmfa, File idx_file,
+			byte [] fingerprint) throws IOException {
+		File tmp = File.createTempFile ("mauve", ".idx", idx_file
+				.getAbsoluteFile ().getParentFile ());
+		try {
+			DataOutputStream out = new DataOutputStream (
+					new BufferedOutputStream (new FileOutputStream (tmp), 1 << 16));
+			int seq_count = xmfa.seq_count;
+			int iv_count = xmfa.intervals.length;
+
+			// the string section follows the fixed size header
+			java.io.ByteArrayOutputStream strings_bytes = new java.io.ByteArrayOutputStream ();
+			DataOutputStream strings = new DataOutputStream (strings_bytes);
+			strings.writeInt (xmfa.names.length);
+			for (int nameI = 0; nameI < xmfa.names.length; nameI++)
+				writeString (strings, xmfa.names[nameI]);
+			strings.writeInt (xmfa.comments.length);
+			for (int commentI = 0; commentI < xmfa.comments.length; commentI++)
+				writeString (strings, xmfa.comments[commentI]);
+			strings.writeInt (xmfa.metadata.size ());
+			Enumeration keys = xmfa.metadata.propertyNames ();
+			while (keys.hasMoreElements ()) {
+				String key = (String) keys.nextElement ();
+				writeString (strings, key);
+				writeString (strings, xmfa.metadata.getProperty (key));
+			}
+			strings.flush ();
+
+			long strings_offset = HEADER_SIZE;
+			long table_offset = strings_offset + strings_bytes.size ();
+			long runs_offset = table_offset + (long) iv_count * seq_count
+					* ROW_RECORD_SIZE;
+
+			out.write (MAGIC);
+			out.writeInt (VERSION);
+			out.write (fingerprint);
+			out.writeLong (xmfa.xmfa_file.length ());
+			out.writeInt (seq_count);
+			out.writeInt (iv_count);
+			out.writeInt (xmfa.newline_size);
+			out.writeInt (xmfa.line_width);
+			out.writeLong (strings_offset);
+			out.writeLong (table_offset);
+			while (out.size () < HEADER_SIZE)
+				out.writeByte (0);
+			strings_bytes.writeTo (out);
+
+			// the row table, with each row's runs laid out in table order
+			long cur_runs = runs_offset;
+			for (int ivI = 0; ivI < iv_count; ivI++) {
+				for (int seqI = 0; seqI < seq_count; seqI++) {
+					ColumnIndex ci = xmfa.getColumnIndex (ivI, seqI);
+					out.writeLong (xmfa.intervals[ivI].getStart (seqI));
+					out.writeLong (xmfa.intervals[ivI].getLength (seqI));
+					out.writeLong (xmfa.file_pos[ivI].getStart (seqI));
+					out.writeLong (xmfa.file_pos[ivI].getLength (seqI));
+					out.writeLong (cur_runs);
+					out.writeInt (ci.runCount ());
+					out.writeInt (xmfa.intervals[ivI].getReverse (seqI) ? FLAG_REVERSE
+							: 0);
+					cur_runs += (long) ci.runCount () * RUN_RECORD_SIZE;
+				}
+			}
+			for (int ivI = 0; ivI < iv_count; ivI++) {
+				for (int seqI = 0; seqI < seq_count; seqI++) {
+					ColumnIndex ci = xmfa.getColumnIndex (ivI, seqI);
+					for (int runI = 0; runI < ci.runCount (); runI++) {
+						out.writeLong (ci.isGap (runI) ? -ci.getLength (runI) : ci
+								.getLength (runI));
+						out.writeLong (ci.getOffset (runI));
+					}
+				}
+			}
+			out.close ();
+			idx_file.delete ();
+			if (!tmp.renameTo (idx_file))
+				throw new IOException ("Unable to create " + idx_file);
+		} finally {
+			tmp.delete ();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package org.gel.mauve;
+
+import java.io.IOException;
+
+/**
+ * Random access to the bytes of an XMFA file. Implementations must allow any
+ * number of threads to read concurrently, which rules out the
+ * seek()-then-read() idiom of RandomAccessFile.
+ */
+public interface XmfaSource {
+	/**
+	 * Reads bytes starting at an absolute offset in the file. Keeps reading
+	 * until the buffer is full or the end of the file is reached.
+	 *
+	 * @param offset
+	 *            The file offset of the first byte to read
+	 * @param buf
+	 *            The destination buffer
+	 * @param buf_off
+	 *            Where in buf the data should be placed
+	 * @param len
+	 *            The number of bytes to read
+	 * @return The number of bytes actually read, or -1 if offset lies at or
+	 *         beyond the end of the file
+	 */
+	public int read (long offset, byte [] buf, int buf_off, int len)
+			throws IOException;
+
+	/** returns the length of the file in bytes */
+	public long length () throws IOException;
+
+	/** releases any resources held by this source */
+	public void close () throws IOException;
+}
@@ -1,21 +1,25 @@
 package org.gel.mauve;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.prefs.BackingStoreException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
 
-import org.biojava.bio.seq.DNATools;
 import org.biojava.bio.seq.Sequence;
 import org.biojava.bio.symbol.SymbolList;
 import org.gel.mauve.analysis.PermutationExporter;
@@ -23,6 +27,7 @@ import org.gel.mauve.backbone.BackboneList;
 import org.gel.mauve.backbone.BackboneListBuilder;
 import org.gel.mauve.color.BackboneLcbColor;
 import org.gel.mauve.color.LCBColorScheme;
+import org.gel.mauve.format.SequenceExtractor;
 import org.gel.mauve.histogram.HistogramBuilder;
 import org.gel.mauve.remote.MauveDisplayCommunicator;
 import org.gel.mauve.remote.WargDisplayCommunicator;
@@ -40,6 +45,15 @@ public class XmfaViewerModel extends LcbViewerModel {
 	private SimilarityIndex [] sim;
 	private long [] highlights;
 	private BackboneList bb_list;
+	// refines sampled similarity profiles in the background, if any
+	private SimilarityRefiner refiner;
+	// the analysis cache entry of the alignment's inputs, if caching
+	private String analysis_key;
+	// true while a similarity event waits on the event dispatch thread
+	private boolean similarity_event_queued;
+
+	/** the analysis cache file holding the similarity indexes */
+	static final String SIMILARITY_CACHE = "mauve.cache";
 
 	public void setSequenceCount (int sequenceCount) {
 		super.setSequenceCount (sequenceCount);
@@ -60,79 +74,71 @@ public class XmfaViewerModel extends LcbViewerModel {
      */
     private void init(ModelProgressListener listener, boolean isReloading) throws FileNotFoundException, IOException
     {
-        // attempt to load data such as SimilarityIndexes from a
-    	// disk-based cache file
-        // Find cached directory, if it exists.
-    	URL xmfa_url = new URL("file://" + getSrc());
-        File dir = null;
+        // indexes still being refined belong to the alignment being replaced
+        if(refiner != null)
+        	refiner.cancel();
+        refiner = null;
+
+        // data such as SimilarityIndexes is loaded from the analysis cache,
+        // where it is filed under a hash of the content it was computed from
+        AnalysisCache cache = null;
         if(ModelBuilder.getUseDiskCache())
-        {
-	        try
-	        {
-	            dir = ModelBuilder.getCachedDirectory(xmfa_url);
-	        }
-	        catch (BackingStoreException e)
-	        {
-	            System.err.println("Error reading preferences.  Error follows.  Will load from server.");
-	            e.printStackTrace();
-	        }
-        }
-        if( ModelBuilder.getUseDiskCache() && dir == null ){
-	        // Create a temporary directory.
-	        dir = File.createTempFile("mauve", "dir");
-	        dir.delete();
-	        dir.mkdir();
-	        if (!dir.exists() || !dir.isDirectory())
-	        {
-	            throw new IOException("Couldn't create temporary directory.");
-	        }
-	        ModelBuilder.saveCachedDirectory(xmfa_url, dir);
-        }
+        	cache = AnalysisCache.getDefault();
+        analysis_key = null;
         
         if (listener != null)
         {
             listener.alignmentStart();
         }
 
-        // check whether XMFA has changed since the
-        // cache was created!!
-        // open object I/O for caching
-        File cache_file = null;
-        ObjectInputStream cache_instream = null;
-        if(ModelBuilder.getUseDiskCache())
-        {
-            cache_file = new File(dir, "mauve.cache");
-	        if(cache_file.exists() && cache_file.canRead() &&
-	        		getSrc().lastModified() < cache_file.lastModified())
+        // a single source serves every reader of the alignment, BGZF files are
+        // decompressed block by block as they are read
+        XmfaSource inputFile = XMFAAlignment.openSource(new RandomAccessFile(getSrc(), "r"));
+        
+        // open the binary alignment index if one matches the XMFA content
+        xmfa = null;
+        byte[] fingerprint = null;
+        AnalysisCache.Entry xmfa_entry = null;
+        try{
+	        if(cache != null)
 	        {
-	        	cache_instream = new ObjectInputStream(new java.io.FileInputStream(cache_file));
+	        	fingerprint = ContentFingerprint.compute(inputFile, getSrc());
+	        	// the alignment index depends on the XMFA alone
+	        	try{
+	        		xmfa_entry = cache.open(AnalysisCache.key(new byte[][]{fingerprint}));
+	        	}catch(IOException ioe){
+	        		// the cache directory can't be used, go without it
+	        		System.err.println("Unable to open analysis cache: " + ioe.getMessage());
+	        		cache = null;
+	        	}
 	        }
-        }
-
-        RandomAccessFile inputFile = new RandomAccessFile(getSrc(), "r");
-        
-        // read XMFA from object cache if possible
-        if(cache_instream != null){
-            try{
-            	xmfa = (XMFAAlignment)cache_instream.readObject();
-            	xmfa.setFile(inputFile);
-            }catch(ClassNotFoundException cnfe){
-            	// cache must be corrupt
-            	cache_instream = null;
-            }catch(ClassCastException cce){
-            	// cache must be corrupt
-            	cache_instream = null;
-            }catch(InvalidClassException ice){
-            	cache_instream = null;
-            }
-        }
-        // it didn't get read from the cache
-        if(cache_instream == null)
-        {
-        	// try to read the alignment file itself
-        	try{
-        		xmfa = new XMFAAlignment(inputFile);
-        	}catch(Exception e){}
+	        if(xmfa_entry != null)
+	        {
+	        	File idx_file = XmfaIndexFile.getIndexFile(getSrc());
+	        	if(!idx_file.exists())
+	        		idx_file = xmfa_entry.getFile(idx_file.getName());
+	        	try{
+	        		xmfa = XmfaIndexFile.open(idx_file, inputFile, fingerprint);
+	        	}catch(IOException ioe){
+	        		// index must be corrupt, reparse
+	        		xmfa = null;
+	        	}
+	        }
+	        // it didn't get read from the index
+	        if(xmfa == null)
+	        {
+	        	// try to read the alignment file itself
+	        	try{
+	        		xmfa = new XMFAAlignment(inputFile);
+	        	}catch(Exception e){}
+	        	// writing an index builds every row, which lazy mode avoids
+	        	if(xmfa != null && xmfa.seq_count > 0 && xmfa_entry != null
+	        			&& XMFAAlignment.getLazyIndexBytes() == 0)
+	        		writeIndex(fingerprint, xmfa_entry);
+	        }
+        }finally{
+        	if(xmfa_entry != null)
+        		xmfa_entry.close();
         }
         // If no sequences are found, this is certainly an invalid file.
         if (xmfa==null || xmfa.seq_count == 0)
@@ -152,73 +158,66 @@ public class XmfaViewerModel extends LcbViewerModel {
         }
 
         // now build genomes
-        for (int seqI = 0; seqI < xmfa.seq_count; seqI++)
+        if (!isReloading)
         {
-            if (listener != null)
-            {
+            buildGenomes(listener);
+        }
+        else
+        {
+            // If reloading, reorder the genomes to the same order as
+            // in the file.  reload() will take care of the reordering.
+            for (int seqI = 0; listener != null && seqI < xmfa.seq_count; seqI++)
                 listener.featureStart(seqI);
-            }
-
-            Genome g = null;
-            if (!isReloading)
-            {
-                g = GenomeBuilder.buildGenome(seqI, this);
-                setGenome(seqI, g);
-            }
-            else
-            {
-                // If reloading, reorder the genomes to the same order as
-                // in the file.  reload() will take care of the reordering.
-            	g = getGenomeBySourceIndex(seqI);
-            }
         }
         
         // now try to read a backbone list
         try{
         	bb_list = BackboneListBuilder.build(this,xmfa);
-        	if( bb_list != null )
-        	{
-            	// if the backbone is newer than the cache then clear the cache
-	        	File bb_file = BackboneListBuilder.getFileByKey(this,xmfa,"BackboneFile");
-	            if(	ModelBuilder.getUseDiskCache() && bb_file.lastModified() > cache_file.lastModified())
-	            	cache_instream = null;
-        	}
         }catch(IOException ioe)
         {
         	bb_list = null;
         }
 
-        // now compute SimilarityIndex
-        for (int seqI = 0; seqI < xmfa.seq_count; seqI++)
+        // now compute SimilarityIndex, the cache holds one per genome
+        int cached = 0;
+        boolean write_cache = false;
+        if(cache != null)
         {
-            Genome g = getGenomeBySourceIndex(seqI);
-            // read the SimilarityIndex from object cache if possible
-            if(cache_instream != null){
-                try{
-                	sim[seqI] = (SimilarityIndex)cache_instream.readObject();
-                }catch(ClassNotFoundException cnfe){
-                	// cache must be corrupt
-                	cache_instream = null;
-                }catch(ClassCastException cce){
-                	// cache must be corrupt
-                	cache_instream = null;
-                }catch(InvalidClassException ice){
-                	cache_instream = null;
-                }
-            }
-            // it didn't get read from the cache
-            if(cache_instream == null)
-            	sim[seqI] = new SimilarityIndex(g, xmfa, bb_list);
+        	try{
+        		analysis_key = analysisKey(fingerprint);
+        		AnalysisCache.Entry entry = cache.open(analysis_key);
+        		try{
+        			if(entry.contains(SIMILARITY_CACHE))
+        				cached = readSimilarityCache(entry.getFile(SIMILARITY_CACHE));
+        		}finally{
+        			entry.close();
+        		}
+        		// write out all objects that should be cached if any were missing
+        		write_cache = cached < xmfa.seq_count;
+        	}catch(IOException ioe){
+        		System.err.println("Unable to open analysis cache: " + ioe.getMessage());
+        		analysis_key = null;
+        	}
         }
 
-        // if cache_instream is null there must have been a problem
-        // reading the cache.  write out all objects that should be cached
-        if(cache_instream == null && ModelBuilder.getUseDiskCache()){
-        	ObjectOutputStream cache_outstream = null;
-        	cache_outstream = new ObjectOutputStream(new FileOutputStream(cache_file));
-        	cache_outstream.writeObject(xmfa);
-        	for( int seqI = 0; seqI < xmfa.seq_count; seqI++ )
-            	cache_outstream.writeObject(sim[seqI]);
+        // build the ones that didn't get read from the cache
+        if(progressive_similarity && cached < xmfa.seq_count)
+        {
+        	// show a sampled profile now and refine it in the background,
+        	// the cache is written once refinement is done
+        	sampleSimilarityIndexes(cached, listener, write_cache);
+        }
+        else
+        {
+        	buildSimilarityIndexes(cached, listener);
+        	if(write_cache)
+        	{
+        		try{
+        			writeSimilarityCache();
+        		}catch(IOException ioe){
+        			System.err.println("Unable to write similarity cache: " + ioe.getMessage());
+        		}
+        	}
         }
         
         // copy the LCB list
@@ -252,6 +251,74 @@ public class XmfaViewerModel extends LcbViewerModel {
         // try publishing this viewer model via DBus
     }
 
+    /**
+     * Writes the binary alignment index next to the XMFA, or into the
+     * alignment's analysis cache entry if the XMFA's directory can't be written
+     */
+    private void writeIndex(byte[] fingerprint, AnalysisCache.Entry entry)
+    {
+    	File idx_file = XmfaIndexFile.getIndexFile(getSrc());
+    	try{
+    		XmfaIndexFile.write(xmfa, idx_file, fingerprint);
+    		return;
+    	}catch(IOException ioe){}
+    	try{
+    		XmfaIndexFile.write(xmfa, entry.getFile(idx_file.getName()), fingerprint);
+    		entry.written();
+    	}catch(IOException ioe){
+    		System.err.println("Unable to write alignment index: " + ioe.getMessage());
+    	}
+    }
+
+    /**
+     * Returns the analysis cache key of the alignment's inputs: the XMFA,
+     * the backbone and each genome's sequence and annotation file
+     */
+    private String analysisKey(byte[] fingerprint) throws IOException
+    {
+    	byte[][] prints = new byte[2 + xmfa.seq_count][];
+    	prints[0] = fingerprint;
+    	prints[1] = rawFingerprint(BackboneListBuilder.getFileByKey(this, xmfa, "BackboneFile"));
+    	for(int seqI = 0; seqI < xmfa.seq_count; seqI++)
+    		prints[2 + seqI] = rawFingerprint(GenomeBuilder.getAnnotationFile(seqI, this));
+    	return AnalysisCache.key(prints);
+    }
+
+    /** returns the fingerprint of a file, or null if it can't be read */
+    private static byte[] rawFingerprint(File f) throws IOException
+    {
+    	if(f == null || !f.isFile() || !f.canRead())
+    		return null;
+    	return ContentFingerprint.computeRaw(f);
+    }
+
+    /**
+     * Reads similarity indexes from a cache file into sim
+     * @return the number of indexes read, indexes after a corrupt one are
+     * not read
+     */
+    private int readSimilarityCache(File cache_file)
+    {
+    	int cached = 0;
+    	ObjectInputStream cache_instream = null;
+    	try{
+    		cache_instream = new ObjectInputStream(new FileInputStream(cache_file));
+    		for (; cached < xmfa.seq_count; cached++)
+    			sim[cached] = (SimilarityIndex)cache_instream.readObject();
+    	}catch(ClassNotFoundException cnfe){
+    		// cache must be corrupt
+    	}catch(ClassCastException cce){
+    		// cache must be corrupt
+    	}catch(IOException ioe){
+    		// cache must be corrupt or of an old version
+    	}
+    	try{
+    		if(cache_instream != null)
+    			cache_instream.close();
+    	}catch(IOException ioe){}
+    	return cached;
+    }
+
     MauveDisplayCommunicator mdCommunicator = null;
     WargDisplayCommunicator wdCommunicator = null;
     /*
@@ -282,6 +349,289 @@ public class XmfaViewerModel extends LcbViewerModel {
 		xmfa.setReference (getReference ());
 	}
 
+	/**
+	 * Builds the genome of each sequence and installs them in source order.
+	 * Genomes are built by separate tasks on a pool of at most
+	 * getGenomeThreads() threads, so their annotation files are parsed
+	 * concurrently; the listener hears featureStart() as each task begins.
+	 * Genomes read from the same multi-record file share its iterator in
+	 * SequenceIteratorCache, which takes turns between them.
+	 */
+	void buildGenomes (final ModelProgressListener listener) throws IOException {
+		Genome [] built = new Genome [xmfa.seq_count];
+		int threads = Math.min (genome_threads, xmfa.seq_count);
+		if (threads <= 1) {
+			for (int seqI = 0; seqI < xmfa.seq_count; seqI++) {
+				if (listener != null)
+					listener.featureStart (seqI);
+				built[seqI] = GenomeBuilder.buildGenome (seqI, this);
+			}
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool (threads);
+			final Object progress = new Object ();
+			try {
+				List futures = new ArrayList ();
+				for (int seqI = 0; seqI < xmfa.seq_count; seqI++) {
+					final int genI = seqI;
+					futures.add (pool.submit (new Callable () {
+						public Object call () {
+							if (listener != null) {
+								synchronized (progress) {
+									listener.featureStart (genI);
+								}
+							}
+							return GenomeBuilder.buildGenome (genI,
+									XmfaViewerModel.this);
+						}
+					}));
+				}
+				for (int fI = 0; fI < futures.size (); fI++)
+					built[fI] = (Genome) ((Future) futures.get (fI)).get ();
+			} catch (InterruptedException ie) {
+				throw new IOException ("Interrupted while reading sequences");
+			} catch (ExecutionException ee) {
+				if (ee.getCause () instanceof RuntimeException)
+					throw (RuntimeException) ee.getCause ();
+				throw new RuntimeException (ee.getCause ());
+			} finally {
+				pool.shutdownNow ();
+			}
+		}
+		for (int seqI = 0; seqI < built.length; seqI++)
+			setGenome (seqI, built[seqI]);
+	}
+
+	/**
+	 * Builds the similarity indexes of the genomes from first onwards in one
+	 * pass over the alignment with a SimilarityEngine. LCBs are added by
+	 * tasks on a pool of at most getSimilarityThreads() threads; the
+	 * alignment's read path is safe for concurrent use and the engine's sums
+	 * don't depend on the order LCBs are added in, so the indexes are the
+	 * same as those built on one thread.
+	 * 
+	 * @param first
+	 *            the source index of the first genome to build, earlier ones
+	 *            were read from the cache
+	 */
+	void buildSimilarityIndexes (int first, final ModelProgressListener listener)
+			throws IOException {
+		if (first >= xmfa.seq_count)
+			return;
+		Genome [] todo = new Genome [xmfa.seq_count - first];
+		for (int seqI = first; seqI < xmfa.seq_count; seqI++)
+			todo[seqI - first] = getGenomeBySourceIndex (seqI);
+		final SimilarityEngine engine = new SimilarityEngine (xmfa, bb_list,
+				todo);
+		final int lcbs = engine.getIntervalCount ();
+		int threads = Math.min (similarity_threads, lcbs);
+		if (threads <= 1) {
+			for (int ivI = 0; ivI < lcbs; ivI++) {
+				engine.addInterval (ivI);
+				if (listener != null)
+					listener.similarityProgress (ivI + 1, lcbs);
+			}
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool (threads);
+			final int [] completed = new int [1];
+			try {
+				List futures = new ArrayList ();
+				for (int ivI = 0; ivI < lcbs; ivI++) {
+					final int lcbI = ivI;
+					futures.add (pool.submit (new Callable () {
+						public Object call () {
+							engine.addInterval (lcbI);
+							if (listener != null) {
+								synchronized (completed) {
+									completed[0]++;
+									listener.similarityProgress (completed[0],
+											lcbs);
+								}
+							}
+							return null;
+						}
+					}));
+				}
+				for (int fI = 0; fI < futures.size (); fI++)
+					((Future) futures.get (fI)).get ();
+			} catch (InterruptedException ie) {
+				throw new IOException ("Interrupted while computing similarity profiles");
+			} catch (ExecutionException ee) {
+				if (ee.getCause () instanceof RuntimeException)
+					throw (RuntimeException) ee.getCause ();
+				throw new RuntimeException (ee.getCause ());
+			} finally {
+				pool.shutdownNow ();
+			}
+		}
+		engine.finish ();
+		SimilarityIndex [] built = engine.getIndexes ();
+		for (int tI = 0; tI < todo.length; tI++)
+			sim[todo[tI].getSourceIndex ()] = built[tI];
+	}
+
+	/**
+	 * Builds sampled approximations of the similarity indexes of the genomes
+	 * from first onwards and starts refining them to full resolution in the
+	 * background. SimilarityListeners are told as the refinement progresses.
+	 * 
+	 * @param first
+	 *            the source index of the first genome to build, earlier ones
+	 *            were read from the cache
+	 * @param write_cache
+	 *            true to write every index to the analysis cache once
+	 *            refinement is done
+	 */
+	void sampleSimilarityIndexes (int first, ModelProgressListener listener,
+			boolean write_cache) {
+		Genome [] todo = new Genome [xmfa.seq_count - first];
+		for (int seqI = first; seqI < xmfa.seq_count; seqI++)
+			todo[seqI - first] = getGenomeBySourceIndex (seqI);
+		SimilarityEngine engine = new SimilarityEngine (xmfa, bb_list, todo);
+		int lcbs = engine.getIntervalCount ();
+		for (int ivI = 0; ivI < lcbs; ivI++) {
+			engine.sampleInterval (ivI);
+			if (listener != null)
+				listener.similarityProgress (ivI + 1, lcbs);
+		}
+		engine.finishSamples ();
+		SimilarityIndex [] built = engine.getIndexes ();
+		for (int tI = 0; tI < todo.length; tI++)
+			sim[todo[tI].getSourceIndex ()] = built[tI];
+		refiner = new SimilarityRefiner (this, engine, write_cache);
+		refiner.start (similarity_threads);
+	}
+
+	/** Writes every similarity index to the analysis cache */
+	void writeSimilarityCache () throws IOException {
+		if (analysis_key == null)
+			return;
+		AnalysisCache.Entry entry = AnalysisCache.getDefault ().open (
+				analysis_key);
+		try {
+			File tmp = entry.createTempFile (SIMILARITY_CACHE);
+			ObjectOutputStream cache_outstream = new ObjectOutputStream (
+					new FileOutputStream (tmp));
+			for (int seqI = 0; seqI < xmfa.seq_count; seqI++)
+				cache_outstream.writeObject (sim[seqI]);
+			cache_outstream.close ();
+			entry.commit (tmp, SIMILARITY_CACHE);
+		} finally {
+			entry.close ();
+		}
+	}
+
+	/**
+	 * Returns true once the similarity indexes are at full resolution, which
+	 * is false only while a progressive load is being refined
+	 */
+	public boolean isSimilarityRefined () {
+		return refiner == null || refiner.isFinished ();
+	}
+
+	public void addSimilarityListener (SimilarityListener l) {
+		listenerList.add (SimilarityListener.class, l);
+	}
+
+	public void removeSimilarityListener (SimilarityListener l) {
+		listenerList.remove (SimilarityListener.class, l);
+	}
+
+	/**
+	 * Stops refining the similarity indexes, if they are still being refined.
+	 * Called when the model is no longer displayed.
+	 */
+	public void close () {
+		if (refiner != null)
+			refiner.cancel ();
+	}
+
+	/**
+	 * Invoke {@link SimilarityListener.similarityChanged(ModelEvent)} on this
+	 * model's collection of SimilarityListeners, on the event dispatch
+	 * thread. Events fired while one is still waiting to be delivered are
+	 * delivered with it.
+	 */
+	protected void fireSimilarityEvent () {
+		synchronized (this) {
+			if (similarity_event_queued)
+				return;
+			similarity_event_queued = true;
+		}
+		SwingUtilities.invokeLater (new Runnable () {
+			public void run () {
+				synchronized (XmfaViewerModel.this) {
+					similarity_event_queued = false;
+				}
+				deliverSimilarityEvent ();
+			}
+		});
+	}
+
+	private void deliverSimilarityEvent () {
+		Object [] listeners = listenerList.getListenerList ();
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == SimilarityListener.class) {
+				((SimilarityListener) listeners[i + 1])
+						.similarityChanged (modelEvent);
+			}
+		}
+	}
+
+	/**
+	 * Whether similarity indexes are first sampled and then refined in the
+	 * background, rather than built in full before the model is ready
+	 */
+	static protected boolean progressive_similarity = false;
+
+	/**
+	 * Sets whether the similarity indexes of models loaded afterwards are
+	 * shown as a sampled approximation first and refined to full resolution
+	 * in the background
+	 */
+	public static void setProgressiveSimilarity (boolean progressive) {
+		progressive_similarity = progressive;
+	}
+
+	/** returns whether similarity indexes are loaded progressively */
+	public static boolean getProgressiveSimilarity () {
+		return progressive_similarity;
+	}
+
+	/** The number of threads used to compute similarity indexes */
+	static protected int similarity_threads = Runtime.getRuntime ()
+			.availableProcessors ();
+
+	/**
+	 * Sets the number of threads used to build similarity indexes. A value of
+	 * 1 walks the LCBs one after another on the loading thread.
+	 */
+	public static void setSimilarityThreads (int threads) {
+		similarity_threads = threads < 1 ? 1 : threads;
+	}
+
+	/** returns the number of threads used to build similarity indexes */
+	public static int getSimilarityThreads () {
+		return similarity_threads;
+	}
+
+	/** The number of threads used to build genomes */
+	static protected int genome_threads = Runtime.getRuntime ()
+			.availableProcessors ();
+
+	/**
+	 * Sets the number of threads that read annotation files and build
+	 * genomes. A value of 1 builds them one after another on the loading
+	 * thread.
+	 */
+	public static void setGenomeThreads (int threads) {
+		genome_threads = threads < 1 ? 1 : threads;
+	}
+
+	/** returns the number of threads used to build genomes */
+	public static int getGenomeThreads () {
+		return genome_threads;
+	}
+
 	/**
      * 
      * @return
@@ -314,10 +664,19 @@ public class XmfaViewerModel extends LcbViewerModel {
 	public int getLCBIndex (Genome g, long position) {
 		return xmfa.getLCB (g, position);
 	}
+
+	/**
+	 * Returns the LCB index of each of a sorted array of positions in g, or -1
+	 * for positions outside every LCB
+	 */
+	public int [] getLCBIndexes (Genome g, long [] positions) {
+		return xmfa.getLCBs (g, positions);
+	}
 	
 	/**
 	 * Extracts columns from the sequence alignment containing the specified
-	 * range of the specified sequence. 
+	 * range of the specified sequence. The columns hold gaps but no
+	 * newlines, as XMFAAlignment.getRange returns them.
 	 * 
 	 * 
 	 * @param g
@@ -331,16 +690,13 @@ public class XmfaViewerModel extends LcbViewerModel {
 	 *         
 	 */
 	public byte[][] getSequenceRange(Genome g, long left, long right){
-		byte[][] tmp = xmfa.getRange(g, left, right);
-		for (int i = 0; i < tmp.length; i++){
-			tmp[i] = XMFAAlignment.filterNewlines(tmp[i]);
-		}
-		return tmp;
+		return xmfa.getRange(g, left, right);
 	}
 	
 	/**
 	 * Extracts columns from the sequence alignment containing the specified
-	 * range of the specified sequence. 
+	 * range of the specified sequence. The columns hold gaps but no
+	 * newlines.
 	 * 
 	 * 
 	 * @param genSrcIdx
@@ -404,6 +760,22 @@ public class XmfaViewerModel extends LcbViewerModel {
 		else
 			return 0;
 	}
+
+	/**
+	 * Translates many positions at once. Gives the same result as
+	 * getHomologousCoordinate for each position, except that positions outside
+	 * every LCB give 0 rather than an exception.
+	 * 
+	 * @param genX the genome of the positions
+	 * @param pos positions in <code>genX</code>, sorted in increasing order
+	 * @param genY the genome to translate to, by source index
+	 * @return the homologous position in <code>genY</code> of each position,
+	 *         or 0 where <code>genY</code> is gapped
+	 */
+	public long[] getHomologousCoordinates(int genX, long[] pos, int genY){
+		return xmfa.getHomologousCoordinates(genomes[genX], pos,
+				getGenomeBySourceIndex(genY));
+	}
 	
 	/**
 	 * Returns the sequence between <code>start</code> and <code>end</code>, inclusive,
@@ -424,10 +796,11 @@ public class XmfaViewerModel extends LcbViewerModel {
 			return null;
 		} else {
 			try {
+				// copied straight from the packed symbols of each contig
 				if (start > end){
-					return DNATools.reverseComplement(annSeq.subList((int)end, (int)start)).seqString().toCharArray();
+					return SequenceExtractor.getReverseComplementChars(annSeq, (int)end, (int)start);
 				} else {
-					return annSeq.subList((int) start, (int)end).seqString().toCharArray();
+					return SequenceExtractor.getChars(annSeq, (int) start, (int)end);
 				}
 			} catch (Exception e){
 				System.err.println("Error getting sequence coordinates (" 
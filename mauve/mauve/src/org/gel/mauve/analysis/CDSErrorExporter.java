@@ -87,7 +87,7 @@ public class CDSErrorExporter {
 		if (model.getGenomes().size() > 2)
 			return;
 		LiteWeightFeature[] cds = OneToOneOrthologExporter.getFeaturesByType(0,
-				model.getGenomeBySourceIndex(0).getAnnotationSequence().features(), "CDS");
+				model.getGenomeBySourceIndex(0).getFeatureIndex().features(), "CDS");
 		numCDS = cds.length;
 		System.err.println("numCDS: " + numCDS);
 		SNP[] snps = new SNP[snpsAr.length];
@@ -0,0 +1,356 @@
+package org.gel.mauve.analysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.gel.mauve.Chromosome;
+import org.gel.mauve.Genome;
+import org.gel.mauve.XmfaViewerModel;
+
+/**
+ * Lifts BED or GFF feature coordinates over from one genome of an alignment to
+ * another. Both ends of every feature are translated with the model's batch
+ * homologous coordinate API, with the sorted positions split among several
+ * threads. A feature is carried over when both of its ends are aligned to
+ * the same chromosome of the target genome; if the ends swap order the
+ * feature is placed on the opposite strand. Features that can't be carried
+ * over are written to a separate file when one is given.
+ * <p>
+ * Sequence names in the input are matched against the chromosome names of
+ * the source genome. Coordinates on a sequence that matches no chromosome are
+ * taken to be genome-wide coordinates.
+ */
+public class LiftOver {
+	public static final int BED = 0;
+
+	public static final int GFF = 1;
+
+	/** One feature line of the input */
+	static class Record {
+		String [] fields;
+
+		/** genome-wide, 1-based, inclusive coordinates in the source genome */
+		long left;
+
+		long right;
+	}
+
+	XmfaViewerModel model;
+
+	int src_genome;
+
+	int dest_genome;
+
+	int format;
+
+	int threads;
+
+	public LiftOver (XmfaViewerModel model, int src_genome, int dest_genome,
+			int format, int threads) {
+		this.model = model;
+		this.src_genome = src_genome;
+		this.dest_genome = dest_genome;
+		this.format = format;
+		this.threads = threads < 1 ? 1 : threads;
+	}
+
+	/** returns the format implied by a file name, GFF unless it ends in .bed */
+	public static int guessFormat (String file_name) {
+		return file_name.toLowerCase ().endsWith (".bed") ? BED : GFF;
+	}
+
+	/**
+	 * Lifts over every feature read from in
+	 *
+	 * @param out
+	 *            receives the lifted features, and comment lines unchanged
+	 * @param unmapped
+	 *            receives the features that could not be lifted over, may be
+	 *            null
+	 * @return the number of features lifted over
+	 */
+	public int liftOver (BufferedReader in, BufferedWriter out,
+			BufferedWriter unmapped) throws IOException {
+		Genome src = model.getGenomeBySourceIndex (src_genome);
+		Genome dest = model.getGenomeBySourceIndex (dest_genome);
+		List lines = new ArrayList ();
+		List records = new ArrayList ();
+		String line;
+		while ((line = in.readLine ()) != null) {
+			Record rec = parse (line, src);
+			lines.add (rec != null ? (Object) rec : line);
+			if (rec != null)
+				records.add (rec);
+		}
+
+		// translate both ends of every feature in one sorted batch
+		long [] positions = new long [records.size () * 2];
+		for (int recI = 0; recI < records.size (); recI++) {
+			Record rec = (Record) records.get (recI);
+			positions[recI * 2] = rec.left;
+			positions[recI * 2 + 1] = rec.right;
+		}
+		long [] sorted = (long []) positions.clone ();
+		Arrays.sort (sorted);
+		long [] lifted = translate (sorted);
+
+		int mapped_count = 0;
+		for (Iterator iter = lines.iterator (); iter.hasNext ();) {
+			Object o = iter.next ();
+			if (o instanceof String) {
+				out.write ((String) o);
+				out.newLine ();
+				continue;
+			}
+			Record rec = (Record) o;
+			long l = lifted[Arrays.binarySearch (sorted, rec.left)];
+			long r = lifted[Arrays.binarySearch (sorted, rec.right)];
+			String lifted_line = format (rec, l, r, dest);
+			if (lifted_line != null) {
+				out.write (lifted_line);
+				out.newLine ();
+				mapped_count++;
+			} else if (unmapped != null) {
+				unmapped.write (join (rec.fields));
+				unmapped.newLine ();
+			}
+		}
+		out.flush ();
+		if (unmapped != null)
+			unmapped.flush ();
+		return mapped_count;
+	}
+
+	/**
+	 * Translates sorted positions to the destination genome, splitting them
+	 * into one contiguous share per thread
+	 */
+	long [] translate (final long [] sorted) throws IOException {
+		final Genome src = model.getGenomeBySourceIndex (src_genome);
+		final Genome dest = model.getGenomeBySourceIndex (dest_genome);
+		final long [] lifted = new long [sorted.length];
+		int shares = (int) Math.max (1, Math.min (threads, sorted.length / 1000));
+		ExecutorService pool = Executors.newFixedThreadPool (shares);
+		try {
+			List futures = new ArrayList ();
+			final int share_len = (sorted.length + shares - 1) / shares;
+			for (int shareI = 0; shareI < shares; shareI++) {
+				final int start = shareI * share_len;
+				final int end = Math.min (sorted.length, start + share_len);
+				futures.add (pool.submit (new Callable () {
+					public Object call () {
+						long [] share = new long [end - start];
+						System.arraycopy (sorted, start, share, 0, share.length);
+						share = model.getXmfa ().getHomologousCoordinates (src,
+								share, dest);
+						System.arraycopy (share, 0, lifted, start, share.length);
+						return null;
+					}
+				}));
+			}
+			for (int futureI = 0; futureI < futures.size (); futureI++)
+				((Future) futures.get (futureI)).get ();
+		} catch (ExecutionException ee) {
+			IOException ioe = new IOException ("Unable to translate coordinates: "
+					+ ee.getCause ());
+			ioe.initCause (ee.getCause ());
+			throw ioe;
+		} catch (InterruptedException ie) {
+			IOException ioe = new IOException (
+					"Interrupted while translating coordinates");
+			ioe.initCause (ie);
+			throw ioe;
+		} finally {
+			pool.shutdownNow ();
+		}
+		return lifted;
+	}
+
+	/** returns the record on a line, or null for comment and header lines */
+	Record parse (String line, Genome src) {
+		if (line.length () == 0 || line.startsWith ("#")
+				|| line.startsWith ("track") || line.startsWith ("browser"))
+			return null;
+		Record rec = new Record ();
+		rec.fields = line.split ("\t", -1);
+		try {
+			long start;
+			long end;
+			if (format == BED) {
+				// 0-based, end exclusive
+				start = Long.parseLong (rec.fields[1].trim ()) + 1;
+				end = Long.parseLong (rec.fields[2].trim ());
+			} else {
+				start = Long.parseLong (rec.fields[3].trim ());
+				end = Long.parseLong (rec.fields[4].trim ());
+			}
+			long offset = 0;
+			Chromosome chr = findChromosome (src, rec.fields[0]);
+			if (chr != null)
+				offset = chr.getStart () - 1;
+			rec.left = Math.min (start, end) + offset;
+			rec.right = Math.max (start, end) + offset;
+		} catch (RuntimeException re) {
+			// not a feature line, pass it through
+			return null;
+		}
+		return rec;
+	}
+
+	/**
+	 * returns a record's line with lifted coordinates, or null if the
+	 * lifted ends don't fall on one chromosome
+	 */
+	String format (Record rec, long l, long r, Genome dest) {
+		if (l == 0 || r == 0)
+			return null;
+		boolean flip = l > r;
+		long left = Math.min (l, r);
+		long right = Math.max (l, r);
+		Chromosome chr = dest.getChromosomeAt (left);
+		if (chr != null && chr != dest.getChromosomeAt (right))
+			return null;
+		String [] fields = (String []) rec.fields.clone ();
+		if (chr != null) {
+			fields[0] = chr.getName ();
+			left = chr.relativeLocation (left);
+			right = chr.relativeLocation (right);
+		}
+		int strand_field = format == BED ? 5 : 6;
+		if (format == BED) {
+			fields[1] = Long.toString (left - 1);
+			fields[2] = Long.toString (right);
+		} else {
+			fields[3] = Long.toString (left);
+			fields[4] = Long.toString (right);
+		}
+		if (flip && fields.length > strand_field) {
+			if (fields[strand_field].equals ("+"))
+				fields[strand_field] = "-";
+			else if (fields[strand_field].equals ("-"))
+				fields[strand_field] = "+";
+		}
+		return join (fields);
+	}
+
+	private static Chromosome findChromosome (Genome g, String name) {
+		name = name.trim ();
+		Iterator iter = g.getChromosomes ().iterator ();
+		while (iter.hasNext ()) {
+			Chromosome chr = (Chromosome) iter.next ();
+			if (chr.getName ().equals (name))
+				return chr;
+		}
+		return null;
+	}
+
+	private static String join (String [] fields) {
+		StringBuffer sb = new StringBuffer ();
+		for (int fieldI = 0; fieldI < fields.length; fieldI++) {
+			if (fieldI > 0)
+				sb.append ('\t');
+			sb.append (fields[fieldI]);
+		}
+		return sb.toString ();
+	}
+
+	public static void main (String [] args) {
+		Options opts = new Options ();
+		opts.addOption (OptionBuilder.withArgName ("alignment file").hasArg ()
+				.withDescription (
+						"A required parameter specifying an XMFA format file generated by progressiveMauve")
+				.isRequired ().create ('f'));
+		opts.addOption (OptionBuilder.withArgName ("feature file").hasArg ()
+				.withDescription ("The BED or GFF file of features to lift over")
+				.isRequired ().create ('i'));
+		opts.addOption (OptionBuilder.withArgName ("output file name").hasArg ()
+				.withDescription ("The name of the output file for the lifted features")
+				.isRequired ().create ('o'));
+		opts.addOption (OptionBuilder.withArgName ("source genome").hasArg ()
+				.withDescription ("The genome the features are on, numbered from 1 in alignment order")
+				.isRequired ().create ('s'));
+		opts.addOption (OptionBuilder.withArgName ("target genome").hasArg ()
+				.withDescription ("The genome to lift the features over to, numbered from 1")
+				.isRequired ().create ('t'));
+		opts.addOption (OptionBuilder.withArgName ("unmapped file name").hasArg ()
+				.withDescription ("Optional file that receives the features that could not be lifted over")
+				.create ('u'));
+		opts.addOption (OptionBuilder.withArgName ("format").hasArg ()
+				.withDescription ("bed or gff, by default guessed from the feature file name")
+				.create ('F'));
+		opts.addOption (OptionBuilder.withArgName ("threads").hasArg ()
+				.withDescription ("The number of threads to use, default "
+						+ Runtime.getRuntime ().availableProcessors ())
+				.create ('n'));
+
+		CommandLineParser parser = new GnuParser ();
+		CommandLine line = null;
+		try {
+			line = parser.parse (opts, args);
+		} catch (org.apache.commons.cli.ParseException pe) {
+			HelpFormatter formatter = new HelpFormatter ();
+			formatter.printHelp (
+					"LiftOver -f <XMFA alignment input> -i <features> -o <lifted features> -s <source genome> -t <target genome>",
+					opts);
+			throw new RuntimeException (
+					"There was an error parsing your command-line options.  Please check them and try again.");
+		}
+		String inputFilePath = line.getOptionValue ('i');
+		int format = guessFormat (inputFilePath);
+		if (line.hasOption ('F'))
+			format = line.getOptionValue ('F').equalsIgnoreCase ("bed") ? BED
+					: GFF;
+		int threads = Runtime.getRuntime ().availableProcessors ();
+		if (line.hasOption ('n'))
+			threads = Integer.parseInt (line.getOptionValue ('n'));
+
+		try {
+			System.out.print ("Loading alignment file...");
+			XmfaViewerModel model = new XmfaViewerModel (new File (line
+					.getOptionValue ('f')), null);
+			int src = Integer.parseInt (line.getOptionValue ('s')) - 1;
+			int dest = Integer.parseInt (line.getOptionValue ('t')) - 1;
+			if (src < 0 || dest < 0 || src >= model.getSequenceCount ()
+					|| dest >= model.getSequenceCount ())
+				throw new IllegalArgumentException ("Genomes must be numbered from 1 to "
+						+ model.getSequenceCount ());
+			System.out.println ("Lifting over features...");
+			LiftOver lo = new LiftOver (model, src, dest, format, threads);
+			BufferedReader in = new BufferedReader (new FileReader (inputFilePath));
+			BufferedWriter out = new BufferedWriter (new FileWriter (line
+					.getOptionValue ('o')));
+			BufferedWriter unmapped = null;
+			if (line.hasOption ('u'))
+				unmapped = new BufferedWriter (new FileWriter (line
+						.getOptionValue ('u')));
+			int count = lo.liftOver (in, out, unmapped);
+			in.close ();
+			out.close ();
+			if (unmapped != null)
+				unmapped.close ();
+			System.out.println ("Lifted over " + count + " features.");
+		} catch (Exception e) {
+			e.printStackTrace ();
+			System.exit (-1);
+		}
+	}
+}
@@ -21,6 +21,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Stack;
 import java.util.StringTokenizer;
@@ -56,11 +57,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
-import org.biojava.bio.seq.FeatureFilter;
-import org.biojava.bio.seq.FeatureHolder;
 import org.biojava.bio.seq.StrandedFeature;
-import org.biojava.bio.symbol.Location;
-import org.biojava.bio.symbol.LocationTools;
 import org.gel.mauve.BaseViewerModel;
 import org.gel.mauve.Genome;
 import org.gel.mauve.GenomeBuilder;
@@ -324,6 +321,12 @@ public class OneToOneOrthologExporter {
 		public File alignmentOutputFile = null;	
 	}
 	
+	/**
+	 * Finds one-to-one orthologs among the features of the genomes and writes
+	 * them to output.  Aligned regions are read with XMFAAlignment.getRange,
+	 * whose columns hold no newlines, so the alignment lengths compared when
+	 * choosing the widest region of an ortholog group count columns only.
+	 */
 	public static void export( XmfaViewerModel model, BufferedWriter output, OrthologExportParameters oep ) throws IOException
 	{
 		float min_conserved_length = oep.min_conserved_length;
@@ -337,12 +340,11 @@ public class OneToOneOrthologExporter {
 		for(int gI = 0; gI < model.getSequenceCount(); gI++)
 		{
 			Genome g = model.getGenomeBySourceIndex(gI);
-            Location loc = LocationTools.makeLocation(1, (int)g.getLength());
             LiteWeightFeature[] cdsi = new LiteWeightFeature[0];
-            if(g.getAnnotationSequence() != null && loc != null )
+            if(g.getAnnotationSequence() != null)
             {
-				FeatureHolder fh = g.getAnnotationSequence().filter(new FeatureFilter.OverlapsLocation(loc));
-				cdsi = getFeaturesByType(gI, fh.features(), oep.featureType);
+				List features = g.getFeatureIndex().overlapping(1, (int)g.getLength());
+				cdsi = getFeaturesByType(gI, features.iterator(), oep.featureType);
 				Arrays.sort(cdsi);
             }
 			allCds.add(cdsi);
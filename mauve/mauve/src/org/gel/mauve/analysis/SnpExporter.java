@@ -18,6 +18,7 @@ import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
+import org.gel.mauve.AlignmentColumnCursor;
 import org.gel.mauve.Chromosome;
 import org.gel.mauve.Genome;
 import org.gel.mauve.LCB;
@@ -159,23 +160,17 @@ public class SnpExporter {
 		for(int i = 0;i  < lcbs.length; i++ )
 		{
 			int ivI = lcbs[i].id;
-			int iv_length = (int)xmfa.getLcbLength(ivI);
-			byte[][] bytebuf = new byte[seq_count][iv_length];
-			for( int seqI = 0; seqI < seq_count; seqI++ )
-			{
-				byte[] tmp = xmfa.readRawSequence (ivI, seqI, 0, iv_length);
-				tmp = XMFAAlignment.filterNewlines(tmp);
-				System.arraycopy(tmp, 0, bytebuf[seqI], 0, iv_length);
-			}
-			int cc = 0;
-			for(int colI = 0; colI < iv_length; colI++)
+			AlignmentColumnCursor cursor = new AlignmentColumnCursor(xmfa, ivI);
+			long [] seq_offsets = new long[seq_count];
+			boolean [] gap = new boolean[seq_count];
+			while(cursor.next())
 			{
 				// first check whether the column contains a polymorphic site
 				char b = 0;			
 				boolean poly = false;
 				for( int seqI = 0; seqI < seq_count; seqI++ )
 				{
-					byte c = bytebuf[seqI][colI];
+					byte c = cursor.getChar(seqI);
 					if( c == '-' )
 						continue;
 					if( b == 0 )
@@ -183,16 +178,12 @@ public class SnpExporter {
 					if( b != lowerLookup(c) )
 						poly = true;
 				}
-				if( b != 0)
-					cc++;	// don't count all-gap columns
 				if(!poly)
 					continue;
 				
 				// if so, then write out the polymorphic site...
 				// first determine which seq is reference
-				long [] seq_offsets = new long[seq_count];
-				boolean [] gap = new boolean[seq_count];
-				xmfa.getColumnCoordinates (model, ivI, cc-1, seq_offsets, gap);
+				cursor.getColumnCoordinates(seq_offsets, gap);
 				Genome g = model.getReference();
 				int refseq = g.getSourceIndex();
 				int lcbi = model.getLCBIndex(model.getGenomeBySourceIndex(refseq), seq_offsets[refseq]);
@@ -203,14 +194,13 @@ public class SnpExporter {
 				}
 				boolean rev = xmfa.getSourceLcbList()[lcbi].getReverse(model.getReference());
 				SNP tmp = new SNP(model);
-				StringBuilder sb = new StringBuilder();
 				for( int seqI = 0; seqI < seq_count; seqI++ )
 				{
 					char c = '-';
 					if(rev)
-						c = revLookup(bytebuf[seqI][colI]);
+						c = revLookup(cursor.getChar(seqI));
 					else
-						c = (char)bytebuf[seqI][colI];
+						c = (char)cursor.getChar(seqI);
 
 					long pos = 0;
 					if(!gap[seqI])
@@ -314,34 +304,28 @@ public class SnpExporter {
 			// First we need to get intra-LCB gaps
 			for (int lcbI = 0; lcbI < lcbs.length; lcbI++){
 				
-				int lcbLen = (int) xmfa.getLcbLength(lcbI);
-				byte[] tmp = xmfa.readRawSequence(lcbI, genI, 0, lcbLen);
-				tmp = XMFAAlignment.filterNewlines(tmp);
-				long[] seq_offset = new long[genomes.length];
-				boolean[] gap = new boolean[genomes.length];
+				AlignmentColumnCursor cursor = new AlignmentColumnCursor(xmfa,
+						lcbI, new int[] { genI }, AlignmentColumnCursor.DEFAULT_BLOCK_SIZE);
 				
-				int colI = 0;
-				while (colI < tmp.length){
-					if (tmp[colI]=='-'){
-						long start = colI;
-						// this will move colI to the position immediately following the gap
-						while(tmp[colI]=='-'){
-							if (colI == tmp.length-1) {
-								colI++;
-								break;
-							} else 
-								colI++;
+				boolean more = cursor.next();
+				while (more){
+					if (cursor.isGap(genI)){
+						long start = cursor.getColumn();
+						// gaps add no residues, so this is also the offset
+						// of the residue immediately following the gap
+						long seq_off = cursor.getSeqOffset(genI);
+						long len = 0;
+						while (more && cursor.isGap(genI)){
+							len++;
+							more = cursor.next();
 						}
-						long end = colI-1;
-						long len = end - start + 1;
-						if (lcbs[lcbI].getReverse(g))
-							xmfa.getColumnCoordinates(model, lcbI, end+1, seq_offset, gap);
-						else
-							xmfa.getColumnCoordinates(model, lcbI, start-1, seq_offset, gap);
-						
-						gaps[genI].add(new Gap(genI,lcbI,seq_offset[genI],len, model));	
+						// report the residue to the left of the gap in the
+						// genome, or the LCB's first residue for a leading gap
+						if (!lcbs[lcbI].getReverse(g) && start > 0)
+							seq_off--;
+						gaps[genI].add(new Gap(genI,lcbI,cursor.toGlobal(genI, seq_off),len, model));	
 					} else	
-						colI++;
+						more = cursor.next();
 				}	
 			}
 			
@@ -0,0 +1,502 @@
+package org.gel.mauve.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.biojava.bio.Annotation;
+import org.biojava.bio.BioException;
+import org.biojava.bio.SimpleAnnotation;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.SequenceIterator;
+import org.biojava.bio.seq.SimpleFeatureHolder;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.seq.impl.SimpleStrandedFeature;
+import org.biojava.bio.symbol.Alphabet;
+import org.biojava.bio.symbol.AlphabetManager;
+import org.biojava.bio.symbol.Location;
+import org.biojava.bio.symbol.LocationTools;
+import org.biojava.bio.symbol.RangeLocation;
+import org.biojava.bio.symbol.SymbolList;
+import org.biojava.ontology.OntoTools;
+import org.biojava.utils.ChangeVetoException;
+import org.gel.mauve.AnalysisCache;
+import org.gel.mauve.ContentFingerprint;
+import org.gel.mauve.FilterCacheSpec;
+import org.gel.mauve.SupportedFormat;
+
+/**
+ * Keeps what a DelegatingSequence holds of a parsed annotation file in an
+ * AnalysisCache: each sequence's symbols, name, annotation and the thin
+ * features of every FilterCacheSpec of its format. The entry is keyed by a
+ * fingerprint of the file and a description of the format, so an unchanged
+ * file is restored from one sequential read instead of being parsed again.
+ * Anything a restored sequence does not hold, such as the full feature set,
+ * is read from the file on demand just as it is for a freshly parsed one.
+ * <p>
+ * Formats that produce RichSequences carry more than a DelegatingSequence
+ * holds and are always parsed.
+ */
+public class AnnotationCache {
+	/** the name of the file within a cache entry */
+	static final String CACHE_FILE = "annotation.cache";
+
+	static final int MAGIC = 0x4d564143;
+
+	/** changes whenever the layout of the file does */
+	static final int VERSION = 2;
+
+	/** annotation values */
+	static final byte STRING_VALUE = 0;
+
+	static final byte LIST_VALUE = 1;
+
+	/** symbol encodings */
+	static final byte TWO_BIT_SYMBOLS = 0;
+
+	static final byte TOKEN_SYMBOLS = 1;
+
+	private AnnotationCache () {
+		// Don't allow an object to be created.
+	}
+
+	/**
+	 * Returns an iterator over the sequences of an annotation file, like
+	 * format.makeIterator(). The sequences come from the default analysis
+	 * cache when it holds the file, otherwise the file is parsed and the
+	 * sequences are written to the cache once they have all been read.
+	 */
+	public static SequenceIterator makeIterator (SupportedFormat format,
+			File file) {
+		return makeIterator (format, file, AnalysisCache.getDefault ());
+	}
+
+	public static SequenceIterator makeIterator (SupportedFormat format,
+			File file, AnalysisCache cache) {
+		// FASTA files have no annotation and are read through a FastaIndex
+		if (format.isRich () || format instanceof FastaFormat)
+			return format.makeIterator (file);
+		String key;
+		try {
+			key = key (format, file);
+		} catch (IOException ioe) {
+			return format.makeIterator (file);
+		}
+		List restored = null;
+		try {
+			AnalysisCache.Entry entry = cache.open (key);
+			try {
+				if (entry.contains (CACHE_FILE))
+					restored = read (entry.getFile (CACHE_FILE), format, file);
+			} finally {
+				entry.close ();
+			}
+		} catch (IOException ioe) {
+			// unreadable or of an older layout, parse the file and rewrite it
+			restored = null;
+		}
+		if (restored != null)
+			return new ListIterator (restored);
+		return new RecordingIterator (format.makeIterator (file), format,
+				cache, key);
+	}
+
+	/** returns the cache key of a file read in a format */
+	static String key (SupportedFormat format, File file) throws IOException {
+		StringBuffer desc = new StringBuffer (format.getClass ().getName ());
+		FilterCacheSpec [] specs = format.getFilterCacheSpecs ();
+		for (int specI = 0; specI < specs.length; specI++) {
+			desc.append ('\n').append (specs[specI].filter);
+			String [] annos = specs[specI].getAnnotations ();
+			for (int i = 0; annos != null && i < annos.length; i++)
+				desc.append (' ').append (annos[i]);
+		}
+		return AnalysisCache.key (new byte [][] {
+				ContentFingerprint.computeRaw (file),
+				desc.toString ().getBytes ("UTF-8") });
+	}
+
+	/**
+	 * returns true if a sequence can be written, that is, it was made by
+	 * DelegatingSequence.init() and its symbols can be parsed back from their
+	 * tokens
+	 */
+	static boolean isCacheable (Sequence s, FilterCacheSpec [] specs) {
+		if (s == null || s.getClass () != DelegatingSequence.class)
+			return false;
+		DelegatingSequence ds = (DelegatingSequence) s;
+		if (ds.packedList == null || ds.packedList.length () != ds.length)
+			return false;
+		for (int specI = 0; specI < specs.length; specI++)
+			if (!ds.filterCache.containsKey (specs[specI].filter))
+				return false;
+		Alphabet alpha = ds.packedList.getAlphabet ();
+		try {
+			alpha.getTokenization ("token");
+			return AlphabetManager.alphabetForName (alpha.getName ()) == alpha;
+		} catch (BioException be) {
+			return false;
+		} catch (NoSuchElementException nsee) {
+			return false;
+		}
+	}
+
+	/** writes sequences made by DelegatingSequence.init() to a file */
+	static void write (File f, List seqs, FilterCacheSpec [] specs)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (
+				new FileOutputStream (f), 1 << 16));
+		try {
+			out.writeInt (MAGIC);
+			out.writeInt (VERSION);
+			out.writeInt (seqs.size ());
+			for (int seqI = 0; seqI < seqs.size (); seqI++) {
+				DelegatingSequence s = (DelegatingSequence) seqs.get (seqI);
+				writeString (out, s.name);
+				writeString (out, s.urn);
+				out.writeInt (s.featureCount);
+				writeAnnotation (out, s.annotation);
+				writeSymbols (out, s);
+				out.writeInt (specs.length);
+				for (int specI = 0; specI < specs.length; specI++) {
+					FeatureHolder fh = (FeatureHolder) s.filterCache
+							.get (specs[specI].filter);
+					out.writeInt (fh.countFeatures ());
+					for (Iterator fI = fh.features (); fI.hasNext ();)
+						writeFeature (out, (StrandedFeature) fI.next ());
+				}
+			}
+		} finally {
+			out.close ();
+		}
+	}
+
+	/**
+	 * reads the sequences of a file written by write()
+	 *
+	 * @param source
+	 *            the annotation file, read if a sequence is asked for
+	 *            anything the cache doesn't hold
+	 */
+	static List read (File f, SupportedFormat format, File source)
+			throws IOException {
+		DataInputStream in = new DataInputStream (new BufferedInputStream (
+				new FileInputStream (f), 1 << 16));
+		try {
+			if (in.readInt () != MAGIC || in.readInt () != VERSION)
+				throw new IOException ("Not an annotation cache: " + f);
+			FilterCacheSpec [] specs = format.getFilterCacheSpecs ();
+			int count = in.readInt ();
+			ArrayList seqs = new ArrayList (count);
+			for (int seqI = 0; seqI < count; seqI++) {
+				DelegatingSequence s = new DelegatingSequence (format, source,
+						seqI);
+				s.name = readString (in);
+				s.urn = readString (in);
+				s.featureCount = in.readInt ();
+				s.annotation = readAnnotation (in);
+				s.alphabet = AlphabetManager.alphabetForName (readString (in));
+				s.length = in.readInt ();
+				s.packedList = readSymbols (in, s.alphabet, s.length);
+				if (in.readInt () != specs.length)
+					throw new IOException ("Filter specs changed: " + f);
+				for (int specI = 0; specI < specs.length; specI++) {
+					SimpleFeatureHolder sfh = new SimpleFeatureHolder ();
+					int fcount = in.readInt ();
+					for (int fI = 0; fI < fcount; fI++)
+						sfh.addFeature (readFeature (in, s));
+					s.filterCache.put (specs[specI].filter, sfh);
+				}
+				seqs.add (s);
+			}
+			return seqs;
+		} catch (BioException be) {
+			throw new IOException ("Corrupt annotation cache: " + f, be);
+		} catch (ChangeVetoException cve) {
+			throw new IOException ("Corrupt annotation cache: " + f, cve);
+		} catch (NoSuchElementException nsee) {
+			throw new IOException ("Unknown alphabet in " + f, nsee);
+		} finally {
+			in.close ();
+		}
+	}
+
+	/**
+	 * writes a sequence's symbols, a two bit list as it is packed and any
+	 * other as tokens
+	 */
+	static void writeSymbols (DataOutputStream out, DelegatingSequence s)
+			throws IOException {
+		writeString (out, s.packedList.getAlphabet ().getName ());
+		out.writeInt (s.length);
+		if (s.packedList instanceof TwoBitSymbolList) {
+			TwoBitSymbolList packed = (TwoBitSymbolList) s.packedList;
+			out.writeByte (TWO_BIT_SYMBOLS);
+			out.write (packed.packed, 0, (s.length + 3) / 4);
+			out.writeInt (packed.exc_count);
+			for (int i = 0; i < packed.exc_count; i++) {
+				out.writeInt (packed.exc_starts[i]);
+				out.writeInt (packed.exc_ends[i]);
+				out.writeByte (packed.exc_tokens[i]);
+			}
+			return;
+		}
+		out.writeByte (TOKEN_SYMBOLS);
+		byte [] buf = new byte [Math.min (s.length,
+				DelegatingSequence.CHUNK_SIZE)];
+		for (int start = 1; start <= s.length; start += buf.length) {
+			int end = Math.min (s.length, start + buf.length - 1);
+			s.getTokens (start, end, buf, 0);
+			out.write (buf, 0, end - start + 1);
+		}
+	}
+
+	static SymbolList readSymbols (DataInputStream in, Alphabet alpha,
+			int length) throws IOException, BioException {
+		if (in.readByte () == TWO_BIT_SYMBOLS) {
+			if (alpha != DNATools.getDNA ())
+				throw new IOException ("Two bit symbols of " + alpha.getName ());
+			byte [] packed = new byte [(length + 3) / 4];
+			in.readFully (packed);
+			int count = in.readInt ();
+			int [] starts = new int [count];
+			int [] ends = new int [count];
+			byte [] tokens = new byte [count];
+			for (int i = 0; i < count; i++) {
+				starts[i] = in.readInt ();
+				ends[i] = in.readInt ();
+				tokens[i] = in.readByte ();
+			}
+			return new TwoBitSymbolList (length, packed, starts, ends, tokens,
+					count);
+		}
+		byte [] tokens = new byte [length];
+		in.readFully (tokens);
+		return new ByteSymbolList (alpha, tokens);
+	}
+
+	static void writeFeature (DataOutputStream out, StrandedFeature f)
+			throws IOException {
+		writeString (out, f.getType ());
+		out.writeInt (f.getStrand ().getValue ());
+		Location loc = f.getLocation ();
+		int blocks = 0;
+		for (Iterator bI = loc.blockIterator (); bI.hasNext (); bI.next ())
+			blocks++;
+		out.writeInt (blocks);
+		for (Iterator bI = loc.blockIterator (); bI.hasNext ();) {
+			Location block = (Location) bI.next ();
+			out.writeInt (block.getMin ());
+			out.writeInt (block.getMax ());
+		}
+		writeAnnotation (out, f.getAnnotation ());
+	}
+
+	/** reads a feature written by writeFeature() as a thin feature of s */
+	static StrandedFeature readFeature (DataInputStream in, Sequence s)
+			throws IOException, BioException {
+		StrandedFeature.Template t = new StrandedFeature.Template ();
+		t.type = readString (in);
+		t.typeTerm = OntoTools.ANY;
+		t.source = null;
+		t.sourceTerm = OntoTools.ANY;
+		int strand = in.readInt ();
+		t.strand = strand > 0 ? StrandedFeature.POSITIVE
+				: (strand < 0 ? StrandedFeature.NEGATIVE
+						: StrandedFeature.UNKNOWN);
+		int blocks = in.readInt ();
+		if (blocks == 0)
+			t.location = Location.empty;
+		else if (blocks == 1)
+			t.location = LocationTools.makeLocation (in.readInt (), in
+					.readInt ());
+		else {
+			ArrayList locs = new ArrayList (blocks);
+			for (int bI = 0; bI < blocks; bI++)
+				locs.add (new RangeLocation (in.readInt (), in.readInt ()));
+			t.location = LocationTools.union (locs);
+		}
+		t.annotation = readAnnotation (in);
+		return new SimpleStrandedFeature (s, s, t);
+	}
+
+	/**
+	 * writes an annotation whose values are strings or lists of strings, as
+	 * made by the non-rich parsers. Keys and other values are written as
+	 * their string forms.
+	 */
+	static void writeAnnotation (DataOutputStream out, Annotation a)
+			throws IOException {
+		if (a == null || a == Annotation.EMPTY_ANNOTATION) {
+			out.writeInt (-1);
+			return;
+		}
+		Map map = a.asMap ();
+		out.writeInt (map.size ());
+		for (Iterator eI = map.entrySet ().iterator (); eI.hasNext ();) {
+			Map.Entry e = (Map.Entry) eI.next ();
+			writeString (out, String.valueOf (e.getKey ()));
+			if (e.getValue () instanceof List) {
+				List values = (List) e.getValue ();
+				out.writeByte (LIST_VALUE);
+				out.writeInt (values.size ());
+				for (int vI = 0; vI < values.size (); vI++)
+					writeString (out, String.valueOf (values.get (vI)));
+			} else {
+				out.writeByte (STRING_VALUE);
+				writeString (out, e.getValue () == null ? null : e
+						.getValue ().toString ());
+			}
+		}
+	}
+
+	static Annotation readAnnotation (DataInputStream in) throws IOException,
+			ChangeVetoException {
+		int count = in.readInt ();
+		if (count < 0)
+			return Annotation.EMPTY_ANNOTATION;
+		Annotation a = new SimpleAnnotation ();
+		for (int i = 0; i < count; i++) {
+			String key = readString (in);
+			if (in.readByte () == LIST_VALUE) {
+				int size = in.readInt ();
+				ArrayList values = new ArrayList (size);
+				for (int vI = 0; vI < size; vI++)
+					values.add (readString (in));
+				a.setProperty (key, values);
+			} else
+				a.setProperty (key, readString (in));
+		}
+		return a;
+	}
+
+	/** writes a string of any length, or null */
+	static void writeString (DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt (-1);
+			return;
+		}
+		byte [] bytes = s.getBytes ("UTF-8");
+		out.writeInt (bytes.length);
+		out.write (bytes);
+	}
+
+	static String readString (DataInputStream in) throws IOException {
+		int len = in.readInt ();
+		if (len < 0)
+			return null;
+		byte [] bytes = new byte [len];
+		in.readFully (bytes);
+		return new String (bytes, "UTF-8");
+	}
+
+	/** iterates over restored sequences */
+	static class ListIterator implements SequenceIterator {
+		protected List seqs;
+
+		protected int next = 0;
+
+		ListIterator (List seqs) {
+			this.seqs = seqs;
+		}
+
+		public boolean hasNext () {
+			return next < seqs.size ();
+		}
+
+		public Sequence nextSequence () throws NoSuchElementException {
+			if (!hasNext ())
+				throw new NoSuchElementException ();
+			return (Sequence) seqs.get (next++);
+		}
+	}
+
+	/**
+	 * Passes on the sequences of a parse, writing them to the cache once the
+	 * last has been read
+	 */
+	static class RecordingIterator implements SequenceIterator {
+		protected SequenceIterator inner;
+
+		protected SupportedFormat format;
+
+		protected AnalysisCache cache;
+
+		protected String key;
+
+		protected ArrayList seqs = new ArrayList ();
+
+		/** true once the sequences are written or can't be */
+		protected boolean done = false;
+
+		RecordingIterator (SequenceIterator inner, SupportedFormat format,
+				AnalysisCache cache, String key) {
+			this.inner = inner;
+			this.format = format;
+			this.cache = cache;
+			this.key = key;
+		}
+
+		public boolean hasNext () {
+			boolean more = inner.hasNext ();
+			if (!more && !done) {
+				done = true;
+				store ();
+			}
+			return more;
+		}
+
+		public Sequence nextSequence () throws NoSuchElementException,
+				BioException {
+			try {
+				Sequence s = inner.nextSequence ();
+				seqs.add (s);
+				return s;
+			} catch (BioException be) {
+				// only a whole file is worth keeping
+				done = true;
+				throw be;
+			} catch (RuntimeException re) {
+				done = true;
+				throw re;
+			}
+		}
+
+		void store () {
+			FilterCacheSpec [] specs = format.getFilterCacheSpecs ();
+			for (int seqI = 0; seqI < seqs.size (); seqI++)
+				if (!isCacheable ((Sequence) seqs.get (seqI), specs))
+					return;
+			try {
+				AnalysisCache.Entry entry = cache.open (key);
+				try {
+					File tmp = entry.createTempFile (CACHE_FILE);
+					try {
+						write (tmp, seqs, specs);
+					} catch (IOException ioe) {
+						tmp.delete ();
+						throw ioe;
+					}
+					entry.commit (tmp, CACHE_FILE);
+				} finally {
+					entry.close ();
+				}
+			} catch (IOException ioe) {
+				System.err.println ("Unable to write annotation cache: "
+						+ ioe.getMessage ());
+			}
+		}
+	}
+}
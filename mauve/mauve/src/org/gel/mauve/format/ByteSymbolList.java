@@ -0,0 +1,83 @@
+package org.gel.mauve.format;
+
+import java.io.UnsupportedEncodingException;
+
+import org.biojava.bio.BioException;
+import org.biojava.bio.seq.io.SymbolTokenization;
+import org.biojava.bio.symbol.AbstractSymbolList;
+import org.biojava.bio.symbol.Alphabet;
+import org.biojava.bio.symbol.Symbol;
+
+/**
+ * A symbol list kept as one token character per symbol, used for alphabets
+ * other than DNA. Symbols are looked up by character in a table filled as
+ * characters are first seen, and strings of the sequence are made straight
+ * from the characters without visiting any symbol.
+ */
+class ByteSymbolList extends AbstractSymbolList implements TokenList {
+	protected Alphabet alphabet;
+
+	protected byte [] tokens;
+
+	protected SymbolTokenization tokenization;
+
+	/** symbol of each token character, null until first seen */
+	protected Symbol [] symbols = new Symbol [256];
+
+	/**
+	 * @param alphabet
+	 *            the alphabet of the symbols
+	 * @param tokens
+	 *            the token character of each symbol, as given by the
+	 *            alphabet's "token" tokenization
+	 */
+	ByteSymbolList (Alphabet alphabet, byte [] tokens) throws BioException {
+		this.alphabet = alphabet;
+		this.tokens = tokens;
+		tokenization = alphabet.getTokenization ("token");
+	}
+
+	public Alphabet getAlphabet () {
+		return alphabet;
+	}
+
+	public int length () {
+		return tokens.length;
+	}
+
+	public Symbol symbolAt (int index) throws IndexOutOfBoundsException {
+		if (index < 1 || index > tokens.length)
+			throw new IndexOutOfBoundsException ("Index " + index
+					+ " not in [1," + tokens.length + "]");
+		int c = tokens[index - 1] & 0xff;
+		Symbol sym = symbols[c];
+		if (sym == null) {
+			try {
+				sym = tokenization.parseToken (String.valueOf ((char) c));
+			} catch (BioException be) {
+				throw new RuntimeException (be);
+			}
+			symbols[c] = sym;
+		}
+		return sym;
+	}
+
+	public void getTokens (int from, int to, byte [] dst, int off) {
+		System.arraycopy (tokens, from, dst, off, to - from);
+	}
+
+	public String seqString () {
+		return subStr (1, tokens.length);
+	}
+
+	public String subStr (int start, int end) throws IndexOutOfBoundsException {
+		if (start < 1 || end > tokens.length || end < start - 1)
+			throw new IndexOutOfBoundsException ("Range [" + start + "," + end
+					+ "] not in [1," + tokens.length + "]");
+		try {
+			return new String (tokens, start - 1, end - start + 1, "ISO-8859-1");
+		} catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException (uee);
+		}
+	}
+}
@@ -6,10 +6,12 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.biojava.bio.Annotation;
 import org.biojava.bio.BioException;
 import org.biojava.bio.SimpleAnnotation;
+import org.biojava.bio.seq.DNATools;
 import org.biojava.bio.seq.Feature;
 import org.biojava.bio.seq.FeatureFilter;
 import org.biojava.bio.seq.FeatureHolder;
@@ -62,6 +64,9 @@ class DelegatingSequence implements Sequence {
 
 	SymbolList packedList = null; // a packed symbol list
 
+	/** symbols are read from a parsed sequence this many at a time */
+	static final int CHUNK_SIZE = 1 << 20;
+
 	public DelegatingSequence (Sequence s, SupportedFormat format, File source,
 			int index) throws FileNotFoundException {
 		format.validate (s, source, index);
@@ -73,19 +78,18 @@ class DelegatingSequence implements Sequence {
 		init (s);
 	}
 
+	/**
+	 * Creates a delegate for a sequence restored by an AnnotationCache, which
+	 * sets the fields init() would have set from the parsed sequence.
+	 */
+	DelegatingSequence (SupportedFormat format, File source, int index) {
+		this.format = format;
+		this.source = source;
+		this.sequenceIndex = index;
+	}
+
 	protected void init (Sequence s) {
-		PackedSymbolListFactory pslFactory = new PackedSymbolListFactory ();
-		Symbol [] symArray = new Symbol [s.length ()];
-		int symI = 0;
-		for (Iterator symIter = s.iterator (); symIter.hasNext ();) {
-			symArray[symI++] = (Symbol) symIter.next ();
-		}
-		try {
-        	packedList = pslFactory.makeSymbolList(symArray, s.length(), s.getAlphabet());
-        }catch(IllegalAlphabetException iae)
-        {
-			iae.printStackTrace ();
-		}
+		packedList = packSymbols (s);
 
 		annotation = new SimpleAnnotation (s.getAnnotation ());
 		alphabet = s.getAlphabet ();
@@ -106,6 +110,66 @@ class DelegatingSequence implements Sequence {
 		// Added for subclass convenience.
 	}
 
+	/**
+	 * Copies the symbols of a parsed sequence into a compact list. DNA is
+	 * packed two bits per base and other alphabets one token per symbol; in
+	 * both cases the symbols are read as strings of tokens a chunk at a time,
+	 * so no array of Symbols as long as the sequence is ever made.
+	 */
+	static SymbolList packSymbols (SymbolList s) {
+		int length = s.length ();
+		if (s.getAlphabet () == DNATools.getDNA ()) {
+			TwoBitSymbolList packed = new TwoBitSymbolList (length);
+			for (int start = 1; start <= length; start += CHUNK_SIZE)
+				packed.append (s.subStr (start, Math.min (length, start
+						+ CHUNK_SIZE - 1)));
+			packed.trim ();
+			return packed;
+		}
+		try {
+			s.getAlphabet ().getTokenization ("token");
+			byte [] tokens = new byte [length];
+			for (int start = 1; start <= length; start += CHUNK_SIZE) {
+				String chunk = s.subStr (start, Math.min (length, start
+						+ CHUNK_SIZE - 1));
+				for (int i = 0; i < chunk.length (); i++)
+					tokens[start - 1 + i] = (byte) chunk.charAt (i);
+			}
+			return new ByteSymbolList (s.getAlphabet (), tokens);
+		} catch (BioException be) {
+			// no single character tokens, pack the symbols themselves
+		} catch (NoSuchElementException nsee) {
+			// likewise
+		}
+		PackedSymbolListFactory pslFactory = new PackedSymbolListFactory ();
+		Symbol [] symArray = new Symbol [length];
+		int symI = 0;
+		for (Iterator symIter = s.iterator (); symIter.hasNext ();) {
+			symArray[symI++] = (Symbol) symIter.next ();
+		}
+		try {
+        	return pslFactory.makeSymbolList(symArray, length, s.getAlphabet());
+        }catch(IllegalAlphabetException iae)
+        {
+			iae.printStackTrace ();
+		}
+		return null;
+	}
+
+	/**
+	 * copies the token characters of the symbols from start through end,
+	 * counting from 1, into dst starting at off
+	 */
+	void getTokens (int start, int end, byte [] dst, int off) {
+		if (packedList instanceof TokenList) {
+			((TokenList) packedList).getTokens (start - 1, end, dst, off);
+			return;
+		}
+		String str = packedList.subStr (start, end);
+		for (int i = 0; i < str.length (); i++)
+			dst[off + i] = (byte) str.charAt (i);
+	}
+
 	// /////////////////////////////////////////////////////////////////
 	// Begin Sequence-specific implementation
 	public String getName () {
@@ -389,7 +453,8 @@ class DelegatingSequence implements Sequence {
 
 		public String subStr (int start, int end)
 				throws IndexOutOfBoundsException {
-			throw new Error ("Not implemented");
+			return packedList.subStr (this.start + start - 1, this.start + end
+					- 1);
 		}
 
 		public void edit (Edit edit) throws IndexOutOfBoundsException,
@@ -27,6 +27,25 @@ public class FastaFormat extends BaseFormat {
 		}
 	}
 
+	/**
+	 * Reads the records of the file through a FastaIndex, so their sequences
+	 * stay in the file, unless the file can't be indexed.
+	 */
+	public SequenceIterator makeIterator (File file) {
+		FastaIndex index = FastaIndex.open (file, hasHeaders ());
+		if (index == null)
+			return super.makeIterator (file);
+		return index.makeIterator (this, file);
+	}
+
+	/**
+	 * returns false for files of bare sequence, which are read as a single
+	 * record named raw
+	 */
+	protected boolean hasHeaders () {
+		return true;
+	}
+
 	public String getSequenceName (Sequence s) {
 		return s.getName ();
 	}
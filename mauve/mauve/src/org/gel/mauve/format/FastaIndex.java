@@ -0,0 +1,454 @@
+package org.gel.mauve.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+
+import org.biojava.bio.Annotation;
+import org.biojava.bio.SimpleAnnotation;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.SequenceIterator;
+import org.biojava.utils.ChangeVetoException;
+import org.gel.mauve.AnalysisCache;
+import org.gel.mauve.ContentFingerprint;
+import org.gel.mauve.MappedXmfaSource;
+import org.gel.mauve.ModelBuilder;
+import org.gel.mauve.SupportedFormat;
+import org.gel.mauve.XmfaSource;
+
+/**
+ * An index of the records of a FASTA file, in the spirit of samtools' .fai
+ * files, through which sequences are read from the memory mapped file
+ * rather than held in memory. One sequential pass over the file records
+ * each record's name, length and line geometry: its residues are cut into
+ * blocks of lines of one width, usually a single block per record, so any
+ * residue's file offset is a little arithmetic away. Blocks also cope with
+ * the ragged line widths .fai files can't describe.
+ * <p>
+ * The index is kept in the analysis cache, keyed by a fingerprint of the
+ * file, so a draft of thousands of contigs opens without reading it again.
+ * Files the index can't describe exactly as biojava would parse them, such
+ * as those with characters other than nucleotides in their sequence lines,
+ * are left to biojava.
+ */
+public class FastaIndex {
+	/** the name of the index within a cache entry */
+	static final String INDEX_FILE = "fasta.index";
+
+	static final int MAGIC = 0x4d564649;
+
+	/** changes whenever the layout of the index does */
+	static final int VERSION = 1;
+
+	/** the name biojava gives the one record of a raw sequence file */
+	static final String RAW_NAME = "raw";
+
+	/** the prefix of the URN biojava gives each record */
+	static final String URN_PREFIX = "urn:sequence/fasta:";
+
+	/** true for each character that is a DNA token */
+	static final boolean [] RESIDUES = initResidues ();
+
+	static boolean [] initResidues () {
+		boolean [] residues = new boolean [256];
+		String tokens = "acgtrykmswbdhvn-";
+		for (int i = 0; i < tokens.length (); i++) {
+			residues[tokens.charAt (i)] = true;
+			residues[Character.toUpperCase (tokens.charAt (i))] = true;
+		}
+		return residues;
+	}
+
+	protected Record [] records;
+
+	/** the mapped file, set once the index is opened */
+	protected XmfaSource source;
+
+	/**
+	 * One record of the file. Block i starts at residue res_starts[i] and
+	 * file offset offsets[i], and has lines of line_bases[i] residues each
+	 * taking line_bytes[i] bytes with their line ending; only its last line
+	 * may be shorter.
+	 */
+	static class Record {
+		String description_line;
+
+		int length = 0;
+
+		int block_count = 0;
+
+		int [] res_starts = new int [1];
+
+		long [] offsets = new long [1];
+
+		int [] line_bases = new int [1];
+
+		int [] line_bytes = new int [1];
+
+		/** where the next line of the last block would start, -1 if closed */
+		long next_offset = -1;
+
+		Record (String description_line) {
+			this.description_line = description_line;
+		}
+
+		/** returns the block holding a residue, counting from 0 */
+		int findBlock (int pos) {
+			int lo = 0;
+			int hi = block_count - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (res_starts[mid] <= pos)
+					lo = mid;
+				else
+					hi = mid - 1;
+			}
+			return lo;
+		}
+
+		/**
+		 * adds a line of bases residues at file offset offset, ended by
+		 * ending bytes of line ending, 0 at the end of the file
+		 */
+		void addLine (long offset, int bases, int ending) {
+			int last = block_count - 1;
+			if (next_offset == offset && bases <= line_bases[last]
+					&& (bases < line_bases[last] || ending == 0
+							|| bases + ending == line_bytes[last])) {
+				next_offset += line_bytes[last];
+				if (bases < line_bases[last] || ending == 0)
+					next_offset = -1;
+			} else {
+				if (block_count == res_starts.length) {
+					res_starts = grow (res_starts);
+					offsets = grow (offsets);
+					line_bases = grow (line_bases);
+					line_bytes = grow (line_bytes);
+				}
+				res_starts[block_count] = length;
+				offsets[block_count] = offset;
+				line_bases[block_count] = bases;
+				line_bytes[block_count] = bases + ending;
+				block_count++;
+				next_offset = ending == 0 ? -1 : offset + bases + ending;
+			}
+			length += bases;
+		}
+
+		/** ends the last block, as after a blank line */
+		void close () {
+			next_offset = -1;
+		}
+
+		static int [] grow (int [] a) {
+			int [] b = new int [a.length * 2];
+			System.arraycopy (a, 0, b, 0, a.length);
+			return b;
+		}
+
+		static long [] grow (long [] a) {
+			long [] b = new long [a.length * 2];
+			System.arraycopy (a, 0, b, 0, a.length);
+			return b;
+		}
+	}
+
+	protected FastaIndex (Record [] records) {
+		this.records = records;
+	}
+
+	/**
+	 * Returns the index of a file, from the default analysis cache when disk
+	 * caching is on and it holds one, otherwise by reading the file. The file
+	 * is mapped for reading sequences.
+	 *
+	 * @param headers
+	 *            false for a raw file of bare sequence, which is read as a
+	 *            single record named raw
+	 * @return the index, or null if the file can't be indexed
+	 */
+	public static FastaIndex open (File file, boolean headers) {
+		return open (file, headers, ModelBuilder.getUseDiskCache () ? AnalysisCache
+				.getDefault () : null);
+	}
+
+	/**
+	 * @param cache
+	 *            the cache to keep the index in, null to read the file
+	 */
+	public static FastaIndex open (File file, boolean headers,
+			AnalysisCache cache) {
+		try {
+			FastaIndex index;
+			if (cache != null)
+				index = openCached (file, headers, cache);
+			else
+				index = build (file, headers);
+			if (index != null)
+				index.source = new MappedXmfaSource (new RandomAccessFile (
+						file, "r"));
+			return index;
+		} catch (IOException ioe) {
+			return null;
+		}
+	}
+
+	static FastaIndex openCached (File file, boolean headers,
+			AnalysisCache cache) throws IOException {
+		String key = AnalysisCache.key (new byte [][] {
+				ContentFingerprint.computeRaw (file),
+				(FastaIndex.class.getName () + " " + headers).getBytes () });
+		AnalysisCache.Entry entry = cache.open (key);
+		try {
+			if (entry.contains (INDEX_FILE)) {
+				try {
+					return read (entry.getFile (INDEX_FILE));
+				} catch (IOException ioe) {
+					// unreadable or of an older layout, index the file again
+				}
+			}
+			FastaIndex index = build (file, headers);
+			if (index != null) {
+				File tmp = entry.createTempFile (INDEX_FILE);
+				try {
+					index.write (tmp);
+				} catch (IOException ioe) {
+					tmp.delete ();
+					throw ioe;
+				}
+				entry.commit (tmp, INDEX_FILE);
+			}
+			return index;
+		} finally {
+			entry.close ();
+		}
+	}
+
+	/**
+	 * indexes a file in one pass
+	 *
+	 * @return the index, or null if the file holds anything other than
+	 *         headers and lines of nucleotides
+	 */
+	static FastaIndex build (File file, boolean headers) throws IOException {
+		InputStream in = new FileInputStream (file);
+		try {
+			return build (in, headers);
+		} finally {
+			in.close ();
+		}
+	}
+
+	static FastaIndex build (InputStream in, boolean headers)
+			throws IOException {
+		ArrayList records = new ArrayList ();
+		Record rec = null;
+		if (!headers) {
+			rec = new Record (RAW_NAME);
+			records.add (rec);
+		}
+		ByteArrayOutputStream header = null;
+		long offset = 0;
+		long line_start = 0;
+		int bases = 0;
+		boolean cr = false;
+		byte [] buf = new byte [1 << 16];
+		int buf_len = 0;
+		int buf_pos = 0;
+		while (true) {
+			if (buf_pos == buf_len && buf_len >= 0) {
+				buf_len = in.read (buf);
+				buf_pos = 0;
+			}
+			int c = buf_len < 0 ? -1 : buf[buf_pos++] & 0xff;
+			if (c == '\n' || c < 0) {
+				if (c < 0 && line_start == offset)
+					break;
+				int ending = c < 0 ? 0 : (cr ? 2 : 1);
+				if (header != null) {
+					String line = new String (header.toByteArray ()).trim ();
+					// biojava can't parse a record without a name
+					if (line.length () == 0)
+						return null;
+					rec = new Record (line);
+					records.add (rec);
+					header = null;
+				} else if (bases > 0)
+					rec.addLine (line_start, bases, ending);
+				else if (rec != null)
+					rec.close ();
+				if (c < 0)
+					break;
+				offset++;
+				line_start = offset;
+				bases = 0;
+				cr = false;
+				continue;
+			}
+			// a carriage return may only end a line
+			if (cr)
+				return null;
+			if (c == '\r')
+				cr = true;
+			else if (header != null)
+				header.write (c);
+			else if (headers && c == '>' && line_start == offset)
+				header = new ByteArrayOutputStream ();
+			else if (RESIDUES[c] && rec != null)
+				bases++;
+			else
+				return null;
+			offset++;
+		}
+		return new FastaIndex ((Record []) records.toArray (new Record [records
+				.size ()]));
+	}
+
+	void write (File f) throws IOException {
+		DataOutputStream out = new DataOutputStream (new BufferedOutputStream (
+				new FileOutputStream (f), 1 << 16));
+		try {
+			out.writeInt (MAGIC);
+			out.writeInt (VERSION);
+			out.writeInt (records.length);
+			for (int recI = 0; recI < records.length; recI++) {
+				Record rec = records[recI];
+				AnnotationCache.writeString (out, rec.description_line);
+				out.writeInt (rec.length);
+				out.writeInt (rec.block_count);
+				for (int bI = 0; bI < rec.block_count; bI++) {
+					out.writeInt (rec.res_starts[bI]);
+					out.writeLong (rec.offsets[bI]);
+					out.writeInt (rec.line_bases[bI]);
+					out.writeInt (rec.line_bytes[bI]);
+				}
+			}
+		} finally {
+			out.close ();
+		}
+	}
+
+	static FastaIndex read (File f) throws IOException {
+		DataInputStream in = new DataInputStream (new BufferedInputStream (
+				new FileInputStream (f), 1 << 16));
+		try {
+			if (in.readInt () != MAGIC || in.readInt () != VERSION)
+				throw new IOException ("Not a FASTA index: " + f);
+			Record [] records = new Record [in.readInt ()];
+			for (int recI = 0; recI < records.length; recI++) {
+				Record rec = new Record (AnnotationCache.readString (in));
+				rec.length = in.readInt ();
+				rec.block_count = in.readInt ();
+				int size = Math.max (1, rec.block_count);
+				rec.res_starts = new int [size];
+				rec.offsets = new long [size];
+				rec.line_bases = new int [size];
+				rec.line_bytes = new int [size];
+				for (int bI = 0; bI < rec.block_count; bI++) {
+					rec.res_starts[bI] = in.readInt ();
+					rec.offsets[bI] = in.readLong ();
+					rec.line_bases[bI] = in.readInt ();
+					rec.line_bytes[bI] = in.readInt ();
+				}
+				records[recI] = rec;
+			}
+			return new FastaIndex (records);
+		} finally {
+			in.close ();
+		}
+	}
+
+	/** returns the number of records in the file */
+	public int getRecordCount () {
+		return records.length;
+	}
+
+	/**
+	 * copies the tokens of residues from through to - 1 of a record,
+	 * counting from 0, into dst starting at off. Residues are given in lower
+	 * case, as biojava gives them.
+	 */
+	void getTokens (Record rec, int from, int to, byte [] dst, int off) {
+		int blockI = from < to ? rec.findBlock (from) : 0;
+		for (int pos = from; pos < to;) {
+			while (blockI + 1 < rec.block_count
+					&& rec.res_starts[blockI + 1] <= pos)
+				blockI++;
+			int rel = pos - rec.res_starts[blockI];
+			int width = rec.line_bases[blockI];
+			int in_line = rel % width;
+			long file_off = rec.offsets[blockI] + (long) (rel / width)
+					* rec.line_bytes[blockI] + in_line;
+			int count = Math.min (width - in_line, to - pos);
+			// the last line of a block may be short
+			if (blockI + 1 < rec.block_count)
+				count = Math.min (count, rec.res_starts[blockI + 1] - pos);
+			try {
+				if (source.read (file_off, dst, off + pos - from, count) != count)
+					throw new IOException ("FASTA file is shorter than its index");
+			} catch (IOException ioe) {
+				throw new RuntimeException (ioe);
+			}
+			pos += count;
+		}
+		for (int i = off; i < off + to - from; i++)
+			if (dst[i] >= 'A' && dst[i] <= 'Z')
+				dst[i] += 'a' - 'A';
+	}
+
+	/**
+	 * returns a delegate for a record whose symbols are read from the mapped
+	 * file, with the name, URN and annotation biojava would give it
+	 */
+	Sequence makeSequence (SupportedFormat format, File file, int recI) {
+		Record rec = records[recI];
+		DelegatingSequence s = new DelegatingSequence (format, file, recI);
+		StringTokenizer toke = new StringTokenizer (rec.description_line);
+		s.name = toke.nextToken ();
+		s.urn = URN_PREFIX + s.name;
+		Annotation a = new SimpleAnnotation ();
+		try {
+			a.setProperty ("description_line", rec.description_line);
+			if (toke.hasMoreTokens ())
+				a.setProperty ("description", toke.nextToken ("******"));
+		} catch (ChangeVetoException cve) {
+			throw new RuntimeException (cve);
+		}
+		s.annotation = a;
+		s.alphabet = DNATools.getDNA ();
+		s.length = rec.length;
+		s.featureCount = 0;
+		s.packedList = new MappedSymbolList (this, rec);
+		return s;
+	}
+
+	/** returns an iterator over delegates for every record of the file */
+	public SequenceIterator makeIterator (final SupportedFormat format,
+			final File file) {
+		return new SequenceIterator () {
+			int next = 0;
+
+			public boolean hasNext () {
+				return next < records.length;
+			}
+
+			public Sequence nextSequence () throws NoSuchElementException {
+				if (!hasNext ())
+					throw new NoSuchElementException ();
+				return makeSequence (format, file, next++);
+			}
+		};
+	}
+}
@@ -0,0 +1,78 @@
+package org.gel.mauve.format;
+
+import java.io.UnsupportedEncodingException;
+
+import org.biojava.bio.BioException;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.io.SymbolTokenization;
+import org.biojava.bio.symbol.AbstractSymbolList;
+import org.biojava.bio.symbol.Alphabet;
+import org.biojava.bio.symbol.Symbol;
+
+/**
+ * The DNA of one record of an indexed FASTA file, read from the mapped file
+ * each time it is asked for rather than held in memory.
+ */
+class MappedSymbolList extends AbstractSymbolList implements TokenList {
+	protected FastaIndex index;
+
+	protected FastaIndex.Record record;
+
+	/** symbol of each token character, null until first seen */
+	protected Symbol [] symbols = new Symbol [256];
+
+	MappedSymbolList (FastaIndex index, FastaIndex.Record record) {
+		this.index = index;
+		this.record = record;
+	}
+
+	public Alphabet getAlphabet () {
+		return DNATools.getDNA ();
+	}
+
+	public int length () {
+		return record.length;
+	}
+
+	public Symbol symbolAt (int index) throws IndexOutOfBoundsException {
+		if (index < 1 || index > record.length)
+			throw new IndexOutOfBoundsException ("Index " + index
+					+ " not in [1," + record.length + "]");
+		byte [] token = new byte [1];
+		getTokens (index - 1, index, token, 0);
+		int c = token[0] & 0xff;
+		Symbol sym = symbols[c];
+		if (sym == null) {
+			try {
+				SymbolTokenization toke = DNATools.getDNA ().getTokenization (
+						"token");
+				sym = toke.parseToken (String.valueOf ((char) c));
+			} catch (BioException be) {
+				throw new RuntimeException (be);
+			}
+			symbols[c] = sym;
+		}
+		return sym;
+	}
+
+	public void getTokens (int from, int to, byte [] dst, int off) {
+		index.getTokens (record, from, to, dst, off);
+	}
+
+	public String seqString () {
+		return subStr (1, record.length);
+	}
+
+	public String subStr (int start, int end) throws IndexOutOfBoundsException {
+		if (start < 1 || end > record.length || end < start - 1)
+			throw new IndexOutOfBoundsException ("Range [" + start + "," + end
+					+ "] not in [1," + record.length + "]");
+		byte [] tokens = new byte [end - start + 1];
+		getTokens (start - 1, end, tokens, 0);
+		try {
+			return new String (tokens, "ISO-8859-1");
+		} catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException (uee);
+		}
+	}
+}
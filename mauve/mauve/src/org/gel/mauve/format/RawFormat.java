@@ -21,6 +21,10 @@ class RawFormat extends FastaFormat {
 			throw new RuntimeException (e);
 		}
 	}
+
+	protected boolean hasHeaders () {
+		return false;
+	}
 	
 	 public boolean isRich(){ return false; }
 }
\ No newline at end of file
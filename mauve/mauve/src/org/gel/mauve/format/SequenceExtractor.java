@@ -0,0 +1,129 @@
+package org.gel.mauve.format;
+
+import java.util.Iterator;
+
+import org.biojava.bio.seq.ComponentFeature;
+import org.biojava.bio.seq.FeatureFilter;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.symbol.Location;
+import org.biojava.bio.symbol.RangeLocation;
+
+/**
+ * Copies residues out of annotation sequences as characters. A genome's
+ * annotation sequence is an assembly of DelegatingSequences, and reading a
+ * range of it through subList() and seqString() visits each symbol of the
+ * range in turn; here each component copies its part of the range straight
+ * out of its packed symbols. Residues are given as the tokens seqString()
+ * would give.
+ */
+public class SequenceExtractor {
+	/** the complement of each token, tokens without one map to themselves */
+	static final byte [] COMPLEMENTS = initComplements ();
+
+	static byte [] initComplements () {
+		byte [] comp = new byte [256];
+		for (int c = 0; c < 256; c++)
+			comp[c] = (byte) c;
+		String pairs = "atcgrykmbvdh";
+		for (int i = 0; i < pairs.length (); i += 2) {
+			char a = pairs.charAt (i);
+			char b = pairs.charAt (i + 1);
+			comp[a] = (byte) b;
+			comp[b] = (byte) a;
+			comp[Character.toUpperCase (a)] = (byte) Character.toUpperCase (b);
+			comp[Character.toUpperCase (b)] = (byte) Character.toUpperCase (a);
+		}
+		return comp;
+	}
+
+	private SequenceExtractor () {
+		// Don't allow an object to be created.
+	}
+
+	/** returns the residues from start through end, counting from 1 */
+	public static byte [] getBytes (Sequence seq, int start, int end) {
+		byte [] dst = new byte [end - start + 1];
+		getBytes (seq, start, end, dst, 0);
+		return dst;
+	}
+
+	/** returns the residues from start through end, counting from 1 */
+	public static char [] getChars (Sequence seq, int start, int end) {
+		return toChars (getBytes (seq, start, end));
+	}
+
+	/**
+	 * returns the reverse complement of the residues from start through end,
+	 * counting from 1
+	 */
+	public static char [] getReverseComplementChars (Sequence seq, int start,
+			int end) {
+		byte [] bytes = getBytes (seq, start, end);
+		char [] chars = new char [bytes.length];
+		for (int i = 0; i < bytes.length; i++)
+			chars[bytes.length - 1 - i] = (char) (COMPLEMENTS[bytes[i] & 0xff] & 0xff);
+		return chars;
+	}
+
+	static char [] toChars (byte [] bytes) {
+		char [] chars = new char [bytes.length];
+		for (int i = 0; i < bytes.length; i++)
+			chars[i] = (char) (bytes[i] & 0xff);
+		return chars;
+	}
+
+	/**
+	 * copies the residues from start through end, counting from 1, into dst
+	 * starting at off
+	 */
+	public static void getBytes (Sequence seq, int start, int end,
+			byte [] dst, int off) {
+		if (start < 1 || end > seq.length () || end < start - 1)
+			throw new IndexOutOfBoundsException ("Range [" + start + "," + end
+					+ "] not in [1," + seq.length () + "]");
+		if (end < start)
+			return;
+		if (seq instanceof DelegatingSequence) {
+			((DelegatingSequence) seq).getTokens (start, end, dst, off);
+			return;
+		}
+		if (copyComponents (seq, start, end, dst, off))
+			return;
+		String str = seq.subStr (start, end);
+		for (int i = 0; i < str.length (); i++)
+			dst[off + i] = (byte) str.charAt (i);
+	}
+
+	/**
+	 * copies a range of an assembly from its component sequences
+	 *
+	 * @return false unless the range is covered by forward strand components,
+	 *         which is how GenomeBuilder assembles genomes
+	 */
+	static boolean copyComponents (Sequence seq, int start, int end,
+			byte [] dst, int off) {
+		FeatureHolder fh = seq.filter (new FeatureFilter.And (
+				new FeatureFilter.ByClass (ComponentFeature.class),
+				new FeatureFilter.OverlapsLocation (new RangeLocation (start,
+						end))), false);
+		int covered = 0;
+		for (Iterator fI = fh.features (); fI.hasNext ();) {
+			ComponentFeature cf = (ComponentFeature) fI.next ();
+			Location loc = cf.getLocation ();
+			if (!loc.isContiguous ()
+					|| !cf.getComponentLocation ().isContiguous ()
+					|| cf.getStrand () != StrandedFeature.POSITIVE)
+				return false;
+			int from = Math.max (start, loc.getMin ());
+			int to = Math.min (end, loc.getMax ());
+			int comp_from = cf.getComponentLocation ().getMin () + from
+					- loc.getMin ();
+			getBytes (cf.getComponentSequence (), comp_from, comp_from + to
+					- from, dst, off + from - start);
+			covered += to - from + 1;
+		}
+		return covered == end - start + 1;
+	}
+}
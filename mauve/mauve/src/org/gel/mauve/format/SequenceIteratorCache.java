@@ -18,6 +18,8 @@ import org.biojavax.bio.seq.RichSequenceIterator;
  * Acts as a cache to allow for faster access to files with multiple contigs without
  * creating a permanent memory commitment.  Necessary due to biojava's interaction with
  * the BaseFormat class.
+ * All access to the cached iterators is synchronized on the cache, so it is
+ * safe to use from several threads.
  * 
  * @author Anna I Rissman
  *
@@ -69,29 +71,34 @@ public class SequenceIteratorCache {
 	 * 					 nextSequence () call.
 	 */
 	public static Sequence getSequence (BaseFormat format, final File source, int index) {
-		Object [] array = null;
-		if (cache.containsKey (source)) {
-			array = (Object []) cache.get (source);
-			if (((Integer) array [INDEX_INDEX]).intValue () > index)
-				array = null;
-		}
-		if (array == null) {
-			array = new Object [2];
-			array [ITERATOR_INDEX] = format.readFile(source);
-			array [INDEX_INDEX] = new Integer (0);
-			cache.put (source, array);
-		}
-		try {
-			for (int i = ((Integer) array [INDEX_INDEX]).intValue (); i < index; i++)
-				((SequenceIterator) array [ITERATOR_INDEX]).nextSequence ();
-			array [INDEX_INDEX] = new Integer (index + 1);
-			if(array [ITERATOR_INDEX] instanceof RichSequenceIterator)
-				return ((RichSequenceIterator) array [ITERATOR_INDEX]).nextRichSequence();
-			return ((SequenceIterator) array [ITERATOR_INDEX]).nextSequence();
-		}
-		catch (Exception e) {
-			e.printStackTrace ();
-            throw new Error("Unexpected exception.", e);
+		// one iterator serves every genome and thread reading a file, so
+		// genomes built concurrently from one multi-record file, and the
+		// feature indexer, take turns advancing it
+		synchronized (cache) {
+			Object [] array = null;
+			if (cache.containsKey (source)) {
+				array = (Object []) cache.get (source);
+				if (((Integer) array [INDEX_INDEX]).intValue () > index)
+					array = null;
+			}
+			if (array == null) {
+				array = new Object [2];
+				array [ITERATOR_INDEX] = format.readFile(source);
+				array [INDEX_INDEX] = new Integer (0);
+				cache.put (source, array);
+			}
+			try {
+				for (int i = ((Integer) array [INDEX_INDEX]).intValue (); i < index; i++)
+					((SequenceIterator) array [ITERATOR_INDEX]).nextSequence ();
+				array [INDEX_INDEX] = new Integer (index + 1);
+				if(array [ITERATOR_INDEX] instanceof RichSequenceIterator)
+					return ((RichSequenceIterator) array [ITERATOR_INDEX]).nextRichSequence();
+				return ((SequenceIterator) array [ITERATOR_INDEX]).nextSequence();
+			}
+			catch (Exception e) {
+				e.printStackTrace ();
+	            throw new Error("Unexpected exception.", e);
+			}
 		}
 	}
 	
@@ -0,0 +1,13 @@
+package org.gel.mauve.format;
+
+/**
+ * A symbol list that can copy out the token characters of its symbols
+ * without visiting the symbols themselves.
+ */
+interface TokenList {
+	/**
+	 * copies the token characters of the symbols from through to - 1,
+	 * counting from 0, into dst starting at off
+	 */
+	void getTokens (int from, int to, byte [] dst, int off);
+}
@@ -0,0 +1,219 @@
+package org.gel.mauve.format;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import org.biojava.bio.BioException;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.io.SymbolTokenization;
+import org.biojava.bio.symbol.AbstractSymbolList;
+import org.biojava.bio.symbol.Alphabet;
+import org.biojava.bio.symbol.Symbol;
+
+/**
+ * A DNA symbol list packed two bits per base. Bases other than a, c, g and
+ * t, such as N and the IUPAC ambiguity codes, are kept in a table of runs of
+ * one token each, so a long stretch of N costs a single entry. The list is
+ * filled from strings of tokens with append(), so a genome is packed
+ * without ever holding a Symbol per base, and its tokens are copied back out
+ * by getTokens() without visiting any symbol.
+ */
+class TwoBitSymbolList extends AbstractSymbolList implements TokenList {
+	/** the token of each two bit code */
+	static final byte [] BASES = { 'a', 'c', 'g', 't' };
+
+	/** the two bit code of each token, -1 for those kept as exceptions */
+	static final byte [] CODES = initCodes ();
+
+	static byte [] initCodes () {
+		byte [] codes = new byte [256];
+		Arrays.fill (codes, (byte) -1);
+		for (int i = 0; i < BASES.length; i++)
+			codes[BASES[i]] = (byte) i;
+		return codes;
+	}
+
+	protected int length;
+
+	/** four bases per byte, the first in the low bits */
+	protected byte [] packed;
+
+	/** the first base of each exception run, in order */
+	protected int [] exc_starts;
+
+	/** the base after the last of each exception run */
+	protected int [] exc_ends;
+
+	/** the token of each exception run */
+	protected byte [] exc_tokens;
+
+	protected int exc_count = 0;
+
+	/** the number of bases appended so far */
+	protected int filled = 0;
+
+	protected SymbolTokenization tokenization;
+
+	/** symbol of each token character, null until first seen */
+	protected Symbol [] symbols = new Symbol [256];
+
+	/** creates an empty list to be filled with append() */
+	TwoBitSymbolList (int length) {
+		this (length, new byte [(length + 3) / 4], new int [16], new int [16],
+				new byte [16], 0);
+		filled = 0;
+	}
+
+	/** creates a list from its packed bases and exception runs */
+	TwoBitSymbolList (int length, byte [] packed, int [] exc_starts,
+			int [] exc_ends, byte [] exc_tokens, int exc_count) {
+		this.length = length;
+		this.packed = packed;
+		this.exc_starts = exc_starts;
+		this.exc_ends = exc_ends;
+		this.exc_tokens = exc_tokens;
+		this.exc_count = exc_count;
+		filled = length;
+		try {
+			tokenization = DNATools.getDNA ().getTokenization ("token");
+		} catch (BioException be) {
+			throw new RuntimeException (be);
+		}
+	}
+
+	/** adds the bases of a string of tokens after those already added */
+	void append (String tokens) {
+		int len = tokens.length ();
+		if (filled + len > length)
+			throw new IndexOutOfBoundsException ("Appending " + len
+					+ " bases after " + filled + " of " + length);
+		for (int i = 0; i < len; i++, filled++) {
+			char c = tokens.charAt (i);
+			int code = c < 256 ? CODES[c] : -1;
+			if (code >= 0)
+				packed[filled >> 2] |= code << ((filled & 3) << 1);
+			else
+				addException (filled, (byte) c);
+		}
+	}
+
+	void addException (int pos, byte token) {
+		if (exc_count > 0 && exc_ends[exc_count - 1] == pos
+				&& exc_tokens[exc_count - 1] == token) {
+			exc_ends[exc_count - 1]++;
+			return;
+		}
+		if (exc_count == exc_starts.length) {
+			int size = exc_count * 2 + 16;
+			int [] starts = new int [size];
+			int [] ends = new int [size];
+			byte [] toks = new byte [size];
+			System.arraycopy (exc_starts, 0, starts, 0, exc_count);
+			System.arraycopy (exc_ends, 0, ends, 0, exc_count);
+			System.arraycopy (exc_tokens, 0, toks, 0, exc_count);
+			exc_starts = starts;
+			exc_ends = ends;
+			exc_tokens = toks;
+		}
+		exc_starts[exc_count] = pos;
+		exc_ends[exc_count] = pos + 1;
+		exc_tokens[exc_count] = token;
+		exc_count++;
+	}
+
+	/** releases the spare room of the exception table once filled */
+	void trim () {
+		if (filled != length)
+			throw new IllegalStateException ("Only " + filled + " of "
+					+ length + " bases were appended");
+		if (exc_count == exc_starts.length)
+			return;
+		int [] starts = new int [exc_count];
+		int [] ends = new int [exc_count];
+		byte [] toks = new byte [exc_count];
+		System.arraycopy (exc_starts, 0, starts, 0, exc_count);
+		System.arraycopy (exc_ends, 0, ends, 0, exc_count);
+		System.arraycopy (exc_tokens, 0, toks, 0, exc_count);
+		exc_starts = starts;
+		exc_ends = ends;
+		exc_tokens = toks;
+	}
+
+	/** returns the first exception run ending after pos, or exc_count */
+	int findRun (int pos) {
+		int lo = 0;
+		int hi = exc_count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (exc_ends[mid] <= pos)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/** returns the token of the base at pos, counting from 0 */
+	byte tokenAt (int pos) {
+		if (exc_count > 0) {
+			int run = findRun (pos);
+			if (run < exc_count && exc_starts[run] <= pos)
+				return exc_tokens[run];
+		}
+		return BASES[(packed[pos >> 2] >> ((pos & 3) << 1)) & 3];
+	}
+
+	public Alphabet getAlphabet () {
+		return DNATools.getDNA ();
+	}
+
+	public int length () {
+		return length;
+	}
+
+	public Symbol symbolAt (int index) throws IndexOutOfBoundsException {
+		if (index < 1 || index > length)
+			throw new IndexOutOfBoundsException ("Index " + index
+					+ " not in [1," + length + "]");
+		int c = tokenAt (index - 1) & 0xff;
+		Symbol sym = symbols[c];
+		if (sym == null) {
+			try {
+				sym = tokenization.parseToken (String.valueOf ((char) c));
+			} catch (BioException be) {
+				throw new RuntimeException (be);
+			}
+			symbols[c] = sym;
+		}
+		return sym;
+	}
+
+	public void getTokens (int from, int to, byte [] dst, int off) {
+		for (int pos = from; pos < to; pos++)
+			dst[off + pos - from] = BASES[(packed[pos >> 2] >> ((pos & 3) << 1)) & 3];
+		for (int run = findRun (from); run < exc_count
+				&& exc_starts[run] < to; run++) {
+			int start = Math.max (from, exc_starts[run]);
+			int end = Math.min (to, exc_ends[run]);
+			Arrays.fill (dst, off + start - from, off + end - from,
+					exc_tokens[run]);
+		}
+	}
+
+	public String seqString () {
+		return subStr (1, length);
+	}
+
+	public String subStr (int start, int end) throws IndexOutOfBoundsException {
+		if (start < 1 || end > length || end < start - 1)
+			throw new IndexOutOfBoundsException ("Range [" + start + "," + end
+					+ "] not in [1," + length + "]");
+		byte [] tokens = new byte [end - start + 1];
+		getTokens (start - 1, end, tokens, 0);
+		try {
+			return new String (tokens, "ISO-8859-1");
+		} catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException (uee);
+		}
+	}
+}
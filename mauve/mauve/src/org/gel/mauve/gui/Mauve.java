@@ -27,8 +27,11 @@ import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
 import org.gel.mauve.MyConsole;
+import org.gel.mauve.XmfaViewerModel;
 import org.gel.mauve.assembly.ScoreAssembly;
 import org.gel.mauve.contigs.ContigOrderer;
+import org.gel.mauve.histogram.MappedHistogramStorage;
+import org.gel.mauve.histogram.ZoomHistogram;
 import org.gel.mauve.remote.RemoteControlImpl;
 
 public class Mauve {
@@ -65,6 +68,20 @@ public class Mauve {
 	}
  	
 	public static void mainHook (String args [], final Mauve mv) {
+		// show sampled similarity profiles while the full ones are computed
+		XmfaViewerModel.setProgressiveSimilarity (true);
+		// keep histograms in a mapped scratch file when a directory is given,
+		// for alignments of more genomes than the heap can index
+		String histogram_dir = System.getProperty ("mauve.histogram.dir");
+		if (histogram_dir != null) {
+			try {
+				ZoomHistogram.setStorage (MappedHistogramStorage
+						.createTemp (new File (histogram_dir)));
+			} catch (IOException ioe) {
+				System.err.println ("Unable to map histograms in "
+						+ histogram_dir + ": " + ioe.getMessage ());
+			}
+		}
 		if (args.length >= 1) {
 			final String filename = args[0];
 			javax.swing.SwingUtilities.invokeLater (new Runnable () {
@@ -552,6 +552,9 @@ public class MauveFrame extends JFrame implements ActionListener, ModelProgressL
     {
     	/*if (model != null)
     		FeatureFilterer.removeFilterer (model);*/
+        // stop background work on the model being closed
+        if (model instanceof XmfaViewerModel)
+            ((XmfaViewerModel) model).close();
         mauve.closeFrame(this);
         if (navigator != null) {
         	navigator.dispose ();
@@ -758,6 +761,11 @@ public class MauveFrame extends JFrame implements ActionListener, ModelProgressL
         status_bar.setHint("Reading sequence " + (sequenceIndex + 1) + " of " + progressSequenceCount);
     }
 
+    public void similarityProgress(int completed, int lcbCount)
+    {
+        status_bar.setHint("Computing similarity profiles, LCB " + completed + " of " + lcbCount);
+    }
+
     public void done()
     {
         status_bar.setHint("Done");
@@ -15,6 +15,7 @@ import java.awt.event.WindowEvent;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Vector;
 
 import javax.swing.*;
@@ -25,6 +26,7 @@ import org.gel.mauve.Genome;
 import org.gel.mauve.BaseViewerModel;
 import org.gel.mauve.MauveConstants;
 import org.gel.mauve.SeqFeatureData;
+import org.gel.mauve.gui.navigation.FeatureSearch;
 import org.gel.mauve.gui.navigation.NavigationPanel;
 import org.gel.mauve.gui.navigation.SearchResultPanel;
 import org.gel.mauve.gui.sequence.RRSequencePanel;
@@ -156,9 +158,9 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 	}
 	
 	/**
-	 * mechanism for only doing one gui operation at a time/locking
+	 * the search in progress, or null if there is none
 	 */
-	private Boolean current_search = Boolean.FALSE;
+	protected FeatureSearch current_search;
 	
 	
 	/**
@@ -199,6 +201,8 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 		top1.add (new JLabel ("Choose Genome:"));
 		genomes = new JComboBox ();
 		loadGenomeList ();
+		genomes.addActionListener (this);
+		SeqFeatureData.indexInBackground (data_model);
 		top1.add (genomes);
 		left.add (top1, BorderLayout.NORTH);	
 		left.setBorder (BorderFactory.createEmptyBorder(3, 3, 3, 3));
@@ -348,6 +352,7 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 	 * adds a newly constructed navigation panel to the gui
 	 */
 	public void addNavigationPanel (NavigationPanel pane) {
+		criteriaChanged ();
 		nav_panels.addFirst (pane);
 		nav_panel_holder.add (pane);
 		pane.setMaximumSize (pane.getPreferredSize());
@@ -360,6 +365,7 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 	 */
 	public void removeNavigationPanel (NavigationPanel pane) {
 		if (nav_panels.size() != 1) {
+			criteriaChanged ();
 			nav_panels.remove(pane);
 			nav_panel_holder.remove(pane);
 			reloadGUI ();
@@ -396,34 +402,29 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 	 * 			If the source is reset, removes all the input panel except the first
 	 */
 	public void actionPerformed (final ActionEvent e) {
-		if (e.getSource () == search) {
-			Thread t = new Thread () {
-				public void run () {
-					synchronized (current_search) {
-						if (current_search == Boolean.FALSE) {
-							current_search = Boolean.TRUE;
-						}
-						else
-							return;
-					}
-					try {
-						doNavigation ();
-					} catch (Exception e) {
-						e.printStackTrace ();
-					}
-					current_search = Boolean.FALSE;
-				}
-			};
-			//threads.add(t);
-			t.start ();
+		if (e.getSource () == search)
+			doNavigation ();
+		else if (e.getSource () == add)
+			new NavigationPanel (SequenceNavigator.this);
+		else if (e.getSource() == cancel) {
+			criteriaChanged ();
+			frame.setVisible (false);
 		}
-		if (current_search == Boolean.FALSE) {
-			if (e.getSource () == add)
-				new NavigationPanel (SequenceNavigator.this);
-			else if (e.getSource() == cancel)
-				frame.setVisible (false);
-			else if (e.getSource () == reset)
-				reset ();
+		else if (e.getSource () == reset)
+			reset ();
+		else if (e.getSource () == genomes)
+			criteriaChanged ();
+	}
+	
+	/**
+	 * called when the user edits the search constraints; stops the search
+	 * in progress, since its results no longer match them
+	 */
+	public void criteriaChanged () {
+		if (current_search != null) {
+			current_search.cancel ();
+			current_search = null;
+			result_pane.searchFinished ();
 		}
 	}
 	
@@ -595,6 +596,7 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 				}
 				else {
 					frame.setVisible(true);
+					criteriaChanged ();
 					result_pane.displayFeatures(tree_data);
 				}
 			}
@@ -611,7 +613,6 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 		int index = genomes.getSelectedIndex();
 		int valid = getValidCount ();
 		if (valid > 0) {
-			result_pane.waitForResults ();
 			String [][] criteria = new String [valid][3];
 			for (int i = 0; i < criteria.length; i++)
 				criteria [i] = ((NavigationPanel) nav_panels.get(
@@ -624,18 +625,36 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 	
 	/**
 	 * Performs the final narrowing down of features to those that match the
-	 * given constraints, and displays a tree of matching features
+	 * given constraints, and displays a tree of matching features.  Each genome
+	 * is searched in the background, and its results are shown as they are
+	 * found; a search already in progress is cancelled.
 	 * 
 	 * @param nomes			The genomes the data is from
 	 * @param data			A two dimensional array; contains the constraints to
 	 * 						search by
 	 */
 	public void showResultTree (final Genome [] nomes, final String [][] data) {
-        SwingUtilities.invokeLater(new Runnable(){
-            public void run(){
-		result_pane.displayFeatures (SeqFeatureData.findFeatures (nomes, data));
-            }
-        });
+		if (!SwingUtilities.isEventDispatchThread ()) {
+			SwingUtilities.invokeLater (new Runnable () {
+				public void run () {
+					showResultTree (nomes, data);
+				}
+			});
+			return;
+		}
+		criteriaChanged ();
+		result_pane.waitForResults ();
+		current_search = new FeatureSearch (nomes, data,
+				new FeatureSearch.Listener () {
+			public void featuresFound (Genome genome, List features) {
+				result_pane.featuresFound (genome, features);
+			}
+			public void searchFinished () {
+				current_search = null;
+				result_pane.searchFinished ();
+			}
+		});
+		current_search.start ();
 	}
 
 	/**
@@ -735,6 +754,7 @@ public class SequenceNavigator extends JSplitPane implements ActionListener,
 	}
 	
 	public void dispose () {
+		criteriaChanged ();
 		if(parent_component instanceof Frame)
 			((Frame)parent_component).removeWindowListener (adapt);
 		else if(parent_component instanceof JComponent)
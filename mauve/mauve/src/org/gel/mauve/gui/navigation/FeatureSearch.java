@@ -0,0 +1,252 @@
+package org.gel.mauve.gui.navigation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.SwingUtilities;
+
+import org.gel.mauve.Genome;
+import org.gel.mauve.SeqFeatureData;
+
+/**
+ * One search of the sequence navigator, run in the background. Each genome
+ * is searched by a separate task on a pool of at most getSearchThreads()
+ * threads, and the features each finds are handed to a Listener on the
+ * event dispatch thread in batches as they come, so the first results show
+ * while larger genomes are still being searched. Batches waiting to be
+ * delivered together are merged by genome.
+ * <p>
+ * A search that is cancelled delivers nothing further. A task that is
+ * searching a genome stops before the next qualifier key it would look up,
+ * or before its next batch. A genome whose qualifier index is being built
+ * for its first search still finishes building it, as the index is kept for
+ * later searches.
+ */
+public class FeatureSearch {
+
+	/**
+	 * receives the results of a search on the event dispatch thread
+	 */
+	public interface Listener {
+		/**
+		 * called with each batch of features found in a genome, in order of
+		 * location within the batch
+		 */
+		public void featuresFound (Genome genome, List features);
+
+		/**
+		 * called once every genome has been searched, unless the search was
+		 * cancelled
+		 */
+		public void searchFinished ();
+	}
+
+	/**
+	 * the most features handed to the listener in a single batch from one
+	 * task
+	 */
+	public static final int BATCH_SIZE = 200;
+
+	/**
+	 * the most threads a search uses
+	 */
+	static protected int search_threads = Runtime.getRuntime ()
+			.availableProcessors ();
+
+	/**
+	 * the genomes to search
+	 */
+	protected Genome [] genomes;
+
+	/**
+	 * the constraints to search by, indeces specified in MauveConstants
+	 */
+	protected String [][] criteria;
+
+	/**
+	 * hears the results
+	 */
+	protected Listener listener;
+
+	/**
+	 * runs the tasks of this search
+	 */
+	protected ExecutorService pool;
+
+	/**
+	 * true once the search is cancelled
+	 */
+	protected volatile boolean cancelled;
+
+	/**
+	 * batches found but not yet delivered, a list of features per genome
+	 */
+	private Map pending = new LinkedHashMap ();
+
+	/**
+	 * the number of genomes still being searched
+	 */
+	private int remaining;
+
+	/**
+	 * true while a delivery is waiting on the event dispatch thread
+	 */
+	private boolean delivery_queued;
+
+	/**
+	 * true once the listener has heard the search is finished
+	 */
+	private boolean finished;
+
+	/**
+	 * Constructs a search, which is started with start()
+	 *
+	 * @param nomes
+	 *            The genomes to search
+	 * @param data
+	 *            An array of arrays containing desired key-value pairs,
+	 *            indeces specified in MauveConstants
+	 * @param listen
+	 *            Receives the features found
+	 */
+	public FeatureSearch (Genome [] nomes, String [][] data, Listener listen) {
+		genomes = nomes;
+		criteria = data;
+		listener = listen;
+	}
+
+	/**
+	 * starts searching each genome in the background
+	 */
+	public void start () {
+		synchronized (this) {
+			remaining = genomes.length;
+		}
+		if (genomes.length == 0) {
+			queueDelivery ();
+			return;
+		}
+		pool = Executors.newFixedThreadPool (Math.min (search_threads,
+				genomes.length));
+		for (int i = 0; i < genomes.length; i++) {
+			final Genome genome = genomes[i];
+			pool.execute (new Runnable () {
+				public void run () {
+					try {
+						search (genome);
+					} catch (RuntimeException e) {
+						e.printStackTrace ();
+					} finally {
+						synchronized (FeatureSearch.this) {
+							remaining--;
+						}
+						queueDelivery ();
+					}
+				}
+			});
+		}
+		pool.shutdown ();
+	}
+
+	/**
+	 * stops the search; no more results are delivered once this returns, if
+	 * it is called on the event dispatch thread
+	 */
+	public void cancel () {
+		cancelled = true;
+		if (pool != null)
+			pool.shutdownNow ();
+	}
+
+	/**
+	 * returns true if the search was cancelled
+	 */
+	public boolean isCancelled () {
+		return cancelled;
+	}
+
+	/**
+	 * finds the matching features of one genome and queues them in batches
+	 */
+	protected void search (Genome genome) {
+		if (cancelled)
+			return;
+		List found = SeqFeatureData.findFeatures (genome, criteria, this);
+		if (found == null)
+			return;
+		for (int start = 0; start < found.size () && !cancelled;) {
+			List batch = found.subList (start, Math.min (found.size (), start
+					+ BATCH_SIZE));
+			start += batch.size ();
+			synchronized (this) {
+				List list = (List) pending.get (genome);
+				if (list == null) {
+					list = new ArrayList ();
+					pending.put (genome, list);
+				}
+				list.addAll (batch);
+			}
+			queueDelivery ();
+		}
+	}
+
+	/**
+	 * asks the event dispatch thread to deliver what has been found, unless
+	 * it has been asked already
+	 */
+	private void queueDelivery () {
+		synchronized (this) {
+			if (delivery_queued)
+				return;
+			delivery_queued = true;
+		}
+		SwingUtilities.invokeLater (new Runnable () {
+			public void run () {
+				deliver ();
+			}
+		});
+	}
+
+	/**
+	 * hands the pending batches to the listener, and tells it when the
+	 * search is done
+	 */
+	private void deliver () {
+		Map batches;
+		boolean done;
+		synchronized (this) {
+			delivery_queued = false;
+			batches = pending;
+			pending = new LinkedHashMap ();
+			done = remaining == 0;
+		}
+		for (Iterator eI = batches.entrySet ().iterator (); eI.hasNext ()
+				&& !cancelled;) {
+			Map.Entry e = (Map.Entry) eI.next ();
+			listener.featuresFound ((Genome) e.getKey (), (List) e.getValue ());
+		}
+		if (done && !cancelled && !finished) {
+			finished = true;
+			listener.searchFinished ();
+		}
+	}
+
+	/**
+	 * sets the most threads a search uses
+	 */
+	public static void setSearchThreads (int threads) {
+		search_threads = threads < 1 ? 1 : threads;
+	}
+
+	/**
+	 * returns the most threads a search uses
+	 */
+	public static int getSearchThreads () {
+		return search_threads;
+	}
+}
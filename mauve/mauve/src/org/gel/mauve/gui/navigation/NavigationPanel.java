@@ -14,6 +14,8 @@ import javax.swing.JComboBox;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 import org.gel.mauve.MauveConstants;
 import org.gel.mauve.gui.SequenceNavigator;
@@ -25,7 +27,7 @@ import org.gel.mauve.gui.SequenceNavigator;
  * 
  */
 public class NavigationPanel extends JPanel implements ActionListener,
-		MauveConstants {
+		DocumentListener, MauveConstants {
 
 	/**
 	 * Contains choices for annotation keys to search for.  Multiple values can be entered
@@ -101,16 +103,19 @@ public class NavigationPanel extends JPanel implements ActionListener,
 		input = new JTextField (10);
 		input.setFont (large);
 		input.addKeyListener (navigator);
+		input.getDocument ().addDocumentListener (this);
 		JPanel radios = new JPanel (new BorderLayout ());
 		equals = new JRadioButton (EQUALS);
 		equals.setFont (small);
 		equals.setActionCommand (EQUALS);
+		equals.addActionListener (this);
 		ButtonGroup exact_match = new ButtonGroup ();
 		exact_match.add (equals);
 		radios.add (equals, BorderLayout.NORTH);
 		contains = new JRadioButton (CONTAINS);
 		contains.setFont (small);
 		contains.setActionCommand (CONTAINS);
+		contains.addActionListener (this);
 		exact_match.add (contains);
 		contains.setSelected (true);
 		radios.add (contains, BorderLayout.SOUTH);
@@ -188,7 +193,8 @@ public class NavigationPanel extends JPanel implements ActionListener,
 	}
 
 	/**
-	 * responds when a user elects to remove this navigation panel
+	 * responds when a user elects to remove this navigation panel, or
+	 * changes the field or kind of match to search by
 	 * 
 	 * @param e
 	 *            The action event representing the button being clicked
@@ -196,8 +202,31 @@ public class NavigationPanel extends JPanel implements ActionListener,
 	public void actionPerformed (ActionEvent e) {
 		if (e.getSource () == remove)
 			navigator.removeNavigationPanel (this);
-		else
-			input.grabFocus ();
+		else {
+			navigator.criteriaChanged ();
+			if (e.getSource () == nav_chooser)
+				input.grabFocus ();
+		}
+	}
+
+	/**
+	 * tells the navigator the value to search for has been edited
+	 */
+	public void insertUpdate (DocumentEvent e) {
+		navigator.criteriaChanged ();
+	}
+
+	/**
+	 * tells the navigator the value to search for has been edited
+	 */
+	public void removeUpdate (DocumentEvent e) {
+		navigator.criteriaChanged ();
+	}
+
+	/**
+	 * dummy method - implemented as part of document listener interface
+	 */
+	public void changedUpdate (DocumentEvent e) {
 	}
 
 }
@@ -7,8 +7,12 @@ import java.awt.Graphics;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -18,8 +22,8 @@ import javax.swing.JPanel;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTree;
-import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
+import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
@@ -43,13 +47,15 @@ import org.gel.mauve.gui.SequenceNavigator;
 /**
  * A Gui component that shows the results of a given query separated by genome.
  * Each result represents a feature that matched the search constraints.  If a result
- * is selected, the Genome sequence is scrolled to that feature
+ * is selected, the Genome sequence is scrolled to that feature.  Results may be
+ * added a genome at a time as a FeatureSearch finds them
  * 
  * @author rissman
  * 
  */
 public class SearchResultPanel extends JPanel implements TreeModel,
-		TreeCellRenderer, TreeSelectionListener, MauveConstants {
+		TreeCellRenderer, TreeSelectionListener, FeatureSearch.Listener,
+		MauveConstants {
 
 	/**
 	 * Tree that contains search results (features)
@@ -92,6 +98,12 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 	 */
 	protected boolean searching;
 
+	/**
+	 * true while a selection is restored after results are added, so the
+	 * view isn't moved
+	 */
+	protected boolean restoring;
+
 	/**
 	 * String representing no results
 	 */
@@ -127,6 +139,12 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 	 */
 	protected Hashtable genome_data;
 
+	/**
+	 * the start of every feature shown, by genome, so a feature found again
+	 * at the same place isn't shown twice
+	 */
+	protected Hashtable genome_starts;
+
 	/**
 	 * contains genomes mapped to their index
 	 */
@@ -144,9 +162,11 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 		super (new FlowLayout (FlowLayout.LEFT));
 		navigator = nav;
 		genome_data = new Hashtable ();
+		genome_starts = new Hashtable ();
 		genome_indexes = new Object [genomes.size ()];
 		for (int i = 0; i < genomes.size (); i++) {
 			genome_data.put (genomes.get (i), new LinkedList ());
+			genome_starts.put (genomes.get (i), new HashSet ());
 			genome_indexes[i] = genomes.get (i);
 		}
 		initGUI ();
@@ -198,21 +218,115 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 	 *            object, followed by all the Features to display in that genome
 	 */
 	public void displayFeatures (Object [] data) {
-		resetData (data);
+		waitForResults ();
+		for (int i = 0; i < data.length; i++) {
+			LinkedList new_data = (LinkedList) data[i];
+			Genome key = (Genome) new_data.remove (0);
+			featuresFound (key, new_data);
+		}
+		searchFinished ();
+	}
+
+	/**
+	 * sets display to reflect a search is being performed, clearing previous
+	 * results if the navigator says to.  Must be called on the event dispatch
+	 * thread
+	 *
+	 */
+	public void waitForResults () {
+		if (result_state != 0 && navigator.shouldClear ()) {
+			Enumeration keys = genome_data.keys ();
+			while (keys.hasMoreElements ()) {
+				LinkedList remove = (LinkedList) genome_data.get (keys
+						.nextElement ());
+				remove.clear ();
+			}
+			keys = genome_starts.keys ();
+			while (keys.hasMoreElements ())
+				((HashSet) genome_starts.get (keys.nextElement ())).clear ();
+			result_state = 0;
+		}
+		searching = true;
+		structureChanged ();
+	}
+
+	/**
+	 * adds features found in a genome to the display, leaving out any at the
+	 * same place as one already shown.  Only the new features are sorted,
+	 * and then merged into those shown.  If they are the first results, the
+	 * first of them is selected
+	 * 
+	 * @param genome
+	 *            The genome the features are from
+	 * @param features
+	 *            The features to add
+	 */
+	public void featuresFound (Genome genome, List features) {
+		LinkedList old = (LinkedList) genome_data.get (genome);
+		if (old == null || features.isEmpty ())
+			return;
+		HashSet starts = (HashSet) genome_starts.get (genome);
+		LinkedList added = new LinkedList ();
+		for (Iterator iter = features.iterator (); iter.hasNext ();) {
+			Feature feat = (Feature) iter.next ();
+			if (starts.add (new Integer (feat.getLocation ().getMin ())))
+				added.add (feat);
+		}
+		if (added.isEmpty ())
+			return;
+		Collections.sort (added, SeqFeatureData.feature_comp);
+		merge (old, added);
 		int prev_result = result_state;
-		Object [] first = new Object [3];
-		for (int i = 0; i < genome_indexes.length; i++) {
-			LinkedList list = (LinkedList) genome_data.get (genome_indexes[i]);
-			if (result_state == 0 && list.size () > 0) {
-				first[2] = (Feature) list.get (0);
-				first[1] = genome_indexes[i];
-				first[0] = ROOT;
+		result_state += added.size ();
+		if (prev_result == 0) {
+			structureChanged ();
+			tree.setSelectionPath (new TreePath (new Object [] {ROOT, genome,
+					old.getFirst ()}));
+		} else
+			genomeChanged (genome);
+		navigator.reloadGUI ();
+	}
+
+	/**
+	 * merges features sorted by location into the sorted features of a
+	 * genome.  A batch that starts past the last feature, as each batch of a
+	 * single search does, is appended without walking the list
+	 */
+	protected static void merge (LinkedList old, LinkedList added) {
+		Comparator comp = SeqFeatureData.feature_comp;
+		if (old.isEmpty ()
+				|| comp.compare (old.getLast (), added.getFirst ()) < 0) {
+			old.addAll (added);
+			return;
+		}
+		ListIterator oI = old.listIterator ();
+		for (Iterator aI = added.iterator (); aI.hasNext ();) {
+			Object feat = aI.next ();
+			while (oI.hasNext ()) {
+				if (comp.compare (oI.next (), feat) > 0) {
+					oI.previous ();
+					break;
+				}
 			}
-			result_state += list.size ();
-			if (result_state > 1)
-				break;
+			oI.add (feat);
 		}
+	}
+
+	/**
+	 * sets display to reflect the search is over
+	 */
+	public void searchFinished () {
 		searching = false;
+		if (result_state == 0)
+			structureChanged ();
+		navigator.reloadGUI ();
+	}
+
+	/**
+	 * tells the tree the children of the root have changed, and expands
+	 * each genome
+	 */
+	protected void structureChanged () {
 		model.nodeStructureChanged (root);
 		Object [] path = new Object [(result_state == 0) ? 1 : 2];
 		path[0] = ROOT;
@@ -222,57 +336,29 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 				path[1] = kid;
 				tree.expandPath (new TreePath (path));
 			}
-			if (prev_result == 0)
-				tree.setSelectionPath (new TreePath (first));
-		} else {
+		} else
 			tree.expandPath (new TreePath (path));
-			try {
-				Thread.currentThread ().wait (100);
-			} catch (Exception e) {
-				// ok probably. . .
-			}
-		}
-		navigator.reloadGUI ();
 	}
 
 	/**
-	 * sets display to reflect a search is being performed
-	 *
-	 */
-	public void waitForResults () {
-		searching = true;
-				SwingUtilities.invokeLater(new Runnable(){
-			public void run(){
-				model.nodeStructureChanged (root);
-			}
-		});
-	}
-
-	/**
-	 * Resets the display to include the new data
+	 * tells the tree the features of a genome have changed, keeping the
+	 * genome expanded and any feature of it selected
 	 * 
-	 * @param data
-	 *            The data that should be added. Each array index is a linked
-	 *            list containing first the genome it is for, then all the
-	 *            features to display for that sequence
-	 */
-	protected void resetData (Object [] data) {
-		Enumeration keys = null;
-		if (result_state != 0 && navigator.shouldClear ()) {
-			keys = genome_data.keys ();
-			while (keys.hasMoreElements ()) {
-				LinkedList remove = (LinkedList) genome_data.get (keys
-						.nextElement ());
-				remove.clear ();
-			}
-			result_state = 0;
-		}
-		for (int i = 0; i < data.length; i++) {
-			LinkedList new_data = (LinkedList) data[i];
-			Object key = new_data.remove (0);
-			LinkedList old = (LinkedList) genome_data.get (key);
-			old.addAll (new_data);
-			SeqFeatureData.removeLocationDuplicates (old);
+	 * @param genome
+	 *            The genome whose features changed
+	 */
+	protected void genomeChanged (Genome genome) {
+		TreePath path = new TreePath (new Object [] {ROOT, genome});
+		TreePath selected = tree.getSelectionPath ();
+		TreeModelEvent event = new TreeModelEvent (this, path);
+		TreeModelListener [] listeners = model.getTreeModelListeners ();
+		for (int i = listeners.length - 1; i >= 0; i--)
+			listeners[i].treeStructureChanged (event);
+		tree.expandPath (path);
+		if (selected != null && path.isDescendant (selected)) {
+			restoring = true;
+			tree.setSelectionPath (selected);
+			restoring = false;
 		}
 	}
 
@@ -303,7 +389,7 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 	 * selected feature.
 	 */
 	public void valueChanged (TreeSelectionEvent event) {
-		if (event.getNewLeadSelectionPath () != null) {
+		if (!restoring && event.getNewLeadSelectionPath () != null) {
 			Object [] path = event.getNewLeadSelectionPath ().getPath ();
 			if (path != null && path.length == 3 && path[2] != MATCHLESS)
 				navigator.displayFeature ((Feature) path[2], (Genome) path[1]);
@@ -341,10 +427,8 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 	 */
 	public Object getChild (Object parent, int index) {
 		if (parent == ROOT) {
-			if (searching)
-				return SEARCHING;
-			else if (result_state == 0)
-				return NO_RESULTS;
+			if (result_state == 0)
+				return searching ? SEARCHING : NO_RESULTS;
 			else
 				return genome_indexes[index];
 		}
@@ -369,7 +453,7 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 	 */
 	public int getChildCount (Object parent) {
 		if (parent == ROOT) {
-			if (searching || result_state == 0)
+			if (result_state == 0)
 				return 1;
 			else
 				return genome_data.size ();
@@ -397,7 +481,7 @@ public class SearchResultPanel extends JPanel implements TreeModel,
 	public int getIndexOfChild (Object parent, Object child) {
 		if (parent == ROOT) {
 			if (child == SEARCHING) {
-				if (searching)
+				if (searching && result_state == 0)
 					return 0;
 				else
 					return -1;
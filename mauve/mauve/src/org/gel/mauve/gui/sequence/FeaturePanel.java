@@ -9,6 +9,7 @@ import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.util.EventListener;
 import java.util.Iterator;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -39,14 +40,11 @@ import org.biojava.bio.seq.FeatureFilter;
 import org.biojava.bio.seq.FeatureHolder;
 import org.biojava.bio.seq.Sequence;
 import org.biojava.bio.seq.StrandedFeature;
-import org.biojava.bio.symbol.Location;
-import org.biojava.bio.symbol.LocationTools;
 import org.biojava.utils.ChangeVetoException;
 import org.gel.mauve.BrowserLauncher;
 import org.gel.mauve.DbXrefFactory;
 import org.gel.mauve.FilterCacheSpec;
 import org.gel.mauve.Genome;
-import org.gel.mauve.GenomeBuilder;
 import org.gel.mauve.MauveConstants;
 import org.gel.mauve.ModelEvent;
 import org.gel.mauve.BaseViewerModel;
@@ -268,11 +266,10 @@ public class FeaturePanel extends AbstractSequencePanel
 
     	public void actionPerformed( ActionEvent e ){
 
-            Location loc = LocationTools.makeLocation(seq_index, seq_index);
             System.err.println("Starting with " + seq.countFeatures() + " features");
-            FeatureHolder fh = seq.filter(new FeatureFilter.And(new FeatureFilter.OverlapsLocation(loc), new FeatureFilter.Not(new FeatureFilter.ByType(GenomeBuilder.MAUVE_AGGREGATE))));
-            System.err.println("Filtering leaves " + fh.countFeatures() + " features.");
-            if (fh.countFeatures() == 0)
+            List features = getGenome().getFeatureIndex().overlapping(seq_index, seq_index);
+            System.err.println("Filtering leaves " + features.size() + " features.");
+            if (features.size() == 0)
                 return;
             
             JDialog dialog = new JDialog((JFrame) FeaturePanel.this.getTopLevelAncestor(), "Feature Detail", true);
@@ -280,7 +277,7 @@ public class FeaturePanel extends AbstractSequencePanel
             JTabbedPane tabs = new JTabbedPane();
             dialog.getContentPane().add(tabs, BorderLayout.CENTER);
 
-            for (Iterator fi = fh.features(); fi.hasNext();)
+            for (Iterator fi = features.iterator(); fi.hasNext();)
             {
                 Feature f = (Feature) fi.next();
                 tabs.add(new QualifierPanel(f));
@@ -32,13 +32,14 @@ import org.gel.mauve.LCB;
 import org.gel.mauve.LcbViewerModel;
 import org.gel.mauve.Match;
 import org.gel.mauve.ModelEvent;
+import org.gel.mauve.SimilarityListener;
 import org.gel.mauve.XmfaViewerModel;
 import org.gel.mauve.backbone.Backbone;
 import org.gel.mauve.backbone.BackboneList;
 import org.gel.mauve.gui.MauveRenderingHints;
 import org.gel.mauve.gui.RearrangementPanel;
 
-public class MatchPanel extends AbstractSequencePanel implements MouseListener, HighlightListener
+public class MatchPanel extends AbstractSequencePanel implements MouseListener, HighlightListener, SimilarityListener
 {
     // The largest number of matches which will be shown in a popup menu
     private static final Color DELETED_COLOR = Color.getHSBColor(0.11f, 1, 1);
@@ -84,6 +85,11 @@ public class MatchPanel extends AbstractSequencePanel implements MouseListener,
         {
             model.addHighlightListener(this);            
         }
+        else
+        {
+            // repaint as a progressively loaded profile is refined
+            ((XmfaViewerModel) model).addSimilarityListener(this);
+        }
         mpmb.addMenuItemBuilder(mdmib);
         mpmb.addMenuItemBuilder(elmib);
         mpmb.addMenuItemBuilder(srmib);
@@ -1006,6 +1012,12 @@ public class MatchPanel extends AbstractSequencePanel implements MouseListener,
         repaint();
     }
 
+    public void similarityChanged(ModelEvent event)
+    {
+        markDirty();
+        repaint();
+    }
+
     public void viewableRangeChanged(ModelEvent event)
     {
         viewEnd = getGenome().getViewStart() + getGenome().getViewLength() - 1;
@@ -0,0 +1,39 @@
+package org.gel.mauve.histogram;
+
+/**
+ * A HistogramStore held in a byte array on the Java heap
+ */
+public class ArrayHistogramStore implements HistogramStore {
+	protected byte [] values;
+
+	public ArrayHistogramStore (long size) {
+		if (size > Integer.MAX_VALUE)
+			throw new RuntimeException ("Histogram is too large for the heap.");
+		values = new byte [(int) size];
+	}
+
+	/** wraps values, which are not copied */
+	public ArrayHistogramStore (byte [] values) {
+		this.values = values;
+	}
+
+	public long size () {
+		return values.length;
+	}
+
+	public byte get (long index) {
+		return values[(int) index];
+	}
+
+	public void set (long index, byte value) {
+		values[(int) index] = value;
+	}
+
+	public void read (long index, byte [] buf, int buf_off, int len) {
+		System.arraycopy (values, (int) index, buf, buf_off, len);
+	}
+
+	public void write (long index, byte [] buf, int buf_off, int len) {
+		System.arraycopy (buf, buf_off, values, (int) index, len);
+	}
+}
@@ -0,0 +1,27 @@
+package org.gel.mauve.histogram;
+
+import java.io.IOException;
+
+/**
+ * Allocates the stores that hold histogram values. HEAP keeps them in byte
+ * arrays, a MappedHistogramStorage in a memory mapped file.
+ */
+public abstract class HistogramStorage {
+	/** storage in byte arrays on the Java heap */
+	public static final HistogramStorage HEAP = new HistogramStorage () {
+		public HistogramStore allocate (long size) {
+			return new ArrayHistogramStore (size);
+		}
+	};
+
+	/** returns a store of size values, each initially zero */
+	public abstract HistogramStore allocate (long size) throws IOException;
+
+	/**
+	 * returns true if values are kept off the Java heap, so that the heap
+	 * size does not limit how many values are held
+	 */
+	public boolean isMapped () {
+		return false;
+	}
+}
@@ -0,0 +1,34 @@
+package org.gel.mauve.histogram;
+
+/**
+ * The values of a ZoomHistogram, indexed by long so that a histogram is not
+ * limited to the 2GB of a Java array. Values may be read by any number of
+ * threads while another thread writes them, as with a byte array.
+ */
+public interface HistogramStore {
+	/** returns the number of values */
+	public long size ();
+
+	/** returns the value at index */
+	public byte get (long index);
+
+	/** sets the value at index */
+	public void set (long index, byte value);
+
+	/**
+	 * Copies len values starting at index into buf
+	 *
+	 * @param index
+	 *            The first value to copy
+	 * @param buf
+	 *            The destination buffer
+	 * @param buf_off
+	 *            Where in buf the values should be placed
+	 * @param len
+	 *            The number of values to copy
+	 */
+	public void read (long index, byte [] buf, int buf_off, int len);
+
+	/** copies len values from buf into the store, starting at index */
+	public void write (long index, byte [] buf, int buf_off, int len);
+}
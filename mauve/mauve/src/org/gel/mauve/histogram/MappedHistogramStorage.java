@@ -0,0 +1,152 @@
+package org.gel.mauve.histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * HistogramStorage in a memory mapped scratch file. Every store allocated
+ * takes the next page aligned region of one file, so any number of
+ * histograms (similarity indexes, read histograms, weak ARG edge counts)
+ * share it, and the operating system's page cache rather than the Java heap
+ * decides how much of them is resident. A single MappedByteBuffer is limited
+ * to 2GB so each region is mapped as a series of fixed size chunks. Regions
+ * are not reused; the file grows for the life of the storage and is deleted
+ * when the JVM exits.
+ */
+public class MappedHistogramStorage extends HistogramStorage {
+	/** The number of values covered by each mapped chunk, a power of two */
+	static final int CHUNK_SIZE = 1 << 30;
+
+	/** regions start on multiples of this many bytes */
+	static final int PAGE_SIZE = 4096;
+
+	protected File file;
+
+	protected RandomAccessFile raf;
+
+	protected FileChannel channel;
+
+	/** the offset of the next region */
+	protected long end = 0;
+
+	/**
+	 * @param file
+	 *            the scratch file, any existing contents are discarded
+	 */
+	public MappedHistogramStorage (File file) throws IOException {
+		this.file = file;
+		file.deleteOnExit ();
+		raf = new RandomAccessFile (file, "rw");
+		raf.setLength (0);
+		channel = raf.getChannel ();
+	}
+
+	/** creates storage in a new scratch file in dir, or the temp directory */
+	public static MappedHistogramStorage createTemp (File dir)
+			throws IOException {
+		return new MappedHistogramStorage (File.createTempFile ("mauve",
+				".hist", dir));
+	}
+
+	public boolean isMapped () {
+		return true;
+	}
+
+	public HistogramStore allocate (long size) throws IOException {
+		long offset;
+		synchronized (this) {
+			offset = end;
+			end += (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+		}
+		return new MappedStore (channel, offset, size);
+	}
+
+	/** returns the scratch file */
+	public File getFile () {
+		return file;
+	}
+
+	/** returns the number of bytes of the file given to stores */
+	public synchronized long getAllocated () {
+		return end;
+	}
+
+	/**
+	 * Closes the scratch file. Stores already allocated remain usable until
+	 * they are garbage collected.
+	 */
+	public void close () throws IOException {
+		raf.close ();
+	}
+
+	/**
+	 * A region of the scratch file. Reads and writes work on the chunk
+	 * buffers with absolute indexes or on duplicates, so no position is
+	 * shared between threads.
+	 */
+	static class MappedStore implements HistogramStore {
+		long size;
+
+		MappedByteBuffer [] chunks;
+
+		MappedStore (FileChannel channel, long offset, long size)
+				throws IOException {
+			this.size = size;
+			int chunk_count = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+			chunks = new MappedByteBuffer [chunk_count];
+			for (int chunkI = 0; chunkI < chunk_count; chunkI++) {
+				long chunk_start = (long) chunkI * CHUNK_SIZE;
+				long chunk_len = Math.min (CHUNK_SIZE, size - chunk_start);
+				// mapping past the end of the file extends it with zeros
+				chunks[chunkI] = channel.map (FileChannel.MapMode.READ_WRITE,
+						offset + chunk_start, chunk_len);
+			}
+		}
+
+		public long size () {
+			return size;
+		}
+
+		public byte get (long index) {
+			return chunks[(int) (index / CHUNK_SIZE)].get ((int) (index % CHUNK_SIZE));
+		}
+
+		public void set (long index, byte value) {
+			chunks[(int) (index / CHUNK_SIZE)].put ((int) (index % CHUNK_SIZE),
+					value);
+		}
+
+		public void read (long index, byte [] buf, int buf_off, int len) {
+			int done = 0;
+			while (done < len) {
+				ByteBuffer chunk = slice (index + done);
+				int count = Math.min (len - done, chunk.remaining ());
+				chunk.get (buf, buf_off + done, count);
+				done += count;
+			}
+		}
+
+		public void write (long index, byte [] buf, int buf_off, int len) {
+			int done = 0;
+			while (done < len) {
+				ByteBuffer chunk = slice (index + done);
+				int count = Math.min (len - done, chunk.remaining ());
+				chunk.put (buf, buf_off + done, count);
+				done += count;
+			}
+		}
+
+		/** returns a duplicate of the chunk holding index, positioned at it */
+		ByteBuffer slice (long index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException ("Histogram index " + index);
+			ByteBuffer chunk = chunks[(int) (index / CHUNK_SIZE)].duplicate ();
+			chunk.position ((int) (index % CHUNK_SIZE));
+			return chunk;
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package org.gel.mauve.histogram;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 import org.gel.mauve.Genome;
@@ -7,6 +11,11 @@ import org.gel.mauve.Genome;
 /**
  * Meant to represent data that varies over a range and needs to be viewed at
  * multiple resolutions.
+ * <p>
+ * Values are kept in HistogramStores allocated from the storage set with
+ * setStorage(), byte arrays on the heap unless a MappedHistogramStorage has
+ * been chosen. Histograms are serialized with their values as byte arrays
+ * whatever the storage, and take the current storage when read back.
  * 
  * @author Aaron Darling
  *
@@ -14,6 +23,23 @@ import org.gel.mauve.Genome;
 public class ZoomHistogram implements Serializable {
 	
 	static final long serialVersionUID = 2;
+
+	/** the fields written by serialization, whatever the storage */
+	private static final ObjectStreamField [] serialPersistentFields = {
+			new ObjectStreamField ("max_resolution", int.class),
+			new ObjectStreamField ("resolutions", long [].class),
+			new ObjectStreamField ("level_sizes", long [].class),
+			new ObjectStreamField ("levels", int.class),
+			new ObjectStreamField ("sim_index", byte [].class),
+			new ObjectStreamField ("seq_length", long.class),
+			new ObjectStreamField ("index_factor", int.class),
+			new ObjectStreamField ("min_index_values", int.class),
+			new ObjectStreamField ("max_index_mb", int.class),
+			new ObjectStreamField ("min_vals", byte [].class),
+			new ObjectStreamField ("max_vals", byte [].class) };
+
+	/** where new histograms keep their values */
+	private static HistogramStorage storage = HistogramStorage.HEAP;
 	
 	/** < Never index fewer than this many alignment columns */
 	protected int max_resolution = 5;
@@ -28,7 +54,7 @@ public class ZoomHistogram implements Serializable {
 	protected int levels;
 
 	/** < The similarity index, similarity values are discretized to a byte value */
-	protected byte [] sim_index;
+	protected HistogramStore sim_index;
 
 
 	protected long seq_length;
@@ -44,13 +70,24 @@ public class ZoomHistogram implements Serializable {
 
 	protected int max_index_mb = 300;
 
-	/** < Maximum size in MB for the index */
+	/** < Maximum size in MB for the index, unless the storage is mapped */
 
-	protected byte [] min_vals;	/**< min values for levels above 0 */
-	protected byte [] max_vals; /**< max values for levels above 0 */
+	protected HistogramStore min_vals;	/**< min values for levels above 0 */
+	protected HistogramStore max_vals; /**< max values for levels above 0 */
 
 	protected ZoomHistogram () {
 	}
+
+	/**
+	 * Sets where histograms created from now on keep their values
+	 */
+	public static void setStorage (HistogramStorage s) {
+		storage = s;
+	}
+
+	public static HistogramStorage getStorage () {
+		return storage;
+	}
 	
 	public ZoomHistogram(Genome g){
 		this.seq_length = g.getLength ();		
@@ -142,8 +179,8 @@ public class ZoomHistogram implements Serializable {
 
 		lastI = lastI < firstI ? firstI : lastI;
 		long lev_offset = getLevelOffset (levelI);
-		int start_ind = (int) (lev_offset + firstI);
-		int end_ind = (int) (lev_offset + lastI);
+		long start_ind = lev_offset + firstI;
+		long end_ind = lev_offset + lastI;
 		byte sim;
 		if(type==0)
 			sim = averageValues (start_ind, end_ind);
@@ -198,13 +235,13 @@ public class ZoomHistogram implements Serializable {
 	 * @param end_ind
 	 * @return
 	 */
-	public byte averageValues (int start_ind, int end_ind) {
+	public byte averageValues (long start_ind, long end_ind) {
 		if (end_ind < start_ind) {
 			throw new RuntimeException ("Corrupt SimilarityIndex");
 		}
 		end_ind++;
 		long sim_sum = 0;
-		int indexI = start_ind;
+		long indexI = start_ind;
 		for (; indexI < end_ind; indexI++) {
 			sim_sum += getValue (indexI);
 		}
@@ -217,14 +254,14 @@ public class ZoomHistogram implements Serializable {
 	 * @param end_ind
 	 * @return
 	 */
-	public byte minOrMaxValues (int start_ind, int end_ind, int type) {
+	public byte minOrMaxValues (long start_ind, long end_ind, int type) {
 		if (end_ind < start_ind) {
 			throw new RuntimeException ("Corrupt SimilarityIndex");
 		}
 		end_ind++;
 		byte minnow = 127;
 		if(type>0)	minnow = -128;
-		byte[] arr = null;
+		HistogramStore arr = null;
 		if(start_ind < level_sizes[0]){
 			arr = sim_index;
 		}else{
@@ -232,14 +269,14 @@ public class ZoomHistogram implements Serializable {
 			end_ind -= level_sizes[0];
 			arr = type < 0 ? min_vals : max_vals;
 		}
-		int indexI = start_ind;
+		long indexI = start_ind;
 		for (; indexI < end_ind; indexI++) {			
 			if(type < 0){	
-				byte cur = arr[indexI];
+				byte cur = arr.get (indexI);
 				minnow = cur < minnow ? cur : minnow;
 			}
 			if(type > 0){
-				byte cur = arr[indexI];
+				byte cur = arr.get (indexI);
 				minnow = cur > minnow ? cur : minnow;
 			}
 		}
@@ -253,8 +290,8 @@ public class ZoomHistogram implements Serializable {
 	 * @param index
 	 * @return
 	 */
-	public byte getValue(int index) {
-		return sim_index [index];
+	public byte getValue(long index) {
+		return sim_index.get (index);
 	}
 
 
@@ -285,43 +322,139 @@ public class ZoomHistogram implements Serializable {
 			cur_resolution *= index_factor;
 		}
 
-		// check whether the index will fit in the max size
-		if (size_sum > ((long) max_index_mb * 1024l * 1024l)) {
+		// check whether the index will fit in the max size, mapped storage
+		// is limited only by the disk
+		if (!storage.isMapped ()
+				&& size_sum > ((long) max_index_mb * 1024l * 1024l)) {
 			throw new RuntimeException ("Similarity index is too large.");
 		}
 
-		sim_index = new byte [(int) size_sum];
+		sim_index = allocate (size_sum);
 
 		// nothing more to allocate if there are no levels
 		if (levels == 0)
 			return;
 		
-		min_vals = new byte[(int)(size_sum - level_sizes[0])];
-		max_vals = new byte[(int)(size_sum - level_sizes[0])];
+		min_vals = allocate (size_sum - level_sizes[0]);
+		max_vals = allocate (size_sum - level_sizes[0]);
+	}
+
+	/** allocates a store of size values from the current storage */
+	protected static HistogramStore allocate (long size) {
+		try {
+			return storage.allocate (size);
+		} catch (IOException ioe) {
+			throw new RuntimeException ("Unable to allocate histogram: "
+					+ ioe.getMessage ());
+		}
+	}
+
+	/** returns a store holding values, a copy unless storage is the heap */
+	protected static HistogramStore toStore (byte [] values) {
+		if (values == null)
+			return null;
+		if (!storage.isMapped ())
+			return new ArrayHistogramStore (values);
+		HistogramStore store = allocate (values.length);
+		store.write (0, values, 0, values.length);
+		return store;
+	}
+
+	/** copies the values of a store into a byte array */
+	protected static byte [] toArray (HistogramStore store) throws IOException {
+		if (store == null)
+			return null;
+		if (store.size () > Integer.MAX_VALUE)
+			throw new IOException ("Histogram is too large to serialize.");
+		byte [] values = new byte [(int) store.size ()];
+		store.read (0, values, 0, values.length);
+		return values;
+	}
+
+	/** returns true if two histograms hold the same values */
+	protected boolean sameValues (ZoomHistogram other) {
+		long size = sim_index.size ();
+		if (other.sim_index.size () != size)
+			return false;
+		byte [] buf = new byte [65536];
+		byte [] other_buf = new byte [buf.length];
+		for (long indexI = 0; indexI < size; indexI += buf.length) {
+			int len = (int) Math.min (buf.length, size - indexI);
+			sim_index.read (indexI, buf, 0, len);
+			other.sim_index.read (indexI, other_buf, 0, len);
+			for (int i = 0; i < len; i++)
+				if (buf[i] != other_buf[i])
+					return false;
+		}
+		return true;
+	}
+
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields ();
+		fields.put ("max_resolution", max_resolution);
+		fields.put ("resolutions", resolutions);
+		fields.put ("level_sizes", level_sizes);
+		fields.put ("levels", levels);
+		fields.put ("sim_index", toArray (sim_index));
+		fields.put ("seq_length", seq_length);
+		fields.put ("index_factor", index_factor);
+		fields.put ("min_index_values", min_index_values);
+		fields.put ("max_index_mb", max_index_mb);
+		fields.put ("min_vals", toArray (min_vals));
+		fields.put ("max_vals", toArray (max_vals));
+		out.writeFields ();
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields ();
+		max_resolution = fields.get ("max_resolution", 5);
+		resolutions = (long []) fields.get ("resolutions", null);
+		level_sizes = (long []) fields.get ("level_sizes", null);
+		levels = fields.get ("levels", 0);
+		sim_index = toStore ((byte []) fields.get ("sim_index", null));
+		seq_length = fields.get ("seq_length", 0l);
+		index_factor = fields.get ("index_factor", 8);
+		min_index_values = fields.get ("min_index_values", 500);
+		max_index_mb = fields.get ("max_index_mb", 300);
+		min_vals = toStore ((byte []) fields.get ("min_vals", null));
+		max_vals = toStore ((byte []) fields.get ("max_vals", null));
 	}
 
 	/* Calculates the higher-level values in the multi-level index as
 	 * an average value over the subranges.
 	 */
 	protected void calculateHigherLevels(){
+		if (levels > 0)
+			calculateHigherLevels (0, level_sizes[0] - 1);
+	}
+
+	/* Recalculates the higher-level values that cover the base level
+	 * values first through last, inclusive.
+	 */
+	protected void calculateHigherLevels (long first, long last) {
 		// calculate subsequent levels using the previous level
 		for (int levelI = 1; levelI < levels; levelI++) {
-			int componentI = (int) getLevelOffset (levelI - 1);
-			int level_offset = (int) getLevelOffset (levelI);
-			for (int indexI = 0; indexI < level_sizes[levelI]; indexI++) {
+			first /= index_factor;
+			last /= index_factor;
+			last = last < level_sizes[levelI] ? last : level_sizes[levelI] - 1;
+			long componentI = getLevelOffset (levelI - 1) + first * index_factor;
+			long level_offset = getLevelOffset (levelI);
+			for (long indexI = first; indexI <= last; indexI++) {
 				int sim_sum = 0;
 				int min_val = 999;	// this is bigger than byte range
 				int max_val = -999;
 				for (int subI = 0; subI < index_factor; subI++) {
-					sim_sum += sim_index[componentI];
-					min_val = sim_index[componentI] < min_val ? sim_index[componentI] : min_val;
-					max_val = sim_index[componentI] > max_val ? sim_index[componentI] : max_val;
+					byte component = sim_index.get (componentI);
+					sim_sum += component;
+					min_val = component < min_val ? component : min_val;
+					max_val = component > max_val ? component : max_val;
 					componentI++;
 				}
 				// set to the average of its components
-				sim_index[level_offset + indexI] = (byte) (sim_sum / index_factor);
-				min_vals[level_offset + indexI - (int)level_sizes[0]] = (byte)min_val;
-				max_vals[level_offset + indexI - (int)level_sizes[0]] = (byte)max_val;
+				sim_index.set (level_offset + indexI, (byte) (sim_sum / index_factor));
+				min_vals.set (level_offset + indexI - level_sizes[0], (byte)min_val);
+				max_vals.set (level_offset + indexI - level_sizes[0], (byte)max_val);
 			}
 		}
 	}
@@ -329,29 +462,29 @@ public class ZoomHistogram implements Serializable {
 	/**
 	 * Set an individual similarity value
 	 */
-	protected void setSimilarity (int level, int index, byte sim_value) {
-		int level_offset = 0;
+	protected void setSimilarity (int level, long index, byte sim_value) {
+		long level_offset = 0;
 		for (int levelI = 0; levelI < level; levelI++) {
 			level_offset += level_sizes[levelI];
 		}
 		if (index > level_sizes[level])
 			throw new ArrayIndexOutOfBoundsException ();
 
-		sim_index[level_offset + index] = sim_value;
+		sim_index.set (level_offset + index, sim_value);
 	}
 	
 	/**
 	 * get an individual similarity
 	 */
-	public byte getSimilarity (int level, int index) {
-		int level_offset = 0;
+	public byte getSimilarity (int level, long index) {
+		long level_offset = 0;
 		for (int levelI = 0; levelI < level; levelI++) {
 			level_offset += level_sizes[levelI];
 		}
 		if (index >= level_sizes[level])
 			throw new ArrayIndexOutOfBoundsException ();
 
-		return sim_index[level_offset + index];
+		return sim_index.get (level_offset + index);
 	}
 	
 	/**
@@ -361,7 +494,7 @@ public class ZoomHistogram implements Serializable {
 	 * @param base	array of bytes with length equal to getLevelSize(0)
 	 */
 	public void setBaseLevel( byte[] base ){
-		System.arraycopy(base, 0, sim_index, 0, (int)getLevelSize(0));
+		sim_index.write(0, base, 0, (int)getLevelSize(0));
 		calculateHigherLevels();
 	}
 
@@ -370,12 +503,12 @@ public class ZoomHistogram implements Serializable {
 	 * Calculates average values over max_resolution size chunks. Does not smooth.
 	 */
 	public void setGenomeLevelData( byte[] data ){
-		for(int d=0; d<level_sizes[0]; d++){
+		for(long d=0; d<level_sizes[0]; d++){
 			float runsum = 0;
 			for(int i=0; i<max_resolution; i++)
-				runsum += data[d*max_resolution+i];
+				runsum += data[(int)(d*max_resolution+i)];
 			runsum /= max_resolution;
-			sim_index[d] = (byte)runsum;
+			sim_index.set(d, (byte)runsum);
 		}
 		calculateHigherLevels();
 	}
@@ -0,0 +1,246 @@
+package org.gel.mauve.tree;
+
+import java.io.Serializable;
+
+/**
+ * A read-only mapping between gapped (column) and ungapped (sequence)
+ * coordinates of one alignment row. The row is stored as a series of runs,
+ * each either gap or sequence, using flattened prefix sums of column and
+ * sequence lengths. Lookups are binary searches over those arrays, so unlike
+ * GISTree nothing is modified by a query and any number of threads may query
+ * the same index concurrently.
+ * <p>
+ * Query semantics mirror GISTree: a coordinate past the end of the row
+ * resolves to the last run, and a run of zero length is never returned unless
+ * it is the last one.
+ */
+public class ColumnIndex implements Serializable {
+	static final long serialVersionUID = 1;
+
+	/** marks a run with no file offset, i.e. a gap run */
+	public static final long GAP = -1;
+
+	/** column at which each run starts, plus the row length at the end */
+	private final long [] colStart;
+
+	/** sequence position at which each run starts, plus the sequence length */
+	private final long [] seqStart;
+
+	/** file offset of the first character of each run, or GAP */
+	private final long [] fileOffset;
+
+	/**
+	 * Creates an index from run boundaries. colStart and seqStart must have one
+	 * more entry than fileOffset.
+	 */
+	public ColumnIndex (long [] colStart, long [] seqStart, long [] fileOffset) {
+		this.colStart = colStart;
+		this.seqStart = seqStart;
+		this.fileOffset = fileOffset;
+	}
+
+	/**
+	 * Creates a read-only copy of a GISTree. The tree is walked in order
+	 * without splaying, so it is left untouched.
+	 */
+	public static ColumnIndex freeze (GISTree gist) {
+		TreeStore ts = gist.ts;
+		int node_count = 0;
+		for (int index = leftMost (ts, gist.rootIndex); index != TreeStore.NULL_REF; index = successor (
+				ts, index))
+			node_count++;
+
+		long [] col_start = new long [node_count + 1];
+		long [] seq_start = new long [node_count + 1];
+		long [] file_offset = new long [node_count];
+		int runI = 0;
+		for (int index = leftMost (ts, gist.rootIndex); index != TreeStore.NULL_REF; index = successor (
+				ts, index)) {
+			col_start[runI + 1] = col_start[runI] + ts.getKeyLength (index);
+			seq_start[runI + 1] = seq_start[runI] + ts.getKeySeqLength (index);
+			file_offset[runI] = ts.isGap (index) ? GAP : ts.getKeyOffset (index);
+			runI++;
+		}
+		return new ColumnIndex (col_start, seq_start, file_offset);
+	}
+
+	private static int leftMost (TreeStore ts, int index) {
+		if (index == TreeStore.NULL_REF)
+			return index;
+		while (ts.left[index] != TreeStore.NULL_REF)
+			index = ts.left[index];
+		return index;
+	}
+
+	private static int successor (TreeStore ts, int index) {
+		if (ts.right[index] != TreeStore.NULL_REF)
+			return leftMost (ts, ts.right[index]);
+		while (ts.parent[index] != TreeStore.NULL_REF) {
+			if (ts.left[ts.parent[index]] == index)
+				return ts.parent[index];
+			index = ts.parent[index];
+		}
+		return TreeStore.NULL_REF;
+	}
+
+	/** returns the number of gap and sequence runs in the row */
+	public int runCount () {
+		return fileOffset.length;
+	}
+
+	/** returns the approximate number of heap bytes used by this index */
+	public long memorySize () {
+		// three long arrays plus the object and array headers
+		return 24L * fileOffset.length + 16 + 3 * 16 + 16;
+	}
+
+	/** returns the total length of the gapped sequence */
+	public long length () {
+		return colStart[colStart.length - 1];
+	}
+
+	/** returns the length of ungapped sequence */
+	public long sequenceLength () {
+		return seqStart[seqStart.length - 1];
+	}
+
+	/** find the run containing a position in the gapped sequence */
+	public int find (long column) {
+		return search (colStart, column);
+	}
+
+	/** find the run containing a position in the ungapped sequence */
+	public int findSeqIndex (long seq_point) {
+		return search (seqStart, seq_point);
+	}
+
+	/**
+	 * find the run containing a position in the gapped sequence, starting the
+	 * search from a nearby run. Walking through a row in either direction with
+	 * each result passed back as the next hint costs time proportional to the
+	 * distance moved rather than a full search.
+	 */
+	public int find (long column, int hint) {
+		return search (colStart, column, hint);
+	}
+
+	/**
+	 * find the run containing a position in the ungapped sequence, starting
+	 * the search from a nearby run
+	 */
+	public int findSeqIndex (long seq_point, int hint) {
+		return search (seqStart, seq_point, hint);
+	}
+
+	/**
+	 * Gives the same result as search(starts, value), galloping outwards from
+	 * hint to bracket the answer before the binary search
+	 */
+	private int search (long [] starts, long value, int hint) {
+		int runs = fileOffset.length;
+		if (hint < 0 || hint >= runs)
+			return search (starts, value);
+		int lo;
+		int hi;
+		if (starts[hint] <= value) {
+			// the answer is at or after hint
+			int step = 1;
+			lo = hint;
+			hi = hint + 1;
+			while (hi < runs && starts[hi] <= value) {
+				lo = hi;
+				hi = Math.min (runs, hi + step);
+				step <<= 1;
+			}
+		} else {
+			// the answer is before hint
+			int step = 1;
+			hi = hint;
+			lo = hint - 1;
+			while (lo > 0 && starts[lo] > value) {
+				hi = lo;
+				lo = Math.max (0, lo - step);
+				step <<= 1;
+			}
+			if (lo < 0)
+				return 0;
+		}
+		// starts[lo] <= value < starts[hi], or lo is the first run
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= value)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the last run whose start is at or before value, clamped to the
+	 * range of valid runs.
+	 */
+	private int search (long [] starts, long value) {
+		int lo = 0;
+		int hi = fileOffset.length;
+		// find the first run that starts after value
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo == 0 ? 0 : lo - 1;
+	}
+
+	/** returns the column where a run begins */
+	public long getStart (int run) {
+		return colStart[run];
+	}
+
+	/** returns the sequence position where a run begins */
+	public long getSequenceStart (int run) {
+		return seqStart[run];
+	}
+
+	/** returns the length in columns of a run */
+	public long getLength (int run) {
+		return colStart[run + 1] - colStart[run];
+	}
+
+	/** returns the length in sequence characters of a run */
+	public long getSeqLength (int run) {
+		return seqStart[run + 1] - seqStart[run];
+	}
+
+	/** returns true if the run consists of gap characters */
+	public boolean isGap (int run) {
+		return fileOffset[run] == GAP;
+	}
+
+	/** returns the file offset of the first character in a sequence run */
+	public long getOffset (int run) {
+		return fileOffset[run];
+	}
+
+	/**
+	 * Convert a sequence coordinate to a column index
+	 */
+	public long seqPosToColumn (long seq_index) {
+		int run = findSeqIndex (seq_index);
+		return colStart[run] + seq_index - seqStart[run];
+	}
+
+	/**
+	 * Convert a column index to a sequence index, taking the nearest seq index
+	 * to the left if the column falls in a gap region
+	 */
+	public long columnToSeqPos (long column) {
+		int run = find (column);
+		long seq_off = seqStart[run];
+		if (column != colStart[run] && !isGap (run))
+			seq_off += column - colStart[run];
+		return seq_off;
+	}
+}
@@ -0,0 +1,34 @@
+package org.gel.mauve.tree;
+
+/**
+ * Holds the column indexes of recently used alignment rows, keyed by interval
+ * and sequence. The cache is bounded by the approximate heap size of the
+ * indexes it holds; once the bound is passed the least recently used rows are
+ * dropped, and are rebuilt by the owner if they are needed again. The most
+ * recently added row is always kept, however large. All methods may be called
+ * from any thread.
+ */
+public class ColumnIndexCache extends LruCache {
+
+	public ColumnIndexCache (long max_bytes) {
+		super (max_bytes, 64);
+	}
+
+	private static Long rowKey (int ivI, int seqI) {
+		return new Long (((long) ivI << 32) | (seqI & 0xffffffffL));
+	}
+
+	protected long sizeOf (Object value) {
+		return ((ColumnIndex) value).memorySize ();
+	}
+
+	/** returns the cached index of a row, or null if it is not cached */
+	public ColumnIndex get (int ivI, int seqI) {
+		return (ColumnIndex) getEntry (rowKey (ivI, seqI));
+	}
+
+	/** adds the index of a row, evicting older rows if the cache is full */
+	public void put (int ivI, int seqI, ColumnIndex ci) {
+		putEntry (rowKey (ivI, seqI), ci);
+	}
+}
@@ -22,6 +22,10 @@ public class FileKey implements Key, Cloneable, Serializable {
 		return length;
 	}
 
+	public void setLength (long length) {
+		this.length = length;
+	}
+
 	public void incrementLength () {
 		length++;
 	}
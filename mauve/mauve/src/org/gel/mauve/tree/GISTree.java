@@ -6,7 +6,8 @@ import java.util.Arrays;
 /**
  * Records a mapping between gapped sequence coordinates and ungapped sequence
  * coordinates. Implemented using a splay tree for O(n log n) amortized time
- * complexity operations.
+ * complexity operations. Queries splay the tree, so once a tree is fully built
+ * it should be frozen into a ColumnIndex for reading.
  */
 public class GISTree implements Serializable {
 	static final long serialVersionUID = 1;
@@ -64,14 +65,34 @@ public class GISTree implements Serializable {
 				: 0;
 	}
 
+	/** inserts a key at a column, splitting the key found there if needed */
 	public int insert (Key val, long point) {
+		if (val instanceof FileKey)
+			return insertSequence (((FileKey) val).getOffset (), val.getLength (),
+					point);
+		return insertGap (val.getLength (), point);
+	}
+
+	/** inserts a run of gap columns at a column */
+	public int insertGap (long length, long point) {
+		int newIndex = ts.createGistNode ();
+		ts.setGapKey (newIndex, length);
+		return insertNode (newIndex, point);
+	}
+
+	/** inserts a run of sequence starting at a file offset at a column */
+	public int insertSequence (long f_offset, long length, long point) {
+		int newIndex = ts.createGistNode ();
+		ts.setFileKey (newIndex, f_offset, length);
+		return insertNode (newIndex, point);
+	}
+
+	private int insertNode (int newIndex, long point) {
 		long [] position = new long [1];
 		position[0] = point;
-		int newIndex = ts.createGistNode ();
 
-		setKey (newIndex, (Key) val.copy ()); // newNode.setKey((Key)val.copy());
-		setLength (newIndex, val.getLength ()); // newNode.setLength(val.getLength());
-		setSeqLength (newIndex, val.getSeqLength ()); // newNode.setSeqLength(val.getSeqLength());
+		setLength (newIndex, ts.getKeyLength (newIndex));
+		setSeqLength (newIndex, ts.getKeySeqLength (newIndex));
 
 		// just insert new_node as root if the tree is empty
 		if (rootIndex == TreeStore.NULL_REF) {
@@ -83,7 +104,7 @@ public class GISTree implements Serializable {
 
 		// insert the new node below ins_node
 		if (position[0] > 0
-				&& position[0] < getKey (insertionIndex).getLength ()) {
+				&& position[0] < ts.getKeyLength (insertionIndex)) {
 			// trunc ins_node, do a right insert of new_node and the right part
 			// of ins_node
 			int rightIndex = ts.createGistNode ();
@@ -92,21 +113,21 @@ public class GISTree implements Serializable {
 			// probably, but i'm not sure it really matters
 			setRight (newIndex, rightIndex);
 			setParent (rightIndex, newIndex);
-			setKey (rightIndex, (Key) getKey (insertionIndex).copy ());
+			ts.keyLength[rightIndex] = ts.keyLength[insertionIndex];
+			ts.keyOffset[rightIndex] = ts.keyOffset[insertionIndex];
 
 			// crop the key
-			getKey (rightIndex).cropStart (position[0]);
-			setLength (rightIndex, val.getLength ());
-			setSeqLength (rightIndex, val.getSeqLength ());
+			cropStart (rightIndex, position[0]);
+			setLength (rightIndex, getLength (newIndex));
+			setSeqLength (rightIndex, getSeqLength (newIndex));
 			// question: do I need to update new_node.length or will the splay
 			// operations
 			// take care of it?
 
-			getKey (insertionIndex).cropEnd (
-					getKey (insertionIndex).getLength () - position[0]);
-			setSeqLength (insertionIndex, getKey (insertionIndex)
-					.getSeqLength ());
-			setLength (insertionIndex, getKey (insertionIndex).getLength ());
+			cropEnd (insertionIndex, ts.getKeyLength (insertionIndex)
+					- position[0]);
+			setSeqLength (insertionIndex, ts.getKeySeqLength (insertionIndex));
+			setLength (insertionIndex, ts.getKeyLength (insertionIndex));
 			// now position[0] ought to be equal to ins_node.length,
 			// so new_node should get inserted right below it
 		}
@@ -128,7 +149,7 @@ public class GISTree implements Serializable {
 			}
 		}
 
-		if (position[0] >= getKey (insertionIndex).getLength ()) {
+		if (position[0] >= ts.getKeyLength (insertionIndex)) {
 			// find the left-most child of the right subtree and insert there
 			int currentIndex = getRight (insertionIndex);
 			if (currentIndex != TreeStore.NULL_REF) {
@@ -175,14 +196,14 @@ public class GISTree implements Serializable {
 		int l_iter = find (column);
 		long seq_off = getSequenceStart (l_iter);
 		long left_col = getStart (l_iter);
-		if (column != left_col && getKey (l_iter).getSeqLength () != 0)
+		if (column != left_col && !ts.isGap (l_iter))
 			seq_off += column - left_col;
 		return seq_off;
 	}
 
 	private void recalculateLengths (int index) {
-		ts.length[index] = ts.key[index].getLength ();
-		ts.seqLength[index] = ts.key[index].getSeqLength ();
+		ts.length[index] = ts.getKeyLength (index);
+		ts.seqLength[index] = ts.getKeySeqLength (index);
 
 		if (ts.right[index] != TreeStore.NULL_REF) {
 			ts.length[index] += ts.length[ts.right[index]];
@@ -262,27 +283,40 @@ public class GISTree implements Serializable {
 	}
 
 	/**
-	 * returns the Key of the node immediately to the right of x, or null if x
-	 * is already the righ-most tree node
+	 * Removes columns from the start of a node's key. As with the FileKey this
+	 * replaces, the key's file offset is left as it was.
+	 */
+	void cropStart (int index, long size) {
+		ts.setKeyLength (index, ts.getKeyLength (index) - size);
+	}
+
+	/** Removes columns from the end of a node's key */
+	void cropEnd (int index, long size) {
+		ts.setKeyLength (index, ts.getKeyLength (index) - size);
+	}
+
+	/**
+	 * returns the node immediately to the right of x, or NULL_REF if x is
+	 * already the right-most tree node
 	 */
-	public Key increment (int index) {
+	public int increment (int index) {
 		// if x has a right child, find its leftmost descendant
 		if (ts.right[index] != TreeStore.NULL_REF) {
 			int leftie = ts.right[index];
 			while (ts.left[leftie] != TreeStore.NULL_REF)
 				leftie = ts.left[leftie];
-			return ts.key[leftie];
+			return leftie;
 		}
 
 		// look for the least ancestor where x was the left descendant
 		while (ts.parent[index] != TreeStore.NULL_REF) {
 			if (ts.left[ts.parent[index]] == index)
-				return ts.key[ts.parent[index]];
+				return ts.parent[index];
 			index = ts.parent[index];
 		}
 
 		// x is already the right-most tree value
-		return null;
+		return TreeStore.NULL_REF;
 	}
 
 	/**
@@ -312,8 +346,8 @@ public class GISTree implements Serializable {
 			// length
 			position[0] -= left_len;
 			if (ts.right[index] != TreeStore.NULL_REF
-					&& position[0] >= ts.key[index].getLength ()) {
-				position[0] -= ts.key[index].getLength ();
+					&& position[0] >= ts.getKeyLength (index)) {
+				position[0] -= ts.getKeyLength (index);
 				index = ts.right[index];
 				continue;
 			}
@@ -351,8 +385,8 @@ public class GISTree implements Serializable {
 			// length
 			position[0] -= left_len;
 			if (ts.right[index] != TreeStore.NULL_REF
-					&& position[0] >= ts.key[index].getSeqLength ()) {
-				position[0] -= ts.key[index].getSeqLength ();
+					&& position[0] >= ts.getKeySeqLength (index)) {
+				position[0] -= ts.getKeySeqLength (index);
 				index = ts.right[index];
 				continue;
 			}
@@ -363,12 +397,34 @@ public class GISTree implements Serializable {
 		return TreeStore.NULL_REF;
 	}
 
+	/**
+	 * returns a copy of a node's key as a FileKey or GapKey. Keys are stored
+	 * in the TreeStore's primitive arrays, so changes to the copy do not
+	 * affect the tree.
+	 */
 	public Key getKey (int index) {
-		return ts.key[index];
+		if (ts.isGap (index))
+			return new GapKey (ts.getKeyLength (index));
+		FileKey fk = new FileKey (0, ts.getKeyOffset (index));
+		fk.setLength (ts.getKeyLength (index));
+		return fk;
 	}
 
 	public void setKey (int index, Key k) {
-		ts.key[index] = k;
+		if (k instanceof FileKey)
+			ts.setFileKey (index, ((FileKey) k).getOffset (), k.getLength ());
+		else
+			ts.setGapKey (index, k.getLength ());
+	}
+
+	/** returns true if a node's key is a run of gaps */
+	public boolean isGap (int index) {
+		return ts.isGap (index);
+	}
+
+	/** returns the file offset of a node's key */
+	public long getKeyOffset (int index) {
+		return ts.getKeyOffset (index);
 	}
 
 	public long getSeqLength (int index) {
@@ -0,0 +1,94 @@
+package org.gel.mauve.tree;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache bounded by the approximate heap size of the values it holds. Once
+ * the bound is passed the least recently used entries are dropped; the most
+ * recently added entry is always kept, however large. Subclasses give the
+ * size of a value and typed access to the entries. All methods may be called
+ * from any thread.
+ */
+public abstract class LruCache {
+	/** the most bytes of values kept in memory */
+	private final long max_bytes;
+
+	/** the bytes of values currently held */
+	private long bytes = 0;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	/** entries in access order, least recently used first */
+	private final LinkedHashMap entries;
+
+	protected LruCache (long max_bytes, int capacity) {
+		this.max_bytes = max_bytes;
+		entries = new LinkedHashMap (capacity, 0.75f, true);
+	}
+
+	/** returns the approximate heap bytes charged for a value */
+	protected abstract long sizeOf (Object value);
+
+	/** returns a cached value, or null if it is not cached */
+	protected synchronized Object getEntry (Object key) {
+		Object value = entries.get (key);
+		if (value != null)
+			hits++;
+		else
+			misses++;
+		return value;
+	}
+
+	/** adds a value, evicting older entries if the cache is full */
+	protected synchronized void putEntry (Object key, Object value) {
+		Object old = entries.put (key, value);
+		if (old != null)
+			bytes -= sizeOf (old);
+		bytes += sizeOf (value);
+		Iterator iter = entries.entrySet ().iterator ();
+		while (bytes > max_bytes && entries.size () > 1) {
+			Map.Entry eldest = (Map.Entry) iter.next ();
+			bytes -= sizeOf (eldest.getValue ());
+			iter.remove ();
+			evictions++;
+		}
+	}
+
+	/** drops every cached entry */
+	public synchronized void clear () {
+		entries.clear ();
+		bytes = 0;
+	}
+
+	/** returns the number of entries held */
+	public synchronized int size () {
+		return entries.size ();
+	}
+
+	/** returns the approximate bytes of values held */
+	public synchronized long getBytes () {
+		return bytes;
+	}
+
+	public long getMaxBytes () {
+		return max_bytes;
+	}
+
+	public synchronized long getHits () {
+		return hits;
+	}
+
+	public synchronized long getMisses () {
+		return misses;
+	}
+
+	public synchronized long getEvictions () {
+		return evictions;
+	}
+}
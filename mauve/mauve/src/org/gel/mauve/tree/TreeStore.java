@@ -22,7 +22,17 @@ public class TreeStore implements Serializable {
 
 	public long [] seqLength = new long [INITIAL_SIZE];
 
-	public Key [] key = new Key [INITIAL_SIZE];
+	/**
+	 * The length of each node's key in columns. Gap keys have KEY_GAP set, so
+	 * the type of a key is kept in the same column as its length.
+	 */
+	public long [] keyLength = new long [INITIAL_SIZE];
+
+	/** The file offset of each sequence key, unused for gap keys */
+	public long [] keyOffset = new long [INITIAL_SIZE];
+
+	/** The type bit that marks a gap key in keyLength */
+	public final static long KEY_GAP = Long.MIN_VALUE;
 
 	public TreeStore () {
 		Arrays.fill (parent, NULL_REF);
@@ -65,9 +75,13 @@ public class TreeStore implements Serializable {
 		System.arraycopy (seqLength, 0, new_seq_length, 0, seqLength.length);
 		seqLength = new_seq_length;
 
-		Key [] new_key = new Key [newSize];
-		System.arraycopy (key, 0, new_key, 0, key.length);
-		key = new_key;
+		long [] new_key_length = new long [newSize];
+		System.arraycopy (keyLength, 0, new_key_length, 0, keyLength.length);
+		keyLength = new_key_length;
+
+		long [] new_key_offset = new long [newSize];
+		System.arraycopy (keyOffset, 0, new_key_offset, 0, keyOffset.length);
+		keyOffset = new_key_offset;
 	}
 
 	public void pruneArrays () {
@@ -91,8 +105,51 @@ public class TreeStore implements Serializable {
 		System.arraycopy (seqLength, 0, new_seq_length, 0, nodeCount);
 		seqLength = new_seq_length;
 
-		Key [] new_key = new Key [nodeCount];
-		System.arraycopy (key, 0, new_key, 0, nodeCount);
-		key = new_key;
+		long [] new_key_length = new long [nodeCount];
+		System.arraycopy (keyLength, 0, new_key_length, 0, nodeCount);
+		keyLength = new_key_length;
+
+		long [] new_key_offset = new long [nodeCount];
+		System.arraycopy (keyOffset, 0, new_key_offset, 0, nodeCount);
+		keyOffset = new_key_offset;
+	}
+
+	/** returns true if the key of a node is a gap */
+	public boolean isGap (int index) {
+		return (keyLength[index] & KEY_GAP) != 0;
+	}
+
+	/** returns the length of a node's key in columns */
+	public long getKeyLength (int index) {
+		return keyLength[index] & ~KEY_GAP;
+	}
+
+	/** returns the length of ungapped sequence in a node's key */
+	public long getKeySeqLength (int index) {
+		return isGap (index) ? 0 : keyLength[index];
+	}
+
+	/** returns the file offset of a node's key */
+	public long getKeyOffset (int index) {
+		return keyOffset[index];
+	}
+
+	/** stores a gap key of the given length */
+	public void setGapKey (int index, long length) {
+		keyLength[index] = length | KEY_GAP;
+		keyOffset[index] = 0;
+	}
+
+	/** stores a sequence key of the given length and file offset */
+	public void setFileKey (int index, long f_offset, long length) {
+		keyLength[index] = length;
+		keyOffset[index] = f_offset;
+	}
+
+	/** changes the length of a node's key, keeping its type */
+	void setKeyLength (int index, long length) {
+		if (length < 0)
+			throw new ArrayIndexOutOfBoundsException ();
+		keyLength[index] = length | (keyLength[index] & KEY_GAP);
 	}
 }
@@ -0,0 +1,117 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.gel.mauve.tree.ColumnIndex;
+
+public class AlignmentColumnCursorTest extends TestCase {
+
+	/** alignment rows, the second reverse complemented, the third missing */
+	static String [] rows () {
+		Random randy = new Random (5);
+		StringBuffer [] rows = new StringBuffer [3];
+		for (int seqI = 0; seqI < 3; seqI++) {
+			rows[seqI] = new StringBuffer ();
+			for (int colI = 0; colI < 250; colI++)
+				rows[seqI].append (seqI == 2 || colI < 3 * seqI
+						|| randy.nextInt (4) == 0 ? '-' : "ACGT".charAt (randy
+						.nextInt (4)));
+		}
+		return new String [] { rows[0].toString (), rows[1].toString (),
+				rows[2].toString () };
+	}
+
+	static int residues (String row) {
+		int count = 0;
+		for (int colI = 0; colI < row.length (); colI++)
+			if (row.charAt (colI) != '-')
+				count++;
+		return count;
+	}
+
+	static XMFAAlignment load () throws IOException {
+		String [] rows = rows ();
+		File f = File.createTempFile ("cursor", ".xmfa");
+		f.deleteOnExit ();
+		FileWriter w = new FileWriter (f);
+		w.write ("#FormatVersion Mauve1\n");
+		for (int seqI = 0; seqI < 3; seqI++) {
+			int len = residues (rows[seqI]);
+			w.write ("> " + (seqI + 1) + ":" + (len > 0 ? 1 : 0) + "-" + len
+					+ (seqI == 1 ? " - " : " + ") + "seq" + seqI + "\n");
+			for (int colI = 0; colI < rows[seqI].length (); colI += 80)
+				w.write (rows[seqI].substring (colI, Math.min (colI + 80,
+						rows[seqI].length ()))
+						+ "\n");
+		}
+		w.write ("=\n");
+		w.close ();
+		return new XMFAAlignment (new RandomAccessFile (f, "r"));
+	}
+
+	public void testMatchesColumnIndex () throws IOException {
+		XMFAAlignment xmfa = load ();
+		for (int block = 1; block <= 300; block += 7) {
+			AlignmentColumnCursor cursor = new AlignmentColumnCursor (xmfa, 0,
+					null, block);
+			String [] rows = rows ();
+			long col = 0;
+			while (cursor.next ()) {
+				assertEquals (col, cursor.getColumn ());
+				for (int seqI = 0; seqI < 3; seqI++) {
+					ColumnIndex ci = xmfa.getColumnIndex (0, seqI);
+					assertEquals (rows[seqI].charAt ((int) col), cursor.getChar (seqI));
+					assertEquals (ci.columnToSeqPos (col), cursor.getSeqOffset (seqI));
+					long expected = cursor.isGap (seqI) ? 0 : xmfa.LCBToGlobal (ci
+							.columnToSeqPos (col), new Genome (0, null, seqI), 0);
+					assertEquals (expected, cursor.getPosition (seqI));
+				}
+				col++;
+			}
+			assertEquals (xmfa.getLcbLength (0), col);
+		}
+	}
+
+	public void testSeek () throws IOException {
+		XMFAAlignment xmfa = load ();
+		String [] rows = rows ();
+		AlignmentColumnCursor cursor = new AlignmentColumnCursor (xmfa, 0,
+				null, 16);
+		for (long col = 249; col >= 0; col -= 13) {
+			cursor.seek (col);
+			assertTrue (cursor.next ());
+			assertEquals (col, cursor.getColumn ());
+			for (int seqI = 0; seqI < 3; seqI++) {
+				assertEquals (rows[seqI].charAt ((int) col), cursor.getChar (seqI));
+				assertEquals (xmfa.getColumnIndex (0, seqI).columnToSeqPos (col),
+						cursor.getSeqOffset (seqI));
+			}
+		}
+		cursor.seek (250);
+		assertFalse (cursor.next ());
+	}
+
+	public void testSomeRows () throws IOException {
+		XMFAAlignment xmfa = load ();
+		AlignmentColumnCursor cursor = new AlignmentColumnCursor (xmfa, 0,
+				new int [] { 1 }, 4);
+		long right = residues (rows ()[1]);
+		// the row starts with three gaps and is reverse complemented
+		assertTrue (cursor.next ());
+		assertTrue (cursor.isGap (1));
+		assertEquals (0, cursor.getPosition (1));
+		assertEquals (right, cursor.toGlobal (1, cursor.getSeqOffset (1)));
+		assertTrue (cursor.next ());
+		assertTrue (cursor.next ());
+		assertTrue (cursor.next ());
+		assertFalse (cursor.isGap (1));
+		assertEquals (right, cursor.getPosition (1));
+		assertNull (cursor.getBlock (0));
+	}
+}
@@ -0,0 +1,115 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class AnalysisCacheTest extends TestCase {
+	File root;
+
+	protected void setUp () throws IOException {
+		root = File.createTempFile ("cache", "test");
+		root.delete ();
+	}
+
+	protected void tearDown () throws IOException {
+		new AnalysisCache (root, 0).clear ();
+		new File (root, AnalysisCache.CACHE_LOCK).delete ();
+		root.delete ();
+	}
+
+	/** writes a file of size bytes into the entry for key */
+	static void put (AnalysisCache cache, String key, int size)
+			throws IOException {
+		AnalysisCache.Entry entry = cache.open (key);
+		try {
+			File tmp = entry.createTempFile ("data");
+			FileOutputStream out = new FileOutputStream (tmp);
+			out.write (new byte [size]);
+			out.close ();
+			entry.commit (tmp, "data");
+		} finally {
+			entry.close ();
+		}
+	}
+
+	public void testKeysFollowContent () {
+		byte [] a = new byte [] { 1, 2, 3 };
+		byte [] b = new byte [] { 1, 2, 4 };
+		String key = AnalysisCache.key (new byte [][] { a, null });
+		assertEquals (key, AnalysisCache.key (new byte [][] { (byte []) a.clone (),
+				null }));
+		assertFalse (key.equals (AnalysisCache.key (new byte [][] { b, null })));
+		assertFalse (key.equals (AnalysisCache.key (new byte [][] { a,
+				new byte [0] })));
+	}
+
+	public void testEvictsLeastRecentlyUsed () throws IOException {
+		AnalysisCache cache = new AnalysisCache (root, 250);
+		put (cache, "a", 100);
+		put (cache, "b", 100);
+		long now = System.currentTimeMillis ();
+		new File (root, "a").setLastModified (now - 20000);
+		new File (root, "b").setLastModified (now - 10000);
+		put (cache, "c", 100);
+		assertFalse (new File (root, "a").exists ());
+		assertTrue (new File (root, "b").exists ());
+		assertEquals (1, cache.getEvictions ());
+		assertEquals (200, cache.getSize ());
+
+		// an open entry is kept even when it is the oldest
+		AnalysisCache.Entry b = cache.open ("b");
+		new File (root, "b").setLastModified (now - 10000);
+		put (cache, "d", 100);
+		assertTrue (b.contains ("data"));
+		assertFalse (new File (root, "c").exists ());
+		b.close ();
+		assertEquals (2, cache.getEvictions ());
+	}
+
+	public void testCountsHitsAndMisses () throws IOException {
+		AnalysisCache cache = new AnalysisCache (root, 1000);
+		put (cache, "a", 10);
+		AnalysisCache.Entry entry = cache.open ("a");
+		assertTrue (entry.contains ("data"));
+		assertFalse (entry.contains ("other"));
+		entry.close ();
+		assertEquals (1, cache.getHits ());
+		assertEquals (1, cache.getMisses ());
+		assertEquals (1, cache.getEntryCount ());
+		cache.clear ();
+		assertEquals (0, cache.getEntryCount ());
+	}
+
+	public void testUnusableDirectoryFails () throws IOException {
+		File file = File.createTempFile ("cache", "file");
+		try {
+			AnalysisCache cache = new AnalysisCache (file, 1000);
+			try {
+				cache.open ("a");
+				fail ("opened an entry beneath a plain file");
+			} catch (IOException ioe) {
+				// expected, and promptly
+			}
+		} finally {
+			file.delete ();
+		}
+	}
+
+	public void testKeepsEntryOpenThroughAnotherCache () throws IOException {
+		AnalysisCache cache = new AnalysisCache (root, 1000);
+		put (cache, "a", 10);
+		AnalysisCache.Entry entry = cache.open ("a");
+		try {
+			// both lock the entry from this JVM; the second sees it in use
+			new AnalysisCache (root, 0).clear ();
+			assertTrue (entry.contains ("data"));
+		} finally {
+			entry.close ();
+		}
+		new AnalysisCache (root, 0).clear ();
+		assertEquals (0, cache.getEntryCount ());
+	}
+}
@@ -0,0 +1,129 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+public class BgzfXmfaSourceTest extends TestCase {
+
+	/** writes data as BGZF blocks of at most block_len bytes, plus an EOF block */
+	static void writeBgzf (File f, byte [] data, int block_len) throws IOException {
+		FileOutputStream out = new FileOutputStream (f);
+		for (int off = 0; off <= data.length; off += block_len) {
+			int len = Math.min (block_len, data.length - off);
+			Deflater deflater = new Deflater (Deflater.DEFAULT_COMPRESSION, true);
+			deflater.setInput (data, off, len);
+			deflater.finish ();
+			byte [] cdata = new byte [len + 1024];
+			int clen = 0;
+			while (!deflater.finished ())
+				clen += deflater.deflate (cdata, clen, cdata.length - clen);
+			deflater.end ();
+			CRC32 crc = new CRC32 ();
+			crc.update (data, off, len);
+			int bsize = 18 + clen + 8;
+			out.write (new byte [] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0,
+					(byte) 0xff, 6, 0, 'B', 'C', 2, 0, (byte) (bsize - 1),
+					(byte) ((bsize - 1) >> 8) });
+			out.write (cdata, 0, clen);
+			writeInt (out, (int) crc.getValue ());
+			writeInt (out, len);
+			if (len == 0)
+				break;
+		}
+		out.close ();
+	}
+
+	static void writeInt (FileOutputStream out, int v) throws IOException {
+		out.write (new byte [] { (byte) v, (byte) (v >> 8), (byte) (v >> 16),
+				(byte) (v >> 24) });
+	}
+
+	public void testReadsMatchUncompressed () throws IOException {
+		Random randy = new Random (3);
+		byte [] data = new byte [200000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) "ACGT-\n".charAt (randy.nextInt (6));
+		File f = File.createTempFile ("bgzf", ".xmfa");
+		f.deleteOnExit ();
+		writeBgzf (f, data, 7000);
+
+		RandomAccessFile raf = new RandomAccessFile (f, "r");
+		assertTrue (BgzfXmfaSource.isBgzf (raf));
+		BgzfXmfaSource src = new BgzfXmfaSource (raf);
+		assertEquals (data.length, src.length ());
+		for (int trialI = 0; trialI < 200; trialI++) {
+			int off = randy.nextInt (data.length);
+			int len = randy.nextInt (30000);
+			byte [] buf = new byte [len];
+			int count = src.read (off, buf, 0, len);
+			assertEquals (Math.min (len, data.length - off), count);
+			byte [] expected = new byte [count];
+			System.arraycopy (data, off, expected, 0, count);
+			byte [] actual = new byte [count];
+			System.arraycopy (buf, 0, actual, 0, count);
+			assertTrue (Arrays.equals (expected, actual));
+		}
+		assertEquals (-1, src.read (data.length, new byte [1], 0, 1));
+		// the second block starts at uncompressed offset 7000
+		assertEquals (0, src.getVirtualOffset (0));
+		assertEquals (1, src.getVirtualOffset (7001) & 0xffff);
+		assertTrue (src.getVirtualOffset (7001) >>> 16 > 0);
+		src.close ();
+	}
+
+	public void testPlainFileIsNotBgzf () throws IOException {
+		File f = File.createTempFile ("plain", ".xmfa");
+		f.deleteOnExit ();
+		FileOutputStream out = new FileOutputStream (f);
+		out.write ("#FormatVersion Mauve1\n".getBytes ());
+		out.close ();
+		RandomAccessFile raf = new RandomAccessFile (f, "r");
+		assertFalse (BgzfXmfaSource.isBgzf (raf));
+		assertTrue (XMFAAlignment.openSource (raf) instanceof MappedXmfaSource);
+		raf.close ();
+	}
+
+	/** compresses a file into a temporary BGZF file */
+	static File compress (File plain) throws IOException {
+		byte [] data = new byte [(int) plain.length ()];
+		FileInputStream in = new FileInputStream (plain);
+		for (int off = 0; off < data.length;)
+			off += in.read (data, off, data.length - off);
+		in.close ();
+		File f = File.createTempFile ("bgzf", ".xmfa");
+		f.deleteOnExit ();
+		writeBgzf (f, data, 7000);
+		return f;
+	}
+
+	public void testModelBuilderReadsCompressedXmfa () throws Exception {
+		File plain = SimilarityEngineTest.writeGapped (new long [2], true);
+		XmfaViewerModel expected = new XmfaViewerModel (plain, null);
+		BaseViewerModel model = ModelBuilder.buildModel (compress (plain), null);
+		assertTrue (model instanceof XmfaViewerModel);
+		assertEquals (expected.getSequenceCount (), model.getSequenceCount ());
+		assertEquals (expected.getLcbCount (), ((XmfaViewerModel) model)
+				.getLcbCount ());
+		for (int seqI = 0; seqI < model.getSequenceCount (); seqI++)
+			assertEquals (expected.getGenomeBySourceIndex (seqI).getLength (),
+					model.getGenomeBySourceIndex (seqI).getLength ());
+	}
+
+	public void testModelBuilderRejectsCompressedMums () throws Exception {
+		try {
+			ModelBuilder.buildModel (compress (new File ("testdata/small.mums")),
+					null);
+			fail ("a compressed MUMs file was read");
+		} catch (MauveFormatException mfe) {
+		}
+	}
+}
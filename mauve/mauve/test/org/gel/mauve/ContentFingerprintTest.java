@@ -0,0 +1,89 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ContentFingerprintTest extends TestCase {
+	File file;
+
+	protected void setUp () throws IOException {
+		file = File.createTempFile ("fingerprint", ".dat");
+	}
+
+	protected void tearDown () {
+		file.delete ();
+	}
+
+	/** writes len random bytes to the file */
+	void write (long seed, int len) throws IOException {
+		byte [] data = new byte [len];
+		new Random (seed).nextBytes (data);
+		FileOutputStream out = new FileOutputStream (file);
+		out.write (data);
+		out.close ();
+	}
+
+	public void testStableWhileUnchanged () throws IOException {
+		write (1, 100000);
+		assertTrue (Arrays.equals (ContentFingerprint.computeRaw (file),
+				ContentFingerprint.computeRaw (file)));
+	}
+
+	public void testSmallEditChangesFingerprint () throws IOException {
+		write (2, 100000);
+		long modified = file.lastModified ();
+		byte [] before = ContentFingerprint.computeRaw (file);
+		RandomAccessFile raf = new RandomAccessFile (file, "rw");
+		raf.seek (50000);
+		int b = raf.read ();
+		raf.seek (50000);
+		raf.write (b ^ 1);
+		raf.close ();
+		// small files are hashed in full, whatever the time stamp
+		file.setLastModified (modified);
+		assertFalse (Arrays.equals (before, ContentFingerprint
+				.computeRaw (file)));
+	}
+
+	public void testUnsampledEditChangesFingerprint () throws IOException {
+		int len = ContentFingerprint.BLOCK_SIZE
+				* (ContentFingerprint.SAMPLE_COUNT + 2) + 1000000;
+		write (3, len);
+		long modified = file.lastModified ();
+		byte [] before = ContentFingerprint.computeRaw (file);
+		// just past the first block and short of the first sampled one
+		long stride = (len - ContentFingerprint.BLOCK_SIZE)
+				/ (ContentFingerprint.SAMPLE_COUNT + 1);
+		long offset = ContentFingerprint.BLOCK_SIZE + 10;
+		assertTrue (offset < stride);
+		RandomAccessFile raf = new RandomAccessFile (file, "rw");
+		raf.seek (offset);
+		raf.write ('x');
+		raf.close ();
+		// as an editor saving a moment later would
+		file.setLastModified (modified + 2000);
+		assertFalse (Arrays.equals (before, ContentFingerprint
+				.computeRaw (file)));
+	}
+
+	/**
+	 * fingerprints read without mapping the file match those of a mapped
+	 * read, so existing cache entries stay valid
+	 */
+	public void testUnmappedMatchesMapped () throws IOException {
+		write (4, ContentFingerprint.BLOCK_SIZE
+				* (ContentFingerprint.SAMPLE_COUNT + 2) + 123457);
+		RandomAccessFile raf = new RandomAccessFile (file, "r");
+		byte [] mapped = ContentFingerprint.compute (new MappedXmfaSource (raf),
+				file);
+		raf.close ();
+		assertTrue (Arrays.equals (mapped, ContentFingerprint.computeRaw (file)));
+		assertTrue (Arrays.equals (mapped, ContentFingerprint.compute (file)));
+	}
+}
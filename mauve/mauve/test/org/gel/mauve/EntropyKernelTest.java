@@ -0,0 +1,64 @@
+package org.gel.mauve;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class EntropyKernelTest extends TestCase {
+
+	static SimilarityIndex tables () {
+		SimilarityIndex tables = new SimilarityIndex (0, 0, 5, new long [0],
+				new long [0], new byte [0]);
+		tables.calculateLog2Table ();
+		tables.calculateFracTable ();
+		return tables;
+	}
+
+	static double expected (SimilarityIndex tables, byte [][] rows, int col,
+			boolean [] seqs) {
+		int [] chars = new int [5];
+		for (int seqI = 0; seqI < rows.length; seqI++)
+			if (seqs == null || seqs[seqI])
+				chars[SimilarityIndex.char_map[rows[seqI][col]]]++;
+		return tables.columnEntropy (chars);
+	}
+
+	static byte [][] randomRows (Random randy, int count, int length) {
+		String alphabet = "ACGTacgtNn-";
+		byte [][] rows = new byte [count] [length];
+		for (int seqI = 0; seqI < count; seqI++)
+			for (int colI = 0; colI < length; colI++)
+				rows[seqI][colI] = (byte) alphabet.charAt (randy
+						.nextInt (alphabet.length ()));
+		return rows;
+	}
+
+	public void testMatchesColumnEntropy () {
+		Random randy = new Random (16);
+		SimilarityIndex tables = tables ();
+		EntropyKernel kernel = new EntropyKernel (tables);
+		for (int count = 1; count <= 60; count += 7) {
+			byte [][] rows = randomRows (randy, count, 500);
+			boolean [] seqs = new boolean [count];
+			for (int seqI = 0; seqI < count; seqI++)
+				seqs[seqI] = randy.nextBoolean ();
+			for (int colI = 0; colI < 500; colI++) {
+				assertEquals (expected (tables, rows, colI, null), kernel
+						.entropy (rows, colI, null), 0);
+				assertEquals (expected (tables, rows, colI, seqs), kernel
+						.entropy (rows, colI, seqs), 0);
+			}
+		}
+		assertTrue (kernel.getHits () > 0);
+	}
+
+	public void testTooManyRowsToPack () {
+		Random randy = new Random (17);
+		SimilarityIndex tables = tables ();
+		EntropyKernel kernel = new EntropyKernel (tables);
+		byte [][] rows = randomRows (randy, EntropyKernel.MAX_ROWS + 10, 3);
+		for (int colI = 0; colI < 3; colI++)
+			assertEquals (expected (tables, rows, colI, null), kernel.entropy (
+					rows, colI, null), 0);
+	}
+}
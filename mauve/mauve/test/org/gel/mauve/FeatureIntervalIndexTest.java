@@ -0,0 +1,150 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.seq.ComponentFeature;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.FeatureFilter;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.SequenceIterator;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.seq.impl.SimpleSequence;
+import org.biojava.bio.seq.io.SimpleAssemblyBuilder;
+import org.biojava.bio.symbol.Location;
+import org.biojava.bio.symbol.LocationTools;
+import org.biojava.bio.symbol.RangeLocation;
+import org.gel.mauve.format.SupportedFormatFactory;
+
+public class FeatureIntervalIndexTest extends TestCase {
+	/** returns a sequence of random features, some of them split */
+	static Sequence randomFeatures (Random randy, int count, int length)
+			throws Exception {
+		Sequence seq = new SimpleSequence (DNATools.createDNA (""), "s", "s",
+				null);
+		StrandedFeature.Template ft = new StrandedFeature.Template ();
+		ft.type = "CDS";
+		ft.source = "test";
+		ft.strand = StrandedFeature.POSITIVE;
+		ft.annotation = null;
+		for (int fI = 0; fI < count; fI++) {
+			int min = 1 + randy.nextInt (length);
+			int max = Math.min (length, min + randy.nextInt (randy
+					.nextInt (10) == 0 ? 5000 : 300));
+			ft.location = new RangeLocation (min, max);
+			if (randy.nextInt (8) == 0 && max - min > 10) {
+				int gap = min + 1 + randy.nextInt (max - min - 2);
+				ft.location = LocationTools.union (new RangeLocation (min,
+						gap - 1), new RangeLocation (gap + 1, max));
+			}
+			ft.annotation = new org.biojava.bio.SimpleAnnotation ();
+			ft.annotation.setProperty ("id", new Integer (fI));
+			seq.createFeature (ft);
+		}
+		return seq;
+	}
+
+	static List describe (Iterator fI) {
+		ArrayList desc = new ArrayList ();
+		while (fI.hasNext ()) {
+			Feature f = (Feature) fI.next ();
+			desc.add (f.getType () + " " + f.getLocation () + " "
+					+ f.getAnnotation ().asMap ());
+		}
+		Collections.sort (desc);
+		return desc;
+	}
+
+	public void testMatchesFilter () throws Exception {
+		Random randy = new Random (17);
+		for (int trialI = 0; trialI < 20; trialI++) {
+			int length = 1000 + randy.nextInt (100000);
+			Sequence seq = randomFeatures (randy, randy.nextInt (2000), length);
+			FeatureIntervalIndex index = new FeatureIntervalIndex (seq);
+			assertEquals (seq.countFeatures (), index.size ());
+			for (int queryI = 0; queryI < 100; queryI++) {
+				int min = randy.nextInt (length + 10) - 5;
+				int max = min + randy.nextInt (queryI % 10 == 0 ? 20000 : 200);
+				Location loc = new RangeLocation (min, max);
+				assertEquals (describe (seq.filter (
+						new FeatureFilter.OverlapsLocation (loc)).features ()),
+						describe (index.overlapping (min, max).iterator ()));
+				assertEquals (describe (seq.filter (
+						new FeatureFilter.ContainedByLocation (loc))
+						.features ()), describe (index.containedBy (min, max)
+						.iterator ()));
+			}
+		}
+	}
+
+	/** the nearest feature, found by looking at every feature */
+	static int distance (Feature f, int position) {
+		Location loc = f.getLocation ();
+		if (position < loc.getMin ())
+			return loc.getMin () - position;
+		return Math.max (0, position - loc.getMax ());
+	}
+
+	public void testNearest () throws Exception {
+		Random randy = new Random (19);
+		Sequence seq = randomFeatures (randy, 300, 200000);
+		FeatureIntervalIndex index = new FeatureIntervalIndex (seq);
+		for (int queryI = 0; queryI < 2000; queryI++) {
+			int position = randy.nextInt (200010) - 5;
+			int best = Integer.MAX_VALUE;
+			for (Iterator fI = seq.features (); fI.hasNext ();)
+				best = Math.min (best, distance ((Feature) fI.next (), position));
+			assertEquals (best, distance (index.nearest (position), position));
+		}
+		assertNull (new FeatureIntervalIndex (new SimpleSequence (DNATools
+				.createDNA (""), "s", "s", null)).nearest (5));
+	}
+
+	public void testLooksThroughContigs () throws Exception {
+		File file = new File ("testdata/S_cerevisiae_small.gbk");
+		SupportedFormat format = SupportedFormatFactory
+				.guessFormatFromFilename (file.getName ());
+		SimpleAssemblyBuilder b = new SimpleAssemblyBuilder ();
+		ComponentFeature.Template cft = new ComponentFeature.Template ();
+		cft.type = GenomeBuilder.MAUVE_AGGREGATE;
+		cft.strand = StrandedFeature.POSITIVE;
+		int start = 1;
+		for (SequenceIterator seqi = format.makeIterator (file); seqi
+				.hasNext ();) {
+			Sequence s = seqi.nextSequence ();
+			cft.componentSequence = s;
+			cft.location = new RangeLocation (start, start + s.length () - 1);
+			cft.componentLocation = new RangeLocation (1, s.length ());
+			b.addComponentSequence (cft);
+			start += s.length ();
+		}
+		Sequence assembly = b.makeSequence ();
+		FeatureIntervalIndex index = new FeatureIntervalIndex (assembly);
+		assertTrue (index.size () > 0);
+		Random randy = new Random (23);
+		for (int queryI = 0; queryI < 50; queryI++) {
+			int min = 1 + randy.nextInt (start - 1);
+			int max = Math.min (start - 1, min + randy.nextInt (5000));
+			FeatureHolder fh = assembly.filter (new FeatureFilter.And (
+					new FeatureFilter.OverlapsLocation (new RangeLocation (min,
+							max)), new FeatureFilter.Not (
+							new FeatureFilter.ByType (
+									GenomeBuilder.MAUVE_AGGREGATE))));
+			assertEquals (describe (fh.features ()), describe (index
+					.overlapping (min, max).iterator ()));
+		}
+		HashSet types = new HashSet ();
+		for (Iterator fI = index.features (); fI.hasNext ();)
+			types.add (((Feature) fI.next ()).getType ());
+		assertFalse (types.contains (GenomeBuilder.MAUVE_AGGREGATE));
+	}
+}
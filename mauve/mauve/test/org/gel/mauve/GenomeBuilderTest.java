@@ -0,0 +1,102 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.seq.ComponentFeature;
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.FeatureFilter;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.seq.Sequence;
+import org.gel.mauve.format.SupportedFormatFactory;
+
+public class GenomeBuilderTest extends TestCase {
+	static final File GENBANK = new File ("testdata/S_cerevisiae_small.gbk");
+
+	/** the total length of the two records of the GenBank file */
+	static final long LENGTH = 2000;
+
+	boolean use_cache;
+
+	protected void setUp () {
+		use_cache = ModelBuilder.getUseDiskCache ();
+		// delegating sequences read their records through the shared
+		// iterators of SequenceIteratorCache
+		ModelBuilder.setUseDiskCache (false);
+	}
+
+	protected void tearDown () {
+		ModelBuilder.setUseDiskCache (use_cache);
+	}
+
+	/**
+	 * builds a genome from the GenBank file and describes the features of
+	 * its records, reading the records in the given order
+	 */
+	static List build (int seqI, boolean backwards) {
+		SupportedFormat format = SupportedFormatFactory
+				.guessFormatFromFilename (GENBANK.getName ());
+		Genome g = GenomeBuilder.buildGenome (LENGTH, GENBANK, format, null,
+				-1, seqI);
+		Sequence seq = g.getAnnotationSequence ();
+		assertNotNull (seq);
+		List records = new ArrayList ();
+		FeatureHolder components = seq.filter (new FeatureFilter.ByType (
+				GenomeBuilder.MAUVE_AGGREGATE), false);
+		for (Iterator fI = components.features (); fI.hasNext ();)
+			records.add (((ComponentFeature) fI.next ()).getComponentSequence ());
+		assertEquals (2, records.size ());
+		if (backwards)
+			Collections.reverse (records);
+		List desc = new ArrayList ();
+		for (int recI = 0; recI < records.size (); recI++) {
+			Sequence rec = (Sequence) records.get (recI);
+			List features = new ArrayList ();
+			for (Iterator fI = rec.features (); fI.hasNext ();) {
+				Feature f = (Feature) fI.next ();
+				features.add (f.getType () + " " + f.getLocation () + " "
+						+ f.getAnnotation ().asMap ());
+			}
+			Collections.sort (features);
+			desc.add (rec.getName () + " " + features);
+		}
+		if (backwards)
+			Collections.reverse (desc);
+		return desc;
+	}
+
+	/**
+	 * two genomes built from one multi-record file on several threads read
+	 * their records through the same cached iterator, in clashing orders
+	 */
+	public void testConcurrentGenomesFromOneFile () throws Exception {
+		List expected = build (0, false);
+		assertEquals (2, expected.size ());
+		ExecutorService pool = Executors.newFixedThreadPool (4);
+		try {
+			List futures = new ArrayList ();
+			for (int taskI = 0; taskI < 16; taskI++) {
+				final int seqI = taskI % 2;
+				final boolean backwards = taskI % 4 >= 2;
+				futures.add (pool.submit (new Callable () {
+					public Object call () {
+						return build (seqI, backwards);
+					}
+				}));
+			}
+			for (int fI = 0; fI < futures.size (); fI++)
+				assertEquals (expected, ((Future) futures.get (fI)).get ());
+		} finally {
+			pool.shutdownNow ();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.gel.mauve;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class GenomeIntervalIndexTest extends TestCase {
+
+	/** the linear scan XMFAAlignment.getLCB used to do */
+	int scan (Match [] intervals, int seqI, long position) {
+		for (int ivI = 0; ivI < intervals.length; ivI++)
+			if (intervals[ivI].getStart (seqI) <= position
+					&& position <= intervals[ivI].getLength (seqI))
+				return ivI;
+		return -1;
+	}
+
+	/**
+	 * builds intervals tiling a genome in shuffled order, with some intervals
+	 * the genome is missing from
+	 */
+	Match [] randomIntervals (Random randy, int count, boolean overlap) {
+		Match [] intervals = new Match [count];
+		long left = 1;
+		for (int ivI = 0; ivI < count; ivI++) {
+			intervals[ivI] = new Match (1);
+			if (randy.nextInt (5) == 0)
+				continue; // genome missing, left and right stay 0
+			long len = 1 + randy.nextInt (100);
+			intervals[ivI].setStart (0, left);
+			intervals[ivI].setLength (0, left + len - 1);
+			left += len + randy.nextInt (3);
+			if (overlap && randy.nextInt (10) == 0)
+				left -= len / 2 + 1;
+		}
+		// shuffle to mimic the order of entries in a file
+		for (int ivI = count - 1; ivI > 0; ivI--) {
+			int swapI = randy.nextInt (ivI + 1);
+			Match tmp = intervals[ivI];
+			intervals[ivI] = intervals[swapI];
+			intervals[swapI] = tmp;
+		}
+		return intervals;
+	}
+
+	void checkIndex (Match [] intervals, Random randy) {
+		GenomeIntervalIndex index = new GenomeIntervalIndex (intervals, 0);
+		long [] positions = new long [1000];
+		for (int posI = 0; posI < positions.length; posI++)
+			positions[posI] = randy.nextInt (intervals.length * 60) - 2;
+		for (int posI = 0; posI < positions.length; posI++)
+			assertEquals (scan (intervals, 0, positions[posI]), index
+					.find (positions[posI]));
+		Arrays.sort (positions);
+		int [] found = index.find (positions);
+		for (int posI = 0; posI < positions.length; posI++)
+			assertEquals (scan (intervals, 0, positions[posI]), found[posI]);
+	}
+
+	public void testMatchesScan () {
+		Random randy = new Random (7);
+		for (int trialI = 0; trialI < 20; trialI++)
+			checkIndex (randomIntervals (randy, 1 + randy.nextInt (200), false),
+					randy);
+	}
+
+	public void testOverlappingIntervals () {
+		Random randy = new Random (11);
+		for (int trialI = 0; trialI < 20; trialI++)
+			checkIndex (randomIntervals (randy, 1 + randy.nextInt (200), true),
+					randy);
+	}
+}
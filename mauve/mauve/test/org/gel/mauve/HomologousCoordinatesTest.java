@@ -0,0 +1,99 @@
+package org.gel.mauve;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.gel.mauve.tree.ColumnIndex;
+
+public class HomologousCoordinatesTest extends TestCase {
+
+	/**
+	 * returns the position in gy aligned to pos in gx, found one position at
+	 * a time as getColumnCoordinates does, or 0 where gy has a gap or pos is
+	 * outside every LCB
+	 */
+	static long homolog (XMFAAlignment xmfa, Genome gx, long pos, Genome gy) {
+		long [] lcb_and_col;
+		try {
+			lcb_and_col = xmfa.getLCBAndColumn (gx, pos);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return 0;
+		}
+		int lcb = (int) lcb_and_col[0];
+		long column = lcb_and_col[1];
+		ColumnIndex ci = xmfa.getColumnIndex (lcb, gy.getSourceIndex ());
+		long seq_off = ci.columnToSeqPos (column);
+		if (column != ci.seqPosToColumn (seq_off))
+			return 0;
+		long coord = xmfa.LCBToGlobal (seq_off, gy, lcb);
+		return coord > gy.getLength () ? 0 : coord;
+	}
+
+	/** returns true if some LCB holds a position of a genome */
+	static boolean covered (XMFAAlignment xmfa, int seqI, long pos) {
+		for (int ivI = 0; ivI < xmfa.intervals.length; ivI++)
+			if (xmfa.intervals[ivI].getStart (seqI) != 0
+					&& xmfa.intervals[ivI].getStart (seqI) <= pos
+					&& pos <= xmfa.intervals[ivI].getLength (seqI))
+				return true;
+		return false;
+	}
+
+	/** returns every position of a genome of the given length */
+	static long [] positions (long length) {
+		long [] positions = new long [(int) length];
+		for (int posI = 0; posI < positions.length; posI++)
+			positions[posI] = posI + 1;
+		return positions;
+	}
+
+	public void testMatchesSinglePositions () throws IOException {
+		long [] lengths = new long [2];
+		XMFAAlignment xmfa = SimilarityEngineTest.loadGapped (lengths);
+		Genome [] genomes = new Genome [2];
+		for (int seqI = 0; seqI < genomes.length; seqI++)
+			genomes[seqI] = new Genome (lengths[seqI], null, seqI);
+		for (int x = 0; x < 2; x++) {
+			Genome gx = genomes[x];
+			Genome gy = genomes[1 - x];
+			long [] positions = positions (lengths[x]);
+			long [] coords = xmfa.getHomologousCoordinates (gx, positions, gy);
+			int outside = 0;
+			int gapped = 0;
+			int reversed = 0;
+			for (int posI = 0; posI < positions.length; posI++) {
+				long expected = homolog (xmfa, gx, positions[posI], gy);
+				assertEquals (expected, coords[posI]);
+				if (!covered (xmfa, x, positions[posI]))
+					outside++;
+				else if (expected == 0)
+					gapped++;
+				else if (posI > 0 && coords[posI - 1] > expected)
+					reversed++;
+			}
+			assertTrue (outside > 0);
+			assertTrue (gapped > 0);
+			assertTrue (reversed > 0);
+		}
+	}
+
+	public void testModelMatchesSinglePositions () throws Exception {
+		long [] lengths = new long [2];
+		XmfaViewerModel model = new XmfaViewerModel (SimilarityEngineTest
+				.writeGapped (lengths, true), null);
+		for (int x = 0; x < 2; x++) {
+			long [] positions = positions (lengths[x]);
+			long [] coords = model.getHomologousCoordinates (x, positions, 1 - x);
+			int unaligned = 0;
+			for (int posI = 0; posI < positions.length; posI++) {
+				long expected = model.getHomologousCoordinate (x,
+						positions[posI], 1 - x);
+				assertEquals (expected, coords[posI]);
+				if (expected == 0)
+					unaligned++;
+			}
+			assertTrue (unaligned > 0);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package org.gel.mauve;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.gel.mauve.tree.ColumnIndex;
+
+public class ParallelXmfaParserTest extends TestCase {
+	int threads;
+
+	long lazy_bytes;
+
+	protected void setUp () {
+		threads = XMFAAlignment.getParseThreads ();
+		lazy_bytes = XMFAAlignment.getLazyIndexBytes ();
+	}
+
+	protected void tearDown () {
+		XMFAAlignment.setParseThreads (threads);
+		XMFAAlignment.setLazyIndexBytes (lazy_bytes);
+	}
+
+	/**
+	 * writes an alignment of three genomes in entries of 100000 to 400000
+	 * columns, about 10MB in all, so that entries straddle the batches of the
+	 * parallel parser. Entries leave out genomes, reverse them and hold rows
+	 * that are all gap; with empty true some rows also have no data at all.
+	 */
+	static File writeAlignment (boolean empty) throws IOException {
+		Random randy = new Random (17);
+		File f = File.createTempFile ("parallel", ".xmfa");
+		f.deleteOnExit ();
+		BufferedWriter w = new BufferedWriter (new FileWriter (f));
+		w.write ("#FormatVersion Mauve1\n");
+		for (int seqI = 0; seqI < 3; seqI++)
+			w.write ("#Sequence" + (seqI + 1) + "File\tgenome" + seqI
+					+ ".fas\n");
+		long [] next = { 1, 1, 1 };
+		for (int ivI = 0; ivI < 14; ivI++) {
+			int columns = 100000 + randy.nextInt (300000);
+			for (int seqI = 0; seqI < 3; seqI++) {
+				// the first entry holds every genome, as it names them
+				if (ivI > 0 && randy.nextInt (5) == 0)
+					continue;
+				StringBuffer row = new StringBuffer ();
+				int kind = ivI > 0 ? randy.nextInt (8) : 7;
+				// kind 0 is a row without data, when those are wanted
+				if (kind != 0 || !empty)
+					for (int colI = 0; colI < columns; colI++)
+						row.append (kind == 1 || randy.nextInt (4) == 0 ? '-'
+								: "ACGT".charAt (randy.nextInt (4)));
+				int residues = AlignmentColumnCursorTest.residues (row
+						.toString ());
+				long left = residues > 0 ? next[seqI] : 0;
+				long right = residues > 0 ? next[seqI] + residues - 1 : 0;
+				next[seqI] += residues;
+				w.write ("> " + (seqI + 1) + ":" + left + "-" + right
+						+ (kind == 2 ? " - " : " + ") + "genome" + seqI
+						+ ".fas\n");
+				for (int colI = 0; colI < row.length (); colI += 80)
+					w.write (row.substring (colI, Math.min (colI + 80, row
+							.length ()))
+							+ "\n");
+			}
+			w.write ("= score=" + randy.nextInt (100000) + "\n");
+		}
+		w.close ();
+		return f;
+	}
+
+	/** parses a file with the given threads and lazy index budget */
+	static XMFAAlignment parse (File f, int threads, long lazy_bytes)
+			throws IOException {
+		XMFAAlignment.setParseThreads (threads);
+		XMFAAlignment.setLazyIndexBytes (lazy_bytes);
+		return new XMFAAlignment (new RandomAccessFile (f, "r"));
+	}
+
+	/**
+	 * describes everything a parse produces: intervals, row file offsets,
+	 * LCBs, column indexes, names, comments and metadata
+	 */
+	static String describe (XMFAAlignment x) {
+		StringBuffer sb = new StringBuffer ();
+		sb.append ("seqs " + x.seq_count + " names");
+		for (int seqI = 0; seqI < x.names.length; seqI++)
+			sb.append (" " + x.getName (seqI));
+		sb.append ("\nmetadata " + new TreeMap (x.metadata) + "\n");
+		for (int seqI = 0; seqI < x.seq_count; seqI++)
+			sb.append ("length " + seqI + " " + x.seq_length[seqI] + "\n");
+		for (int ivI = 0; ivI < x.intervals.length; ivI++) {
+			sb.append ("iv " + ivI + " columns " + x.getLcbLength (ivI)
+					+ " comment " + x.getComment (ivI) + "\n");
+			for (int seqI = 0; seqI < x.seq_count; seqI++) {
+				Match iv = x.intervals[ivI];
+				sb.append (" row " + seqI + " " + iv.getStart (seqI) + "-"
+						+ iv.getLength (seqI) + (iv.getReverse (seqI) ? "r" : "f")
+						+ " at " + x.file_pos[ivI].getStart (seqI) + "-"
+						+ x.file_pos[ivI].getLength (seqI) + " runs");
+				ColumnIndex ci = x.getColumnIndex (ivI, seqI);
+				for (int runI = 0; runI < ci.runCount (); runI++)
+					sb.append (" " + ci.getStart (runI) + ":"
+							+ ci.getSequenceStart (runI) + ":"
+							+ ci.getLength (runI) + ":" + ci.getOffset (runI));
+				sb.append ("\n");
+			}
+		}
+		for (int lcbI = 0; lcbI < x.lcb_list.length; lcbI++) {
+			LCB lcb = x.lcb_list[lcbI];
+			sb.append ("lcb " + lcb.id + " weight " + lcb.weight);
+			for (int seqI = 0; seqI < x.seq_count; seqI++) {
+				Genome g = new Genome (0, null, seqI);
+				sb.append (" " + lcb.getLeftEnd (g) + "-" + lcb.getRightEnd (g)
+						+ (lcb.getReverse (g) ? "r" : "f") + " adj "
+						+ lcb.getLeftAdjacency (g) + "," + lcb.getRightAdjacency (g));
+			}
+			sb.append ("\n");
+		}
+		return sb.toString ();
+	}
+
+	/** checks that parallel eager and lazy parses match a sequential one */
+	void checkMatchesSequential (File f) throws IOException {
+		String serial = describe (parse (f, 1, 0));
+		assertEquals (serial, describe (parse (f, 4, 0)));
+		assertEquals (serial, describe (parse (f, 4, 1024 * 1024)));
+		assertEquals (serial, describe (parse (f, 1, 1024 * 1024)));
+	}
+
+	public void testSmallAlignment () throws IOException {
+		checkMatchesSequential (new File ("testdata/small.alignment"));
+	}
+
+	public void testBatchedAlignment () throws IOException {
+		File f = writeAlignment (false);
+		XMFAAlignment x = parse (f, 4, 0);
+		boolean straddles = false;
+		for (int ivI = 0; ivI < x.intervals.length; ivI++) {
+			long first = Long.MAX_VALUE;
+			long last = 0;
+			for (int seqI = 0; seqI < x.seq_count; seqI++) {
+				if (x.file_pos[ivI].getStart (seqI) > 0)
+					first = Math.min (first, x.file_pos[ivI].getStart (seqI));
+				last = Math.max (last, x.file_pos[ivI].getLength (seqI));
+			}
+			straddles |= first < ParallelXmfaParser.BATCH_BYTES
+					&& last > ParallelXmfaParser.BATCH_BYTES;
+		}
+		assertTrue (f.length () > 2 * ParallelXmfaParser.BATCH_BYTES);
+		assertTrue (straddles);
+		checkMatchesSequential (f);
+	}
+
+	/**
+	 * the sequential parser can't read rows without data, so rows the
+	 * parallel parser marks -1 are checked between its eager and lazy modes
+	 */
+	public void testRowsWithoutData () throws IOException {
+		File f = writeAlignment (true);
+		XMFAAlignment x = parse (f, 4, 0);
+		String eager = describe (x);
+		int empty = 0;
+		for (int ivI = 0; ivI < x.intervals.length; ivI++)
+			for (int seqI = 0; seqI < x.seq_count; seqI++)
+				if (x.file_pos[ivI].getStart (seqI) == -1) {
+					empty++;
+					assertEquals (0, x.getColumnIndex (ivI, seqI).length ());
+				}
+		assertTrue (empty > 0);
+		assertEquals (eager, describe (parse (f, 4, 1024 * 1024)));
+		assertEquals (eager, describe (parse (f, 1, 1024 * 1024)));
+	}
+}
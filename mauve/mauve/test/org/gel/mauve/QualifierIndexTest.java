@@ -0,0 +1,135 @@
+package org.gel.mauve;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.SimpleAnnotation;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.seq.impl.SimpleSequence;
+import org.biojava.bio.symbol.RangeLocation;
+import org.gel.mauve.gui.navigation.NavigationPanel;
+
+public class QualifierIndexTest extends TestCase {
+	static final String [] WORDS = { "dnaA", "dnaB", "gyrA", "recA", "DNA",
+			"polymerase", "subunit", "ABC", "transporter", "hypothetical",
+			"protein", "x", "" };
+
+	static String randomValue (Random randy) {
+		StringBuffer sb = new StringBuffer ();
+		for (int i = randy.nextInt (4); i >= 0; i--) {
+			if (sb.length () > 0)
+				sb.append (' ');
+			sb.append (WORDS[randy.nextInt (WORDS.length)]);
+		}
+		return sb.toString ();
+	}
+
+	/** returns features with scalar, list and numeric qualifiers */
+	static Sequence randomFeatures (Random randy, int count) throws Exception {
+		Sequence seq = new SimpleSequence (DNATools.createDNA ("acgt"), "s",
+				"s", null);
+		StrandedFeature.Template ft = new StrandedFeature.Template ();
+		ft.type = "CDS";
+		ft.source = "test";
+		ft.strand = StrandedFeature.POSITIVE;
+		for (int fI = 0; fI < count; fI++) {
+			ft.location = new RangeLocation (1 + randy.nextInt (4), 4);
+			ft.annotation = new SimpleAnnotation ();
+			if (randy.nextBoolean ())
+				ft.annotation.setProperty ("gene", randomValue (randy));
+			if (randy.nextBoolean ())
+				ft.annotation.setProperty ("locus_tag", "b" + randy.nextInt (50));
+			if (randy.nextInt (3) == 0) {
+				ArrayList notes = new ArrayList ();
+				for (int i = randy.nextInt (3); i >= 0; i--)
+					notes.add (randomValue (randy));
+				ft.annotation.setProperty ("product", notes);
+			} else if (randy.nextBoolean ())
+				ft.annotation.setProperty ("product", randomValue (randy));
+			if (randy.nextInt (5) == 0)
+				ft.annotation.setProperty ("codon_start", new Integer (randy
+						.nextInt (3)));
+			seq.createFeature (ft);
+		}
+		return seq;
+	}
+
+	static final String [] FIELDS = { "gene", "locus_tag", "product",
+			"gene/locus_tag", "codon_start", "note" };
+
+	static List describe (Iterator fI) {
+		ArrayList desc = new ArrayList ();
+		while (fI.hasNext ()) {
+			Feature f = (Feature) fI.next ();
+			desc.add (f.getLocation () + " " + f.getAnnotation ().asMap ());
+		}
+		Collections.sort (desc);
+		return desc;
+	}
+
+	public void testMatchesFilter () throws Exception {
+		Random randy = new Random (29);
+		Sequence seq = randomFeatures (randy, 2000);
+		QualifierIndex index = new QualifierIndex (new FeatureIntervalIndex (
+				seq));
+		assertEquals (2000, index.size ());
+		int matched = 0;
+		for (int queryI = 0; queryI < 300; queryI++) {
+			String [][] data = new String [1 + randy.nextInt (2)] [3];
+			for (int i = 0; i < data.length; i++) {
+				data[i][NavigationPanel.FIELD] = FIELDS[randy
+						.nextInt (FIELDS.length)];
+				String value = randomValue (randy);
+				if (randy.nextBoolean () && value.length () > 2) {
+					int from = randy.nextInt (value.length ());
+					value = value.substring (from, from
+							+ randy.nextInt (value.length () - from + 1));
+				}
+				if (randy.nextInt (10) == 0)
+					value = String.valueOf (randy.nextInt (60));
+				data[i][NavigationPanel.VALUE] = value;
+				data[i][NavigationPanel.EXACT] = String.valueOf (randy
+						.nextBoolean ());
+			}
+			BitSet found = SeqFeatureData.findFeatures (index, data);
+			ArrayList indexed = new ArrayList ();
+			for (int j = found.nextSetBit (0); j >= 0; j = found
+					.nextSetBit (j + 1))
+				indexed.add (index.getFeature (j));
+			assertEquals (describe (seq.filter (SeqFeatureData.getFilter (data),
+					true).features ()), describe (indexed.iterator ()));
+			if (indexed.size () > 0)
+				matched++;
+		}
+		assertTrue (matched > 50);
+	}
+
+	public void testPrefix () throws Exception {
+		Random randy = new Random (31);
+		Sequence seq = randomFeatures (randy, 500);
+		QualifierIndex index = new QualifierIndex (new FeatureIntervalIndex (
+				seq));
+		String [] prefixes = { "dna", "DNA", "b1", "b", "", "zzz" };
+		for (int i = 0; i < prefixes.length; i++) {
+			BitSet found = index.find ("gene", prefixes[i],
+					QualifierIndex.PREFIX);
+			for (int j = 0; j < index.size (); j++) {
+				Feature f = index.getFeature (j);
+				boolean expected = f.getAnnotation ().containsProperty ("gene")
+						&& ((String) f.getAnnotation ().getProperty ("gene"))
+								.toLowerCase ().startsWith (
+										prefixes[i].toLowerCase ());
+				assertEquals (expected, found.get (j));
+			}
+		}
+	}
+}
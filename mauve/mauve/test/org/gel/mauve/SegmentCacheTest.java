@@ -0,0 +1,48 @@
+package org.gel.mauve;
+
+import junit.framework.TestCase;
+
+public class SegmentCacheTest extends TestCase {
+
+	static final int BLOCK = 100 + SegmentCache.BLOCK_OVERHEAD;
+
+	public void testEvictsLeastRecentlyUsed () {
+		SegmentCache cache = new SegmentCache (BLOCK * 3);
+		byte [] first = new byte [100];
+		cache.put (0, 0, 0, first);
+		cache.put (0, 0, 1, new byte [100]);
+		cache.put (0, 1, 0, new byte [100]);
+		assertEquals (3, cache.size ());
+
+		// touch the oldest block so the second becomes least recently used
+		assertSame (first, cache.get (0, 0, 0));
+		cache.put (1, 0, 0, new byte [100]);
+		assertEquals (3, cache.size ());
+		assertNull (cache.get (0, 0, 1));
+		assertNotNull (cache.get (0, 0, 0));
+		assertEquals (1, cache.getEvictions ());
+		assertEquals (2, cache.getHits ());
+		assertEquals (1, cache.getMisses ());
+		assertTrue (cache.getBytes () <= cache.getMaxBytes ());
+	}
+
+	public void testKeysAreDistinct () {
+		SegmentCache cache = new SegmentCache (BLOCK * 10);
+		cache.put (1, 2, 3, new byte [] { 1 });
+		cache.put (2, 1, 3, new byte [] { 2 });
+		cache.put (3, 2, 1, new byte [] { 3 });
+		assertEquals (1, cache.get (1, 2, 3)[0]);
+		assertEquals (2, cache.get (2, 1, 3)[0]);
+		assertEquals (3, cache.get (3, 2, 1)[0]);
+		assertNull (cache.get (1, 3, 2));
+	}
+
+	public void testKeepsNewestBlock () {
+		SegmentCache cache = new SegmentCache (1);
+		cache.put (0, 0, 0, new byte [100]);
+		cache.put (0, 0, 1, new byte [100]);
+		assertEquals (1, cache.size ());
+		assertNotNull (cache.get (0, 0, 1));
+		assertNull (cache.get (0, 0, 0));
+	}
+}
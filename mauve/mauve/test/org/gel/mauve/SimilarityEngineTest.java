@@ -0,0 +1,213 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.gel.mauve.backbone.Backbone;
+import org.gel.mauve.backbone.BackboneList;
+import org.gel.mauve.tree.ColumnIndex;
+
+public class SimilarityEngineTest extends TestCase {
+
+	static Genome [] genomes () {
+		String [] rows = AlignmentColumnCursorTest.rows ();
+		Genome [] genomes = new Genome [2];
+		for (int seqI = 0; seqI < genomes.length; seqI++)
+			genomes[seqI] = new Genome (AlignmentColumnCursorTest
+					.residues (rows[seqI]), null, seqI);
+		return genomes;
+	}
+
+	/**
+	 * writes three LCBs of two genomes, the middle one reversed in the
+	 * second, with unaligned stretches of each genome before, between and
+	 * after them; the genome lengths go in lengths. When covered is true each
+	 * stretch is written as an LCB of its genome alone, as progressiveMauve
+	 * does, otherwise no LCB covers it.
+	 */
+	public static File writeGapped (long [] lengths, boolean covered)
+			throws IOException {
+		Random randy = new Random (11);
+		File f = File.createTempFile ("gapped", ".xmfa");
+		f.deleteOnExit ();
+		FileWriter w = new FileWriter (f);
+		w.write ("#FormatVersion Mauve1\n");
+		long [] next = { 1, 1 };
+		for (int ivI = 0; ivI <= 3; ivI++) {
+			long [] lefts = new long [2];
+			String [] rows = new String [2];
+			for (int seqI = 0; seqI < 2; seqI++) {
+				lefts[seqI] = next[seqI] + (ivI < 3 ? 3000 : 2500) + 1000
+						* seqI;
+				rows[seqI] = ivI < 3 ? row (randy, 6000, true) : "";
+			}
+			// an LCB of both genomes comes first, as it sets the genome count
+			if (ivI < 3)
+				writeInterval (w, rows, new int [] { 0, 1 }, lefts, ivI == 1);
+			for (int seqI = 0; seqI < 2; seqI++) {
+				if (covered)
+					writeInterval (w, new String [] { row (randy, lefts[seqI]
+							- next[seqI], false) }, new int [] { seqI },
+							new long [] { next[seqI] }, false);
+				next[seqI] = lefts[seqI]
+						+ AlignmentColumnCursorTest.residues (rows[seqI]);
+			}
+		}
+		w.close ();
+		lengths[0] = next[0] - 1;
+		lengths[1] = next[1] - 1;
+		return f;
+	}
+
+	/** returns a random row of residues, a quarter of them gaps if gapped */
+	static String row (Random randy, long len, boolean gapped) {
+		StringBuffer row = new StringBuffer ();
+		for (int colI = 0; colI < len; colI++)
+			row.append (gapped && randy.nextInt (4) == 0 ? '-' : "ACGT"
+					.charAt (randy.nextInt (4)));
+		return row.toString ();
+	}
+
+	/**
+	 * writes one LCB of the given genomes, the last one reversed if reverse
+	 * is true
+	 */
+	static void writeInterval (FileWriter w, String [] rows, int [] seqs,
+			long [] lefts, boolean reverse) throws IOException {
+		for (int rowI = 0; rowI < rows.length; rowI++) {
+			long right = lefts[rowI]
+					+ AlignmentColumnCursorTest.residues (rows[rowI]) - 1;
+			w.write ("> " + (seqs[rowI] + 1) + ":" + lefts[rowI] + "-" + right
+					+ (reverse && rowI == rows.length - 1 ? " - " : " + ")
+					+ "seq" + seqs[rowI] + "\n");
+			for (int colI = 0; colI < rows[rowI].length (); colI += 80)
+				w.write (rows[rowI].substring (colI, Math.min (colI + 80,
+						rows[rowI].length ()))
+						+ "\n");
+		}
+		w.write ("=\n");
+	}
+
+	static XMFAAlignment loadGapped (long [] lengths) throws IOException {
+		return new XMFAAlignment (new RandomAccessFile (writeGapped (lengths,
+				false), "r"));
+	}
+
+	public void testMatchesPerGenomeIndexes () throws IOException {
+		XMFAAlignment xmfa = AlignmentColumnCursorTest.load ();
+		Genome [] genomes = genomes ();
+		SimilarityEngine engine = new SimilarityEngine (xmfa, null, genomes);
+		for (int ivI = 0; ivI < engine.getIntervalCount (); ivI++)
+			engine.addInterval (ivI);
+		engine.finish ();
+		for (int seqI = 0; seqI < genomes.length; seqI++) {
+			SimilarityIndex expected = new SimilarityIndex (genomes[seqI], xmfa,
+					null);
+			SimilarityIndex actual = engine.getIndexes ()[seqI];
+			assertTrue (actual.getLevelSize (0) > 0);
+			assertEquals (expected, actual);
+		}
+	}
+
+	public void testRefinesSampledIndexes () throws IOException {
+		XMFAAlignment xmfa = AlignmentColumnCursorTest.load ();
+		Genome [] genomes = genomes ();
+		SimilarityEngine full = new SimilarityEngine (xmfa, null, genomes);
+		full.addInterval (0);
+		full.finish ();
+		SimilarityEngine engine = new SimilarityEngine (xmfa, null, genomes);
+		engine.sampleInterval (0);
+		engine.finishSamples ();
+		engine.addInterval (0);
+		engine.refreshLevels (0);
+		engine.finish ();
+		for (int seqI = 0; seqI < genomes.length; seqI++)
+			assertEquals (full.getIndexes ()[seqI], engine.getIndexes ()[seqI]);
+	}
+
+	public void testRefinesSampledIndexesWithUnalignedStretches ()
+			throws IOException {
+		long [] lengths = new long [2];
+		XMFAAlignment xmfa = loadGapped (lengths);
+		Genome [] genomes = new Genome [2];
+		for (int seqI = 0; seqI < genomes.length; seqI++)
+			genomes[seqI] = new Genome (lengths[seqI], null, seqI);
+		SimilarityEngine full = new SimilarityEngine (xmfa, null, genomes);
+		for (int ivI = 0; ivI < full.getIntervalCount (); ivI++)
+			full.addInterval (ivI);
+		full.finish ();
+		SimilarityEngine engine = new SimilarityEngine (xmfa, null, genomes);
+		for (int ivI = 0; ivI < engine.getIntervalCount (); ivI++)
+			engine.sampleInterval (ivI);
+		engine.finishSamples ();
+		for (int ivI = 0; ivI < engine.getIntervalCount (); ivI++) {
+			engine.addInterval (ivI);
+			engine.refreshLevels (ivI);
+		}
+		engine.finish ();
+		for (int seqI = 0; seqI < genomes.length; seqI++)
+			assertEquals (full.getIndexes ()[seqI], engine.getIndexes ()[seqI]);
+	}
+
+	/**
+	 * A backbone segment of both genomes covers columns 1-5, and the second
+	 * genome has a gap in column 5. Its right end in that genome, the
+	 * position aligned to column 5, is then the residue after the gap, in
+	 * column 6 outside the segment. Columns are matched to the segment by
+	 * column, so that residue counts as outside backbone.
+	 */
+	public void testBackboneSegmentEndingInGap () throws IOException {
+		File f = File.createTempFile ("backbone", ".xmfa");
+		f.deleteOnExit ();
+		FileWriter w = new FileWriter (f);
+		w.write ("#FormatVersion Mauve1\n");
+		writeInterval (w, new String [] { "AAAAAAAAAAA", "AAAA-AAAAAA" },
+				new int [] { 0, 1 }, new long [] { 1, 1 }, false);
+		w.close ();
+		XMFAAlignment xmfa = new XMFAAlignment (new RandomAccessFile (f, "r"));
+		Genome [] genomes = { new Genome (11, null, 0),
+				new Genome (10, null, 1) };
+
+		// the ends BackboneListBuilder finds for the segment
+		ColumnIndex ci = xmfa.getColumnIndex (0, 1);
+		assertEquals (5, xmfa.LCBToGlobal (ci.columnToSeqPos (4), genomes[1], 0));
+		Backbone bb = new Backbone ();
+		bb.setLcbIndex (0);
+		bb.setLeftColumn (0);
+		bb.setLength (5);
+		bb.setSeqs (new boolean [] { true, true });
+		bb.setLeftEnd (new long [] { 1, 1 });
+		bb.setRightEnd (new long [] { 5, 5 });
+		BackboneList bb_list = new BackboneList ();
+		bb_list.setXmfa (xmfa);
+		bb_list.setBackbone (new Backbone [] { bb });
+		Vector seq_bb = new Vector ();
+		seq_bb.add (new Backbone [] { bb });
+		seq_bb.add (new Backbone [] { bb });
+		bb_list.setSeqBackbone (seq_bb);
+
+		SimilarityEngine engine = new SimilarityEngine (xmfa, bb_list, genomes);
+		engine.addInterval (0);
+		engine.finish ();
+		SimilarityIndex index = engine.getIndexes ()[1];
+		assertEquals (5, index.getMaxResolution ());
+		assertEquals (2, index.getLevelSize (0));
+		// positions 1-4 match in backbone, entropy 0, and position 5 is
+		// outside it, entropy 1: (1 - 0.2 - 0.5) * 255 = 76.5
+		assertEquals (76, index.getValue (0));
+		// the last window, positions 5-9, is all outside backbone: (1 - 1 - 0.5) * 255 = -127.5
+		assertEquals (-128, index.getValue (1));
+		// the per-genome build looked segments up by position, and counted
+		// position 5 as backbone: 127 and (1 - 0.8 - 0.5) * 255 = -76.5
+		SimilarityIndex by_position = new SimilarityIndex (genomes[1], xmfa,
+				bb_list);
+		assertEquals (127, by_position.getValue (0));
+		assertEquals (-76, by_position.getValue (1));
+	}
+}
@@ -0,0 +1,203 @@
+package org.gel.mauve;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the table driven similarity kernel with the per-genome
+ * SimilarityIndex implementation. Three things are timed on each alignment:
+ * building every genome's index one genome at a time, building them all at
+ * once with a SimilarityEngine, and the column entropy kernel alone on rows
+ * already read into memory, decoding characters through char_map versus
+ * summing packed counts with an EntropyKernel. Each is run a few times
+ * untimed first so the JIT has compiled it.
+ * <p>
+ * Usage: SimilarityKernelBenchmark [alignment ...]
+ * <p>
+ * With no arguments the benchmark runs on testdata/small.alignment and on a
+ * synthetic 50 genome alignment of 10 LCBs of 20000 columns each. The
+ * synthetic alignment's size can be set with the system properties
+ * bench.genomes, bench.lcbs and bench.columns, and the number of runs with
+ * bench.warmup and bench.iterations.
+ */
+public class SimilarityKernelBenchmark {
+	static int warmup = Integer.getInteger ("bench.warmup", 2).intValue ();
+
+	static int iterations = Integer.getInteger ("bench.iterations", 5)
+			.intValue ();
+
+	public static void main (String [] args) throws IOException {
+		if (args.length == 0) {
+			int genomes = Integer.getInteger ("bench.genomes", 50).intValue ();
+			int lcbs = Integer.getInteger ("bench.lcbs", 10).intValue ();
+			int columns = Integer.getInteger ("bench.columns", 20000).intValue ();
+			File synthetic = File.createTempFile ("synthetic", ".xmfa");
+			synthetic.deleteOnExit ();
+			writeSynthetic (synthetic, genomes, lcbs, columns, new Random (50));
+			args = new String [] { "testdata/small.alignment",
+					synthetic.getPath () };
+		}
+		for (int i = 0; i < args.length; i++)
+			run (new File (args[i]));
+	}
+
+	/**
+	 * writes an alignment of mutated copies of a random ancestor, every genome
+	 * present in every LCB
+	 */
+	static void writeSynthetic (File f, int genomes, int lcbs, int columns,
+			Random randy) throws IOException {
+		BufferedWriter w = new BufferedWriter (new FileWriter (f));
+		w.write ("#FormatVersion Mauve1\n");
+		long [] lengths = new long [genomes];
+		char [] ancestor = new char [columns];
+		StringBuffer row = new StringBuffer (columns);
+		for (int lcbI = 0; lcbI < lcbs; lcbI++) {
+			for (int colI = 0; colI < columns; colI++)
+				ancestor[colI] = "ACGT".charAt (randy.nextInt (4));
+			for (int seqI = 0; seqI < genomes; seqI++) {
+				row.setLength (0);
+				int residues = 0;
+				for (int colI = 0; colI < columns; colI++) {
+					int r = randy.nextInt (100);
+					char c = ancestor[colI];
+					if (r < 5)
+						c = '-';
+					else if (r < 15)
+						c = "ACGT".charAt (randy.nextInt (4));
+					row.append (c);
+					if (c != '-')
+						residues++;
+				}
+				w.write ("> " + (seqI + 1) + ":" + (lengths[seqI] + 1) + "-"
+						+ (lengths[seqI] + residues) + " + genome" + seqI
+						+ "\n");
+				lengths[seqI] += residues;
+				for (int colI = 0; colI < columns; colI += 80)
+					w.write (row.substring (colI, Math.min (colI + 80, columns))
+							+ "\n");
+			}
+			w.write ("=\n");
+		}
+		w.close ();
+	}
+
+	static void run (File f) throws IOException {
+		XMFAAlignment xmfa = new XMFAAlignment (new RandomAccessFile (f, "r"));
+		Genome [] genomes = new Genome [xmfa.seq_count];
+		for (int seqI = 0; seqI < genomes.length; seqI++)
+			genomes[seqI] = new Genome (xmfa.seq_length[seqI], null, seqI);
+		long columns = 0;
+		for (int ivI = 0; ivI < xmfa.intervals.length; ivI++)
+			columns += xmfa.getLcbLength (ivI);
+		System.out.println (f.getName () + ": " + xmfa.seq_count + " genomes, "
+				+ xmfa.intervals.length + " LCBs, " + columns + " columns");
+
+		for (int i = 0; i < warmup; i++)
+			perGenome (xmfa, genomes);
+		long start = System.currentTimeMillis ();
+		for (int i = 0; i < iterations; i++)
+			perGenome (xmfa, genomes);
+		report ("per-genome SimilarityIndex", start);
+
+		for (int i = 0; i < warmup; i++)
+			engine (xmfa, genomes);
+		start = System.currentTimeMillis ();
+		for (int i = 0; i < iterations; i++)
+			engine (xmfa, genomes);
+		report ("SimilarityEngine", start);
+
+		byte [][][] rows = readRows (xmfa);
+		SimilarityIndex tables = new SimilarityIndex (0, 0, 5, new long [0],
+				new long [0], new byte [0]);
+		tables.calculateLog2Table ();
+		tables.calculateFracTable ();
+		double decoded = 0;
+		for (int i = 0; i < warmup; i++)
+			decoded = decodedKernel (tables, rows);
+		start = System.currentTimeMillis ();
+		for (int i = 0; i < iterations; i++)
+			decoded = decodedKernel (tables, rows);
+		report ("char_map kernel", start);
+
+		double packed = 0;
+		EntropyKernel kernel = null;
+		for (int i = 0; i < warmup; i++)
+			packed = packedKernel (kernel = new EntropyKernel (tables), rows);
+		start = System.currentTimeMillis ();
+		for (int i = 0; i < iterations; i++)
+			packed = packedKernel (kernel = new EntropyKernel (tables), rows);
+		report ("EntropyKernel", start);
+		System.out.println ("  entropy sums " + decoded + " and " + packed
+				+ ", " + kernel.getMisses () + " of "
+				+ (kernel.getHits () + kernel.getMisses ())
+				+ " columns computed");
+		System.out.println ();
+	}
+
+	static void report (String name, long start) {
+		long elapsed = System.currentTimeMillis () - start;
+		System.out.println ("  " + name + ": " + elapsed / iterations
+				+ " ms per run");
+	}
+
+	static void perGenome (XMFAAlignment xmfa, Genome [] genomes)
+			throws IOException {
+		for (int seqI = 0; seqI < genomes.length; seqI++)
+			new SimilarityIndex (genomes[seqI], xmfa, null);
+	}
+
+	static void engine (XMFAAlignment xmfa, Genome [] genomes) {
+		SimilarityEngine engine = new SimilarityEngine (xmfa, null, genomes);
+		for (int ivI = 0; ivI < engine.getIntervalCount (); ivI++)
+			engine.addInterval (ivI);
+		engine.finish ();
+	}
+
+	/** reads every LCB's rows without newlines */
+	static byte [][][] readRows (XMFAAlignment xmfa) {
+		byte [][][] rows = new byte [xmfa.intervals.length][][];
+		for (int ivI = 0; ivI < rows.length; ivI++) {
+			long length = xmfa.getLcbLength (ivI);
+			AlignmentColumnCursor cursor = new AlignmentColumnCursor (xmfa, ivI,
+					null, (int) length);
+			cursor.next ();
+			rows[ivI] = new byte [xmfa.seq_count][];
+			for (int seqI = 0; seqI < xmfa.seq_count; seqI++)
+				rows[ivI][seqI] = (byte []) cursor.getBlock (seqI).clone ();
+		}
+		return rows;
+	}
+
+	static double decodedKernel (SimilarityIndex tables, byte [][][] rows) {
+		int [] chars = new int [5];
+		double sum = 0;
+		for (int ivI = 0; ivI < rows.length; ivI++) {
+			byte [][] lcb = rows[ivI];
+			int length = lcb.length == 0 ? 0 : lcb[0].length;
+			for (int colI = 0; colI < length; colI++) {
+				Arrays.fill (chars, 0);
+				for (int seqI = 0; seqI < lcb.length; seqI++)
+					chars[SimilarityIndex.char_map[lcb[seqI][colI]]]++;
+				sum += tables.columnEntropy (chars);
+			}
+		}
+		return sum;
+	}
+
+	static double packedKernel (EntropyKernel kernel, byte [][][] rows) {
+		double sum = 0;
+		for (int ivI = 0; ivI < rows.length; ivI++) {
+			byte [][] lcb = rows[ivI];
+			int length = lcb.length == 0 ? 0 : lcb[0].length;
+			for (int colI = 0; colI < length; colI++)
+				sum += kernel.entropy (lcb, colI, null);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,81 @@
+package org.gel.mauve;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+public class XmfaIndexFileTest extends TestCase {
+	long lazy_bytes;
+
+	XMFAAlignment xmfa;
+
+	byte [] fingerprint;
+
+	File idx_file;
+
+	protected void setUp () throws IOException {
+		lazy_bytes = XMFAAlignment.getLazyIndexBytes ();
+		XMFAAlignment.setLazyIndexBytes (0);
+		File f = new File ("testdata/small.alignment");
+		xmfa = new XMFAAlignment (new RandomAccessFile (f, "r"));
+		fingerprint = ContentFingerprint.compute (xmfa.xmfa_file, f);
+		idx_file = File.createTempFile ("index", ".idx");
+	}
+
+	protected void tearDown () {
+		XMFAAlignment.setLazyIndexBytes (lazy_bytes);
+		idx_file.delete ();
+	}
+
+	public void testRoundTrip () throws IOException {
+		// longer than writeUTF can hold, and not all ASCII
+		StringBuffer note = new StringBuffer ();
+		while (note.length () < 100000)
+			note.append ("n\u00e9e ");
+		xmfa.metadata.setProperty ("Note", note.toString ());
+		String expected = ParallelXmfaParserTest.describe (xmfa);
+		XmfaIndexFile.write (xmfa, idx_file, fingerprint);
+
+		XMFAAlignment read = XmfaIndexFile.open (idx_file, xmfa.xmfa_file,
+				fingerprint);
+		assertNotNull (read);
+		assertEquals (note.toString (), read.metadata.getProperty ("Note"));
+		assertEquals (expected, ParallelXmfaParserTest.describe (read));
+		read.index_file.close ();
+	}
+
+	public void testRejectsOtherFingerprint () throws IOException {
+		XmfaIndexFile.write (xmfa, idx_file, fingerprint);
+		byte [] other = (byte []) fingerprint.clone ();
+		other[0] ^= 1;
+		assertNull (XmfaIndexFile.open (idx_file, xmfa.xmfa_file, other));
+	}
+
+	public void testRejectsOtherLength () throws IOException {
+		XmfaIndexFile.write (xmfa, idx_file, fingerprint);
+		File longer = File.createTempFile ("longer", ".xmfa");
+		try {
+			RandomAccessFile raf = new RandomAccessFile (longer, "rw");
+			raf.setLength (xmfa.xmfa_file.length () + 1);
+			assertNull (XmfaIndexFile.open (idx_file, new MappedXmfaSource (raf),
+					fingerprint));
+			raf.close ();
+		} finally {
+			longer.delete ();
+		}
+	}
+
+	public void testRejectsTruncatedIndex () throws IOException {
+		XmfaIndexFile.write (xmfa, idx_file, fingerprint);
+		RandomAccessFile raf = new RandomAccessFile (idx_file, "rw");
+		raf.setLength (XmfaIndexFile.HEADER_SIZE + 10);
+		raf.close ();
+		try {
+			XmfaIndexFile.open (idx_file, xmfa.xmfa_file, fingerprint);
+			fail ("a truncated index was opened");
+		} catch (IOException ioe) {
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.gel.mauve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+public class XmfaViewerModelTest extends TestCase {
+
+	public void testSimilarityEventsOnEventThread () throws Exception {
+		XmfaViewerModel model = new XmfaViewerModel (SimilarityEngineTest
+				.writeGapped (new long [2], true), null);
+		final List heard = new ArrayList ();
+		model.addSimilarityListener (new SimilarityListener () {
+			public void similarityChanged (ModelEvent evt) {
+				synchronized (heard) {
+					heard.add (Boolean.valueOf (SwingUtilities
+							.isEventDispatchThread ()));
+				}
+			}
+		});
+		// hold the event dispatch thread while events are fired
+		final CountDownLatch held = new CountDownLatch (1);
+		final CountDownLatch release = new CountDownLatch (1);
+		SwingUtilities.invokeLater (new Runnable () {
+			public void run () {
+				held.countDown ();
+				try {
+					release.await ();
+				} catch (InterruptedException ie) {
+				}
+			}
+		});
+		held.await ();
+		for (int i = 0; i < 10; i++)
+			model.fireSimilarityEvent ();
+		synchronized (heard) {
+			assertTrue (heard.isEmpty ());
+		}
+		release.countDown ();
+		SwingUtilities.invokeAndWait (new Runnable () {
+			public void run () {
+			}
+		});
+		synchronized (heard) {
+			assertEquals (1, heard.size ());
+			assertEquals (Boolean.TRUE, heard.get (0));
+		}
+		model.fireSimilarityEvent ();
+		SwingUtilities.invokeAndWait (new Runnable () {
+			public void run () {
+			}
+		});
+		synchronized (heard) {
+			assertEquals (2, heard.size ());
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.gel.mauve.analysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.gel.mauve.Chromosome;
+import org.gel.mauve.SimilarityEngineTest;
+import org.gel.mauve.XmfaViewerModel;
+
+public class LiftOverTest extends TestCase {
+	XmfaViewerModel model;
+
+	long [] lengths = new long [2];
+
+	protected void setUp () throws Exception {
+		model = new XmfaViewerModel (SimilarityEngineTest.writeGapped (
+				lengths, true), null);
+	}
+
+	/** the name of the only chromosome of a genome */
+	String chromosome (int seqI) {
+		return ((Chromosome) model.getGenomeBySourceIndex (seqI)
+				.getChromosomes ().get (0)).getName ();
+	}
+
+	/** lifts features over, the unmapped ones going to unmapped */
+	String lift (String features, int src, int dest, int format,
+			StringWriter unmapped) throws Exception {
+		StringWriter out = new StringWriter ();
+		BufferedWriter um = new BufferedWriter (unmapped);
+		new LiftOver (model, src, dest, format, 4).liftOver (
+				new BufferedReader (new StringReader (features)),
+				new BufferedWriter (out), um);
+		return out.toString ();
+	}
+
+	/**
+	 * lifts features from the first genome to the second and back, and
+	 * checks that every feature lifted over comes back unchanged
+	 */
+	void checkRoundTrip (String header, int format) throws Exception {
+		StringBuffer features = new StringBuffer (header + "\n");
+		for (long left = 1; left + 40 <= lengths[0]; left += 23) {
+			long right = left + 40;
+			if (format == LiftOver.BED)
+				features.append (chromosome (0) + "\t" + (left - 1) + "\t"
+						+ right + "\tf" + left + "\t0\t+\n");
+			else
+				features.append (chromosome (0) + "\ttest\tgene\t" + left
+						+ "\t" + right + "\t.\t+\t.\tID=f" + left + "\n");
+		}
+		StringWriter unmapped = new StringWriter ();
+		String lifted = lift (features.toString (), 0, 1, format, unmapped);
+		// some features land on the reversed LCB
+		assertTrue (lifted.matches ("(?s).*\t-[\t\n].*"));
+		assertTrue (unmapped.toString ().length () > 0);
+
+		StringBuffer kept = new StringBuffer ();
+		String [] lines = features.toString ().split ("\n");
+		String lost = "\n" + unmapped.toString ();
+		for (int lineI = 0; lineI < lines.length; lineI++)
+			if (lost.indexOf ("\n" + lines[lineI] + "\n") < 0)
+				kept.append (lines[lineI] + "\n");
+		assertTrue (kept.toString ().startsWith (header + "\n"));
+
+		StringWriter none = new StringWriter ();
+		assertEquals (kept.toString (), lift (lifted, 1, 0, format, none));
+		assertEquals ("", none.toString ());
+	}
+
+	public void testBedRoundTrip () throws Exception {
+		checkRoundTrip ("track name=test", LiftOver.BED);
+	}
+
+	public void testGffRoundTrip () throws Exception {
+		checkRoundTrip ("##gff-version 3", LiftOver.GFF);
+	}
+
+	public void testLiftsEndsToHomologs () throws Exception {
+		StringBuffer features = new StringBuffer ();
+		for (long left = 1; left + 40 <= lengths[0]; left += 101)
+			features.append (chromosome (0) + "\t" + (left - 1) + "\t"
+					+ (left + 40) + "\n");
+		StringWriter unmapped = new StringWriter ();
+		String [] lifted = lift (features.toString (), 0, 1, LiftOver.BED,
+				unmapped).split ("\n");
+		String [] lost = unmapped.toString ().split ("\n");
+		int liftI = 0;
+		int lostI = 0;
+		for (long left = 1; left + 40 <= lengths[0]; left += 101) {
+			long l = model.getHomologousCoordinate (0, left, 1);
+			long r = model.getHomologousCoordinate (0, left + 40, 1);
+			if (l == 0 || r == 0) {
+				assertEquals (chromosome (0) + "\t" + (left - 1) + "\t"
+						+ (left + 40), lost[lostI++]);
+				continue;
+			}
+			assertEquals (chromosome (1) + "\t" + (Math.min (l, r) - 1)
+					+ "\t" + Math.max (l, r), lifted[liftI++]);
+		}
+		assertEquals (lifted.length, liftI);
+		assertTrue (liftI > 0);
+		assertTrue (lostI > 0);
+	}
+}
@@ -0,0 +1,48 @@
+package org.gel.mauve.analysis;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.gel.mauve.XmfaViewerModel;
+
+public class SnpExporterTest extends TestCase {
+
+	/** writes one LCB of two genomes with the given rows */
+	static File write (String [] rows) throws IOException {
+		File f = File.createTempFile ("snps", ".xmfa");
+		f.deleteOnExit ();
+		FileWriter w = new FileWriter (f);
+		w.write ("#FormatVersion Mauve1\n");
+		for (int seqI = 0; seqI < rows.length; seqI++) {
+			int residues = rows[seqI].replaceAll ("-", "").length ();
+			w.write ("> " + (seqI + 1) + ":1-" + residues + " + genome"
+					+ seqI + ".fas\n" + rows[seqI] + "\n");
+		}
+		w.write ("=\n");
+		w.close ();
+		return f;
+	}
+
+	/**
+	 * SNPs after an all-gap column get the positions of their own column, not
+	 * those of the column before
+	 */
+	public void testPositionsAfterAllGapColumn () throws Exception {
+		XmfaViewerModel model = new XmfaViewerModel (write (new String [] {
+				"AC-GTAC", "AC-T-AG" }), null);
+		model.setReference (model.getGenomeBySourceIndex (0));
+		SNP [] snps = SnpExporter.getSNPs (model);
+		assertEquals (2, snps.length);
+		assertEquals ('G', snps[0].getChar (0));
+		assertEquals ('T', snps[0].getChar (1));
+		assertEquals (3, snps[0].getPos (0));
+		assertEquals (3, snps[0].getPos (1));
+		assertEquals ('C', snps[1].getChar (0));
+		assertEquals ('G', snps[1].getChar (1));
+		assertEquals (6, snps[1].getPos (0));
+		assertEquals (5, snps[1].getPos (1));
+	}
+}
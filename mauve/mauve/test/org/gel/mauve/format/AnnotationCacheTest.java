@@ -0,0 +1,165 @@
+package org.gel.mauve.format;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.BioException;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.seq.SequenceIterator;
+import org.biojava.bio.seq.StrandedFeature;
+import org.gel.mauve.AnalysisCache;
+import org.gel.mauve.FilterCacheSpec;
+import org.gel.mauve.SupportedFormat;
+
+public class AnnotationCacheTest extends TestCase {
+	File root;
+
+	AnalysisCache cache;
+
+	protected void setUp () throws IOException {
+		root = File.createTempFile ("cache", "test");
+		root.delete ();
+		cache = new AnalysisCache (root, Long.MAX_VALUE);
+	}
+
+	protected void tearDown () throws IOException {
+		cache.clear ();
+		new File (root, "cache.lock").delete ();
+		root.delete ();
+	}
+
+	static List readAll (SequenceIterator seqi) throws BioException {
+		ArrayList seqs = new ArrayList ();
+		while (seqi.hasNext ())
+			seqs.add (seqi.nextSequence ());
+		return seqs;
+	}
+
+	/** returns the features of a holder in a fixed order, as strings */
+	static List describe (FeatureHolder fh) {
+		ArrayList desc = new ArrayList ();
+		for (Iterator fI = fh.features (); fI.hasNext ();) {
+			StrandedFeature f = (StrandedFeature) fI.next ();
+			desc.add (f.getType () + " " + f.getStrand () + " "
+					+ f.getLocation () + " " + f.getAnnotation ().asMap ());
+		}
+		Collections.sort (desc);
+		return desc;
+	}
+
+	void assertRestored (File file) throws BioException {
+		SupportedFormat format = SupportedFormatFactory
+				.guessFormatFromFilename (file.getName ());
+		List parsed = readAll (format.makeIterator (file));
+		readAll (AnnotationCache.makeIterator (format, file, cache));
+		assertEquals (1, cache.getMisses ());
+		List restored = readAll (AnnotationCache.makeIterator (format, file,
+				cache));
+		assertEquals (1, cache.getHits ());
+		assertEquals (parsed.size (), restored.size ());
+		FilterCacheSpec [] specs = format.getFilterCacheSpecs ();
+		for (int seqI = 0; seqI < parsed.size (); seqI++) {
+			DelegatingSequence p = (DelegatingSequence) parsed.get (seqI);
+			DelegatingSequence r = (DelegatingSequence) restored.get (seqI);
+			assertEquals (p.getName (), r.getName ());
+			assertEquals (p.getURN (), r.getURN ());
+			assertEquals (p.countFeatures (), r.countFeatures ());
+			assertEquals (p.getAnnotation ().asMap (), r.getAnnotation ()
+					.asMap ());
+			assertSame (p.getAlphabet (), r.getAlphabet ());
+			assertEquals (p.length (), r.length ());
+			assertEquals (p.seqString (), r.seqString ());
+			assertEquals (p.subStr (3, 17), r.subStr (3, 17));
+			assertSame (p.symbolAt (5), r.symbolAt (5));
+			assertEquals (p.subList (10, 20).seqString (), r.subList (10, 20)
+					.seqString ());
+			for (int specI = 0; specI < specs.length; specI++) {
+				FeatureHolder pf = (FeatureHolder) p.filterCache
+						.get (specs[specI].filter);
+				FeatureHolder rf = (FeatureHolder) r.filterCache
+						.get (specs[specI].filter);
+				assertEquals (pf.countFeatures (), rf.countFeatures ());
+				assertEquals (describe (pf), describe (rf));
+				for (Iterator fI = rf.features (); fI.hasNext ();)
+					assertSame (r, ((StrandedFeature) fI.next ()).getSequence ());
+			}
+			assertEquals (format.getSequenceName (p), format
+					.getSequenceName (r));
+		}
+	}
+
+	public void testGenbankRestored () throws BioException {
+		assertRestored (new File ("testdata/S_cerevisiae_small.gbk"));
+	}
+
+	public void testFastaLeftToIndex () throws BioException {
+		File file = new File ("testdata/S_bayanus_small.fasta");
+		SupportedFormat format = SupportedFormatFactory
+				.guessFormatFromFilename (file.getName ());
+		readAll (AnnotationCache.makeIterator (format, file, cache));
+		assertEquals (0, cache.getMisses ());
+		assertEquals (0, cache.getHits ());
+	}
+
+	/**
+	 * edits a qualifier of a GenBank file too large to be fingerprinted in
+	 * full, keeping its length, and checks the edit is seen
+	 */
+	public void testLargeFileEditedInPlace () throws Exception {
+		File small = new File ("testdata/S_cerevisiae_small.gbk");
+		byte [] record = new byte [(int) small.length ()];
+		FileInputStream in = new FileInputStream (small);
+		in.read (record);
+		in.close ();
+		File file = File.createTempFile ("large", ".gbk");
+		try {
+			// 8 MB, so the fingerprint samples blocks over 100 KB apart
+			FileOutputStream out = new FileOutputStream (file);
+			for (long len = 0; len < 8 * 1024 * 1024; len += record.length)
+				out.write (record);
+			out.close ();
+			SupportedFormat format = SupportedFormatFactory
+					.guessFormatFromFilename (file.getName ());
+			readAll (AnnotationCache.makeIterator (format, file, cache));
+			assertEquals (1, cache.getMisses ());
+
+			// a gene name just past the first 64 KB block, in the first of
+			// the two records of a copy
+			String text = new String (record, "ISO-8859-1");
+			int copy = 70000 / record.length + 1;
+			int seqI = copy * 2;
+			List before = describe ((FeatureHolder) readAll (
+					format.makeIterator (file)).get (seqI));
+			long offset = (long) copy * record.length
+					+ text.indexOf ("/gene=\"TEL01L\"") + 7;
+			long modified = file.lastModified ();
+			RandomAccessFile raf = new RandomAccessFile (file, "rw");
+			raf.seek (offset);
+			raf.write ('X');
+			raf.close ();
+			// as an editor saving a moment later would
+			file.setLastModified (modified + 2000);
+
+			List after = readAll (AnnotationCache.makeIterator (format, file,
+					cache));
+			assertEquals (2, cache.getMisses ());
+			assertEquals (0, cache.getHits ());
+			List parsed = readAll (format.makeIterator (file));
+			assertEquals (describe ((FeatureHolder) parsed.get (seqI)),
+					describe ((FeatureHolder) after.get (seqI)));
+			assertFalse (before.equals (describe ((FeatureHolder) after
+					.get (seqI))));
+		} finally {
+			file.delete ();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.gel.mauve.format;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.BioException;
+import org.biojava.bio.seq.Sequence;
+import org.gel.mauve.AnalysisCache;
+
+public class FastaIndexTest extends TestCase {
+	File root;
+
+	AnalysisCache cache;
+
+	File file;
+
+	protected void setUp () throws IOException {
+		root = File.createTempFile ("cache", "test");
+		root.delete ();
+		cache = new AnalysisCache (root, Long.MAX_VALUE);
+		file = File.createTempFile ("index", ".fasta");
+	}
+
+	protected void tearDown () throws IOException {
+		cache.clear ();
+		new File (root, "cache.lock").delete ();
+		root.delete ();
+		file.delete ();
+	}
+
+	void write (String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream (file);
+		out.write (contents.getBytes ("ISO-8859-1"));
+		out.close ();
+	}
+
+	/**
+	 * returns records of random DNA with lines of random widths, blank lines
+	 * and the given line ending
+	 */
+	static String randomFasta (Random randy, String eol) {
+		StringBuffer sb = new StringBuffer ();
+		for (int recI = 0; recI < 20; recI++) {
+			sb.append (">rec" + recI);
+			if (randy.nextBoolean ())
+				sb.append ("  some description\tof " + recI);
+			sb.append (eol);
+			String dna = TwoBitSymbolListTest.randomDna (randy, randy
+					.nextInt (2000));
+			if (randy.nextBoolean ())
+				dna = dna.toUpperCase ();
+			int width = 1 + randy.nextInt (100);
+			for (int i = 0; i < dna.length ();) {
+				int len = Math.min (dna.length () - i, width);
+				// now and then a ragged line
+				if (randy.nextInt (20) == 0)
+					len = Math.min (dna.length () - i, 1 + randy.nextInt (150));
+				sb.append (dna.substring (i, i + len));
+				sb.append (eol);
+				if (randy.nextInt (50) == 0)
+					sb.append (eol);
+				i += len;
+			}
+		}
+		return sb.toString ();
+	}
+
+	/** checks the index gives the sequences biojava does */
+	void assertMatchesParse (FastaFormat format, FastaIndex index)
+			throws BioException {
+		assertMatchesParse (format, index, file);
+	}
+
+	static void assertMatchesParse (FastaFormat format, FastaIndex index,
+			File file) throws BioException {
+		assertNotNull (index);
+		List parsed = AnnotationCacheTest.readAll (format.readFile (file));
+		List indexed = AnnotationCacheTest.readAll (index.makeIterator (
+				format, file));
+		assertEquals (parsed.size (), indexed.size ());
+		Random randy = new Random (3);
+		for (int seqI = 0; seqI < parsed.size (); seqI++) {
+			Sequence p = (Sequence) parsed.get (seqI);
+			Sequence r = (Sequence) indexed.get (seqI);
+			assertEquals (p.getName (), r.getName ());
+			assertEquals (p.getURN (), r.getURN ());
+			assertEquals (p.getAnnotation ().asMap (), r.getAnnotation ()
+					.asMap ());
+			assertSame (p.getAlphabet (), r.getAlphabet ());
+			assertEquals (p.length (), r.length ());
+			assertEquals (p.seqString (), r.seqString ());
+			for (int trialI = 0; trialI < 20 && p.length () > 0; trialI++) {
+				int start = 1 + randy.nextInt (p.length ());
+				int end = start + randy.nextInt (p.length () - start + 1);
+				assertEquals (p.subStr (start, end), r.subStr (start, end));
+				assertSame (p.symbolAt (start), r.symbolAt (start));
+			}
+		}
+	}
+
+	public void testMatchesBiojava () throws Exception {
+		write (randomFasta (new Random (7), "\n"));
+		assertMatchesParse (new FastaFormat (), FastaIndex.open (file, true,
+				null));
+	}
+
+	public void testCrlf () throws Exception {
+		write (randomFasta (new Random (8), "\r\n"));
+		assertMatchesParse (new FastaFormat (), FastaIndex.open (file, true,
+				null));
+	}
+
+	public void testRaw () throws Exception {
+		write ("ACGTACGTAC\nGTACGTACGT\nACG\n\nTTTTTTTTTT\nGG");
+		assertMatchesParse (new RawFormat (), FastaIndex.open (file, false,
+				null));
+	}
+
+	public void testRestoredFromCache () throws Exception {
+		write (randomFasta (new Random (9), "\n"));
+		assertMatchesParse (new FastaFormat (), FastaIndex.open (file, true,
+				cache));
+		assertEquals (1, cache.getMisses ());
+		assertMatchesParse (new FastaFormat (), FastaIndex.open (file, true,
+				cache));
+		assertEquals (1, cache.getHits ());
+	}
+
+	public void testUnindexable () throws Exception {
+		write (">a\nACGT ACGT\n");
+		assertNull (FastaIndex.open (file, true, null));
+		write ("ACGT\n>a\nACGT\n");
+		assertNull (FastaIndex.open (file, true, null));
+		write (">\nACGT\n");
+		assertNull (FastaIndex.open (file, true, null));
+	}
+
+	public void testTestData () throws Exception {
+		File data = new File ("testdata/S_bayanus_small.fasta");
+		assertMatchesParse (new FastaFormat (), FastaIndex.open (data, true,
+				null), data);
+	}
+}
@@ -0,0 +1,91 @@
+package org.gel.mauve.format;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.BioException;
+import org.biojava.bio.seq.ComponentFeature;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.seq.impl.SimpleSequence;
+import org.biojava.bio.seq.io.SimpleAssemblyBuilder;
+import org.biojava.bio.symbol.RangeLocation;
+import org.biojava.bio.symbol.SymbolList;
+
+public class TwoBitSymbolListTest extends TestCase {
+	static final String IUPAC = "acgtacgtacgtrykmswbdhvn-";
+
+	/** returns random DNA with ambiguity codes and long runs of n */
+	static String randomDna (Random randy, int length) {
+		StringBuffer sb = new StringBuffer ();
+		while (sb.length () < length) {
+			if (randy.nextInt (100) == 0) {
+				for (int i = randy.nextInt (500); i > 0
+						&& sb.length () < length; i--)
+					sb.append ('n');
+			} else
+				sb.append (IUPAC.charAt (randy.nextInt (IUPAC.length ())));
+		}
+		return sb.toString ();
+	}
+
+	public void testMatchesBiojava () throws BioException {
+		Random randy = new Random (5);
+		String dna = randomDna (randy, 20000);
+		SymbolList expected = DNATools.createDNA (dna);
+		SymbolList packed = DelegatingSequence.packSymbols (expected);
+		assertTrue (packed instanceof TwoBitSymbolList);
+		assertEquals (expected.length (), packed.length ());
+		assertEquals (expected.seqString (), packed.seqString ());
+		for (int i = 1; i <= expected.length (); i++)
+			assertSame (expected.symbolAt (i), packed.symbolAt (i));
+		for (int trialI = 0; trialI < 500; trialI++) {
+			int start = 1 + randy.nextInt (dna.length ());
+			int end = start - 1 + randy.nextInt (dna.length () - start + 2);
+			assertEquals (expected.subStr (start, end), packed.subStr (start,
+					end));
+		}
+	}
+
+	public void testEmpty () {
+		TwoBitSymbolList packed = new TwoBitSymbolList (0);
+		packed.trim ();
+		assertEquals ("", packed.seqString ());
+	}
+
+	public void testExtractsFromAssembly () throws Exception {
+		Random randy = new Random (11);
+		SimpleAssemblyBuilder b = new SimpleAssemblyBuilder ();
+		ComponentFeature.Template cft = new ComponentFeature.Template ();
+		cft.type = "MauveAggregation";
+		cft.strand = StrandedFeature.POSITIVE;
+		int start = 1;
+		StringBuffer all = new StringBuffer ();
+		for (int contigI = 0; contigI < 5; contigI++) {
+			String dna = randomDna (randy, 500 + randy.nextInt (3000));
+			all.append (dna);
+			Sequence contig = new SimpleSequence (DNATools.createDNA (dna),
+					"contig" + contigI, "contig" + contigI, null);
+			cft.componentSequence = new DelegatingSequence (contig,
+					new MockFormat (contig), null, contigI);
+			cft.location = new RangeLocation (start, start + dna.length () - 1);
+			cft.componentLocation = new RangeLocation (1, dna.length ());
+			b.addComponentSequence (cft);
+			start += dna.length ();
+		}
+		Sequence assembly = b.makeSequence ();
+		for (int trialI = 0; trialI < 200; trialI++) {
+			int left = 1 + randy.nextInt (all.length ());
+			int right = left + randy.nextInt (all.length () - left + 1);
+			String expected = all.substring (left - 1, right);
+			assertEquals (expected, new String (SequenceExtractor.getChars (
+					assembly, left, right)));
+			assertEquals (DNATools.reverseComplement (
+					assembly.subList (left, right)).seqString (), new String (
+					SequenceExtractor.getReverseComplementChars (assembly,
+							left, right)));
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package org.gel.mauve.gui.navigation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.SimpleAnnotation;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.seq.impl.SimpleSequence;
+import org.biojava.bio.symbol.RangeLocation;
+import org.gel.mauve.Genome;
+import org.gel.mauve.SeqFeatureData;
+
+public class FeatureSearchTest extends TestCase {
+	Genome [] genomes;
+
+	String [][] criteria;
+
+	/** the features heard by genome, and whether the search finished */
+	Map heard = new HashMap ();
+
+	boolean finished;
+
+	boolean off_edt;
+
+	protected void setUp () throws Exception {
+		genomes = new Genome [5];
+		for (int genI = 0; genI < genomes.length; genI++) {
+			Sequence seq = new SimpleSequence (DNATools.createDNA (""), "s",
+					"s", null);
+			StrandedFeature.Template ft = new StrandedFeature.Template ();
+			ft.type = "CDS";
+			ft.source = "test";
+			ft.strand = StrandedFeature.POSITIVE;
+			for (int fI = 0; fI < 2000 * (genI + 1); fI++) {
+				ft.location = new RangeLocation (fI * 10 + 1, fI * 10 + 8);
+				ft.annotation = new SimpleAnnotation ();
+				ft.annotation.setProperty ("gene", "gene" + (fI % 7));
+				seq.createFeature (ft);
+			}
+			genomes[genI] = new Genome (seq.length (), null, genI);
+			genomes[genI].setAnnotationSequence (seq, null);
+		}
+		criteria = new String [][] { { "gene", "GENE3", "true" } };
+	}
+
+	FeatureSearch.Listener makeListener () {
+		return new FeatureSearch.Listener () {
+			public void featuresFound (Genome genome, List features) {
+				synchronized (FeatureSearchTest.this) {
+					off_edt |= !SwingUtilities.isEventDispatchThread ();
+					List list = (List) heard.get (genome);
+					if (list == null)
+						heard.put (genome, list = new ArrayList ());
+					list.addAll (features);
+				}
+			}
+
+			public void searchFinished () {
+				synchronized (FeatureSearchTest.this) {
+					off_edt |= !SwingUtilities.isEventDispatchThread ();
+					finished = true;
+					FeatureSearchTest.this.notifyAll ();
+				}
+			}
+		};
+	}
+
+	public void testMatchesSerialSearch () throws Exception {
+		FeatureSearch search = new FeatureSearch (genomes, criteria,
+				makeListener ());
+		synchronized (this) {
+			search.start ();
+			long stop = System.currentTimeMillis () + 60000;
+			while (!finished && System.currentTimeMillis () < stop)
+				wait (1000);
+			assertTrue (finished);
+			assertFalse (off_edt);
+			for (int genI = 0; genI < genomes.length; genI++) {
+				List expected = SeqFeatureData.findFeatures (genomes[genI],
+						criteria);
+				assertTrue (expected.size () > FeatureSearch.BATCH_SIZE);
+				assertEquals (expected, heard.get (genomes[genI]));
+			}
+		}
+	}
+
+	public void testNoGenomes () throws Exception {
+		FeatureSearch search = new FeatureSearch (new Genome [0], criteria,
+				makeListener ());
+		search.start ();
+		SwingUtilities.invokeAndWait (new Runnable () {
+			public void run () {
+			}
+		});
+		assertTrue (finished);
+	}
+
+	public void testCancelled () throws Exception {
+		final FeatureSearch search = new FeatureSearch (genomes, criteria,
+				makeListener ());
+		SwingUtilities.invokeAndWait (new Runnable () {
+			public void run () {
+				search.start ();
+				search.cancel ();
+			}
+		});
+		assertTrue (search.pool.awaitTermination (60, TimeUnit.SECONDS));
+		SwingUtilities.invokeAndWait (new Runnable () {
+			public void run () {
+			}
+		});
+		assertTrue (search.isCancelled ());
+		assertTrue (heard.isEmpty ());
+		assertFalse (finished);
+	}
+
+	/**
+	 * a genome's search stops between qualifier keys once the search is
+	 * cancelled
+	 */
+	public void testCancelledWithinGenome () throws Exception {
+		String [][] twice = new String [][] { criteria[0], criteria[0] };
+		final int [] checks = new int [1];
+		FeatureSearch search = new FeatureSearch (genomes, twice,
+				makeListener ()) {
+			public boolean isCancelled () {
+				// cancelled once the first key has been searched
+				return ++checks[0] > 1;
+			}
+		};
+		assertNull (SeqFeatureData.findFeatures (genomes[0], twice, search));
+		assertEquals (2, checks[0]);
+		assertEquals (SeqFeatureData.findFeatures (genomes[0], criteria),
+				SeqFeatureData.findFeatures (genomes[0], twice,
+						new FeatureSearch (genomes, twice, makeListener ())));
+	}
+}
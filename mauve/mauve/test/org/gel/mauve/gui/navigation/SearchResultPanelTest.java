@@ -0,0 +1,67 @@
+package org.gel.mauve.gui.navigation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.Annotation;
+import org.biojava.bio.seq.DNATools;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.seq.impl.SimpleSequence;
+import org.biojava.bio.symbol.RangeLocation;
+import org.gel.mauve.SeqFeatureData;
+
+public class SearchResultPanelTest extends TestCase {
+
+	/** returns features of a sequence starting at each of the given places */
+	static List features (int [] starts) throws Exception {
+		Sequence seq = new SimpleSequence (DNATools.createDNA (""), "s", "s",
+				null);
+		StrandedFeature.Template ft = new StrandedFeature.Template ();
+		ft.type = "CDS";
+		ft.source = "test";
+		ft.strand = StrandedFeature.POSITIVE;
+		ft.annotation = Annotation.EMPTY_ANNOTATION;
+		List features = new ArrayList ();
+		for (int fI = 0; fI < starts.length; fI++) {
+			ft.location = new RangeLocation (starts[fI], starts[fI] + 5);
+			features.add (seq.createFeature (ft));
+		}
+		return features;
+	}
+
+	public void testMergeKeepsLocationOrder () throws Exception {
+		Random randy = new Random (3);
+		int [] starts = new int [500];
+		for (int fI = 0; fI < starts.length; fI++)
+			starts[fI] = fI * 10 + 1;
+		List features = features (starts);
+		List shuffled = new ArrayList (features);
+		Collections.shuffle (shuffled, randy);
+
+		LinkedList merged = new LinkedList ();
+		for (Iterator iter = shuffled.iterator (); iter.hasNext ();) {
+			LinkedList batch = new LinkedList ();
+			int size = 1 + randy.nextInt (40);
+			while (batch.size () < size && iter.hasNext ())
+				batch.add (iter.next ());
+			Collections.sort (batch, SeqFeatureData.feature_comp);
+			SearchResultPanel.merge (merged, batch);
+		}
+		assertEquals (features, merged);
+	}
+
+	public void testMergeAppendsLaterBatch () throws Exception {
+		List features = features (new int [] { 1, 11, 21, 31 });
+		LinkedList merged = new LinkedList (features.subList (0, 2));
+		SearchResultPanel.merge (merged, new LinkedList (features.subList (2,
+				4)));
+		assertEquals (features, merged);
+	}
+}
@@ -0,0 +1,88 @@
+package org.gel.mauve.histogram;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.gel.mauve.Genome;
+
+public class ZoomHistogramTest extends TestCase {
+
+	static byte [] data (int length) {
+		Random randy = new Random (17);
+		byte [] data = new byte [length];
+		randy.nextBytes (data);
+		return data;
+	}
+
+	static ZoomHistogram build (HistogramStorage s, byte [] data) {
+		HistogramStorage old = ZoomHistogram.getStorage ();
+		ZoomHistogram.setStorage (s);
+		try {
+			ZoomHistogram zh = new ZoomHistogram (new Genome (data.length, null,
+					0));
+			zh.setGenomeLevelData (data);
+			return zh;
+		} finally {
+			ZoomHistogram.setStorage (old);
+		}
+	}
+
+	static void assertSameRanges (ZoomHistogram expected, ZoomHistogram actual) {
+		Random randy = new Random (3);
+		for (int trialI = 0; trialI < 500; trialI++) {
+			long left = randy.nextInt ((int) expected.seq_length);
+			long right = left + randy.nextInt (200000);
+			for (int type = -1; type <= 1; type++)
+				assertEquals (expected.getValueForRange (left, right, type),
+						actual.getValueForRange (left, right, type));
+		}
+	}
+
+	public void testMappedMatchesHeap () throws IOException {
+		byte [] data = data (300000);
+		MappedHistogramStorage mapped = MappedHistogramStorage.createTemp (null);
+		ZoomHistogram heap_zh = build (HistogramStorage.HEAP, data);
+		ZoomHistogram mapped_zh = build (mapped, data);
+		// a second histogram in the same file must not disturb the first
+		ZoomHistogram other = build (mapped, data (12345));
+		assertTrue (mapped_zh.sim_index instanceof MappedHistogramStorage.MappedStore);
+		assertTrue (mapped_zh.sameValues (heap_zh));
+		assertSameRanges (heap_zh, mapped_zh);
+		assertTrue (mapped.getAllocated () >= mapped_zh.sim_index.size ()
+				+ other.sim_index.size ());
+		assertEquals (other.sim_index.get (0), build (HistogramStorage.HEAP,
+				data (12345)).sim_index.get (0));
+		mapped.close ();
+	}
+
+	public void testSerializesAcrossStorage () throws Exception {
+		byte [] data = data (100000);
+		ZoomHistogram heap_zh = build (HistogramStorage.HEAP, data);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+		ObjectOutputStream out = new ObjectOutputStream (bytes);
+		out.writeObject (heap_zh);
+		out.close ();
+
+		MappedHistogramStorage mapped = MappedHistogramStorage.createTemp (null);
+		HistogramStorage old = ZoomHistogram.getStorage ();
+		ZoomHistogram.setStorage (mapped);
+		ZoomHistogram read;
+		try {
+			ObjectInputStream in = new ObjectInputStream (
+					new ByteArrayInputStream (bytes.toByteArray ()));
+			read = (ZoomHistogram) in.readObject ();
+		} finally {
+			ZoomHistogram.setStorage (old);
+		}
+		assertTrue (read.sim_index instanceof MappedHistogramStorage.MappedStore);
+		assertTrue (read.sameValues (heap_zh));
+		assertSameRanges (heap_zh, read);
+		mapped.close ();
+	}
+}
@@ -0,0 +1,45 @@
+package org.gel.mauve.tree;
+
+import junit.framework.TestCase;
+
+public class ColumnIndexCacheTest extends TestCase {
+
+	ColumnIndex row (int runs) {
+		long [] col_start = new long [runs + 1];
+		long [] seq_start = new long [runs + 1];
+		long [] file_offset = new long [runs];
+		for (int runI = 0; runI < runs; runI++) {
+			col_start[runI + 1] = col_start[runI] + 10;
+			seq_start[runI + 1] = seq_start[runI] + 10;
+			file_offset[runI] = runI * 11;
+		}
+		return new ColumnIndex (col_start, seq_start, file_offset);
+	}
+
+	public void testEvictsLeastRecentlyUsed () {
+		ColumnIndex ci = row (10);
+		ColumnIndexCache cache = new ColumnIndexCache (ci.memorySize () * 3);
+		cache.put (0, 0, ci);
+		cache.put (0, 1, row (10));
+		cache.put (1, 0, row (10));
+		assertEquals (3, cache.size ());
+
+		// touch the oldest row so the second becomes least recently used
+		assertSame (ci, cache.get (0, 0));
+		cache.put (1, 1, row (10));
+		assertEquals (3, cache.size ());
+		assertNull (cache.get (0, 1));
+		assertNotNull (cache.get (0, 0));
+		assertEquals (1, cache.getEvictions ());
+		assertTrue (cache.getBytes () <= cache.getMaxBytes ());
+	}
+
+	public void testKeepsNewestRow () {
+		ColumnIndexCache cache = new ColumnIndexCache (1);
+		cache.put (0, 0, row (5));
+		cache.put (0, 1, row (5));
+		assertEquals (1, cache.size ());
+		assertNotNull (cache.get (0, 1));
+		assertNull (cache.get (0, 0));
+	}
+}
@@ -0,0 +1,86 @@
+package org.gel.mauve.tree;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ColumnIndexTest extends TestCase {
+
+	/** builds a row of alternating sequence and gap runs with random lengths */
+	GISTree randomTree (Random randy, int runs) {
+		GISTree gist = new GISTree (new TreeStore ());
+		long seq_offset = 0;
+		long file_offset = 100;
+		for (int runI = 0; runI < runs; runI++) {
+			int len = 1 + randy.nextInt (200);
+			if ((runI % 2 == 0) == randy.nextBoolean ()) {
+				gist.insert (new GapKey (len), GISTree.end);
+			} else {
+				FileKey fk = new FileKey (seq_offset, file_offset);
+				for (int i = 0; i < len; i++)
+					fk.incrementLength ();
+				gist.insert (fk, GISTree.end);
+				seq_offset += len;
+			}
+			file_offset += len + 1;
+		}
+		return gist;
+	}
+
+	public void testMatchesGISTree () {
+		Random randy = new Random (42);
+		for (int treeI = 0; treeI < 20; treeI++) {
+			GISTree gist = randomTree (randy, 1 + randy.nextInt (100));
+			ColumnIndex ci = ColumnIndex.freeze (gist);
+			assertEquals (gist.length (), ci.length ());
+			assertEquals (gist.sequenceLength (), ci.sequenceLength ());
+			for (int queryI = 0; queryI < 500; queryI++) {
+				long col = randy.nextInt ((int) gist.length () + 10);
+				assertEquals (gist.columnToSeqPos (col), ci.columnToSeqPos (col));
+				long seq = randy.nextInt ((int) gist.sequenceLength () + 10);
+				assertEquals (gist.seqPosToColumn (seq), ci.seqPosToColumn (seq));
+
+				int run = ci.find (col);
+				int node = gist.find (col);
+				assertEquals (gist.getStart (node), ci.getStart (run));
+				assertEquals (gist.getKey (node) instanceof GapKey, ci.isGap (run));
+				if (!ci.isGap (run))
+					assertEquals (((FileKey) gist.getKey (node)).getOffset (), ci
+							.getOffset (run));
+			}
+		}
+	}
+
+	public void testHintedSearch () {
+		Random randy = new Random (17);
+		for (int treeI = 0; treeI < 20; treeI++) {
+			ColumnIndex ci = ColumnIndex.freeze (randomTree (randy, 1 + randy
+					.nextInt (100)));
+			int col_hint = 0;
+			int seq_hint = 0;
+			for (int queryI = 0; queryI < 500; queryI++) {
+				long col = randy.nextInt ((int) ci.length () + 10) - 5;
+				col_hint = randy.nextInt (4) == 0 ? randy.nextInt (ci.runCount ())
+						: col_hint;
+				int run = ci.find (col, col_hint);
+				assertEquals (ci.find (col), run);
+				col_hint = run;
+				long seq = randy.nextInt ((int) ci.sequenceLength () + 10) - 5;
+				run = ci.findSeqIndex (seq, seq_hint);
+				assertEquals (ci.findSeqIndex (seq), run);
+				seq_hint = run;
+			}
+		}
+	}
+
+	public void testEmptyTailGap () {
+		GISTree gist = new GISTree (new TreeStore ());
+		gist.insert (new GapKey (50), 0);
+		ColumnIndex ci = ColumnIndex.freeze (gist);
+		assertEquals (1, ci.runCount ());
+		assertEquals (50, ci.length ());
+		assertEquals (0, ci.sequenceLength ());
+		assertTrue (ci.isGap (ci.find (75)));
+		assertEquals (0, ci.columnToSeqPos (25));
+	}
+}
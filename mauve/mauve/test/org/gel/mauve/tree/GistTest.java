@@ -52,22 +52,16 @@ public class GistTest extends TestCase {
 				}
 			}
 			if( fk != null ){
-				// write out the sequence
-			    // TODO: What if FLength is too long?
-				byte[] raw_buf = new byte[ (int)fk.getFLength() ];
+				// write out the sequence, reading until the key's length
+				// in sequence characters has been seen
+				char[] seq_buf = new char[ (int)fk.getLength() ];
 				xmfa_file.seek( fk.getOffset() );
-				xmfa_file.read( raw_buf, 0, (int)fk.getFLength() );
 				int seqI = 0;
-				// count the seq length minus newlines
-				for( int rawI = 0; rawI < raw_buf.length; rawI++ )
-					if( raw_buf[ rawI ] != '\r' && raw_buf[ rawI ] != '\n' )
-						seqI++;
-				// extract the sequence without newlines
-				char[] seq_buf = new char[ seqI ];
-				seqI = 0;
-				for( int rawI = 0; rawI < raw_buf.length; rawI++ )
-					if( raw_buf[ rawI ] != '\r' && raw_buf[ rawI ] != '\n' )
-						seq_buf[ seqI++ ] = (char)raw_buf[ rawI ];
+				while( seqI < seq_buf.length ){
+					int c = xmfa_file.read();
+					if( c != '\r' && c != '\n' )
+						seq_buf[ seqI++ ] = (char)c;
+				}
 				// write the sequence without newlines
 				out_writer.write( seq_buf );
 			}
@@ -79,8 +73,8 @@ public class GistTest extends TestCase {
 				out_writer.write( gap_buf );
 			}
 
-	        Object iterNext = gis_tree[0][0].increment(iter);
-			if(iterNext == null)
+	        iter = gis_tree[0][0].increment(iter);
+			if(iter == TreeStore.NULL_REF)
 				break;
 		}
 		out_writer.flush();
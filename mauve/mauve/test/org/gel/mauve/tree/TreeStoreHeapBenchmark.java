@@ -0,0 +1,76 @@
+package org.gel.mauve.tree;
+
+import java.util.Random;
+
+/**
+ * Measures the heap taken by the GISTrees of a synthetic, highly gapped
+ * alignment. Each row alternates between sequence and gap runs, the way rows
+ * of a many-genome progressive alignment do, so the tree store holds one key
+ * per run.
+ * <p>
+ * Usage: TreeStoreHeapBenchmark [genomes] [intervals] [runs per row]
+ * <p>
+ * The defaults describe a 50 genome alignment with 200 intervals.
+ */
+public class TreeStoreHeapBenchmark {
+
+	public static void main (String [] args) {
+		int genomes = args.length > 0 ? Integer.parseInt (args[0]) : 50;
+		int intervals = args.length > 1 ? Integer.parseInt (args[1]) : 200;
+		int runs = args.length > 2 ? Integer.parseInt (args[2]) : 200;
+
+		long before = usedHeap ();
+		long start_time = System.currentTimeMillis ();
+		TreeStore ts = new TreeStore ();
+		GISTree [][] gis_tree = new GISTree [intervals] [genomes];
+		Random randy = new Random (50);
+		long file_offset = 0;
+		for (int ivI = 0; ivI < intervals; ivI++) {
+			for (int seqI = 0; seqI < genomes; seqI++) {
+				GISTree gist = new GISTree (ts);
+				long seq_offset = 0;
+				for (int runI = 0; runI < runs; runI++) {
+					int len = 1 + randy.nextInt (40);
+					if (runI % 2 == 1) {
+						gist.insert (new GapKey (len), GISTree.end);
+					} else {
+						FileKey fk = new FileKey (seq_offset, file_offset);
+						for (int i = 0; i < len; i++)
+							fk.incrementLength ();
+						gist.insert (fk, GISTree.end);
+						seq_offset += len;
+					}
+					file_offset += len + len / 80;
+				}
+				gis_tree[ivI][seqI] = gist;
+			}
+		}
+		ts.pruneArrays ();
+		long build_time = System.currentTimeMillis () - start_time;
+		long after = usedHeap ();
+
+		long nodes = (long) genomes * intervals * runs;
+		System.out.println ("genomes: " + genomes + " intervals: " + intervals
+				+ " runs per row: " + runs);
+		System.out.println ("tree nodes: " + nodes);
+		System.out.println ("build time: " + build_time + " ms");
+		System.out.println ("heap used by trees: " + (after - before) / 1024
+				+ " KB (" + (after - before) / nodes + " bytes per node)");
+
+		// keep the trees reachable until they have been measured
+		if (gis_tree[0][0].length () < 0)
+			System.out.println (gis_tree.length);
+	}
+
+	private static long usedHeap () {
+		Runtime rt = Runtime.getRuntime ();
+		for (int gcI = 0; gcI < 4; gcI++) {
+			System.gc ();
+			try {
+				Thread.sleep (100);
+			} catch (InterruptedException ie) {
+			}
+		}
+		return rt.totalMemory () - rt.freeMemory ();
+	}
+}